@@ -0,0 +1,109 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import edu.cmu.cs.cs15745.increpta.util.MultiMap;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+
+/**
+ * May-alias queries on an incrementally-updating points-to graph, with caching.
+ *
+ * Every member of an SCC has the same points-to set, so results are cached by
+ * the representatives of the two SCCs. After editing the graph, pass the nodes
+ * returned by addEdge/deleteEdge to {@link #invalidate}.
+ */
+public final class AliasQueries<Node, HeapItem> {
+  private final IncrementalPointsTo<Node, HeapItem>.Graph graph;
+  private final Map<Pair<Node, Node>, Boolean> cache = new LinkedHashMap<>();
+  private final MultiMap<Node, Node> cachedWith = new MultiMap<>(); // Both directions
+
+  private int hits = 0;
+  private int misses = 0;
+
+  public AliasQueries(IncrementalPointsTo<Node, HeapItem>.Graph graph) {
+    this.graph = Objects.requireNonNull(graph);
+  }
+
+  /**
+   * Whether the points-to sets of x and y intersect.
+   */
+  public boolean mayAlias(Node x, Node y) {
+    var repX = graph.representative(x);
+    var repY = graph.representative(y);
+    if (repX.equals(repY)) {
+      return !graph.pointsTo(repX).isEmpty();
+    }
+    var key = Pair.of(repX, repY);
+    var cached = cache.get(key);
+    if (cached != null) {
+      hits++;
+      return cached;
+    }
+    misses++;
+    boolean result = intersects(graph.pointsTo(repX), graph.pointsTo(repY));
+    cache.put(key, result);
+    cache.put(Pair.of(repY, repX), result);
+    cachedWith.getSet(repX).add(repY);
+    cachedWith.getSet(repY).add(repX);
+    return result;
+  }
+
+  /**
+   * Drop the cached results involving the nodes (and the other members of their
+   * SCCs), whose points-to sets have changed.
+   */
+  public void invalidate(Set<Node> affected) {
+    for (var node : affected) {
+      // Results are cached under the representative at the time, which may
+      // since have been merged into this SCC.
+      for (var member : graph.members(node)) {
+        forget(member);
+      }
+    }
+  }
+
+  /** Drop every cached result. */
+  public void clear() {
+    cache.clear();
+    cachedWith.clear();
+  }
+
+  public int hits() {
+    return hits;
+  }
+
+  public int misses() {
+    return misses;
+  }
+
+  private void forget(Node node) {
+    var others = cachedWith.remove(node);
+    if (others == null) {
+      return;
+    }
+    for (var other : others) {
+      cache.remove(Pair.of(node, other));
+      cache.remove(Pair.of(other, node));
+      var set = cachedWith.get(other);
+      if (set != null) {
+        set.remove(node);
+      }
+    }
+  }
+
+  // Iterate over the smaller set, stopping at the first common element.
+  private static <T> boolean intersects(Set<T> a, Set<T> b) {
+    if (a.size() > b.size()) {
+      return intersects(b, a);
+    }
+    for (var item : a) {
+      if (b.contains(item)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
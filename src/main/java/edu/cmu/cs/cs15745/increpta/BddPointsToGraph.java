@@ -0,0 +1,382 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import edu.cmu.cs.cs15745.increpta.util.Bdd;
+import edu.cmu.cs.cs15745.increpta.util.Indexer;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+
+/**
+ * Points-to graph that keeps its edges and points-to sets as relations encoded
+ * in BDDs, rather than as explicit sets. Like {@link SimplePointsToGraph}, it is
+ * not "smart": {@link IncrementalPointsTo} does the propagation.
+ *
+ * Nodes are (node, context) pairs and heap items are (allocation, context)
+ * pairs, and each component is a separate BDD domain, so the many copies of a
+ * method's nodes under different contexts can share structure. The edge
+ * relation is over (source node, source context, target node, target context)
+ * and the points-to relation over (node, context, heap item, heap context).
+ * The bits of all of the domains are interleaved, most significant first.
+ *
+ * Nodes of the BDD are only collected at the start of an update, and clones
+ * share the node table, so a graph and its clones must be used from one thread.
+ * Each graph keeps its relations alive until it's {@link #release}d, so a
+ * clone that's no longer needed should be released, or the nodes only it uses
+ * stay in the shared table for as long as any graph sharing it is alive.
+ *
+ * @param <N> The node type.
+ * @param <C> The context type.
+ * @param <H> The heap item type.
+ */
+public class BddPointsToGraph<N, C, H> implements PointsToGraph<Pair<N, C>, Pair<H, C>> {
+  private static final int NODE = 0;
+  private static final int CONTEXT = 1;
+  private static final int TARGET_NODE = 2;
+  private static final int TARGET_CONTEXT = 3;
+  private static final int HEAP = 4;
+  private static final int HEAP_CONTEXT = 5;
+  private static final int DOMAINS = 6;
+
+  /** Bits per domain, so up to 2^20 distinct values of each component. */
+  private static final int BITS = 20;
+
+  private final Bdd bdd;
+  private final Bdd.Levels nodeLevels;
+  private final Bdd.Levels targetLevels;
+  private final Bdd.Levels heapLevels;
+  private final Indexer<N> nodeIds;
+  private final Indexer<C> contextIds;
+  private final Indexer<H> heapIds;
+
+  // The relations, each of which is referenced in the BDD.
+  private int nodes; // (node, context)
+  private int edges; // (node, context, target node, target context)
+  private int pointsTo; // (node, context, heap, heap context)
+
+  // Disallow outside instantiation
+  BddPointsToGraph() {
+    this(new Bdd(DOMAINS * BITS), new Indexer<>(), new Indexer<>(), new Indexer<>(), Bdd.FALSE, Bdd.FALSE,
+        Bdd.FALSE);
+  }
+
+  private BddPointsToGraph(Bdd bdd, Indexer<N> nodeIds, Indexer<C> contextIds, Indexer<H> heapIds, int nodes,
+      int edges, int pointsTo) {
+    this.bdd = bdd;
+    this.nodeLevels = bdd.levels(levels(NODE, CONTEXT));
+    this.targetLevels = bdd.levels(levels(TARGET_NODE, TARGET_CONTEXT));
+    this.heapLevels = bdd.levels(levels(HEAP, HEAP_CONTEXT));
+    this.nodeIds = nodeIds;
+    this.contextIds = contextIds;
+    this.heapIds = heapIds;
+    this.nodes = bdd.ref(nodes);
+    this.edges = bdd.ref(edges);
+    this.pointsTo = bdd.ref(pointsTo);
+  }
+
+  private static int level(int domain, int bit) {
+    return bit * DOMAINS + domain;
+  }
+
+  private static int[] levels(int... domains) {
+    var result = new int[domains.length * BITS];
+    int n = 0;
+    for (int bit = 0; bit < BITS; bit++) {
+      for (int domain : domains) {
+        result[n++] = level(domain, bit);
+      }
+    }
+    return result;
+  }
+
+  // An assignment that doesn't fix any level yet.
+  private int[] assignment() {
+    var values = new int[bdd.vars()];
+    Arrays.fill(values, -1);
+    return values;
+  }
+
+  private static void encode(int[] values, int domain, int id) {
+    if (id >= 1 << BITS) {
+      throw new IllegalStateException("Too many distinct values for a BDD domain: " + id);
+    }
+    for (int bit = 0; bit < BITS; bit++) {
+      values[level(domain, bit)] = id >>> (BITS - 1 - bit) & 1;
+    }
+  }
+
+  private static int decode(int[] values, int domain) {
+    int id = 0;
+    for (int bit = 0; bit < BITS; bit++) {
+      id = id << 1 | values[level(domain, bit)];
+    }
+    return id;
+  }
+
+  private void encodeNode(int[] values, Pair<N, C> node, int domain, int contextDomain) {
+    encode(values, domain, nodeIds.id(node.fst()));
+    encode(values, contextDomain, contextIds.id(node.snd()));
+  }
+
+  // Add the heap item to the assignment, unless it isn't known to the graph.
+  private boolean encodeHeapItem(int[] values, Object o) {
+    if (!(o instanceof Pair<?, ?>)) {
+      return false;
+    }
+    int heap = heapIds.find(((Pair<?, ?>) o).fst());
+    int context = contextIds.find(((Pair<?, ?>) o).snd());
+    if (heap < 0 || context < 0) {
+      return false;
+    }
+    encode(values, HEAP, heap);
+    encode(values, HEAP_CONTEXT, context);
+    return true;
+  }
+
+  private Pair<N, C> decodeNode(int[] values, int domain, int contextDomain) {
+    return Pair.of(nodeIds.get(decode(values, domain)), contextIds.get(decode(values, contextDomain)));
+  }
+
+  // Replace a referenced relation with a new one.
+  private int replace(int old, int result) {
+    bdd.ref(result);
+    bdd.deref(old);
+    return result;
+  }
+
+  /**
+   * Add directed edge from "from" to "to".
+   */
+  @Override
+  public Set<Pair<N, C>> addEdge(Pair<N, C> from, Pair<N, C> to) {
+    bdd.maybeGc();
+    var values = assignment();
+    encodeNode(values, from, NODE, CONTEXT);
+    encodeNode(values, to, TARGET_NODE, TARGET_CONTEXT);
+    if (bdd.eval(edges, values)) {
+      return Set.of();
+    }
+    edges = replace(edges, bdd.or(edges, bdd.cube(values)));
+    var node = assignment();
+    encodeNode(node, from, NODE, CONTEXT);
+    nodes = replace(nodes, bdd.or(nodes, bdd.cube(node)));
+    encodeNode(node, to, NODE, CONTEXT);
+    nodes = replace(nodes, bdd.or(nodes, bdd.cube(node)));
+    return Set.of(to);
+  }
+
+  @Override
+  public Set<Pair<N, C>> deleteEdge(Pair<N, C> from, Pair<N, C> to) {
+    bdd.maybeGc();
+    var values = assignment();
+    encodeNode(values, from, NODE, CONTEXT);
+    encodeNode(values, to, TARGET_NODE, TARGET_CONTEXT);
+    if (!bdd.eval(edges, values)) {
+      return Set.of();
+    }
+    edges = replace(edges, bdd.diff(edges, bdd.cube(values)));
+    return Set.of(to);
+  }
+
+  /** Returns an unmodifiable snapshot. */
+  @Override
+  public Set<Pair<N, C>> nodes() {
+    var result = new LinkedHashSet<Pair<N, C>>();
+    bdd.forEachSat(nodes, nodeLevels, values -> result.add(decodeNode(values, NODE, CONTEXT)));
+    return Collections.unmodifiableSet(result);
+  }
+
+  /** Returns an unmodifiable snapshot. */
+  @Override
+  public Set<Pair<N, C>> edges(Pair<N, C> from) {
+    var values = assignment();
+    encodeNode(values, from, NODE, CONTEXT);
+    var targets = bdd.restrict(edges, values);
+    var result = new LinkedHashSet<Pair<N, C>>();
+    bdd.forEachSat(targets, targetLevels, target -> result.add(decodeNode(target, TARGET_NODE, TARGET_CONTEXT)));
+    return Collections.unmodifiableSet(result);
+  }
+
+  /**
+   * Returns a live view of the points-to set of the node. Bulk operations on it
+   * are done on the BDD as a whole.
+   */
+  @Override
+  public Set<Pair<H, C>> pointsTo(Pair<N, C> key) {
+    var values = assignment();
+    encodeNode(values, key, NODE, CONTEXT);
+    return new PointsToSet(values);
+  }
+
+  /** The number of live nodes in the BDD, shared with clones. */
+  public int bddSize() {
+    return bdd.size();
+  }
+
+  /**
+   * Drop this graph's references to its relations, so that the nodes only it
+   * used are collected along with the rest of the garbage. Afterwards the
+   * graph is empty, and shouldn't be used.
+   */
+  public void release() {
+    bdd.deref(nodes);
+    bdd.deref(edges);
+    bdd.deref(pointsTo);
+    nodes = Bdd.FALSE;
+    edges = Bdd.FALSE;
+    pointsTo = Bdd.FALSE;
+  }
+
+  /** For testing only */
+  void gc() {
+    bdd.gc();
+  }
+
+  private final class PointsToSet extends AbstractSet<Pair<H, C>> {
+    private final int[] key; // The assignment of the node
+
+    PointsToSet(int[] key) {
+      this.key = key;
+    }
+
+    // The heap items as a relation over the heap domains.
+    private int items() {
+      return bdd.restrict(pointsTo, key);
+    }
+
+    private int[] with(Object item) {
+      var values = key.clone();
+      return encodeHeapItem(values, item) ? values : null;
+    }
+
+    // The heap items in the collection, as a relation over the heap domains.
+    private int encodeAll(Collection<?> items) {
+      int result = Bdd.FALSE;
+      var values = assignment();
+      for (var item : items) {
+        if (encodeHeapItem(values, item)) {
+          result = bdd.or(result, bdd.cube(values));
+        }
+      }
+      return result;
+    }
+
+    private boolean update(int result) {
+      if (result == pointsTo) {
+        return false;
+      }
+      pointsTo = replace(pointsTo, result);
+      return true;
+    }
+
+    @Override
+    public int size() {
+      return (int) bdd.satCount(items(), heapLevels);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      var values = with(o);
+      return values != null && bdd.eval(pointsTo, values);
+    }
+
+    @Override
+    public boolean add(Pair<H, C> item) {
+      bdd.maybeGc();
+      var values = key.clone();
+      encode(values, HEAP, heapIds.id(item.fst()));
+      encode(values, HEAP_CONTEXT, contextIds.id(item.snd()));
+      return update(bdd.or(pointsTo, bdd.cube(values)));
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      bdd.maybeGc();
+      var values = with(o);
+      return values != null && update(bdd.diff(pointsTo, bdd.cube(values)));
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Pair<H, C>> items) {
+      bdd.maybeGc();
+      for (var item : items) {
+        heapIds.id(item.fst());
+        contextIds.id(item.snd());
+      }
+      return update(bdd.or(pointsTo, bdd.and(bdd.cube(key), encodeAll(items))));
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> items) {
+      bdd.maybeGc();
+      return update(bdd.diff(pointsTo, bdd.and(bdd.cube(key), encodeAll(items))));
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> items) {
+      bdd.maybeGc();
+      int node = bdd.cube(key);
+      return update(bdd.diff(pointsTo, bdd.diff(node, encodeAll(items))));
+    }
+
+    @Override
+    public void clear() {
+      bdd.maybeGc();
+      update(bdd.diff(pointsTo, bdd.cube(key)));
+    }
+
+    @Override
+    public Iterator<Pair<H, C>> iterator() {
+      List<Pair<H, C>> items = new ArrayList<>();
+      bdd.forEachSat(items(), heapLevels, values -> items.add(
+          Pair.of(heapIds.get(decode(values, HEAP)), contextIds.get(decode(values, HEAP_CONTEXT)))));
+      var it = items.iterator();
+      return new Iterator<>() {
+        private Pair<H, C> last = null;
+
+        @Override
+        public boolean hasNext() {
+          return it.hasNext();
+        }
+
+        @Override
+        public Pair<H, C> next() {
+          last = it.next();
+          return last;
+        }
+
+        @Override
+        public void remove() {
+          if (last == null) {
+            throw new IllegalStateException();
+          }
+          PointsToSet.this.remove(last);
+          last = null;
+        }
+      };
+    }
+  }
+
+  /**
+   * Clone, sharing the BDD. Don't care about Cloneable.
+   */
+  @Override
+  public BddPointsToGraph<N, C, H> clone() {
+    return new BddPointsToGraph<>(bdd, new Indexer<>(nodeIds), new Indexer<>(contextIds), new Indexer<>(heapIds),
+        nodes, edges, pointsTo);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("BDD graph: %d nodes, %d edges, %d points-to pairs", bdd.satCount(nodes, nodeLevels),
+        bdd.satCount(edges, bdd.levels(levels(NODE, CONTEXT, TARGET_NODE, TARGET_CONTEXT))),
+        bdd.satCount(pointsTo, bdd.levels(levels(NODE, CONTEXT, HEAP, HEAP_CONTEXT))));
+  }
+}
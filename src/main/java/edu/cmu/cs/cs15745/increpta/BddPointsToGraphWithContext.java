@@ -0,0 +1,13 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext.Node;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+
+/**
+ * BDD-backed points-to graph with the node and heap item types of
+ * {@link SimplePointsToGraphWithContext}, so the two can be swapped.
+ *
+ * @param <C>
+ */
+public class BddPointsToGraphWithContext<C> extends BddPointsToGraph<Node, C, Ast.Instruction.Allocation> {
+}
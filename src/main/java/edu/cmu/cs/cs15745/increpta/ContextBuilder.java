@@ -9,4 +9,13 @@ public interface ContextBuilder<C> {
 
   /** The new context, based on the old context and the callsite. */
   C merge(C originalContext, Ast.Function call);
+
+  /**
+   * A context that distinguishes less than the given one, used to shrink the
+   * graph when it grows past its budget. Coarsening repeatedly must eventually
+   * return the context unchanged. By default, contexts can't be coarsened.
+   */
+  default C coarsen(C context) {
+    return context;
+  }
 }
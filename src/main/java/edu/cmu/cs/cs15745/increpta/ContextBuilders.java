@@ -1,7 +1,10 @@
 package edu.cmu.cs.cs15745.increpta;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.cmu.cs.cs15745.increpta.ast.Ast.Function;
 import edu.cmu.cs.cs15745.increpta.ast.Ast.Variable;
@@ -29,22 +32,38 @@ public final class ContextBuilders {
 
   // Give me a finite calling context, capped at n:
   public static ContextBuilder<List<Variable>> nCallContext(int n) {
+    // Equal call strings are shared, so that comparing contexts is usually
+    // just comparing references.
+    Map<CallString, CallString> interned = new ConcurrentHashMap<>();
     return new ContextBuilder<>() {
       @Override
       public List<Variable> initial(Function entryPoint) {
-        List<Variable> result = new ArrayList<>();
-        result.add(entryPoint.name());
-        return result;
+        return intern(new Variable[] { entryPoint.name() });
       }
 
       @Override
       public List<Variable> merge(List<Variable> originalContext, Function call) {
-        List<Variable> result = new ArrayList<>(originalContext);
-        if (result.size() >= n) {
-          result.remove(0);
+        int keep = Math.max(0, Math.min(originalContext.size(), n - 1));
+        var calls = new Variable[keep + 1];
+        for (int i = 0; i < keep; i++) {
+          calls[i] = originalContext.get(originalContext.size() - keep + i);
         }
-        result.add(call.name());
-        return result;
+        calls[keep] = call.name();
+        return intern(calls);
+      }
+
+      // Drop the oldest call, down to the empty call string.
+      @Override
+      public List<Variable> coarsen(List<Variable> context) {
+        if (context.isEmpty()) {
+          return context;
+        }
+        return intern(context.subList(1, context.size()).toArray(new Variable[0]));
+      }
+
+      private CallString intern(Variable[] calls) {
+        var result = new CallString(calls);
+        return interned.computeIfAbsent(result, unused -> result);
       }
 
       @Override
@@ -53,4 +72,39 @@ public final class ContextBuilders {
       }
     };
   }
+
+  // An immutable call string, with its hash code computed up front.
+  private static final class CallString extends AbstractList<Variable> {
+    private final Variable[] calls;
+    private final int hash;
+
+    CallString(Variable[] calls) {
+      this.calls = calls;
+      this.hash = Arrays.hashCode(calls); // Same as List.hashCode
+    }
+
+    @Override
+    public Variable get(int index) {
+      return calls[index];
+    }
+
+    @Override
+    public int size() {
+      return calls.length;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o instanceof CallString) {
+        var other = (CallString) o;
+        return this == other || hash == other.hash && Arrays.equals(calls, other.calls);
+      }
+      return super.equals(o);
+    }
+  }
 }
@@ -0,0 +1,467 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.FieldSensitivity;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction.Allocation;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction.Assignment;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction.FieldRead;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction.FieldWrite;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction.Invocation;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction.StaticInvocation;
+import edu.cmu.cs.cs15745.increpta.util.MultiMap;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+import edu.cmu.cs.cs15745.increpta.util.Util.Unit;
+
+/**
+ * Answers points-to queries on demand, without building the points-to graph of
+ * the whole program.
+ *
+ * A query walks backwards from the variable through the instructions that can
+ * flow into it (assignments, loads, returns of the functions a call resolves
+ * to, arguments of the calls to a function) and propagates the allocations it
+ * finds forwards along the edges it discovered. Virtual calls are resolved
+ * against the (demanded) points-to set of their receiver. Everything explored
+ * is kept, so later queries only explore what hasn't been explored yet.
+ *
+ * The walk is context-insensitive, models fields per variable, and considers
+ * every function of the Ast, not just the reachable ones: those loaded so far,
+ * and, for an Ast that loads functions on demand, each function as it's loaded
+ * (which also explores again whatever explored location it flows into). So
+ * its answer
+ * over-approximates that of a graph builder with no context and
+ * {@link FieldSensitivity#VARIABLE} fields, which is the only kind of builder
+ * it falls back to: if a query needs more than the budget of steps, it is
+ * answered from that exhaustive graph instead, which is built (once) on first
+ * use.
+ *
+ * The Ast must not be edited between queries without a call to
+ * {@link #invalidate}.
+ */
+public final class DemandPointsTo {
+  private final Ast ast;
+  private final int budget; // Steps per query
+  private final IncrementalPointsToGraphBuilder<Unit> builder;
+  private boolean built = false;
+
+  // Indexes over the Ast, built on the first query.
+  private MultiMap<Ast.Variable, Ast.Instruction> definitions = null;
+  private final MultiMap<Loc, FieldWrite> fieldWrites = new MultiMap<>();
+  private final Map<Ast.Variable, Pair<Ast.Function, Integer>> params = new LinkedHashMap<>();
+  private final MultiMap<Ast.Variable, StaticInvocation> staticCalls = new MultiMap<>();
+  private final MultiMap<Ast.Variable, Invocation> virtualCalls = new MultiMap<>();
+  private final MultiMap<Ast.Variable, Ast.Function> instanceMethods = new MultiMap<>(); // By name
+
+  // The explored part of the graph.
+  private final Map<Loc, Set<Allocation>> pointsTo = new LinkedHashMap<>();
+  private final MultiMap<Loc, Loc> edges = new MultiMap<>();
+  private final MultiMap<Loc, Watch> watches = new MultiMap<>();
+  private final Queue<Loc> toExplore = new ArrayDeque<>();
+  private final Queue<Delta> toPropagate = new ArrayDeque<>();
+
+  private int demandQueries = 0;
+  private int exhaustiveQueries = 0;
+
+  /**
+   * @param exhaustive An unbuilt builder for the same Ast, with no context and
+   *                   {@link FieldSensitivity#VARIABLE} fields, which is built
+   *                   and used if a query exceeds its budget.
+   */
+  public DemandPointsTo(Ast ast, int budget, IncrementalPointsToGraphBuilder<Unit> exhaustive) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("Budget must be positive: " + budget);
+    }
+    if (exhaustive.contextBuilder() != ContextBuilders.NO_CONTEXT
+        || exhaustive.fieldSensitivity() != FieldSensitivity.VARIABLE) {
+      throw new IllegalArgumentException(String.format("Demand queries can't answer for %s with %s fields",
+          exhaustive.contextBuilder(), exhaustive.fieldSensitivity()));
+    }
+    this.ast = Objects.requireNonNull(ast);
+    this.budget = budget;
+    this.builder = exhaustive;
+    ast.addLoadListener(this::loaded);
+  }
+
+  /**
+   * The allocations the variable may point to.
+   */
+  public Set<Allocation> pointsTo(Ast.Variable var) {
+    if (solve(new Loc(var, null))) {
+      demandQueries++;
+      return Set.copyOf(pointsTo.get(new Loc(var, null)));
+    }
+    exhaustiveQueries++;
+    if (!built) {
+      builder.build();
+      built = true;
+    }
+    return builder.pointsTo(var, Unit.UNIT).stream().map(Pair::fst).collect(Collectors.toSet());
+  }
+
+  /**
+   * Forget everything explored so far, e.g. after the Ast was edited. The
+   * exhaustive graph is kept, since it is kept up to date by its builder.
+   */
+  public void invalidate() {
+    definitions = null;
+    fieldWrites.clear();
+    params.clear();
+    staticCalls.clear();
+    virtualCalls.clear();
+    instanceMethods.clear();
+    pointsTo.clear();
+    edges.clear();
+    watches.clear();
+    toExplore.clear();
+    toPropagate.clear();
+  }
+
+  /** Number of queries answered on demand. */
+  public int demandQueries() {
+    return demandQueries;
+  }
+
+  /** Number of queries that exceeded the budget. */
+  public int exhaustiveQueries() {
+    return exhaustiveQueries;
+  }
+
+  // Explore until the points-to set of the location is complete, or we run out
+  // of budget. Whatever is left over is picked up by the next query.
+  private boolean solve(Loc loc) {
+    if (definitions == null) {
+      index();
+    }
+    demand(loc);
+    for (int steps = 0; steps < budget; steps++) {
+      if (!toPropagate.isEmpty()) {
+        var next = toPropagate.remove();
+        propagate(next.loc, next.items);
+      } else if (!toExplore.isEmpty()) {
+        explore(toExplore.remove());
+      } else {
+        return true;
+      }
+    }
+    return toPropagate.isEmpty() && toExplore.isEmpty();
+  }
+
+  private void index() {
+    definitions = new MultiMap<>();
+    var functions = new ArrayList<Ast.Function>(ast.staticFunctions().values());
+    functions.addAll(ast.instanceMethods().values());
+    for (var f : functions) {
+      index(f);
+    }
+  }
+
+  private void index(Ast.Function f) {
+    for (int i = 0; i < f.params().size(); i++) {
+      params.put(f.params().get(i), Pair.of(f, i));
+    }
+    if (f.staticness() == Ast.Function.Staticness.VIRTUAL) {
+      instanceMethods.getSet(f.name()).add(f);
+    }
+    for (var inst : f.body().instructions()) {
+      inst.accept(new Ast.Instruction.StatefulVisitor() {
+        @Override
+        public void iterAssignment(Assignment a) {
+          definitions.getSet(a.target()).add(a);
+        }
+
+        @Override
+        public void iterAllocation(Allocation a) {
+          definitions.getSet(a.target()).add(a);
+        }
+
+        @Override
+        public void iterFieldWrite(FieldWrite fw) {
+          fieldWrites.getSet(new Loc(fw.target(), fw.field())).add(fw);
+        }
+
+        @Override
+        public void iterFieldRead(FieldRead fr) {
+          definitions.getSet(fr.target()).add(fr);
+        }
+
+        @Override
+        public void iterStaticInvocation(StaticInvocation s) {
+          s.target().ifPresent(x -> definitions.getSet(x).add(s));
+          staticCalls.getSet(s.method()).add(s);
+        }
+
+        @Override
+        public void iterInvocation(Invocation inv) {
+          inv.target().ifPresent(x -> definitions.getSet(x).add(inv));
+          virtualCalls.getSet(inv.method()).add(inv);
+        }
+      }.visitor());
+    }
+  }
+
+  // The Ast loaded the function (possibly while we were exploring, or while the
+  // exhaustive graph was being built). Once the indexes exist, add it to them,
+  // and explore again the explored locations it adds flows into: the variables
+  // and fields it defines, and the parameters of the functions it calls.
+  private void loaded(Ast.Function f) {
+    if (definitions == null) {
+      return;
+    }
+    index(f);
+    for (var inst : f.body().instructions()) {
+      inst.accept(new Ast.Instruction.StatefulVisitor() {
+        @Override
+        public void iterAssignment(Assignment a) {
+          exploreAgain(new Loc(a.target(), null));
+        }
+
+        @Override
+        public void iterAllocation(Allocation a) {
+          exploreAgain(new Loc(a.target(), null));
+        }
+
+        @Override
+        public void iterFieldWrite(FieldWrite fw) {
+          exploreAgain(new Loc(fw.target(), fw.field()));
+        }
+
+        @Override
+        public void iterFieldRead(FieldRead fr) {
+          exploreAgain(new Loc(fr.target(), null));
+        }
+
+        @Override
+        public void iterStaticInvocation(StaticInvocation s) {
+          s.target().ifPresent(x -> exploreAgain(new Loc(x, null)));
+          // Only a callee that's already loaded can have explored parameters.
+          var callee = ast.staticFunctions().get(s.method());
+          if (callee != null) {
+            callee.params().forEach(p -> exploreAgain(new Loc(p, null)));
+          }
+        }
+
+        @Override
+        public void iterInvocation(Invocation inv) {
+          inv.target().ifPresent(x -> exploreAgain(new Loc(x, null)));
+          for (var callee : instanceMethods.getOrDefault(inv.method(), Set.of())) {
+            callee.params().forEach(p -> exploreAgain(new Loc(p, null)));
+          }
+        }
+      }.visitor());
+    }
+  }
+
+  // Exploring is idempotent, apart from repeating work.
+  private void exploreAgain(Loc loc) {
+    if (pointsTo.containsKey(loc)) {
+      toExplore.add(loc);
+    }
+  }
+
+  private void demand(Loc loc) {
+    if (!pointsTo.containsKey(loc)) {
+      pointsTo.put(loc, new LinkedHashSet<>());
+      toExplore.add(loc);
+    }
+  }
+
+  // Find what flows into loc.
+  private void explore(Loc loc) {
+    if (loc.field != null) {
+      for (var fw : fieldWrites.getOrDefault(loc, Set.of())) {
+        edge(new Loc(fw.source(), null), loc);
+      }
+      return;
+    }
+
+    // Copied, since looking up a callee may load and index another function.
+    for (var inst : List.copyOf(definitions.getOrDefault(loc.var, Set.of()))) {
+      inst.accept(new Ast.Instruction.StatefulVisitor() {
+        @Override
+        public void iterAssignment(Assignment a) {
+          edge(new Loc(a.source(), null), loc);
+        }
+
+        @Override
+        public void iterAllocation(Allocation a) {
+          toPropagate.add(new Delta(loc, Set.of(a)));
+        }
+
+        @Override
+        public void iterFieldRead(FieldRead fr) {
+          edge(new Loc(fr.source(), fr.field()), loc);
+        }
+
+        @Override
+        public void iterStaticInvocation(StaticInvocation s) {
+          ast.staticFunction(s.method()).ifPresent(f -> returns(f, loc));
+        }
+
+        @Override
+        public void iterInvocation(Invocation inv) {
+          watch(inv, new Watch(inv, loc, null, -1));
+        }
+      }.visitor());
+    }
+
+    var param = params.get(loc.var);
+    if (param != null) {
+      var f = param.fst();
+      int i = param.snd();
+      if (f.staticness() == Ast.Function.Staticness.STATIC) {
+        for (var s : List.copyOf(staticCalls.getOrDefault(f.name(), Set.of()))) {
+          if (i < s.arguments().size() && ast.staticFunction(s.method()).orElse(null) == f) {
+            edge(new Loc(s.arguments().get(i), null), loc);
+          }
+        }
+      } else {
+        for (var inv : List.copyOf(virtualCalls.getOrDefault(f.name(), Set.of()))) {
+          watch(inv, new Watch(inv, loc, f, i));
+        }
+      }
+    }
+  }
+
+  private void returns(Ast.Function f, Loc target) {
+    for (var ret : f.body().returns()) {
+      edge(new Loc(ret.returned(), null), target);
+    }
+  }
+
+  // Resolve the call against everything its receiver points to, now and later.
+  private void watch(Invocation inv, Watch watch) {
+    var receiver = new Loc(inv.source(), null);
+    demand(receiver);
+    if (watches.getSet(receiver).add(watch)) {
+      for (var item : List.copyOf(pointsTo.get(receiver))) {
+        fire(watch, item);
+      }
+    }
+  }
+
+  private void fire(Watch watch, Allocation item) {
+    var inv = watch.call;
+    ast.instanceMethod(item.type(), inv.method()).ifPresent(f -> {
+      if (watch.param < 0) {
+        returns(f, watch.target);
+      } else if (f == watch.callee) {
+        // Arguments include the receiver.
+        int i = watch.param;
+        if (i == 0) {
+          edge(new Loc(inv.source(), null), watch.target);
+        } else if (i - 1 < inv.arguments().size()) {
+          edge(new Loc(inv.arguments().get(i - 1), null), watch.target);
+        }
+      }
+    });
+  }
+
+  private void edge(Loc from, Loc to) {
+    if (edges.getSet(from).add(to)) {
+      demand(from);
+      var pts = pointsTo.get(from);
+      if (!pts.isEmpty()) {
+        toPropagate.add(new Delta(to, new LinkedHashSet<>(pts)));
+      }
+    }
+  }
+
+  private void propagate(Loc loc, Set<Allocation> items) {
+    var pts = pointsTo.get(loc);
+    var delta = new LinkedHashSet<Allocation>();
+    for (var item : items) {
+      if (pts.add(item)) {
+        delta.add(item);
+      }
+    }
+    if (delta.isEmpty()) {
+      return;
+    }
+    for (var to : edges.getOrDefault(loc, Set.of())) {
+      toPropagate.add(new Delta(to, delta));
+    }
+    for (var watch : List.copyOf(watches.getOrDefault(loc, Set.of()))) {
+      for (var item : delta) {
+        fire(watch, item);
+      }
+    }
+  }
+
+  // A variable (field is null) or a field of a variable.
+  private static final class Loc {
+    final Ast.Variable var;
+    final Ast.Variable field;
+
+    Loc(Ast.Variable var, Ast.Variable field) {
+      this.var = Objects.requireNonNull(var);
+      this.field = field;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Loc && var.equals(((Loc) o).var) && Objects.equals(field, ((Loc) o).field);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * var.hashCode() + Objects.hashCode(field);
+    }
+
+    @Override
+    public String toString() {
+      return field == null ? var.toString() : var + "." + field;
+    }
+  }
+
+  // Items to propagate from a location. Only queued, so never hashed.
+  private static final class Delta {
+    final Loc loc;
+    final Set<Allocation> items;
+
+    Delta(Loc loc, Set<Allocation> items) {
+      this.loc = loc;
+      this.items = items;
+    }
+  }
+
+  // A call whose receiver we're watching: its targets flow into the target
+  // (param < 0), or its param'th argument flows into the target if the call
+  // resolves to the callee.
+  private static final class Watch {
+    final Invocation call;
+    final Loc target;
+    final Ast.Function callee;
+    final int param;
+
+    Watch(Invocation call, Loc target, Ast.Function callee, int param) {
+      this.call = call;
+      this.target = target;
+      this.callee = callee;
+      this.param = param;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Watch)) {
+        return false;
+      }
+      var w = (Watch) o;
+      return call == w.call && target.equals(w.target) && callee == w.callee && param == w.param;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(call), target, System.identityHashCode(callee), param);
+    }
+  }
+}
@@ -0,0 +1,238 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks the incremental points-to sets against ones solved from scratch.
+ *
+ * The oracle keeps its own copy of the graph's edges, from the edges asked to
+ * be added and deleted (the graph's edges when the oracle is made are taken as
+ * given), so an edge the graph loses track of is still in the copy. After an
+ * update, {@link #check} copies the part of it that the affected nodes'
+ * points-to sets depend on: the nodes they can be reached from. That part is
+ * solved from scratch on a thread pool, starting from the graph's facts (see
+ * {@link IncrementalPointsTo.Graph#facts}; the allocation sites, in graphs from
+ * {@link IncrementalPointsToGraphBuilder}) and from nothing that the graph
+ * derived, and the result is compared with the incremental points-to sets of
+ * the affected nodes at the time of the update. Mismatches are recorded rather
+ * than thrown, so the updating thread never waits for the oracle.
+ *
+ * Only a fraction of the updates are checked, and updates whose region is too
+ * big, or that come while the pool is backed up, are skipped. The copy of the
+ * edges costs about as much memory as the graph's own edges, twice over.
+ *
+ * @param <Node>     The type of node in the points-to graph.
+ * @param <HeapItem> The type of heap item.
+ */
+public final class DifferentialOracle<Node, HeapItem> implements AutoCloseable {
+  private final IncrementalPointsTo<Node, HeapItem>.Graph graph;
+  private final double sampleRate;
+  private final int maxRegion;
+  private final Random random;
+  private final ThreadPoolExecutor pool;
+  private final Map<Node, Set<Node>> successors = new HashMap<>();
+  private final Map<Node, Set<Node>> predecessors = new HashMap<>();
+
+  private final AtomicLong checked = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final ConcurrentLinkedQueue<Mismatch<Node, HeapItem>> mismatches = new ConcurrentLinkedQueue<>();
+
+  /**
+   * @param sampleRate The fraction of updates to check.
+   * @param maxRegion  The most nodes to copy for one update.
+   * @param threads    The size of the pool.
+   * @param seed       For sampling.
+   */
+  public DifferentialOracle(IncrementalPointsTo<Node, HeapItem>.Graph graph, double sampleRate, int maxRegion,
+      int threads, long seed) {
+    if (sampleRate < 0 || sampleRate > 1) {
+      throw new IllegalArgumentException("Sample rate must be in [0, 1]: " + sampleRate);
+    }
+    if (maxRegion <= 0 || threads <= 0) {
+      throw new IllegalArgumentException("Region size and threads must be positive");
+    }
+    this.graph = Objects.requireNonNull(graph);
+    this.sampleRate = sampleRate;
+    this.maxRegion = maxRegion;
+    this.random = new Random(seed);
+    this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(4 * threads), (task, executor) -> skipped.incrementAndGet());
+    for (var node : graph.nodes()) {
+      for (var succ : graph.edges(node)) {
+        addEdge(node, succ);
+      }
+    }
+    graph.addEdgeListener(new IncrementalPointsTo.EdgeListener<>() {
+      @Override
+      public void added(Node from, Node to) {
+        addEdge(from, to);
+      }
+
+      @Override
+      public void deleted(Node from, Node to) {
+        var succs = successors.get(from);
+        if (succs != null && succs.remove(to)) {
+          predecessors.get(to).remove(from);
+        }
+      }
+    });
+  }
+
+  private void addEdge(Node from, Node to) {
+    successors.computeIfAbsent(from, unused -> new LinkedHashSet<>()).add(to);
+    predecessors.computeIfAbsent(to, unused -> new LinkedHashSet<>()).add(from);
+  }
+
+  /** A node whose incremental points-to set differs from the solved one. */
+  public static final class Mismatch<Node, HeapItem> {
+    private final Node node;
+    private final Set<HeapItem> expected;
+    private final Set<HeapItem> actual;
+
+    private Mismatch(Node node, Set<HeapItem> expected, Set<HeapItem> actual) {
+      this.node = node;
+      this.expected = expected;
+      this.actual = actual;
+    }
+
+    public Node node() {
+      return node;
+    }
+
+    /** Solved from scratch. */
+    public Set<HeapItem> expected() {
+      return expected;
+    }
+
+    /** Maintained incrementally. */
+    public Set<HeapItem> actual() {
+      return actual;
+    }
+
+    @Override
+    public String toString() {
+      var missing = new LinkedHashSet<>(expected);
+      missing.removeAll(actual);
+      var extras = new LinkedHashSet<>(actual);
+      extras.removeAll(expected);
+      return String.format("%s: missing %s, extra %s", node, missing, extras);
+    }
+  }
+
+  /**
+   * Check the points-to sets of the nodes affected by the last update, if this
+   * update is sampled. Must be called from the thread that updates the graph.
+   */
+  public void check(Set<Node> affected) {
+    if (affected.isEmpty() || random.nextDouble() >= sampleRate) {
+      return;
+    }
+    var region = snapshot(affected);
+    if (region == null) {
+      skipped.incrementAndGet();
+      return;
+    }
+    pool.execute(() -> {
+      region.compare();
+      checked.incrementAndGet();
+    });
+  }
+
+  // Copy the nodes the affected nodes can be reached from, with their edges
+  // and facts, or null if there are too many of them.
+  private Region snapshot(Set<Node> affected) {
+    var region = new Region();
+    var stack = new ArrayDeque<>(affected);
+    while (!stack.isEmpty()) {
+      var node = stack.pop();
+      if (region.edges.containsKey(node)) {
+        continue;
+      }
+      if (region.edges.size() >= maxRegion) {
+        return null;
+      }
+      region.edges.put(node, List.copyOf(successors.getOrDefault(node, Set.of())));
+      var facts = graph.facts(node);
+      if (!facts.isEmpty()) {
+        region.facts.put(node, new LinkedHashSet<>(facts));
+      }
+      stack.addAll(predecessors.getOrDefault(node, Set.of()));
+    }
+    for (var node : affected) {
+      region.actual.put(node, new LinkedHashSet<>(graph.pointsTo(node)));
+    }
+    return region;
+  }
+
+  // A copy of part of the graph, with the incremental points-to sets to check.
+  private final class Region {
+    final Map<Node, Set<HeapItem>> facts = new LinkedHashMap<>();
+    final Map<Node, List<Node>> edges = new HashMap<>();
+    final Map<Node, Set<HeapItem>> actual = new LinkedHashMap<>();
+
+    void compare() {
+      var pts = new HashMap<Node, Set<HeapItem>>();
+      var work = new ArrayDeque<Node>();
+      facts.forEach((node, items) -> {
+        pts.put(node, items);
+        work.add(node);
+      });
+      while (!work.isEmpty()) {
+        var node = work.remove();
+        var items = pts.get(node);
+        for (var succ : edges.get(node)) {
+          // Edges out of the region don't matter to it.
+          if (edges.containsKey(succ) && pts.computeIfAbsent(succ, unused -> new LinkedHashSet<>()).addAll(items)) {
+            work.add(succ);
+          }
+        }
+      }
+      actual.forEach((node, items) -> {
+        var expected = pts.getOrDefault(node, Set.of());
+        if (!expected.equals(items)) {
+          mismatches.add(new Mismatch<>(node, expected, items));
+        }
+      });
+    }
+  }
+
+  /** The number of updates checked so far. */
+  public long checked() {
+    return checked.get();
+  }
+
+  /** The number of sampled updates that weren't checked. */
+  public long skipped() {
+    return skipped.get();
+  }
+
+  /** The mismatches found so far. */
+  public List<Mismatch<Node, HeapItem>> mismatches() {
+    return new ArrayList<>(mismatches);
+  }
+
+  /** Wait for the pending checks to finish. */
+  @Override
+  public void close() {
+    pool.shutdown();
+    try {
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
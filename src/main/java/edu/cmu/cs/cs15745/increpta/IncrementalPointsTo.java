@@ -2,8 +2,11 @@ package edu.cmu.cs.cs15745.increpta;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -11,7 +14,11 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
+import edu.cmu.cs.cs15745.increpta.util.Indexer;
+import edu.cmu.cs.cs15745.increpta.util.IntMultiMap;
+import edu.cmu.cs.cs15745.increpta.util.IntSet;
 import edu.cmu.cs.cs15745.increpta.util.MultiMap;
+import edu.cmu.cs.cs15745.increpta.util.SmallSet;
 import edu.cmu.cs.cs15745.increpta.util.Util;
 
 /**
@@ -22,9 +29,47 @@ import edu.cmu.cs.cs15745.increpta.util.Util;
 public class IncrementalPointsTo<Node, HeapItem> {
 
   private final PointsToGraph<Node, HeapItem> graph;
-  private final Map<Node, SCC> sccs = new LinkedHashMap<>();
-  private final MultiMap<SCC, SCC> edgesForSCC = new MultiMap<>();
-  private final MultiMap<SCC, SCC> reverseEdgesForSCC = new MultiMap<>();
+  private final List<Listener<Node, HeapItem>> listeners = new ArrayList<>();
+  private final List<EdgeListener<Node>> edgeListeners = new ArrayList<>();
+  private final Map<Node, Set<HeapItem>> facts = new HashMap<>(); // Given by addPointsTo, not derived
+
+  // The tables below refer to nodes and heap items by their IDs, and to SCCs by
+  // the ID of their representative.
+  private final Indexer<Node> nodeIds = new Indexer<>();
+  private final Indexer<HeapItem> itemIds = new Indexer<>();
+  private final List<SCC> sccs = new ArrayList<>(); // By node ID
+  private final IntMultiMap edgesForSCC = new IntMultiMap();
+  private final IntMultiMap reverseEdgesForSCC = new IntMultiMap();
+  private final IntMultiMap pointedToBy = new IntMultiMap(); // Reverse of the reps' points-to sets
+  private long pointsToSize = 0; // The number of entries in pointedToBy
+  private final IntSet cyclic = new IntSet(); // The SCCs with more than one node
+  private Session session = null; // The open session, if any
+
+  /**
+   * Notified whenever the points-to sets of nodes change, including nodes that
+   * aren't the representative of their SCC (e.g. when SCCs are merged). Each
+   * call is for nodes whose sets changed the same way, usually the members of
+   * an SCC, so a listener that only cares about a few nodes should look those
+   * up, rather than look up every node. The set of nodes may change after the
+   * call. Listeners are called in the middle of an update, so they must not
+   * edit the graph; they should record the change and act on it afterwards.
+   */
+  public interface Listener<Node, HeapItem> {
+    void added(Set<Node> nodes, Set<HeapItem> delta);
+
+    void removed(Set<Node> nodes, Set<HeapItem> delta);
+  }
+
+  /**
+   * Notified of every edge that's asked to be added or deleted, before the
+   * graph is updated, whether or not it changes the graph. Also notified of
+   * the edges a rollback puts back or takes away.
+   */
+  public interface EdgeListener<Node> {
+    void added(Node from, Node to);
+
+    void deleted(Node from, Node to);
+  }
 
   public IncrementalPointsTo(PointsToGraph<Node, HeapItem> graph) {
     this.graph = graph;
@@ -44,20 +89,39 @@ public class IncrementalPointsTo<Node, HeapItem> {
     var elems = tarjan(graph.nodes());
     for (SCC scc : elems) {
       for (var elem : scc.elems) {
-        sccs.put(elem, scc);
+        setSCC(elem, scc);
+      }
+      if (scc.elems.size() > 1) {
+        cyclic.add(scc.id);
       }
     }
     calculateEdgesForSCCs(elems);
+    for (SCC scc : elems) {
+      index(scc, graph.pointsTo(scc.rep));
+    }
+    // The graph is taken to be solved, so only the points-to sets of the nodes
+    // without in-edges can be facts.
+    var targets = new HashSet<Node>();
+    for (var node : graph.nodes()) {
+      targets.addAll(graph.edges(node));
+    }
+    for (var node : graph.nodes()) {
+      if (!targets.contains(node) && !graph.pointsTo(node).isEmpty()) {
+        facts.put(node, new LinkedHashSet<>(graph.pointsTo(node)));
+      }
+    }
     return new Graph();
   }
 
   // Wrapper class for object identity :)
   class SCC {
     final Node rep; // equiv class representative
+    final int id; // of the representative
     final Set<Node> elems;
 
     private SCC(Node rep, Set<Node> elems) {
       this.rep = rep;
+      this.id = nodeIds.id(rep);
       this.elems = elems;
     }
 
@@ -78,12 +142,31 @@ public class IncrementalPointsTo<Node, HeapItem> {
   }
 
   SCC scc(Node node) {
-    return sccs.computeIfAbsent(node, unused -> {
-      var scc = new SCC(node, new HashSet<>(List.of(node)));
-      edgesForSCC.getSet(scc);
-      reverseEdgesForSCC.getSet(scc);
-      return scc;
-    });
+    int id = nodeIds.id(node);
+    var scc = id < sccs.size() ? sccs.get(id) : null;
+    if (scc == null) {
+      scc = new SCC(node, new SmallSet<>(node));
+      setSCC(node, scc);
+      edgesForSCC.getSet(id);
+      reverseEdgesForSCC.getSet(id);
+    }
+    return scc;
+  }
+
+  // The SCC whose representative has the ID.
+  private SCC sccById(int id) {
+    return sccs.get(id);
+  }
+
+  private void setSCC(Node node, SCC scc) {
+    int id = nodeIds.id(node);
+    if (session != null) {
+      session.saveSCC(id);
+    }
+    while (sccs.size() <= id) {
+      sccs.add(null);
+    }
+    sccs.set(id, scc);
   }
 
   Node rep(Node node) {
@@ -95,25 +178,172 @@ public class IncrementalPointsTo<Node, HeapItem> {
    */
   public class Graph implements PointsToGraph<Node, HeapItem> {
 
+    public void addListener(Listener<Node, HeapItem> listener) {
+      listeners.add(listener);
+    }
+
+    public void addEdgeListener(EdgeListener<Node> listener) {
+      edgeListeners.add(listener);
+    }
+
+    /**
+     * Start a session. Until it's committed or rolled back, the changes to the
+     * graph are logged, so that rolling back restores it without propagating
+     * the inverse edits. Only one session can be open at a time.
+     *
+     * A session only covers this graph. Edits made through something that keeps
+     * its own tables about the graph aren't undone there; for
+     * {@link IncrementalPointsToGraphBuilder}, use its own
+     * {@link IncrementalPointsToGraphBuilder#begin}.
+     */
+    public Session begin() {
+      if (session != null) {
+        throw new IllegalStateException("A session is already open.");
+      }
+      session = new Session();
+      return session;
+    }
+
+    /**
+     * Add a heap item to the points-to set of the node, and propagate it. Don't
+     * add to {@link #pointsTo} directly; that bypasses the reverse index.
+     *
+     * @return The nodes whose points-to sets changed.
+     */
+    public Set<Node> addPointsTo(Node node, HeapItem item) {
+      saveFacts(node);
+      facts.computeIfAbsent(node, unused -> new LinkedHashSet<>()).add(item);
+      var affectedNodes = new LinkedHashSet<Node>();
+      propagateAddChange(new SmallSet<>(item), rep(node), affectedNodes);
+      return affectedNodes;
+    }
+
+    /**
+     * Remove a heap item from the points-to set of the node (which shouldn't
+     * have any predecessors), and propagate the removal.
+     *
+     * @return The nodes whose points-to sets changed.
+     */
+    public Set<Node> deletePointsTo(Node node, HeapItem item) {
+      saveFacts(node);
+      var given = facts.get(node);
+      if (given != null && given.remove(item) && given.isEmpty()) {
+        facts.remove(node);
+      }
+      var affectedNodes = new LinkedHashSet<Node>();
+      var y = rep(node);
+      savePointsTo(y);
+      if (graph.pointsTo(y).remove(item)) {
+        var delta = Set.of(item);
+        affectedNodes.add(y);
+        unindex(scc(y), delta);
+        notifyRemoved(scc(y).elems, delta);
+        for (int w : edgesForSCC.getSet(scc(y).id).toArray()) {
+          propagateDeleteChange(new SmallSet<>(delta), sccById(w).rep, affectedNodes);
+        }
+      }
+      return affectedNodes;
+    }
+
+    /**
+     * The heap items given to the node by {@link #addPointsTo}, and not since
+     * deleted, as opposed to those that flow into it along edges. (For the graph
+     * given to {@link IncrementalPointsTo#build}, the points-to sets of the nodes
+     * without in-edges.)
+     */
+    public Set<HeapItem> facts(Node node) {
+      return Collections.unmodifiableSet(facts.getOrDefault(node, Set.of()));
+    }
+
+    /**
+     * The nodes whose points-to sets contain the heap item.
+     */
+    public Set<Node> pointedToBy(HeapItem item) {
+      var result = new LinkedHashSet<Node>();
+      var reps = pointedToBy.get(itemIds.find(item));
+      if (reps != null) {
+        reps.forEach(rep -> result.addAll(sccById(rep).elems));
+      }
+      return result;
+    }
+
+    /**
+     * The representatives of the SCCs whose points-to sets contain the heap item.
+     */
+    public Set<Node> representativesPointedToBy(HeapItem item) {
+      var result = new LinkedHashSet<Node>();
+      var reps = pointedToBy.get(itemIds.find(item));
+      if (reps != null) {
+        reps.forEach(rep -> result.add(sccById(rep).rep));
+      }
+      return result;
+    }
+
+    /**
+     * The total size of the points-to sets, counting each SCC once.
+     */
+    public long pointsToSize() {
+      return pointsToSize;
+    }
+
+    /**
+     * The representative of the node's SCC. Every member of an SCC has the same
+     * points-to set.
+     */
+    public Node representative(Node node) {
+      return rep(node);
+    }
+
+    /**
+     * The representatives of the SCCs with edges into the node's SCC.
+     */
+    public Set<Node> predecessors(Node node) {
+      var result = new LinkedHashSet<Node>();
+      reverseEdgesForSCC.getSet(scc(node).id).forEach(id -> result.add(sccById(id).rep));
+      return result;
+    }
+
+    /**
+     * The members of the node's SCC.
+     */
+    public Set<Node> members(Node node) {
+      return Collections.unmodifiableSet(scc(node).elems);
+    }
+
     /**
      * Incrementally add edge.
      */
     @Override
     public Set<Node> addEdge(Node from, Node to) {
-      // If we already have this edge, don't do anything.
-      if (edgesForSCC.getSet(scc(from)).contains(scc(to))) {
+      edgeListeners.forEach(listener -> listener.added(from, to));
+      // If the SCCs are already connected, the points-to set of from already
+      // flows into to, so only the node edge is new. It must still be recorded,
+      // since it keeps the SCCs connected if the other edges between them go.
+      if (edgesForSCC.getSet(scc(from).id).contains(scc(to).id)) {
+        if (!graph.addEdge(from, to).isEmpty() && session != null) {
+          session.edgeChanged(from, to, true);
+        }
         return Set.of();
       }
       var affectedNodes = new LinkedHashSet<Node>();
+      boolean sameSCC = scc(from).equals(scc(to));
 
-      graph.addEdge(from, to);
+      if (!graph.addEdge(from, to).isEmpty() && session != null) {
+        session.edgeChanged(from, to, true);
+      }
       updateSCCsAdd(from, to);
+      touch(scc(from));
+      touch(scc(to));
 
       // We have to do this check separately in case the sccs were joined
       if (scc(from).equals(scc(to))) {
-        for (var v : edgesForSCC.get(scc(from))) {
-          var delta = new LinkedHashSet<>(pointsTo(from));
-          propagateAddChange(delta, v.rep, affectedNodes);
+        if (!sameSCC) {
+          // The members of the joined SCCs now share one points-to set.
+          affectedNodes.add(rep(to));
+        }
+        for (var it = edgesForSCC.get(scc(from).id).iterator(); it.hasNext();) {
+          var delta = new SmallSet<>(pointsTo(from));
+          propagateAddChange(delta, sccById(it.nextInt()).rep, affectedNodes);
         }
       } else {
         // Be careful to call pointsTo (and not graph.pointsTo) to
@@ -121,7 +351,7 @@ public class IncrementalPointsTo<Node, HeapItem> {
         // (which is where we are maintaining all updates).
         // We also must make a copy since "propagateAddchange" destructively
         // modifies this set.
-        var delta = new LinkedHashSet<>(pointsTo(from));
+        var delta = new SmallSet<>(pointsTo(from));
         propagateAddChange(delta, rep(to), affectedNodes);
       }
 
@@ -139,14 +369,19 @@ public class IncrementalPointsTo<Node, HeapItem> {
       // (1) each method node will be re-deleted one at a time (by client calls to
       // deleteEdge),
       // (2) we handle fields differently than the B. Liu et al. paper.
+      edgeListeners.forEach(listener -> listener.deleted(from, to));
       var affectedNodes = new LinkedHashSet<Node>();
       if (from.equals(to))
         return affectedNodes; // This won't happen
 
-      graph.deleteEdge(from, to);
+      if (!graph.deleteEdge(from, to).isEmpty() && session != null) {
+        session.edgeChanged(from, to, false);
+      }
       updateSCCsDelete(from, to);
+      touch(scc(from));
+      touch(scc(to));
 
-      var delta = new LinkedHashSet<>(pointsTo(from));
+      var delta = new SmallSet<>(pointsTo(from));
       propagateDeleteChange(delta, rep(to), affectedNodes);
 
       // We added (some) new edge
@@ -169,15 +404,23 @@ public class IncrementalPointsTo<Node, HeapItem> {
       return graph.pointsTo(rep(key));
     }
 
+    /**
+     * Clone the underlying graph, giving every node the points-to set of its SCC.
+     * Only the members of cyclic SCCs need fixing up, so cloning a graph with
+     * cheap clones (like {@link PersistentPointsToGraph}) is cheap too.
+     */
     @Override
     public PointsToGraph<Node, HeapItem> clone() {
       var clone = graph.clone();
-      for (var node : clone.nodes()) {
-        var rep = rep(node);
-        if (!rep.equals(node)) {
-          var pts = clone.pointsTo(node);
-          pts.clear();
-          pts.addAll(clone.pointsTo(rep));
+      for (var it = cyclic.iterator(); it.hasNext();) {
+        var scc = sccById(it.nextInt());
+        var repPts = clone.pointsTo(scc.rep);
+        for (var node : scc.elems) {
+          if (!scc.rep.equals(node)) {
+            var pts = clone.pointsTo(node);
+            pts.clear();
+            pts.addAll(repPts);
+          }
         }
       }
       return clone;
@@ -194,71 +437,168 @@ public class IncrementalPointsTo<Node, HeapItem> {
      * union of all of its parents.
      */
     public void checkInvariant() {
-      Set<SCC> seen = new HashSet<>();
+      for (int item : pointedToBy.keys()) {
+        for (var it = pointedToBy.get(item).iterator(); it.hasNext();) {
+          int rep = it.nextInt();
+          var scc = sccById(rep);
+          if (scc == null || scc.id != rep || !graph.pointsTo(scc.rep).contains(itemIds.get(item))) {
+            System.err.println("Invalid reverse index: " + itemIds.get(item) + " -> " + scc);
+            throw new IllegalStateException();
+          }
+        }
+      }
 
-      for (var entry : edgesForSCC.entrySet()) {
-        var v = entry.getKey();
-        for (var u : entry.getValue()) {
-          if (!reverseEdgesForSCC.getSet(u).contains(v)) {
+      for (int v : edgesForSCC.keys()) {
+        for (var it = edgesForSCC.get(v).iterator(); it.hasNext();) {
+          if (!reverseEdgesForSCC.getSet(it.nextInt()).contains(v)) {
             System.err.println("Invalid edges");
             throw new IllegalStateException();
           }
         }
       }
 
-      for (var entry : reverseEdgesForSCC.entrySet()) {
-        var v = entry.getKey();
-        for (var u : entry.getValue()) {
-          if (!edgesForSCC.getSet(u).contains(v)) {
+      for (int v : reverseEdgesForSCC.keys()) {
+        for (var it = reverseEdgesForSCC.get(v).iterator(); it.hasNext();) {
+          if (!edgesForSCC.getSet(it.nextInt()).contains(v)) {
             System.err.println("Invalid edges");
             throw new IllegalStateException();
           }
         }
       }
 
+      Set<SCC> seen = new HashSet<>();
       for (var node : graph.nodes()) {
-        var scc = sccs.get(node);
+        var scc = sccs.get(nodeIds.find(node));
         if (seen.add(scc)) {
-          var pts = graph.pointsTo(scc.rep);
-          var union = new HashSet<>();
-          var preds = reverseEdgesForSCC.get(scc);
-          for (var pred : preds) {
-            var predPts = graph.pointsTo(pred.rep);
-            union.addAll(predPts);
-          }
-          if (!pts.equals(union) && !preds.isEmpty()) {
-            System.err.println("PTS is not union of predecessors: " + scc.rep);
-            System.err.println("Predecessors: " + preds);
-            var inCommon = new HashSet<>(pts);
-            inCommon.retainAll(union);
-            var extras = new HashSet<>(pts);
-            extras.removeAll(union);
-            var missing = new HashSet<>(union);
-            missing.removeAll(pts);
-            System.err.println("Extras:\n\t" + Util.join("\n\t", extras));
-            System.err.println("Missing:\n\t" + Util.join("\n\t", missing));
-            System.err.println("In common:\n\t" + Util.join("\n\t", inCommon));
-            throw new IllegalStateException();
-          }
+          checkUnion(scc);
+        }
+      }
+      if (touched != null) {
+        touched.clear();
+      }
+    }
+
+    /**
+     * For debugging. A cheaper {@link #checkInvariant}, which only checks the
+     * SCCs whose points-to sets or edges changed since the last check (and their
+     * successors, whose predecessors changed), plus the next few SCCs of a sweep
+     * over the whole graph, so that every SCC is checked eventually.
+     *
+     * The first call checks the whole graph, and starts tracking changes.
+     *
+     * @param sweep The number of nodes to advance the sweep by.
+     */
+    public void checkTouched(int sweep) {
+      if (touched == null) {
+        checkInvariant();
+        touched = new IntSet();
+        return;
+      }
+      var toCheck = new IntSet();
+      for (var it = touched.iterator(); it.hasNext();) {
+        var scc = sccById(it.nextInt());
+        if (scc != null && toCheck.add(scc.id)) {
+          edgesForSCC.getSet(scc.id).forEach(toCheck::add);
+        }
+      }
+      int nodes = nodeIds.size();
+      for (int i = 0; i < sweep && i < nodes; i++) {
+        sweepCursor = sweepCursor + 1 < nodes ? sweepCursor + 1 : 0;
+        var scc = sweepCursor < sccs.size() ? sccs.get(sweepCursor) : null;
+        if (scc != null) {
+          toCheck.add(scc.id);
         }
       }
+      toCheck.forEach(id -> {
+        var scc = sccById(id);
+        checkEdges(scc.id);
+        checkIndexed(scc);
+        checkUnion(scc);
+      });
+      touched.clear();
+    }
+  }
+
+  // The SCCs changed since the last checkTouched, or null when not tracking.
+  private IntSet touched = null;
+  private int sweepCursor = -1; // The node ID checkTouched's sweep is at
+
+  private void touch(SCC scc) {
+    if (touched != null) {
+      touched.add(scc.id);
+    }
+  }
+
+  // Each edge of the SCC has its reverse edge.
+  private void checkEdges(int v) {
+    for (var it = edgesForSCC.getSet(v).iterator(); it.hasNext();) {
+      if (!reverseEdgesForSCC.getSet(it.nextInt()).contains(v)) {
+        System.err.println("Invalid edges");
+        throw new IllegalStateException();
+      }
+    }
+    for (var it = reverseEdgesForSCC.getSet(v).iterator(); it.hasNext();) {
+      if (!edgesForSCC.getSet(it.nextInt()).contains(v)) {
+        System.err.println("Invalid edges");
+        throw new IllegalStateException();
+      }
+    }
+  }
+
+  // The points-to set of the SCC is in the reverse index.
+  private void checkIndexed(SCC scc) {
+    for (var item : graph.pointsTo(scc.rep)) {
+      var reps = pointedToBy.get(itemIds.find(item));
+      if (reps == null || !reps.contains(scc.id)) {
+        System.err.println("Invalid reverse index: " + item + " -> " + scc);
+        throw new IllegalStateException();
+      }
+    }
+  }
+
+  // The points-to set of the SCC is the union of those of its predecessors, if it
+  // has any.
+  private void checkUnion(SCC scc) {
+    var pts = graph.pointsTo(scc.rep);
+    var union = new HashSet<>();
+    var preds = reverseEdgesForSCC.getSet(scc.id);
+    for (var it = preds.iterator(); it.hasNext();) {
+      var predPts = graph.pointsTo(sccById(it.nextInt()).rep);
+      union.addAll(predPts);
+    }
+    if (!pts.equals(union) && !preds.isEmpty()) {
+      System.err.println("PTS is not union of predecessors: " + scc.rep);
+      System.err.println("Predecessors: " + preds);
+      var inCommon = new HashSet<>(pts);
+      inCommon.retainAll(union);
+      var extras = new HashSet<>(pts);
+      extras.removeAll(union);
+      var missing = new HashSet<>(union);
+      missing.removeAll(pts);
+      System.err.println("Extras:\n\t" + Util.join("\n\t", extras));
+      System.err.println("Missing:\n\t" + Util.join("\n\t", missing));
+      System.err.println("In common:\n\t" + Util.join("\n\t", inCommon));
+      throw new IllegalStateException();
     }
   }
 
   private void propagateDeleteChange(Set<HeapItem> delta, Node y, Set<Node> affected) {
-    for (var zSCC : reverseEdgesForSCC.getSet(scc(y))) {
-      var z = zSCC.rep;
+    for (var it = reverseEdgesForSCC.getSet(scc(y).id).iterator(); it.hasNext();) {
+      var z = sccById(it.nextInt()).rep;
       delta.removeAll(graph.pointsTo(z));
       if (delta.isEmpty()) {
         return;
       }
     }
     affected.add(y);
+    savePointsTo(y);
     graph.pointsTo(y).removeAll(delta);
+    unindex(scc(y), delta);
+    notifyRemoved(scc(y).elems, delta);
 
-    for (var wSCC : edgesForSCC.getSet(scc(y))) {
-      var w = wSCC.rep;
-      propagateDeleteChange(new LinkedHashSet<>(delta), w, affected);
+    for (var it = edgesForSCC.getSet(scc(y).id).iterator(); it.hasNext();) {
+      var w = sccById(it.nextInt()).rep;
+      propagateDeleteChange(new SmallSet<>(delta), w, affected);
     }
   }
 
@@ -270,17 +610,253 @@ public class IncrementalPointsTo<Node, HeapItem> {
     delta.removeAll(graph.pointsTo(y));
     if (!delta.isEmpty()) {
       affected.add(y);
+      savePointsTo(y);
       graph.pointsTo(y).addAll(delta);
-      for (var wSCC : List.copyOf(edgesForSCC.get(scc(y)))) {
-        var w = wSCC.rep;
+      index(scc(y), delta);
+      notifyAdded(scc(y).elems, delta);
+      for (int wId : edgesForSCC.get(scc(y).id).toArray()) {
+        var w = sccById(wId).rep;
         // We really do gotta make a copy here.
-        propagateAddChange(new LinkedHashSet<>(delta), w, affected);
+        propagateAddChange(new SmallSet<>(delta), w, affected);
       }
+    }
+  }
 
-      // Complex added statements
-      // We don't need to separately handle field-loads and -writes, because
-      // we only store one copy of each field.
-      // processComplexNodes.accept(y, delta);
+  // Make the node's points-to set equal to the items, clearing it and adding
+  // them in bulk, rather than changing it one heap item at a time.
+  private void setPointsTo(Node node, Set<HeapItem> items) {
+    var pts = graph.pointsTo(node);
+    if (!pts.equals(items)) {
+      pts.clear();
+      pts.addAll(items);
+    }
+  }
+
+  // Log the node's points-to set before changing it, if a session is open.
+  private void savePointsTo(Node node) {
+    if (session != null) {
+      session.savePointsTo(node);
+    }
+  }
+
+  // Likewise for the node's facts.
+  private void saveFacts(Node node) {
+    if (session != null) {
+      session.saveFacts(node);
+    }
+  }
+
+  // An edge a session added or deleted. Only logged, so never hashed.
+  private static final class EdgeChange<Node> {
+    final Node from;
+    final Node to;
+    final boolean added;
+
+    EdgeChange(Node from, Node to, boolean added) {
+      this.from = from;
+      this.to = to;
+      this.added = added;
+    }
+  }
+
+  /**
+   * The changes made to the graph since {@link Graph#begin}, which can be kept
+   * ({@link #commit}) or undone ({@link #rollback}). Closing a session that's
+   * still open rolls it back, so a what-if query can be made with
+   * try-with-resources.
+   *
+   * The log holds the state of whatever the changes touch, as it was before
+   * they first touched it: the points-to sets, SCCs and SCC edges, the reverse
+   * index, and the facts. So rolling back costs time in the size of what the changes
+   * touched, rather than in the cost of propagating them.
+   */
+  public final class Session implements AutoCloseable {
+    private final List<EdgeChange<Node>> edges = new ArrayList<>();
+    private final Map<Node, Set<HeapItem>> savedPointsTo = new LinkedHashMap<>();
+    private final Map<Node, Set<HeapItem>> savedFacts = new HashMap<>(); // Null for none
+    private final Map<Integer, SCC> savedSCCs = new HashMap<>(); // By node ID
+    private final Map<SCC, Set<Node>> savedElems = new IdentityHashMap<>();
+    private final IntSet savedCyclic = new IntSet(cyclic);
+    private final long savedPointsToSize = pointsToSize;
+
+    private Session() {
+      edgesForSCC.startJournal();
+      reverseEdgesForSCC.startJournal();
+      pointedToBy.startJournal();
+    }
+
+    public boolean isOpen() {
+      return session == this;
+    }
+
+    private void checkOpen() {
+      if (!isOpen()) {
+        throw new IllegalStateException("The session is closed.");
+      }
+    }
+
+    private void edgeChanged(Node from, Node to, boolean added) {
+      edges.add(new EdgeChange<>(from, to, added));
+    }
+
+    private void savePointsTo(Node node) {
+      if (!savedPointsTo.containsKey(node)) {
+        savedPointsTo.put(node, new LinkedHashSet<>(graph.pointsTo(node)));
+      }
+    }
+
+    private void saveFacts(Node node) {
+      if (!savedFacts.containsKey(node)) {
+        var given = facts.get(node);
+        savedFacts.put(node, given == null ? null : new LinkedHashSet<>(given));
+      }
+    }
+
+    private void saveSCC(int id) {
+      if (!savedSCCs.containsKey(id)) {
+        savedSCCs.put(id, id < sccs.size() ? sccs.get(id) : null);
+      }
+    }
+
+    private void saveElems(SCC scc) {
+      savedElems.computeIfAbsent(scc, s -> new LinkedHashSet<>(s.elems));
+    }
+
+    /** Keep the changes. */
+    public void commit() {
+      checkOpen();
+      session = null;
+      edgesForSCC.dropJournal();
+      reverseEdgesForSCC.dropJournal();
+      pointedToBy.dropJournal();
+    }
+
+    /**
+     * Undo the changes. Listeners are told about the points-to sets that change
+     * back, and edge listeners about the edges.
+     */
+    public void rollback() {
+      checkOpen();
+      // The nodes whose points-to sets may change back: the members of the SCCs
+      // whose sets changed, and the nodes whose SCCs changed.
+      var before = new LinkedHashMap<Node, Set<HeapItem>>();
+      if (!listeners.isEmpty()) {
+        for (var node : savedPointsTo.keySet()) {
+          for (var elem : scc(node).elems) {
+            before.put(elem, new LinkedHashSet<>(graph.pointsTo(rep(elem))));
+          }
+        }
+        for (int id : savedSCCs.keySet()) {
+          var node = nodeIds.get(id);
+          before.computeIfAbsent(node, n -> new LinkedHashSet<>(graph.pointsTo(rep(n))));
+        }
+      }
+
+      session = null;
+      for (int i = edges.size() - 1; i >= 0; i--) {
+        var edge = edges.get(i);
+        var from = edge.from;
+        var to = edge.to;
+        if (edge.added) {
+          graph.deleteEdge(from, to);
+          edgeListeners.forEach(listener -> listener.deleted(from, to));
+        } else {
+          graph.addEdge(from, to);
+          edgeListeners.forEach(listener -> listener.added(from, to));
+        }
+      }
+      savedFacts.forEach((node, given) -> {
+        if (given == null) {
+          facts.remove(node);
+        } else {
+          facts.put(node, given);
+        }
+      });
+      savedPointsTo.forEach(IncrementalPointsTo.this::setPointsTo);
+      savedElems.forEach((scc, elems) -> {
+        scc.elems.clear();
+        scc.elems.addAll(elems);
+      });
+      savedSCCs.forEach((id, scc) -> sccs.set(id, scc));
+      cyclic.clear();
+      cyclic.addAll(savedCyclic);
+      pointsToSize = savedPointsToSize;
+      pointedToBy.rollback();
+      for (var map : List.of(edgesForSCC, reverseEdgesForSCC)) {
+        for (int id : map.rollback()) {
+          touchId(id);
+        }
+      }
+      savedPointsTo.keySet().forEach(node -> touchId(nodeIds.id(node)));
+      savedSCCs.keySet().forEach(this::touchId);
+
+      for (var entry : before.entrySet()) {
+        var node = entry.getKey();
+        var pts = graph.pointsTo(rep(node));
+        var added = new LinkedHashSet<>(pts);
+        added.removeAll(entry.getValue());
+        var removed = new LinkedHashSet<>(entry.getValue());
+        removed.removeAll(pts);
+        if (!removed.isEmpty()) {
+          notifyRemoved(Set.of(node), removed);
+        }
+        if (!added.isEmpty()) {
+          notifyAdded(Set.of(node), added);
+        }
+      }
+    }
+
+    // Make checkTouched check the SCC containing the node, if any.
+    private void touchId(int id) {
+      var scc = id < sccs.size() ? sccs.get(id) : null;
+      if (scc != null) {
+        touch(scc);
+      }
+    }
+
+    /** Roll back, unless already committed or rolled back. */
+    @Override
+    public void close() {
+      if (isOpen()) {
+        rollback();
+      }
+    }
+  }
+
+  private void index(SCC scc, Set<HeapItem> items) {
+    touch(scc);
+    for (var item : items) {
+      if (pointedToBy.getSet(itemIds.id(item)).add(scc.id)) {
+        pointsToSize++;
+      }
+    }
+  }
+
+  private void unindex(SCC scc, Set<HeapItem> items) {
+    touch(scc);
+    for (var item : items) {
+      int id = itemIds.find(item);
+      var set = pointedToBy.get(id);
+      if (set != null) {
+        if (set.remove(scc.id)) {
+          pointsToSize--;
+        }
+        if (set.isEmpty()) {
+          pointedToBy.remove(id);
+        }
+      }
+    }
+  }
+
+  private void notifyAdded(Set<Node> nodes, Set<HeapItem> delta) {
+    for (var listener : listeners) {
+      listener.added(nodes, delta);
+    }
+  }
+
+  private void notifyRemoved(Set<Node> nodes, Set<HeapItem> delta) {
+    for (var listener : listeners) {
+      listener.removed(nodes, delta);
     }
   }
 
@@ -290,12 +866,12 @@ public class IncrementalPointsTo<Node, HeapItem> {
     SCC sccTo = Objects.requireNonNull(scc(to));
     if (sccFrom.equals(sccTo)) { // Same instance?
       return; // We don't need to update anything
-    } else if (edgesForSCC.getSet(sccFrom).contains(sccTo)) { // If we're already pointing to,
+    } else if (edgesForSCC.getSet(sccFrom.id).contains(sccTo.id)) { // If we're already pointing to,
       return;
     } else {
       // Add new edge
-      edgesForSCC.getSet(sccFrom).add(sccTo);
-      reverseEdgesForSCC.getSet(sccTo).add(sccFrom);
+      edgesForSCC.getSet(sccFrom.id).add(sccTo.id);
+      reverseEdgesForSCC.getSet(sccTo.id).add(sccFrom.id);
 
       // DFS from To to see if we can get to From.
       var path = path(sccTo, sccFrom, new LinkedHashSet<>());
@@ -303,32 +879,62 @@ public class IncrementalPointsTo<Node, HeapItem> {
         // Then we should merge the SCCs.
         var superSCC = sccTo; // Merge into "to"
         var pts = graph.pointsTo(superSCC.rep);
+        savePointsTo(superSCC.rep);
+        if (session != null) {
+          session.saveElems(superSCC);
+        }
+
+        // Remember each part's points-to set, so we can tell the listeners what
+        // each part gained from the merge.
+        var before = new LinkedHashMap<Set<Node>, Set<HeapItem>>();
+        if (!listeners.isEmpty()) {
+          before.put(new LinkedHashSet<>(superSCC.elems), new LinkedHashSet<>(pts));
+          for (var scc : path) {
+            before.put(scc.elems, new LinkedHashSet<>(graph.pointsTo(scc.rep)));
+          }
+        }
+
         for (var scc : path) {
+          cyclic.remove(scc.id);
+          unindex(scc, graph.pointsTo(scc.rep));
           superSCC.elems.addAll(scc.elems);
-          scc.elems.forEach(e -> sccs.replace(e, superSCC));
+          scc.elems.forEach(e -> setSCC(e, superSCC));
           pts.addAll(graph.pointsTo(scc.rep));
 
           // Update edges and reverse edges for scc
           // (scc, a)
-          for (var a : edgesForSCC.remove(scc)) {
+          for (var it = edgesForSCC.removeSet(scc.id).iterator(); it.hasNext();) {
+            int a = it.nextInt();
             var edgesA = reverseEdgesForSCC.getSet(a);
-            edgesA.remove(scc);
-            if (!a.equals(superSCC)) {
-              edgesA.add(superSCC);
-              edgesForSCC.getSet(superSCC).add(a);
+            edgesA.remove(scc.id);
+            if (a != superSCC.id) {
+              edgesA.add(superSCC.id);
+              edgesForSCC.getSet(superSCC.id).add(a);
             }
           }
 
           // (a, scc)
-          for (var a : reverseEdgesForSCC.remove(scc)) {
+          for (var it = reverseEdgesForSCC.removeSet(scc.id).iterator(); it.hasNext();) {
+            int a = it.nextInt();
             var edgesA = edgesForSCC.getSet(a);
-            edgesA.remove(scc);
-            if (!a.equals(superSCC)) {
-              edgesA.add(superSCC);
-              reverseEdgesForSCC.getSet(superSCC).add(a);
+            edgesA.remove(scc.id);
+            if (a != superSCC.id) {
+              edgesA.add(superSCC.id);
+              reverseEdgesForSCC.getSet(superSCC.id).add(a);
             }
           }
         }
+
+        index(superSCC, pts);
+        cyclic.add(superSCC.id);
+
+        for (var entry : before.entrySet()) {
+          var delta = new LinkedHashSet<>(pts);
+          delta.removeAll(entry.getValue());
+          if (!delta.isEmpty()) {
+            notifyAdded(entry.getKey(), delta);
+          }
+        }
       }
     }
   }
@@ -337,9 +943,11 @@ public class IncrementalPointsTo<Node, HeapItem> {
   void updateSCCsDelete(Node from, Node to) {
     SCC sccFrom = Objects.requireNonNull(scc(from));
     SCC sccTo = Objects.requireNonNull(scc(to));
-    if (!sccFrom.equals(sccTo)) { // Different SCC, deletion does nothing.
-      edgesForSCC.getSet(sccFrom).remove(sccTo);
-      reverseEdgesForSCC.getSet(sccTo).remove(sccFrom);
+    if (!sccFrom.equals(sccTo)) { // Different SCC, so only the SCC edge may go.
+      if (!connected(sccFrom, sccTo)) {
+        edgesForSCC.getSet(sccFrom.id).remove(sccTo.id);
+        reverseEdgesForSCC.getSet(sccTo.id).remove(sccFrom.id);
+      }
       return;
     } else {
       SCC scc = sccTo; // or sccFrom, they're the same
@@ -349,49 +957,73 @@ public class IncrementalPointsTo<Node, HeapItem> {
         // Nothing to update.
         return;
       } else {
+        unindex(scc, pts);
+        cyclic.remove(scc.id);
+
         // Now we just need to: update stale references in edgesForSCCs and
         // reverseEdgesForSCCs
         // For each edge (scc, A) removed from edges, remove (A, scc) from reverseEdges.
-        for (var toRemove : edgesForSCC.removeSet(scc)) {
-          reverseEdgesForSCC.getSet(toRemove).remove(scc);
+        for (var it = edgesForSCC.removeSet(scc.id).iterator(); it.hasNext();) {
+          reverseEdgesForSCC.getSet(it.nextInt()).remove(scc.id);
         }
 
         // For each edge (scc, A) removed from reversed edges, remove (A, scc) from
         // edges.
-        var as = reverseEdgesForSCC.removeSet(scc);
-        for (var a : as) {
-          edgesForSCC.getSet(a).remove(scc);
+        var as = new ArrayList<SCC>();
+        for (var it = reverseEdgesForSCC.removeSet(scc.id).iterator(); it.hasNext();) {
+          int a = it.nextInt();
+          edgesForSCC.getSet(a).remove(scc.id);
+          as.add(sccById(a));
         }
 
         for (SCC newScc : afterDelete) {
-          graph.pointsTo(newScc.rep).addAll(pts);
-          graph.pointsTo(newScc.rep).retainAll(pts);
+          if (!newScc.rep.equals(scc.rep)) {
+            savePointsTo(newScc.rep);
+            setPointsTo(newScc.rep, pts);
+          }
+          index(newScc, pts);
           for (var elem : newScc.elems) {
             // Create "updated" as well so we can calculate edges for only the right sccs
-            sccs.put(elem, newScc);
+            setSCC(elem, newScc);
+          }
+          if (newScc.elems.size() > 1) {
+            cyclic.add(newScc.id);
           }
         }
         calculateEdgesForSCCs(afterDelete);
 
         // Recalculate edges for each node A, in case they go to the newly-created SCCs
         calculateEdgesForSCCs(as);
+        as.forEach(this::touch);
+      }
+    }
+  }
+
+  // Whether some node edge still goes from one SCC to the other.
+  private boolean connected(SCC from, SCC to) {
+    for (var node : from.elems) {
+      for (var target : graph.edges(node)) {
+        if (to.elems.contains(target)) {
+          return true;
+        }
       }
     }
+    return false;
   }
 
   // For each rep, find all edges in SCC to other SCCs.
   // Remove old values at those keys.
   private void calculateEdgesForSCCs(Iterable<SCC> newSCCs) {
     for (var scc : newSCCs) {
-      var toAddTo = edgesForSCC.getSet(scc);
-      reverseEdgesForSCC.getSet(scc); // add empty set
+      var toAddTo = edgesForSCC.getSet(scc.id);
+      reverseEdgesForSCC.getSet(scc.id); // add empty set
       for (var node : scc.elems) {
         for (var to : graph.edges(node)) {
           // Only add edges that go outside of scc
           if (!scc.elems.contains(to)) {
             var rep = scc(to);
-            toAddTo.add(rep);
-            reverseEdgesForSCC.getSet(rep).add(scc);
+            toAddTo.add(rep.id);
+            reverseEdgesForSCC.getSet(rep.id).add(scc.id);
           }
         }
       }
@@ -465,7 +1097,7 @@ public class IncrementalPointsTo<Node, HeapItem> {
 
     // If v is a root node, pop the stack and generate an SCC
     if (v.lowlink == v.index) {
-      Set<Node> set = new LinkedHashSet<>();
+      Set<Node> set = new SmallSet<>();
       SCC scc = new SCC(v.data, set); // v is representative
       TarjanVertex w;
       do {
@@ -485,7 +1117,8 @@ public class IncrementalPointsTo<Node, HeapItem> {
       return result;
     }
 
-    for (SCC next : edgesForSCC.getSet(from)) {
+    for (var it = edgesForSCC.getSet(from.id).iterator(); it.hasNext();) {
+      var next = sccById(it.nextInt());
       if (!seen.contains(next)) {
         seen.add(next);
         var path = path(next, to, seen);
@@ -501,16 +1134,31 @@ public class IncrementalPointsTo<Node, HeapItem> {
 
   /** For testing only */
   Map<Node, SCC> sccs() {
-    return sccs;
+    var result = new LinkedHashMap<Node, SCC>();
+    for (int id = 0; id < sccs.size(); id++) {
+      if (sccs.get(id) != null) {
+        result.put(nodeIds.get(id), sccs.get(id));
+      }
+    }
+    return result;
   }
 
   /** For testing only */
   MultiMap<SCC, SCC> edgesForSCC() {
-    return edgesForSCC;
+    return toMultiMap(edgesForSCC);
   }
 
   /** For testing only */
   MultiMap<SCC, SCC> reverseEdgesForSCC() {
-    return reverseEdgesForSCC;
+    return toMultiMap(reverseEdgesForSCC);
+  }
+
+  private MultiMap<SCC, SCC> toMultiMap(IntMultiMap map) {
+    var result = new MultiMap<SCC, SCC>();
+    for (int key : map.keys()) {
+      var set = result.getSet(sccById(key));
+      map.get(key).forEach(id -> set.add(sccById(id)));
+    }
+    return result;
   }
 }
@@ -2,6 +2,10 @@ package edu.cmu.cs.cs15745.increpta;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -10,6 +14,7 @@ import java.util.Objects;
 import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext.Node;
@@ -23,24 +28,106 @@ import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction.Invocation;
 import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction.Return;
 import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction.StaticInvocation;
 import edu.cmu.cs.cs15745.increpta.util.BiMap;
+import edu.cmu.cs.cs15745.increpta.util.IntPairMap;
 import edu.cmu.cs.cs15745.increpta.util.MultiMap;
 import edu.cmu.cs.cs15745.increpta.util.Pair;
 
 /**
  * Create an incrementally-updating points-to-graph from an AST with context C.
  *
+ * After the graph is built, the program can be edited one instruction (or one
+ * function) at a time through {@link #addInstruction}, {@link #removeInstruction},
+ * {@link #addFunction} and {@link #removeFunction}. Each of these keeps the Ast
+ * and the builder's bookkeeping in sync with the graph, resolves calls on the
+ * fly, and applies the resulting edge changes to the graph as one batch.
+ *
+ * Fields are modeled per variable by default: x.f is one node for every x.
+ * With {@link FieldSensitivity#HEAP_OBJECT}, o.f is one node for every heap item
+ * o, and loads and stores are connected to the fields of whatever their base
+ * variable currently points to.
+ *
+ * With a {@link MemoryBudget}, the graph is kept within a number of nodes and
+ * points-to entries: when a batch grows it past the budget, the contexts of the
+ * functions that cost the most are coarsened (see
+ * {@link ContextBuilder#coarsen}), which merges their nodes, and the batch goes
+ * on. This trades precision for being able to finish at all.
+ *
+ * Instruction edits can be previewed in a {@link Session}, and then kept or
+ * undone.
+ *
  * @param <C> The type of context to associate with each node.
  */
 public class IncrementalPointsToGraphBuilder<C> {
   private final Ast ast;
   private final IncrementalPointsTo<Pair<Node, C>, Pair<Allocation, C>>.Graph result; // The graph we are building
   private final ContextBuilder<C> contextBuilder; // Strategy for merging contexts and creating new contexts.
+  private final FieldSensitivity fieldSensitivity;
+  private final MemoryBudget budget;
+
+  /** How the fields of objects are modeled. */
+  public enum FieldSensitivity {
+    /** A field node per base variable; aliases don't share fields. */
+    VARIABLE,
+    /** A field node per heap item; loads and stores follow the base's points-to set. */
+    HEAP_OBJECT;
+  }
+
+  /** A limit on the size of the graph. */
+  public static final class MemoryBudget {
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(Long.MAX_VALUE, Long.MAX_VALUE);
+
+    private final long maxNodes;
+    private final long maxPointsTo;
+
+    /**
+     * @param maxNodes    The number of (node, context) pairs.
+     * @param maxPointsTo The total size of the points-to sets, counting each SCC
+     *                    once.
+     */
+    public MemoryBudget(long maxNodes, long maxPointsTo) {
+      if (maxNodes < 0 || maxPointsTo < 0) {
+        throw new IllegalArgumentException("Negative budget");
+      }
+      this.maxNodes = maxNodes;
+      this.maxPointsTo = maxPointsTo;
+    }
+
+    boolean exceeded(long nodes, long pointsTo) {
+      return nodes > maxNodes || pointsTo > maxPointsTo;
+    }
+
+    @Override
+    public String toString() {
+      return this == UNLIMITED ? "unlimited" : String.format("%d nodes, %d pts", maxNodes, maxPointsTo);
+    }
+  }
 
   public IncrementalPointsToGraphBuilder(Ast ast, PointsToGraph<Pair<Node, C>, Pair<Allocation, C>> result,
       ContextBuilder<C> contextBuilder) {
+    this(ast, result, contextBuilder, FieldSensitivity.VARIABLE);
+  }
+
+  public IncrementalPointsToGraphBuilder(Ast ast, PointsToGraph<Pair<Node, C>, Pair<Allocation, C>> result,
+      ContextBuilder<C> contextBuilder, FieldSensitivity fieldSensitivity) {
+    this(ast, result, contextBuilder, fieldSensitivity, MemoryBudget.UNLIMITED);
+  }
+
+  public IncrementalPointsToGraphBuilder(Ast ast, PointsToGraph<Pair<Node, C>, Pair<Allocation, C>> result,
+      ContextBuilder<C> contextBuilder, FieldSensitivity fieldSensitivity, MemoryBudget budget) {
     this.ast = Objects.requireNonNull(ast);
     this.result = new IncrementalPointsTo<>(result).build();
     this.contextBuilder = Objects.requireNonNull(contextBuilder);
+    this.fieldSensitivity = Objects.requireNonNull(fieldSensitivity);
+    this.budget = Objects.requireNonNull(budget);
+    this.result.addListener(new ReceiverListener());
+  }
+
+  public ContextBuilder<C> contextBuilder() {
+    return contextBuilder;
+  }
+
+  public FieldSensitivity fieldSensitivity() {
+    return fieldSensitivity;
   }
 
   private boolean alreadyBuilt = false; // Can only be built once
@@ -51,24 +138,17 @@ public class IncrementalPointsToGraphBuilder<C> {
     }
     alreadyBuilt = true;
 
-    // Visitor for adding on-the-fly edges.
-    var onTheFly = new OnTheFlyWorkGenerator();
-    var workList = onTheFly.workList;
-
     // Start with the entrypoints.
-    for (var entryPoint : ast.entryPoints()) {
-      C context = contextBuilder.initial(entryPoint);
-      workList.add(Pair.of(entryPoint, context));
-    }
-
-    while (!workList.isEmpty()) {
-      var curr = workList.remove();
-      new GraphConstructor(curr).build();
-
-      // Visit the instructions in the function body.
-      onTheFly.process(curr);
-    }
+    runBatch(() -> {
+      for (var entryPoint : ast.entryPoints()) {
+        reach(entryPoint, coarsen(entryPoint, contextBuilder.initial(entryPoint)));
+      }
+    });
+    return result;
+  }
 
+  /** The graph, which is only complete once {@link #build} has been called. */
+  public IncrementalPointsTo<Pair<Node, C>, Pair<Allocation, C>>.Graph graph() {
     return result;
   }
 
@@ -76,220 +156,1039 @@ public class IncrementalPointsToGraphBuilder<C> {
   private Map<Ast.Variable, Node> variables = new LinkedHashMap<>();
   private Map<Ast.Instruction.Allocation, Node> heapItems = new LinkedHashMap<>();
   private BiMap<Ast.Variable, Ast.Variable, Node> varFields = new BiMap<>();
+  private BiMap<Ast.Instruction.Allocation, Ast.Variable, Node> heapItemFields = new BiMap<>();
   private MultiMap<Pair<Node, C>, Pair<Pair<Ast.Instruction.Invocation, Ast.Variable>, C>> invocationMethodPairs = new MultiMap<>();
 
-  private MultiMap<Node, C> contextsForNode = new MultiMap<>();
+  // The contexts each node occurs in, with the canonical (node, context) pair
+  // for each. Only canonical pairs are used as nodes of the graph, so they're
+  // allocated once, and compare by reference. Each also has a dense ID, which
+  // is reused once the pair is forgotten.
+  private final Map<Node, Map<C, Pair<Node, C>>> contextsForNode = new LinkedHashMap<>();
+  private final Map<Pair<Node, C>, Integer> ids = new IdentityHashMap<>();
+  private final List<Pair<Node, C>> byId = new ArrayList<>();
+  private final Deque<Integer> freeIds = new ArrayDeque<>();
+
+  // Functions to process, and the contexts each function has been processed in.
+  private final Queue<Pair<Ast.Function, C>> workList = new ArrayDeque<>();
+  private final Set<Pair<Ast.Function, C>> seen = new LinkedHashSet<>();
+  private final MultiMap<Ast.Function, C> contexts = new MultiMap<>();
+
+  // The functions whose contexts have been coarsened to stay within the budget,
+  // with the number of times each has been.
+  private final Map<Ast.Function, Integer> degraded = new LinkedHashMap<>();
+
+  // Call sites (a call instruction in a context) by method name, and the
+  // functions (in their contexts) that each call site is connected to.
+  private final MultiMap<Ast.Variable, Pair<Ast.Instruction, C>> staticCallSites = new MultiMap<>();
+  private final MultiMap<Ast.Variable, Pair<Ast.Instruction, C>> virtualCallSites = new MultiMap<>();
+  private final MultiMap<Pair<Ast.Instruction, C>, Pair<Ast.Function, C>> callees = new MultiMap<>();
+  private final MultiMap<Pair<Ast.Function, C>, Pair<Ast.Instruction, C>> callers = new MultiMap<>();
+
+  // With heap-object fields: the field reads and writes (in a context) through
+  // each base variable, and the heap items whose fields each one is connected to.
+  private final MultiMap<Pair<Node, C>, Pair<Ast.Instruction, C>> fieldSites = new MultiMap<>();
+  private final MultiMap<Pair<Ast.Instruction, C>, Pair<Allocation, C>> fieldTargets = new MultiMap<>();
+
+  // Several instructions can give rise to the same edge, so we count how many
+  // times each edge is used and only delete it when the count reaches zero. We
+  // also count the uses of each node so that unused nodes can be forgotten.
+  // Both are keyed by the IDs of the nodes.
+  private final IntPairMap edgeCounts = new IntPairMap();
+  private int[] nodeUses = new int[16];
+
+  // While a batch is being built: the net change to each edge of the graph, the
+  // call sites to (re-)resolve, and the nodes that might have become unused.
+  private IntPairMap pending = null;
+  private final Set<Pair<Ast.Instruction, C>> dirtySites = new LinkedHashSet<>();
+  private final Set<Pair<Node, C>> unused = new LinkedHashSet<>();
+  private Session session = null; // The open session, if any
+
+  // The canonical pair of the node in the context.
+  private Pair<Node, C> inContext(Node node, C ctx) {
+    var ctxs = computeIfAbsent(contextsForNode, node, unused -> new LinkedHashMap<>());
+    return computeIfAbsent(ctxs, ctx, unused -> {
+      var pair = Pair.of(node, ctx);
+      int id;
+      if (freeIds.isEmpty()) {
+        id = byId.size();
+        byId.add(pair);
+        if (byId.size() > nodeUses.length) {
+          nodeUses = Arrays.copyOf(nodeUses, nodeUses.length * 2);
+        }
+        log(() -> byId.remove(id));
+      } else {
+        id = freeIds.pop();
+        byId.set(id, pair);
+        log(() -> {
+          byId.set(id, null);
+          freeIds.push(id);
+        });
+      }
+      ids.put(pair, id);
+      log(() -> ids.remove(pair));
+      return pair;
+    });
+  }
+
+  private int id(Pair<Node, C> node) {
+    return ids.get(node);
+  }
 
   private Pair<Node, C> heapItem(Ast.Instruction.Allocation item, C ctx) {
-    var node = heapItems.computeIfAbsent(item, Node::heapItem);
-    contextsForNode.getSet(node).add(ctx);
-    return Pair.of(node, ctx);
+    var node = computeIfAbsent(heapItems, item, Node::heapItem);
+    return inContext(node, ctx);
   }
 
   private Pair<Node, C> var(Ast.Variable in, C ctx) {
-    var node = variables.computeIfAbsent(in, Node::variable);
-    contextsForNode.getSet(node).add(ctx);
-    return Pair.of(node, ctx);
+    var node = computeIfAbsent(variables, in, Node::variable);
+    return inContext(node, ctx);
   }
 
   private Pair<Node, C> varFields(Ast.Variable var, Ast.Variable field, C ctx) {
-    var node = varFields.computeIfAbsent(Pair.of(var, field), unused -> Node.varFields(var, field));
-    contextsForNode.getSet(node).add(ctx);
-    return Pair.of(node, ctx);
+    var node = computeIfAbsent(varFields, Pair.of(var, field), unused -> Node.varFields(var, field));
+    return inContext(node, ctx);
   }
 
-  private Set<Pair<Pair<Ast.Instruction.Invocation, Ast.Variable>, C>> invocationMethodPairs(Pair<Node, C> key) {
-    return invocationMethodPairs.getSet(key);
+  private Pair<Node, C> heapItemField(Ast.Instruction.Allocation item, Ast.Variable field, C ctx) {
+    var node = computeIfAbsent(heapItemFields, Pair.of(item, field), unused -> Node.heapItemField(item, field));
+    return inContext(node, ctx);
   }
 
-  // Class that contains a visitor for constructing the graph for a list of
-  // instructions.
-  private final class GraphConstructor {
-    private final List<Ast.Instruction> instructions;
-    private final C context; // The context where we're constructing the graph.
+  // The builder's tables are changed through these while a session may be open,
+  // so that it can log how to undo each change.
+  private void log(Runnable undo) {
+    if (session != null) {
+      session.undo.push(undo);
+    }
+  }
 
-    public GraphConstructor(Pair<Ast.Function, C> job) {
-      instructions = job.fst().body().instructions();
-      context = job.snd();
+  private <K, V> V computeIfAbsent(Map<K, V> map, K key, Function<K, V> compute) {
+    var value = map.get(key);
+    if (value == null) {
+      value = compute.apply(key);
+      map.put(key, value);
+      log(() -> map.remove(key));
     }
+    return value;
+  }
 
-    // Add the node to the added set if it was added this round.
-    Pair<Node, C> lookup(Ast.Variable var) {
-      return var(var, context);
+  private <K, V> V removeKey(Map<K, V> map, K key) {
+    var value = map.remove(key);
+    if (value != null) {
+      log(() -> map.put(key, value));
     }
+    return value;
+  }
 
-    // Add the node to the added set if it was added this round.
-    Pair<Node, C> lookup(Ast.Variable var, Ast.Variable field) {
-      return varFields(var, field, context);
+  private <K, V> void removeKey(MultiMap<K, V> map, K key) {
+    var values = map.removeSet(key);
+    if (!values.isEmpty()) {
+      log(() -> map.put(key, values));
     }
+  }
 
-    // Calculate roots can only be run once.
-    private boolean alreadyRun = false;
+  private <K, V> boolean addTo(MultiMap<K, V> map, K key, V value) {
+    if (!map.getSet(key).add(value)) {
+      return false;
+    }
+    log(() -> map.getSet(key).remove(value));
+    return true;
+  }
 
-    /**
-     * Calculate the root nodes and the heapItems to add at those root nodes. The
-     * client of this function should likely use DFS to add heapItems to all nodes
-     * reachable from the root nodes.
-     */
-    void build() {
-      if (alreadyRun) {
-        throw new IllegalStateException("already run calculateRoots");
+  private <K, V> boolean removeFrom(MultiMap<K, V> map, K key, V value) {
+    if (!map.getSet(key).remove(value)) {
+      return false;
+    }
+    log(() -> map.getSet(key).add(value));
+    return true;
+  }
+
+  /**
+   * Add an instruction to the end of the function's body.
+   *
+   * @return The nodes whose points-to sets changed.
+   */
+  public Set<Pair<Node, C>> addInstruction(Ast.Function f, Ast.Instruction inst) {
+    return addInstruction(f, f.body().instructions().size(), inst);
+  }
+
+  /**
+   * Insert an instruction into the function's body at the given index.
+   *
+   * @return The nodes whose points-to sets changed.
+   */
+  public Set<Pair<Node, C>> addInstruction(Ast.Function f, int index, Ast.Instruction inst) {
+    checkBuilt();
+    f.body().insert(index, inst);
+    log(() -> f.body().remove(index));
+    return runBatch(() -> {
+      for (var ctx : List.copyOf(contexts.getOrDefault(f, Set.of()))) {
+        inst.accept(new Rules(f, ctx, 1).visitor());
+      }
+    });
+  }
+
+  /**
+   * Remove an instruction (by identity) from the function's body.
+   *
+   * @return The nodes whose points-to sets changed.
+   */
+  public Set<Pair<Node, C>> removeInstruction(Ast.Function f, Ast.Instruction inst) {
+    checkBuilt();
+    var instructions = f.body().instructions();
+    int index = -1;
+    for (int i = 0; i < instructions.size() && index < 0; i++) {
+      if (instructions.get(i) == inst) {
+        index = i;
       }
-      alreadyRun = true;
-      instructions.forEach(i -> i.accept(build));
     }
+    if (index < 0) {
+      throw new IllegalArgumentException(String.format("%s is not in the body of %s", inst, f.name()));
+    }
+    f.body().remove(index);
+    int removed = index;
+    log(() -> f.body().insert(removed, inst));
+    return runBatch(() -> {
+      for (var ctx : List.copyOf(contexts.getOrDefault(f, Set.of()))) {
+        inst.accept(new Rules(f, ctx, -1).visitor());
+      }
+    });
+  }
 
-    // See paper: "ECHO: Instantaneous In Situ Race Detection in the IDE"
-    // p.780
-    // https://parasol.tamu.edu/~jeff/academic/echo.pdf
-    private final Ast.Instruction.Visitor<?> build = new Ast.Instruction.StatefulVisitor() {
-      // Rule 2
-      @Override
-      public void iterAssignment(Ast.Instruction.Assignment a) {
-        result.addEdge(lookup(a.source()), lookup(a.target()));
+  /**
+   * Add a function to the program. Call sites that resolve to the new function
+   * are connected to it. Not while a session is open.
+   *
+   * @return The nodes whose points-to sets changed.
+   */
+  public Set<Pair<Node, C>> addFunction(Ast.Function f) {
+    checkBuilt();
+    checkNoSession();
+    ast.addFunction(f);
+    return runBatch(() -> {
+      dirtySites.addAll(staticCallSites.getOrDefault(f.name(), Set.of()));
+      dirtySites.addAll(virtualCallSites.getOrDefault(f.name(), Set.of()));
+    });
+  }
+
+  /**
+   * Remove a function from the program. Its call sites are disconnected from it,
+   * and are re-resolved (e.g. to a method of a superclass) if possible. Not
+   * while a session is open.
+   *
+   * @return The nodes whose points-to sets changed.
+   */
+  public Set<Pair<Node, C>> removeFunction(Ast.Function f) {
+    checkBuilt();
+    checkNoSession();
+    return runBatch(() -> {
+      // Undo the body in every context it was processed in.
+      for (var ctx : List.copyOf(contexts.getOrDefault(f, Set.of()))) {
+        var rules = new Rules(f, ctx, -1).visitor();
+        f.body().instructions().forEach(i -> i.accept(rules));
+      }
+      contexts.remove(f);
+
+      // Then disconnect the callers.
+      for (var job : List.copyOf(seen)) {
+        if (job.fst() == f) {
+          for (var site : List.copyOf(callers.getOrDefault(job, Set.of()))) {
+            connect(site, f, job.snd(), -1);
+          }
+          seen.remove(job);
+        }
       }
+      workList.removeIf(job -> job.fst() == f);
+      ast.removeFunction(f);
+
+      dirtySites.addAll(staticCallSites.getOrDefault(f.name(), Set.of()));
+      dirtySites.addAll(virtualCallSites.getOrDefault(f.name(), Set.of()));
+    });
+  }
+
+  /**
+   * The points-to set of a variable in a context. Empty if the variable isn't
+   * part of the graph in that context.
+   */
+  public Set<Pair<Allocation, C>> pointsTo(Ast.Variable var, C context) {
+    var node = variables.get(var);
+    if (node == null || !contextsForNode.getOrDefault(node, Map.of()).containsKey(context)) {
+      return Set.of();
+    }
+    return result.pointsTo(Pair.of(node, context));
+  }
+
+  /**
+   * The variables (in their contexts) that may point to the allocation in the
+   * context.
+   */
+  public Set<Pair<Ast.Variable, C>> pointedToBy(Allocation item, C context) {
+    var vars = new LinkedHashSet<Pair<Ast.Variable, C>>();
+    for (var node : result.pointedToBy(Pair.of(item, context))) {
+      node.fst().accept(new Node.Visitor<Void>() {
+        @Override
+        public Void visitHeapItem(Allocation item) {
+          return null;
+        }
+
+        @Override
+        public Void visitField(Ast.Variable item, Ast.Variable field) {
+          return null;
+        }
 
-      // Rule 1
+        @Override
+        public Void visitHeapItemField(Allocation item, Ast.Variable field) {
+          return null;
+        }
+
+        @Override
+        public Void visitVariable(Ast.Variable item) {
+          vars.add(Pair.of(item, node.snd()));
+          return null;
+        }
+      });
+    }
+    return vars;
+  }
+
+  /**
+   * The contexts in which the function has been processed.
+   */
+  public Set<C> contexts(Ast.Function f) {
+    return contexts.getOrDefault(f, Set.of());
+  }
+
+  /**
+   * The functions whose contexts have been coarsened to keep the graph within
+   * its budget, with the number of times each has been coarsened.
+   */
+  public Map<Ast.Function, Integer> degraded() {
+    return Collections.unmodifiableMap(degraded);
+  }
+
+  /**
+   * The nodes of a variable, one per context it occurs in.
+   */
+  public Set<Pair<Node, C>> nodes(Ast.Variable var) {
+    var node = variables.get(var);
+    if (node == null) {
+      return Set.of();
+    }
+    return new LinkedHashSet<>(contextsForNode.getOrDefault(node, Map.of()).values());
+  }
+
+  /**
+   * The functions (in their contexts) that a call instruction is connected to
+   * in the context.
+   */
+  public Set<Pair<Ast.Function, C>> callees(Ast.Instruction call, C context) {
+    return Set.copyOf(callees.getOrDefault(Pair.of(call, context), Set.of()));
+  }
+
+  private void checkBuilt() {
+    if (!alreadyBuilt) {
+      throw new IllegalStateException("Must call build before editing.");
+    }
+  }
+
+  // A session only logs what instruction edits change, so functions can't be
+  // added or removed in one.
+  private void checkNoSession() {
+    if (session != null) {
+      throw new IllegalStateException("Can't add or remove functions while a session is open.");
+    }
+  }
+
+  /**
+   * Run several edits (calls to the editing methods above) as one batch, so
+   * that the graph is only updated once. The edits themselves return no
+   * affected nodes while batched.
+   *
+   * @return The nodes whose points-to sets changed.
+   */
+  public Set<Pair<Node, C>> batch(Runnable edits) {
+    checkBuilt();
+    return runBatch(edits);
+  }
+
+  /**
+   * Start a session. Until it's committed or rolled back, the changes that
+   * instruction edits make, to the graph (see {@link IncrementalPointsTo.Graph#begin})
+   * and to the Ast and the builder's own tables, are logged, so that rolling
+   * back restores them without propagating the inverse edits. Only one session
+   * can be open at a time, and none can be open on the graph itself.
+   */
+  public Session begin() {
+    checkBuilt();
+    if (session != null || pending != null) {
+      throw new IllegalStateException("A session or batch is already open.");
+    }
+    session = new Session(result.begin());
+    return session;
+  }
+
+  /**
+   * The instruction edits made since {@link #begin}, which can be kept
+   * ({@link #commit}) or undone ({@link #rollback}). Like the graph's sessions,
+   * closing one that's still open rolls it back.
+   *
+   * Alongside the graph's session, it logs how to undo each change to the Ast
+   * and to the builder's tables (the edge counts and node uses, the nodes and
+   * their contexts, the call sites and what they're connected to, and the
+   * contexts each function has been processed in), newest first.
+   */
+  public final class Session implements AutoCloseable {
+    private final IncrementalPointsTo<Pair<Node, C>, Pair<Allocation, C>>.Session graphSession;
+    private final Deque<Runnable> undo = new ArrayDeque<>();
+    private final Set<Pair<Ast.Instruction, C>> savedDirtySites = new LinkedHashSet<>(dirtySites);
+
+    private Session(IncrementalPointsTo<Pair<Node, C>, Pair<Allocation, C>>.Session graphSession) {
+      this.graphSession = graphSession;
+    }
+
+    public boolean isOpen() {
+      return session == this;
+    }
+
+    private void checkOpen() {
+      if (!isOpen()) {
+        throw new IllegalStateException("The session is closed.");
+      }
+    }
+
+    /** Keep the changes. */
+    public void commit() {
+      checkOpen();
+      session = null;
+      graphSession.commit();
+    }
+
+    /** Undo the changes. */
+    public void rollback() {
+      checkOpen();
+      session = null;
+      graphSession.rollback();
+      while (!undo.isEmpty()) {
+        undo.pop().run();
+      }
+      // The graph's listeners are told about the points-to sets that change
+      // back, but the call sites they dirty are already resolved as they were.
+      dirtySites.clear();
+      dirtySites.addAll(savedDirtySites);
+    }
+
+    /** Roll back, unless already committed or rolled back. */
+    @Override
+    public void close() {
+      if (isOpen()) {
+        rollback();
+      }
+    }
+  }
+
+  // Run a change to the program as one batch: the edge changes it causes are
+  // collected, and then applied to the graph (deletions first). Applying the
+  // changes can lead to new calls being resolved, and so on, so we repeat until
+  // there are no more changes.
+  private Set<Pair<Node, C>> runBatch(Runnable change) {
+    if (pending != null) {
+      change.run();
+      return Set.of();
+    }
+    var affected = new LinkedHashSet<Pair<Node, C>>();
+    pending = new IntPairMap();
+    try {
+      change.run();
+      while (!pending.isEmpty() || !workList.isEmpty() || !dirtySites.isEmpty()) {
+        drainWorkList();
+        var changes = pending;
+        pending = new IntPairMap();
+        changes.forEach((from, to, net) -> {
+          if (net < 0) {
+            affected.addAll(result.deleteEdge(byId.get(from), byId.get(to)));
+          }
+        });
+        changes.forEach((from, to, net) -> {
+          if (net > 0) {
+            affected.addAll(result.addEdge(byId.get(from), byId.get(to)));
+          }
+        });
+        if (overBudget()) {
+          degradeCostliest();
+        }
+        var sites = List.copyOf(dirtySites);
+        dirtySites.clear();
+        sites.forEach(this::resolve);
+      }
+      forgetUnused();
+    } finally {
+      pending = null;
+    }
+    return affected;
+  }
+
+  // Add an edge to the graph (or remove it, for sign -1) on behalf of some
+  // instruction.
+  private void edge(Pair<Node, C> from, Pair<Node, C> to, int sign) {
+    int f = id(from);
+    int t = id(to);
+    if (sign < 0 && edgeCounts.get(f, t) == 0) {
+      throw new IllegalStateException("Removed an edge that was never added: " + Pair.of(from, to));
+    }
+    int count = edgeCounts.add(f, t, sign);
+    log(() -> edgeCounts.add(f, t, -sign));
+
+    if (sign > 0 && count == 1 || sign < 0 && count == 0) {
+      use(from, sign);
+      use(to, sign);
+      pending.add(f, t, sign);
+    }
+  }
+
+  // Virtual calls (and, with heap-object fields, field accesses) are re-resolved
+  // whenever the points-to set of their receiver changes, so that the call
+  // graph grows and shrinks with the points-to sets.
+  private final class ReceiverListener implements IncrementalPointsTo.Listener<Pair<Node, C>, Pair<Allocation, C>> {
+    @Override
+    public void added(Set<Pair<Node, C>> nodes, Set<Pair<Allocation, C>> delta) {
+      changed(nodes);
+    }
+
+    @Override
+    public void removed(Set<Pair<Node, C>> nodes, Set<Pair<Allocation, C>> delta) {
+      changed(nodes);
+    }
+
+    // Few nodes are receivers, but SCCs can be big, so look up whichever is
+    // fewer: the nodes, or the receivers.
+    private void changed(Set<Pair<Node, C>> nodes) {
+      if (nodes.size() <= invocationMethodPairs.size() + fieldSites.size()) {
+        for (var node : nodes) {
+          calls(invocationMethodPairs.get(node));
+          fields(fieldSites.get(node));
+        }
+      } else {
+        invocationMethodPairs.forEach((node, pairs) -> {
+          if (nodes.contains(node)) {
+            calls(pairs);
+          }
+        });
+        fieldSites.forEach((node, sites) -> {
+          if (nodes.contains(node)) {
+            fields(sites);
+          }
+        });
+      }
+    }
+
+    private void calls(Set<Pair<Pair<Ast.Instruction.Invocation, Ast.Variable>, C>> pairs) {
+      if (pairs != null) {
+        for (var pair : pairs) {
+          dirtySites.add(Pair.of(pair.fst().fst(), pair.snd()));
+        }
+      }
+    }
+
+    private void fields(Set<Pair<Ast.Instruction, C>> sites) {
+      if (sites != null) {
+        dirtySites.addAll(sites);
+      }
+    }
+  }
+
+  private void use(Pair<Node, C> node, int sign) {
+    int id = id(node);
+    int count = nodeUses[id] += sign;
+    log(() -> nodeUses[id] -= sign);
+    if (count == 0) {
+      unused.add(node);
+    }
+  }
+
+  // Forget the nodes that are no longer used by any instruction, once their
+  // edges have been removed from the graph.
+  private void forgetUnused() {
+    for (var node : unused) {
+      var id = ids.get(node);
+      if (id == null || nodeUses[id] == 0) {
+        forget(node);
+      }
+    }
+    unused.clear();
+  }
+
+  private void forget(Pair<Node, C> node) {
+    removeKey(invocationMethodPairs, node);
+    removeKey(fieldSites, node);
+    var ctxs = contextsForNode.getOrDefault(node.fst(), Map.of());
+    if (ctxs.get(node.snd()) == node) {
+      removeKey(ctxs, node.snd());
+      int id = removeKey(ids, node);
+      byId.set(id, null);
+      freeIds.push(id);
+      log(() -> {
+        freeIds.pop();
+        byId.set(id, node);
+      });
+    }
+    boolean lastContext = ctxs.isEmpty();
+    if (lastContext) {
+      removeKey(contextsForNode, node.fst());
+    }
+    node.fst().accept(new Node.Visitor<Void>() {
       @Override
-      public void iterAllocation(Ast.Instruction.Allocation a) {
-        var node = heapItem(a, context);
-        var target = lookup(a.target());
-        result.pointsTo(node).add(Pair.of(a, context));
-        result.addEdge(node, target);
+      public Void visitHeapItem(Allocation item) {
+        result.deletePointsTo(node, Pair.of(item, node.snd())); // The node has no more edges.
+        if (lastContext) {
+          removeKey(heapItems, item);
+        }
+        return null;
       }
 
-      // Rule 4; x.f = y
       @Override
-      public void iterFieldWrite(Ast.Instruction.FieldWrite fw) {
-        result.addEdge(lookup(fw.source()), lookup(fw.target(), fw.field()));
+      public Void visitField(Ast.Variable item, Ast.Variable field) {
+        if (lastContext) {
+          removeKey(varFields, Pair.of(item, field));
+        }
+        return null;
       }
 
-      // Rule 3; x = y.f
       @Override
-      public void iterFieldRead(Ast.Instruction.FieldRead fr) {
-        result.addEdge(lookup(fr.source(), fr.field()), lookup(fr.target()));
+      public Void visitHeapItemField(Allocation item, Ast.Variable field) {
+        if (lastContext) {
+          removeKey(heapItemFields, Pair.of(item, field));
+        }
+        return null;
       }
 
-      // Rule 5 specialized for static functions
       @Override
-      public void iterStaticInvocation(Ast.Instruction.StaticInvocation s) {
-        var optF = ast.staticFunction(s.method());
-        if (optF.isEmpty())
-          return;
-        var f = optF.get();
-        var params = f.params();
-        var args = s.arguments();
-        int n = Math.min(args.size(), params.size());
-        for (int i = 0; i < n; i++) {
-          result.addEdge(lookup(args.get(i)), lookup(params.get(i)));
+      public Void visitVariable(Ast.Variable item) {
+        if (lastContext) {
+          removeKey(variables, item);
         }
+        return null;
+      }
+    });
+  }
 
-        // Add edge from return z to target x
-        s.target().ifPresent(target -> {
-          var x = lookup(target);
-          for (var ret : f.body().returns()) {
-            var z = lookup(ret.returned());
-            result.addEdge(x, z);
-          }
-        });
+  // The context of f when called in the given context, coarsened as many times
+  // as f has been degraded.
+  private C calleeContext(C context, Ast.Function f) {
+    return coarsen(f, contextBuilder.merge(context, f));
+  }
+
+  private C coarsen(Ast.Function f, C context) {
+    for (int i = degraded.getOrDefault(f, 0); i > 0; i--) {
+      context = contextBuilder.coarsen(context);
+    }
+    return context;
+  }
+
+  // Whether the graph is over budget. Only called between applying the changes
+  // to the graph and making new ones, when unused nodes can be forgotten.
+  private boolean overBudget() {
+    if (!budget.exceeded(ids.size(), result.pointsToSize())) {
+      return false;
+    }
+    // Don't count the nodes that earlier degradation left unused.
+    forgetUnused();
+    return budget.exceeded(ids.size(), result.pointsToSize());
+  }
+
+  // Coarsen the contexts of the function whose coarsening merges the most
+  // instructions' worth of nodes, if any.
+  private void degradeCostliest() {
+    Ast.Function costliest = null;
+    long maxSaving = 0;
+    for (var entry : contexts.entrySet()) {
+      var f = entry.getKey();
+      var ctxs = entry.getValue();
+      long merged = ctxs.size() - ctxs.stream().map(contextBuilder::coarsen).distinct().count();
+      long saving = merged * (f.params().size() + f.body().instructions().size());
+      if (saving > maxSaving) {
+        costliest = f;
+        maxSaving = saving;
       }
-    }.visitor();
+    }
+    if (costliest != null) {
+      degrade(costliest);
+    }
   }
 
-  private final class OnTheFlyWorkGenerator {
+  // Move the function to coarser contexts: undo its body in each context that
+  // changes, like removeFunction does, and re-resolve its callers, which then
+  // connect to the coarser contexts. Nodes left unused are forgotten at the end
+  // of the batch.
+  private void degrade(Ast.Function f) {
+    var times = degraded.merge(f, 1, Integer::sum);
+    log(() -> {
+      if (times == 1) {
+        degraded.remove(f);
+      } else {
+        degraded.put(f, times - 1);
+      }
+    });
+    for (var job : List.copyOf(seen)) {
+      var ctx = job.snd();
+      if (job.fst() != f || contextBuilder.coarsen(ctx).equals(ctx)) {
+        continue;
+      }
+      if (removeFrom(contexts, f, ctx)) {
+        var rules = new Rules(f, ctx, -1).visitor();
+        f.body().instructions().forEach(i -> i.accept(rules));
+      }
+      seen.remove(job);
+      log(() -> seen.add(job));
+      workList.remove(job);
+      dirtySites.addAll(callers.getOrDefault(job, Set.of()));
+    }
+    if (ast.entryPoints().contains(f)) {
+      reach(f, coarsen(f, contextBuilder.initial(f)));
+    }
+  }
 
-    // This is where you put work.
-    private final Queue<Pair<Ast.Function, C>> workList = new ArrayDeque<>();
-    private final Set<Pair<Ast.Function, C>> seen = new LinkedHashSet<>();
+  private void reach(Ast.Function f, C context) {
+    var job = Pair.of(f, context);
+    if (seen.add(job)) {
+      log(() -> seen.remove(job));
+      workList.add(job);
+    }
+  }
 
-    // Processing is visiting each of the instructions in a function.
-    void process(Pair<Ast.Function, C> job) {
-      C currentContext = job.snd();
-      var visitor = new Visitor(currentContext).visitor();
-      job.fst().body().instructions().forEach(i -> i.accept(visitor));
+  private void drainWorkList() {
+    while (!workList.isEmpty()) {
+      var curr = workList.remove();
+      process(curr.fst(), curr.snd());
     }
+  }
 
-    private void connectInvocationToFunction(Ast.Instruction.Invocation inv, Ast.Function f, C invContext) {
-      var fContext = contextBuilder.merge(invContext, f);
-      var params = f.params();
-      // Arguments includes both o and all of y
-      List<Ast.Variable> args = new ArrayList<>();
-      args.add(inv.source());
-      args.addAll(inv.arguments());
+  // Processing is visiting each of the instructions in a function. Calls are
+  // visited last so that they are resolved against as much of the function's
+  // points-to information as possible.
+  private void process(Ast.Function f, C context) {
+    addTo(contexts, f, context);
+    var rules = new Rules(f, context, 1).visitor();
+    var calls = new ArrayList<Ast.Instruction>();
+    for (var inst : f.body().instructions()) {
+      if (inst instanceof Invocation || inst instanceof StaticInvocation) {
+        calls.add(inst);
+      } else {
+        inst.accept(rules);
+      }
+    }
+    calls.forEach(inst -> inst.accept(rules));
+  }
 
-      // This must be varargs.
-      if (args.size() != params.size()) {
-        // It's possible to pass 0 varargs to a function.
-        boolean validDifference = args.size() >= params.size() - 1;
-        if (!validDifference) {
-          throw new IllegalStateException(String.format("Illegal call to: %s; expected %d params, got %d args",
-              f.name(), params.size(), args.size()));
+  // Resolve a call site against the current program and points-to sets, and
+  // connect it to exactly the functions it resolves to.
+  private void resolve(Pair<Ast.Instruction, C> site) {
+    if (site.fst() instanceof FieldWrite || site.fst() instanceof FieldRead) {
+      resolveField(site);
+      return;
+    }
+    var inst = site.fst();
+    var ctx = site.snd();
+    var targets = new LinkedHashSet<Pair<Ast.Function, C>>();
+    inst.accept(new Ast.Instruction.StatefulVisitor() {
+      @Override
+      public void iterStaticInvocation(StaticInvocation s) {
+        if (staticCallSites.getOrDefault(s.method(), Set.of()).contains(site)) {
+          ast.staticFunction(s.method()).ifPresent(f -> targets.add(Pair.of(f, calleeContext(ctx, f))));
         }
       }
 
-      int n = Math.min(args.size(), params.size());
-      for (int i = 0; i < n; i++) {
-        // Edge goes from y to y'
-        var y = var(args.get(i), invContext);
-        var yPrime = var(params.get(i), fContext);
-        result.addEdge(y, yPrime);
+      @Override
+      public void iterInvocation(Invocation inv) {
+        if (virtualCallSites.getOrDefault(inv.method(), Set.of()).contains(site)) {
+          for (var pair : List.copyOf(result.pointsTo(var(inv.source(), ctx)))) {
+            var heapItem = pair.fst();
+            ast.instanceMethod(heapItem.type(), inv.method())
+                .ifPresent(f -> targets.add(Pair.of(f, calleeContext(ctx, f))));
+          }
+        }
       }
+    }.visitor());
 
-      // Add edge from return z to target x
-      var target = inv.target();
-      if (target.isPresent()) {
-        var x = var(target.get(), invContext);
-        for (var ret : f.body().returns()) {
-          var z = var(ret.returned(), fContext);
-          result.addEdge(z, x);
-        }
+    for (var target : List.copyOf(callees.getOrDefault(site, Set.of()))) {
+      if (!targets.contains(target)) {
+        connect(site, target.fst(), target.snd(), -1);
       }
+    }
+    for (var target : targets) {
+      if (!callees.getSet(site).contains(target)) {
+        connect(site, target.fst(), target.snd(), 1);
+      }
+    }
+  }
 
-      // Add to worklist if needed
-      var job = Pair.of(f, fContext);
-      if (seen.add(job)) {
-        workList.add(job);
+  // Rules 3 and 4 for heap-object fields: connect a field access to the field of
+  // exactly the heap items its base variable points to.
+  private void resolveField(Pair<Ast.Instruction, C> site) {
+    var inst = site.fst();
+    var ctx = site.snd();
+    var base = inst instanceof FieldWrite ? ((FieldWrite) inst).target() : ((FieldRead) inst).source();
+    var node = variables.get(base);
+    var targets = new LinkedHashSet<Pair<Allocation, C>>();
+    if (node != null && fieldSites.getOrDefault(Pair.of(node, ctx), Set.of()).contains(site)) {
+      targets.addAll(result.pointsTo(Pair.of(node, ctx)));
+    }
+
+    for (var item : List.copyOf(fieldTargets.getSet(site))) {
+      if (!targets.contains(item)) {
+        removeFrom(fieldTargets, site, item);
+        fieldEdge(inst, ctx, item, -1);
+      }
+    }
+    for (var item : targets) {
+      if (addTo(fieldTargets, site, item)) {
+        fieldEdge(inst, ctx, item, 1);
       }
     }
+    if (fieldTargets.getSet(site).isEmpty()) {
+      removeKey(fieldTargets, site);
+    }
+  }
 
-    // Visitor for the current context that adds to the worklist.
-    private final class Visitor extends Ast.Instruction.StatefulVisitor {
-      private final C currentContext;
+  private void fieldEdge(Ast.Instruction inst, C ctx, Pair<Allocation, C> item, int sign) {
+    if (inst instanceof FieldWrite) {
+      var fw = (FieldWrite) inst;
+      edge(var(fw.source(), ctx), heapItemField(item.fst(), fw.field(), item.snd()), sign);
+    } else {
+      var fr = (FieldRead) inst;
+      edge(heapItemField(item.fst(), fr.field(), item.snd()), var(fr.target(), ctx), sign);
+    }
+  }
 
-      private Visitor(C context) {
-        currentContext = context;
+  // Rule 5: x = o.m(y), calling m(y'){ return z }. Connects (or, for sign -1,
+  // disconnects) the call site to f in context fContext.
+  private void connect(Pair<Ast.Instruction, C> site, Ast.Function f, C fContext, int sign) {
+    var inst = site.fst();
+    var invContext = site.snd();
+    var params = f.params();
+    // For instance calls, arguments includes both o and all of y
+    List<Ast.Variable> args = new ArrayList<>();
+    Optional<Ast.Variable> target = inst.accept(new Ast.Instruction.Visitor<Optional<Ast.Variable>>() {
+      @Override
+      public Optional<Ast.Variable> visitAssignment(Assignment a) {
+        throw new IllegalArgumentException("Not a call: " + a);
       }
 
-      // Might need to add a new static function to the worklist
       @Override
-      public void iterStaticInvocation(Ast.Instruction.StaticInvocation i) {
-        var optF = ast.staticFunction(i.method());
-        if (optF.isEmpty())
-          return;
-        var f = optF.get();
-        var job = Pair.of(f, contextBuilder.merge(currentContext, f));
-        if (seen.add(job)) {
-          workList.add(job);
-        }
+      public Optional<Ast.Variable> visitAllocation(Allocation a) {
+        throw new IllegalArgumentException("Not a call: " + a);
+      }
+
+      @Override
+      public Optional<Ast.Variable> visitFieldWrite(FieldWrite fw) {
+        throw new IllegalArgumentException("Not a call: " + fw);
+      }
+
+      @Override
+      public Optional<Ast.Variable> visitFieldRead(FieldRead fr) {
+        throw new IllegalArgumentException("Not a call: " + fr);
       }
 
-      // Rule 5: x = o.m(y), calling m(y'){ return z }
       @Override
-      public void iterInvocation(Ast.Instruction.Invocation inv) {
-        var o = var(inv.source(), currentContext);
-        var m = inv.method();
-
-        // Keep track of methods called on this variable so we can properly
-        // add new calls if we encounter it during a future dfs.
-        invocationMethodPairs(o).add(Pair.of(Pair.of(inv, m), currentContext));
-        for (var pair : List.copyOf(result.pointsTo(o))) {
-          var heapItem = pair.fst();
-          ast.instanceMethod(heapItem.type(), m).ifPresent(f -> connectInvocationToFunction(inv, f, currentContext));
+      public Optional<Ast.Variable> visitStaticInvocation(StaticInvocation s) {
+        args.addAll(s.arguments());
+        return s.target();
+      }
+
+      @Override
+      public Optional<Ast.Variable> visitInvocation(Invocation i) {
+        args.add(i.source());
+        args.addAll(i.arguments());
+
+        // This must be varargs.
+        if (args.size() != params.size()) {
+          // It's possible to pass 0 varargs to a function.
+          boolean validDifference = args.size() >= params.size() - 1;
+          if (!validDifference) {
+            throw new IllegalStateException(String.format("Illegal call to: %s; expected %d params, got %d args",
+                f.name(), params.size(), args.size()));
+          }
         }
+        return i.target();
+      }
+
+      @Override
+      public Optional<Ast.Variable> visitReturn(Return r) {
+        throw new IllegalArgumentException("Not a call: " + r);
+      }
+    });
+
+    var job = Pair.of(f, fContext);
+    if (sign > 0) {
+      addTo(callees, site, job);
+      addTo(callers, job, site);
+    } else {
+      removeFrom(callees, site, job);
+      removeFrom(callers, job, site);
+    }
+
+    int n = Math.min(args.size(), params.size());
+    for (int i = 0; i < n; i++) {
+      // Edge goes from y to y'
+      var y = var(args.get(i), invContext);
+      var yPrime = var(params.get(i), fContext);
+      edge(y, yPrime, sign);
+    }
+
+    // Add edge from return z to target x. If f hasn't been processed in this
+    // context yet, the return instructions will add the edges when it is.
+    if (target.isPresent() && contexts.getOrDefault(f, Set.of()).contains(fContext)) {
+      var x = var(target.get(), invContext);
+      for (var ret : f.body().returns()) {
+        var z = var(ret.returned(), fContext);
+        edge(z, x, sign);
+      }
+    }
+
+    // Add to worklist if needed
+    if (sign > 0) {
+      reach(f, fContext);
+    }
+  }
+
+  // Visitor that adds (or, for sign -1, removes) the edges for an instruction
+  // of the function f in the given context.
+  //
+  // See paper: "ECHO: Instantaneous In Situ Race Detection in the IDE"
+  // p.780
+  // https://parasol.tamu.edu/~jeff/academic/echo.pdf
+  private final class Rules extends Ast.Instruction.StatefulVisitor {
+    private final Ast.Function function;
+    private final C context; // The context where we're constructing the graph.
+    private final int sign;
+
+    Rules(Ast.Function function, C context, int sign) {
+      this.function = function;
+      this.context = context;
+      this.sign = sign;
+    }
+
+    Pair<Node, C> lookup(Ast.Variable var) {
+      return var(var, context);
+    }
+
+    Pair<Node, C> lookup(Ast.Variable var, Ast.Variable field) {
+      return varFields(var, field, context);
+    }
+
+    // Rule 2
+    @Override
+    public void iterAssignment(Ast.Instruction.Assignment a) {
+      edge(lookup(a.source()), lookup(a.target()), sign);
+    }
+
+    // Rule 1
+    @Override
+    public void iterAllocation(Ast.Instruction.Allocation a) {
+      var node = heapItem(a, context);
+      var target = lookup(a.target());
+      if (sign > 0) {
+        result.addPointsTo(node, Pair.of(a, context));
+      }
+      edge(node, target, sign);
+    }
+
+    // Rule 4; x.f = y
+    @Override
+    public void iterFieldWrite(Ast.Instruction.FieldWrite fw) {
+      if (fieldSensitivity == FieldSensitivity.VARIABLE) {
+        edge(lookup(fw.source()), lookup(fw.target(), fw.field()), sign);
+      } else {
+        fieldAccess(fw, fw.target());
+      }
+    }
+
+    // Rule 3; x = y.f
+    @Override
+    public void iterFieldRead(Ast.Instruction.FieldRead fr) {
+      if (fieldSensitivity == FieldSensitivity.VARIABLE) {
+        edge(lookup(fr.source(), fr.field()), lookup(fr.target()), sign);
+      } else {
+        fieldAccess(fr, fr.source());
+      }
+    }
+
+    // With heap-object fields, the edges of a field access depend on the
+    // points-to set of its base, so it's resolved like a virtual call.
+    private void fieldAccess(Ast.Instruction inst, Ast.Variable base) {
+      var o = lookup(base);
+      var site = Pair.of(inst, context);
+      if (sign > 0) {
+        addTo(fieldSites, o, site);
+      } else {
+        removeFrom(fieldSites, o, site);
+      }
+      use(o, sign);
+      call(site);
+    }
+
+    // Rule 5 specialized for static functions
+    @Override
+    public void iterStaticInvocation(Ast.Instruction.StaticInvocation s) {
+      var site = Pair.<Ast.Instruction, C>of(s, context);
+      if (sign > 0) {
+        addTo(staticCallSites, s.method(), site);
+      } else {
+        removeFrom(staticCallSites, s.method(), site);
+      }
+      call(site);
+    }
+
+    // Rule 5: x = o.m(y), calling m(y'){ return z }
+    @Override
+    public void iterInvocation(Ast.Instruction.Invocation inv) {
+      var o = lookup(inv.source());
+      var m = inv.method();
+      var site = Pair.<Ast.Instruction, C>of(inv, context);
+
+      // Keep track of methods called on this variable so we can properly
+      // add new calls if we encounter it during a future dfs.
+      if (sign > 0) {
+        addTo(invocationMethodPairs, o, Pair.of(Pair.of(inv, m), context));
+        addTo(virtualCallSites, m, site);
+      } else {
+        removeFrom(invocationMethodPairs, o, Pair.of(Pair.of(inv, m), context));
+        removeFrom(virtualCallSites, m, site);
+      }
+      use(o, sign);
+      call(site);
+    }
+
+    // The returned value flows to the target of each call connected to this
+    // function in this context.
+    @Override
+    public void iterReturn(Ast.Instruction.Return r) {
+      var z = lookup(r.returned());
+      for (var site : List.copyOf(callers.getOrDefault(Pair.of(function, context), Set.of()))) {
+        callTarget(site.fst()).ifPresent(x -> edge(z, var(x, site.snd()), sign));
+      }
+    }
+
+    // New call sites are resolved once the current batch of edges has been
+    // applied. Removed call sites are disconnected from everything.
+    private void call(Pair<Ast.Instruction, C> site) {
+      if (sign < 0) {
+        resolve(site);
+        removeKey(callees, site);
+        removeKey(fieldTargets, site);
+      } else {
+        dirtySites.add(site);
       }
     }
   }
 
+  private static Optional<Ast.Variable> callTarget(Ast.Instruction call) {
+    if (call instanceof Invocation) {
+      return ((Invocation) call).target();
+    } else {
+      return ((StaticInvocation) call).target();
+    }
+  }
+
   /**
    * Get the edges involved in the instruction.
    */
@@ -314,16 +1213,39 @@ public class IncrementalPointsToGraphBuilder<C> {
       @Override
       public Set<Pair<Node, Node>> visitFieldWrite(FieldWrite fw) {
         var result = new LinkedHashSet<Pair<Node, Node>>();
-        Optional.ofNullable(variables.get(fw.source())).ifPresent(n1 -> Optional
-            .ofNullable(varFields.get(fw.target(), fw.field())).ifPresent(n2 -> result.add(Pair.of(n1, n2))));
+        Optional.ofNullable(variables.get(fw.source())).ifPresent(n1 -> {
+          for (var n2 : fieldNodes(fw.target(), fw.field())) {
+            result.add(Pair.of(n1, n2));
+          }
+        });
         return result;
       }
 
       @Override
       public Set<Pair<Node, Node>> visitFieldRead(FieldRead fr) {
         var result = new LinkedHashSet<Pair<Node, Node>>();
-        Optional.ofNullable(varFields.get(fr.source(), fr.field())).ifPresent(
-            n1 -> Optional.ofNullable(variables.get(fr.target())).ifPresent(n2 -> result.add(Pair.of(n1, n2))));
+        Optional.ofNullable(variables.get(fr.target())).ifPresent(n2 -> {
+          for (var n1 : fieldNodes(fr.source(), fr.field())) {
+            result.add(Pair.of(n1, n2));
+          }
+        });
+        return result;
+      }
+
+      // The nodes that var.field can refer to.
+      Set<Node> fieldNodes(Ast.Variable var, Ast.Variable field) {
+        var result = new LinkedHashSet<Node>();
+        if (fieldSensitivity == FieldSensitivity.VARIABLE) {
+          Optional.ofNullable(varFields.get(var, field)).ifPresent(result::add);
+          return result;
+        }
+        var node = variables.get(var);
+        if (node == null) return result;
+        for (var nodeWithContext : contextsForNode.getOrDefault(node, Map.of()).values()) {
+          for (var pair : IncrementalPointsToGraphBuilder.this.result.pointsTo(nodeWithContext)) {
+            Optional.ofNullable(heapItemFields.get(pair.fst(), field)).ifPresent(result::add);
+          }
+        }
         return result;
       }
 
@@ -337,7 +1259,7 @@ public class IncrementalPointsToGraphBuilder<C> {
         var returns = f.body().returns();
         return it(params, args, returns, s.target());
       }
-      
+
       Set<Pair<Node, Node>> it(List<Ast.Variable> params, List<Ast.Variable> args, List<Ast.Instruction.Return> returns, Optional<Ast.Variable> target) {
         var result = new LinkedHashSet<Pair<Node, Node>>();
         int n = Math.min(args.size(), params.size());
@@ -352,11 +1274,11 @@ public class IncrementalPointsToGraphBuilder<C> {
         target.ifPresent(t -> {
           Optional.ofNullable(variables.get(t)).ifPresent(x -> {
             for (var ret : returns) {
-              Optional.ofNullable(variables.get(ret.returned())).ifPresent(z -> result.add(Pair.of(x, z)));
+              Optional.ofNullable(variables.get(ret.returned())).ifPresent(z -> result.add(Pair.of(z, x)));
             }
           });
         });
-        
+
         return result;
       }
 
@@ -366,8 +1288,7 @@ public class IncrementalPointsToGraphBuilder<C> {
         var acc = new LinkedHashSet<Pair<Node, Node>>();
         var m = i.method();
         if (node == null) return acc;
-        for (var c : contextsForNode.get(node)) {
-          var nodeWithContext = Pair.of(node, c);
+        for (var nodeWithContext : contextsForNode.getOrDefault(node, Map.of()).values()) {
           for (var pair : result.pointsTo(nodeWithContext)) {
             var heapItem = pair.fst();
             ast.instanceMethod(heapItem.type(), m).ifPresent(f -> {
@@ -391,11 +1312,10 @@ public class IncrementalPointsToGraphBuilder<C> {
     return answer.stream().flatMap(pair -> {
       var n1 = pair.fst();
       var n2 = pair.snd();
-      return contextsForNode.get(n1).stream().flatMap(c1 -> {
-        var v1 = Pair.of(n1, c1);
-        return contextsForNode.get(n2).stream().map(c2 -> Pair.of(v1, Pair.of(n2, c2)))
+      return contextsForNode.getOrDefault(n1, Map.of()).values().stream().flatMap(v1 -> {
+        return contextsForNode.getOrDefault(n2, Map.of()).values().stream().map(v2 -> Pair.of(v1, v2))
             .filter(p -> result.edges(p.fst()).contains(p.snd()));
       });
     }).collect(Collectors.toSet());
   }
-}
\ No newline at end of file
+}
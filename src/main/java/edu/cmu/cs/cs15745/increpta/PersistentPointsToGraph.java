@@ -0,0 +1,175 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+
+import edu.cmu.cs.cs15745.increpta.util.Indexer;
+import edu.cmu.cs.cs15745.increpta.util.PersistentArray;
+import edu.cmu.cs.cs15745.increpta.util.SortedIntSetView;
+import edu.cmu.cs.cs15745.increpta.util.SortedInts;
+import edu.cmu.cs.cs15745.increpta.util.Util;
+
+/**
+ * Points-to graph whose clones share structure with it, so that cloning is
+ * O(1), and a change to a clone (or the original) only copies what it touches.
+ *
+ * Like {@link SimplePointsToGraph}, it is not "smart". Each node's edges and
+ * points-to set are immutable sorted arrays of IDs, kept in
+ * {@link PersistentArray}s. The IDs are handed out by indexers that are shared
+ * with all clones, so a graph and its clones must be used from one thread.
+ *
+ * @param <Node>     The node type.
+ * @param <HeapItem> The heap item type.
+ */
+public class PersistentPointsToGraph<Node, HeapItem> implements PointsToGraph<Node, HeapItem> {
+  private final Indexer<Node> nodeIds;
+  private final Indexer<HeapItem> itemIds;
+  private final PersistentArray<int[]> edges; // Null for IDs that aren't nodes of this graph
+  private final PersistentArray<int[]> pointsTo; // Null for empty sets
+
+  // Disallow outside instantiation
+  PersistentPointsToGraph() {
+    this(new Indexer<>(), new Indexer<>(), new PersistentArray<>(), new PersistentArray<>());
+  }
+
+  private PersistentPointsToGraph(Indexer<Node> nodeIds, Indexer<HeapItem> itemIds, PersistentArray<int[]> edges,
+      PersistentArray<int[]> pointsTo) {
+    this.nodeIds = nodeIds;
+    this.itemIds = itemIds;
+    this.edges = edges;
+    this.pointsTo = pointsTo;
+  }
+
+  private int[] targets(int node) {
+    var result = node < 0 ? null : edges.get(node);
+    return result == null ? SortedInts.NONE : result;
+  }
+
+  private int[] items(int node) {
+    var result = pointsTo.get(node);
+    return result == null ? SortedInts.NONE : result;
+  }
+
+  private void addNode(int node) {
+    if (edges.get(node) == null) {
+      edges.set(node, SortedInts.NONE);
+    }
+  }
+
+  /**
+   * Add directed edge from "from" to "to".
+   */
+  @Override
+  public Set<Node> addEdge(Node from, Node to) {
+    int f = nodeIds.id(from);
+    int t = nodeIds.id(to);
+    addNode(f);
+    addNode(t);
+    var old = targets(f);
+    var result = SortedInts.add(old, t);
+    if (result == old) {
+      return Set.of();
+    }
+    edges.set(f, result);
+    return Set.of(to);
+  }
+
+  @Override
+  public Set<Node> deleteEdge(Node from, Node to) {
+    int f = nodeIds.find(from);
+    var old = targets(f);
+    var result = SortedInts.remove(old, nodeIds.find(to));
+    if (result == old) {
+      return Set.of();
+    }
+    edges.set(f, result);
+    return Set.of(to);
+  }
+
+  /** Returns an unmodifiable snapshot. */
+  @Override
+  public Set<Node> nodes() {
+    var ids = new int[nodeIds.size()];
+    int n = 0;
+    for (int id = 0; id < ids.length; id++) {
+      if (edges.get(id) != null) {
+        ids[n++] = id;
+      }
+    }
+    return SortedIntSetView.of(Arrays.copyOf(ids, n), nodeIds);
+  }
+
+  /** Returns an unmodifiable snapshot. */
+  @Override
+  public Set<Node> edges(Node from) {
+    return SortedIntSetView.of(targets(nodeIds.find(from)), nodeIds);
+  }
+
+  /**
+   * Returns a live view of the points-to set of the node. Changing it replaces
+   * the node's set, so bulk operations are much cheaper than changing one heap
+   * item at a time.
+   */
+  @Override
+  public Set<HeapItem> pointsTo(Node key) {
+    return new PointsToSet(nodeIds.id(key));
+  }
+
+  private final class PointsToSet extends SortedIntSetView<HeapItem> {
+    private final int node;
+
+    PointsToSet(int node) {
+      super(itemIds);
+      this.node = node;
+    }
+
+    @Override
+    protected int[] ids() {
+      return items(node);
+    }
+
+    @Override
+    protected boolean replace(int[] ids) {
+      if (ids == items(node)) {
+        return false;
+      }
+      pointsTo.set(node, ids.length == 0 ? null : ids);
+      return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends HeapItem> items) {
+      if (items instanceof PersistentPointsToGraph<?, ?>.PointsToSet && isEmpty()) {
+        var other = (PersistentPointsToGraph<?, ?>.PointsToSet) items;
+        if (other.indexer() == itemIds) {
+          // Share the other node's set. (Clones share the heap item IDs.)
+          return replace(other.ids());
+        }
+      }
+      return super.addAll(items);
+    }
+  }
+
+  /**
+   * Clone in O(1), sharing structure. Don't care about Cloneable.
+   */
+  @Override
+  public PersistentPointsToGraph<Node, HeapItem> clone() {
+    return new PersistentPointsToGraph<>(nodeIds, itemIds, edges.copy(), pointsTo.copy());
+  }
+
+  @Override
+  public String toString() {
+    var lines = new ArrayList<String>();
+    var pts = new ArrayList<String>();
+    for (var node : nodes()) {
+      lines.add(node + "=" + edges(node));
+      if (!pointsTo(node).isEmpty()) {
+        pts.add(node + "=" + pointsTo(node));
+      }
+    }
+    return String.format("Graph:\n\t%s\n\nPoints-to:\n\t%s", Util.join("\n\t", lines), Util.join("\n\t", pts));
+  }
+}
@@ -0,0 +1,15 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext.Node;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+
+/**
+ * Persistent points-to graph with the node and heap item types of
+ * {@link SimplePointsToGraphWithContext}, so the two can be swapped.
+ *
+ * @param <C>
+ */
+public class PersistentPointsToGraphWithContext<C>
+    extends PersistentPointsToGraph<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>> {
+}
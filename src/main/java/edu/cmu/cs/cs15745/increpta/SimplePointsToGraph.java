@@ -1,10 +1,15 @@
 package edu.cmu.cs.cs15745.increpta;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
-import edu.cmu.cs.cs15745.increpta.util.MultiMap;
+import edu.cmu.cs.cs15745.increpta.util.Indexer;
+import edu.cmu.cs.cs15745.increpta.util.IntMultiMap;
+import edu.cmu.cs.cs15745.increpta.util.IntSet;
+import edu.cmu.cs.cs15745.increpta.util.SharedIntSets;
+import edu.cmu.cs.cs15745.increpta.util.SortedIntSetView;
 import edu.cmu.cs.cs15745.increpta.util.Util;
 
 /**
@@ -18,16 +23,23 @@ import edu.cmu.cs.cs15745.increpta.util.Util;
  */
 public class SimplePointsToGraph<Node, HeapItem> implements PointsToGraph<Node, HeapItem> {
 
-  private final MultiMap<Node, Node> graph;
-  private final MultiMap<Node, HeapItem> pointsTo;
-  private final Set<Node> nodes;
+  // Nodes and heap items are stored by their IDs. Equal points-to sets are
+  // stored once, and shared with clones.
+  private final Indexer<Node> nodeIds;
+  private final Indexer<HeapItem> itemIds;
+  private final IntMultiMap graph;
+  private final SharedIntSets pointsTo;
+  private final IntSet nodes;
 
   // Disallow outside instantiation
   SimplePointsToGraph() {
-    this(new MultiMap<>(), new MultiMap<>(), new LinkedHashSet<>());
+    this(new Indexer<>(), new Indexer<>(), new IntMultiMap(), new SharedIntSets(), new IntSet());
   }
 
-  SimplePointsToGraph(MultiMap<Node, Node> graph, MultiMap<Node, HeapItem> pointsTo, Set<Node> nodes) {
+  private SimplePointsToGraph(Indexer<Node> nodeIds, Indexer<HeapItem> itemIds, IntMultiMap graph,
+      SharedIntSets pointsTo, IntSet nodes) {
+    this.nodeIds = nodeIds;
+    this.itemIds = itemIds;
     this.graph = graph;
     this.pointsTo = pointsTo;
     this.nodes = nodes;
@@ -38,9 +50,11 @@ public class SimplePointsToGraph<Node, HeapItem> implements PointsToGraph<Node,
    */
   @Override
   public Set<Node> addEdge(Node from, Node to) {
-    nodes.add(from);
-    nodes.add(to);
-    if (graph.getSet(from).add(to)) {
+    int f = nodeIds.id(from);
+    int t = nodeIds.id(to);
+    nodes.add(f);
+    nodes.add(t);
+    if (graph.getSet(f).add(t)) {
       return Set.of(to);
     } else {
       return Set.of();
@@ -49,7 +63,8 @@ public class SimplePointsToGraph<Node, HeapItem> implements PointsToGraph<Node,
 
   @Override
   public Set<Node> deleteEdge(Node from, Node to) {
-    if (graph.getSet(from).remove(to)) {
+    var edges = graph.get(nodeIds.find(from));
+    if (edges != null && edges.remove(nodeIds.find(to))) {
       return Set.of(to);
     } else {
       return Set.of();
@@ -59,30 +74,90 @@ public class SimplePointsToGraph<Node, HeapItem> implements PointsToGraph<Node,
   /** Returns unmodifiable set. */
   @Override
   public Set<Node> nodes() {
-    return Collections.unmodifiableSet(nodes);
+    return Collections.unmodifiableSet(nodeIds.asSet(nodes));
   }
 
   /** Returns unmodifiable set */
   @Override
   public Set<Node> edges(Node from) {
-    return Collections.unmodifiableSet(graph.getOrDefault(from, Collections.emptySet()));
+    var edges = graph.get(nodeIds.find(from));
+    if (edges == null) {
+      return Collections.emptySet();
+    }
+    return Collections.unmodifiableSet(nodeIds.asSet(edges));
   }
 
+  /**
+   * Returns a live view of the points-to set of the node. Changing it replaces
+   * the node's (shared) set, so bulk operations are much cheaper than changing
+   * one heap item at a time.
+   */
   @Override
   public Set<HeapItem> pointsTo(Node key) {
-    return pointsTo.getSet(key);
+    return new PointsToSet(nodeIds.id(key));
+  }
+
+  /**
+   * How much memory the sharing of points-to sets saves.
+   */
+  public SharedIntSets.Stats pointsToStats() {
+    return pointsTo.stats();
+  }
+
+  private final class PointsToSet extends SortedIntSetView<HeapItem> {
+    private final int node;
+
+    PointsToSet(int node) {
+      super(itemIds);
+      this.node = node;
+    }
+
+    @Override
+    protected int[] ids() {
+      return pointsTo.get(node);
+    }
+
+    @Override
+    protected boolean replace(int[] ids) {
+      return pointsTo.replace(node, ids);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends HeapItem> items) {
+      if (items instanceof SimplePointsToGraph<?, ?>.PointsToSet && isEmpty()
+          && ((SimplePointsToGraph<?, ?>.PointsToSet) items).graph() == SimplePointsToGraph.this) {
+        // Share the other node's set.
+        pointsTo.copy(((SimplePointsToGraph<?, ?>.PointsToSet) items).node, node);
+        return !isEmpty();
+      }
+      return super.addAll(items);
+    }
+
+    private SimplePointsToGraph<?, ?> graph() {
+      return SimplePointsToGraph.this;
+    }
   }
 
   /**
    * Clone. Don't care about Cloneable.
    */
   public SimplePointsToGraph<Node, HeapItem> clone() {
-    return new SimplePointsToGraph<>(new MultiMap<>(graph), new MultiMap<>(pointsTo), new LinkedHashSet<>(nodes));
+    return new SimplePointsToGraph<>(new Indexer<>(nodeIds), new Indexer<>(itemIds), new IntMultiMap(graph),
+        new SharedIntSets(pointsTo), new IntSet(nodes));
   }
 
   @Override
   public String toString() {
-    return String.format("Graph:\n\t%s\n\nPoints-to:\n\t%s", Util.join("\n\t", graph.entrySet()),
-        Util.join("\n\t", pointsTo.entrySet()));
+    var edges = new ArrayList<String>();
+    for (int key : graph.keys()) {
+      edges.add(nodeIds.get(key) + "=" + nodeIds.asSet(graph.get(key)));
+    }
+    var pts = new ArrayList<String>();
+    for (int key = 0; key < nodeIds.size(); key++) {
+      if (pointsTo.size(key) > 0) {
+        pts.add(nodeIds.get(key) + "=" + new PointsToSet(key));
+      }
+    }
+    return String.format("Graph:\n\t%s\n\nPoints-to:\n\t%s", Util.join("\n\t", edges), Util.join("\n\t", pts));
   }
 }
@@ -36,6 +36,8 @@ public class SimplePointsToGraphWithContext<C>
 
       T visitField(Ast.Variable item, Ast.Variable field);
 
+      T visitHeapItemField(Ast.Instruction.Allocation item, Ast.Variable field);
+
       T visitVariable(Ast.Variable item);
     }
 
@@ -67,6 +69,19 @@ public class SimplePointsToGraphWithContext<C>
       };
     }
 
+    public static Node heapItemField(Ast.Instruction.Allocation item, Ast.Variable field) {
+      return new Node() {
+        @Override
+        public <S> S accept(Visitor<S> visitor) {
+          return visitor.visitHeapItemField(item, field);
+        }
+
+        public String toString() {
+          return "hf" + hashCode() % 1000; // item.toString() + "." + field.toString();
+        }
+      };
+    }
+
     public static Node heapItem(Ast.Instruction.Allocation item) {
       return new Node() {
         @Override
@@ -2,15 +2,19 @@ package edu.cmu.cs.cs15745.increpta.ast;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import com.ibm.wala.classLoader.IClass;
 
 import edu.cmu.cs.cs15745.increpta.util.BiMap;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
 import static edu.cmu.cs.cs15745.increpta.util.Util.join;
 
 /**
@@ -25,25 +29,99 @@ public final class Ast {
   private final Map<Variable, Function> staticFunctions = new LinkedHashMap<>();
   private final BiMap<IClass, Variable, Function> instanceMethods = new BiMap<>();
   private final List<Function> entryPoints;
+  private final Resolver resolver; // null if every function is loaded up front
+
+  // Lookups already passed on to the resolver; each function is loaded at most
+  // once.
+  private final Set<Variable> resolvedStatic = new HashSet<>();
+  private final Set<Pair<IClass, Variable>> resolvedInstance = new HashSet<>();
+  private final List<Consumer<Function>> loadListeners = new ArrayList<>();
 
   public Ast(List<Function> functions, List<Function> entryPoints) {
+    this(functions, entryPoints, null);
+  }
+
+  /**
+   * An Ast whose functions other than those given are loaded from the resolver
+   * the first time they're looked up.
+   */
+  public Ast(List<Function> functions, List<Function> entryPoints, Resolver resolver) {
     for (Function f : functions) {
-      if (f.staticness == Function.Staticness.STATIC) {
-        staticFunctions.put(f.name(), f);
-      } else {
-        instanceMethods.put(f.type().klass(), f.name(), f);
-      }
+      addFunction(f);
     }
     this.entryPoints = new ArrayList<>(entryPoints);
+    this.resolver = resolver;
+  }
+
+  /**
+   * Loads functions on demand (see {@link AstFromWala}).
+   */
+  public interface Resolver {
+    /** The static function with the given name, if there is one. */
+    Optional<Function> staticFunction(Variable name);
+
+    /**
+     * The instance method with the given name declared by exactly this class
+     * (not a superclass), if there is one.
+     */
+    Optional<Function> instanceMethod(IClass klass, Variable name);
+  }
+
+  /**
+   * Call the listener with each function loaded from the resolver from now on,
+   * once it's been added to the program (e.g. to index it along with the
+   * functions loaded so far).
+   */
+  public void addLoadListener(Consumer<Function> listener) {
+    loadListeners.add(listener);
+  }
+
+  private void load(Function f) {
+    addFunction(f);
+    for (var listener : loadListeners) {
+      listener.accept(f);
+    }
+  }
+
+  /**
+   * Add a function to the program, replacing any function with the same name
+   * (and, for instance methods, the same class).
+   */
+  public void addFunction(Function f) {
+    if (f.staticness == Function.Staticness.STATIC) {
+      staticFunctions.put(f.name(), f);
+    } else {
+      instanceMethods.put(f.type().klass(), f.name(), f);
+    }
+  }
+
+  /**
+   * Remove a function from the program, including from the entry points.
+   */
+  public void removeFunction(Function f) {
+    if (f.staticness == Function.Staticness.STATIC) {
+      staticFunctions.remove(f.name(), f);
+    } else if (instanceMethods.get(f.type().klass(), f.name()) == f) {
+      instanceMethods.remove(Pair.of(f.type().klass(), f.name()));
+    }
+    entryPoints.remove(f);
   }
 
   /**
    * Fails if the static method wasn't loaded by the class loader.
    */
   public Optional<Function> staticFunction(Variable name) {
-    return Optional.ofNullable(staticFunctions.get(name));
+    var result = staticFunctions.get(name);
+    if (result == null && resolver != null && resolvedStatic.add(name)) {
+      resolver.staticFunction(name).ifPresent(this::load);
+      result = staticFunctions.get(name);
+    }
+    return Optional.ofNullable(result);
   }
 
+  /**
+   * The static functions loaded so far.
+   */
   public Map<Variable, Function> staticFunctions() {
     return staticFunctions;
   }
@@ -54,6 +132,10 @@ public final class Ast {
   public Optional<Function> instanceMethod(Type type, Variable name) {
     for (var klass = type.klass(); klass != null; klass = klass.getSuperclass()) {
       var result = instanceMethods.get(klass, name);
+      if (result == null && resolver != null && resolvedInstance.add(Pair.of(klass, name))) {
+        resolver.instanceMethod(klass, name).ifPresent(this::load);
+        result = instanceMethods.get(klass, name);
+      }
       if (result != null) {
         return Optional.of(result);
       }
@@ -61,6 +143,9 @@ public final class Ast {
     return Optional.empty();
   }
 
+  /**
+   * The instance methods loaded so far.
+   */
   public BiMap<IClass, Variable, Function> instanceMethods() {
     return instanceMethods;
   }
@@ -142,9 +227,24 @@ public final class Ast {
    */
   public static final class Type {
     private final IClass klass;
+    private final String name; // Only for types without a class
 
     public Type(IClass klass) {
+      this(klass, null);
+    }
+
+    private Type(IClass klass, String name) {
       this.klass = klass;
+      this.name = name;
+    }
+
+    /**
+     * A type known only by its name, with a null class: the declaring class of a
+     * static function that the class hierarchy lacks (see
+     * {@link AstFromWala#describe}). It can't be allocated or dispatched on.
+     */
+    public static Type named(String name) {
+      return new Type(null, name);
     }
 
     public IClass klass() {
@@ -152,7 +252,7 @@ public final class Ast {
     }
 
     public String toString() {
-      return klass.getName().toString();
+      return name != null ? name : klass.getName().toString();
     }
   }
 
@@ -204,6 +304,26 @@ public final class Ast {
       return returns;
     }
 
+    /**
+     * Insert an instruction at the given index, keeping the returns in sync.
+     */
+    public void insert(int index, Instruction instruction) {
+      instructions.add(index, Objects.requireNonNull(instruction));
+      if (instruction instanceof Instruction.Return) {
+        returns.add((Instruction.Return) instruction);
+      }
+    }
+
+    /**
+     * Remove the instruction at the given index, keeping the returns in sync.
+     * Returns the removed instruction.
+     */
+    public Instruction remove(int index) {
+      var removed = instructions.remove(index);
+      returns.remove(removed);
+      return removed;
+    }
+
     public String toString() {
       return "\t" + join("\n\t", instructions) + "\n";
     }
@@ -1,6 +1,7 @@
 package edu.cmu.cs.cs15745.increpta.ast;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,8 +10,11 @@ import java.util.function.Predicate;
 
 import com.ibm.wala.classLoader.IClass;
 import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.IAnalysisCacheView;
+import com.ibm.wala.ipa.callgraph.impl.Everywhere;
 import com.ibm.wala.ipa.cha.ClassHierarchy;
 import com.ibm.wala.ssa.IR;
 import com.ibm.wala.ssa.SSAArrayLoadInstruction;
@@ -27,8 +31,10 @@ import com.ibm.wala.ssa.SSAPiInstruction;
 import com.ibm.wala.ssa.SSAPutInstruction;
 import com.ibm.wala.ssa.SSAReturnInstruction;
 import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.types.MethodReference;
 import com.ibm.wala.types.Selector;
 import com.ibm.wala.types.TypeName;
+import com.ibm.wala.types.TypeReference;
 import com.ibm.wala.util.strings.Atom;
 
 import edu.cmu.cs.cs15745.increpta.util.BiMap;
@@ -59,6 +65,9 @@ public final class AstFromWala {
     return signatureToMethodName.computeIfAbsent(signature, atom -> new Ast.Variable(atom.toString()));
   }
 
+  // The declared targets of static calls, for resolving them on demand
+  private final Map<Ast.Variable, MethodReference> staticTargets = new LinkedHashMap<>();
+
   // Uniquely identify classes
   private final Map<TypeName, Ast.Type> typeNameToType = new LinkedHashMap<>();
 
@@ -66,18 +75,22 @@ public final class AstFromWala {
     return typeNameToType.computeIfAbsent(klass.getName(), name -> new Ast.Type(klass));
   }
 
-  private final Map<Object, Ast.Variable> tokenToVariable = new LinkedHashMap<>();
+  private final Map<String, Ast.Variable> tokenToVariable = new LinkedHashMap<>();
 
+  // Named after the token itself, so that the names agree between conversions.
   private Ast.Variable token(Object token) {
-    return tokenToVariable.computeIfAbsent(token, name -> new Ast.Variable("tok" + tokenToVariable.size()));
+    return tokenToVariable.computeIfAbsent("tok:" + token, Ast.Variable::new);
   }
 
   // Uniquely identify fields
   private final BiMap<TypeName, Atom, Ast.Variable> fieldToName = new BiMap<>();
 
   private Ast.Variable field(FieldReference field) {
-    return fieldToName.computeIfAbsent(Pair.of(field.getDeclaringClass().getName(), field.getName()),
-        pair -> new Ast.Variable(pair.fst() + "::" + pair.snd()));
+    return field(field.getDeclaringClass().getName(), field.getName());
+  }
+
+  private Ast.Variable field(TypeName klass, Atom name) {
+    return fieldToName.computeIfAbsent(Pair.of(klass, name), pair -> new Ast.Variable(pair.fst() + "::" + pair.snd()));
   }
 
   private final ClassHierarchy cha;
@@ -93,33 +106,355 @@ public final class AstFromWala {
     List<Ast.Function> entryPoints = new ArrayList<>();
     List<Ast.Function> functions = new ArrayList<>();
     for (CGNode node : graph) {
-      IMethod method = node.getMethod();
-      Ast.Type type = type(method.getDeclaringClass());
-      List<Ast.Variable> params = new ArrayList<>();
-      for (int i = 0; i < method.getNumberOfParameters(); i++) {
-        params.add(new Ast.Variable(method.getSignature() + "::param" + i));
-      }
-      InstructionVisitor visitor = new InstructionVisitor(params);
-
-      IR ir = node.getIR();
-      if (ir != null) {
-        ir.visitAllInstructions(visitor);
+      var function = function(node.getMethod(), node.getIR());
+      functions.add(function);
+      if (isEntryPoint.test(node)) {
+        entryPoints.add(function);
       }
+    }
+    ast = new Ast(functions, entryPoints);
+  }
 
-      // Create function body based on the return of the function.
-      var body = new Ast.FunctionBody(visitor.instructions);
-      var staticness = Ast.Function.Staticness.fromBoolean(method.isStatic() || method.isClinit() || method.isInit());
-      Ast.Variable name = staticness == Ast.Function.Staticness.STATIC ? staticMethodName(method.getSignature())
-          : methodName(method.getSelector());
-      var function = new Ast.Function(name, type, params, body, staticness);
+  /**
+   * Creates an Ast from the nodes of a cached call graph: the methods, whose IR
+   * is computed with the cache, and the descriptions (see {@link #describe}) of
+   * the functions of synthetic methods, which are never entry points. Uses the
+   * predicate to determine which methods are entry points to the program.
+   *
+   * @throws IllegalArgumentException If a description doesn't resolve.
+   */
+  public AstFromWala(Iterable<IMethod> methods, Iterable<List<String>> synthetic, AnalysisScope scope,
+      ClassHierarchy cha, IAnalysisCacheView cache, Predicate<IMethod> isEntryPoint) {
+    this.cha = cha;
+    List<Ast.Function> entryPoints = new ArrayList<>();
+    List<Ast.Function> functions = new ArrayList<>();
+    for (IMethod method : methods) {
+      var function = function(method, ir(cache, method));
       functions.add(function);
-      if (isEntryPoint.test(node)) {
+      if (isEntryPoint.test(method)) {
         entryPoints.add(function);
       }
     }
+    for (var description : synthetic) {
+      functions.add(function(description, scope)
+          .orElseThrow(() -> new IllegalArgumentException("Doesn't resolve: " + description.get(0))));
+    }
     ast = new Ast(functions, entryPoints);
   }
 
+  /**
+   * Creates an Ast that starts out with just the entry points, and converts any
+   * other method the first time the Ast is asked for it, i.e. when the graph
+   * builder first reaches a call to it. No call graph is needed.
+   */
+  public AstFromWala(ClassHierarchy cha, IAnalysisCacheView cache, Iterable<IMethod> entryPoints) {
+    this.cha = cha;
+    List<Ast.Function> functions = new ArrayList<>();
+    for (IMethod method : entryPoints) {
+      functions.add(function(method, ir(cache, method)));
+    }
+    ast = new Ast(functions, functions, new Ast.Resolver() {
+      @Override
+      public Optional<Ast.Function> staticFunction(Ast.Variable name) {
+        var target = staticTargets.get(name);
+        var method = target == null ? null : cha.resolveMethod(target);
+        if (method == null || method.isAbstract() || staticness(method) != Ast.Function.Staticness.STATIC) {
+          return Optional.empty();
+        }
+        return Optional.of(function(method, ir(cache, method)));
+      }
+
+      @Override
+      public Optional<Ast.Function> instanceMethod(IClass klass, Ast.Variable name) {
+        var method = klass.getMethod(Selector.make(name.name()));
+        if (method == null || method.isAbstract() || !method.getDeclaringClass().equals(klass)
+            || staticness(method) != Ast.Function.Staticness.VIRTUAL) {
+          return Optional.empty();
+        }
+        return Optional.of(function(method, ir(cache, method)));
+      }
+    });
+  }
+
+  /**
+   * Creates a converter for individual methods (see {@link #function}), with an
+   * empty ast.
+   */
+  public AstFromWala(ClassHierarchy cha) {
+    this.cha = cha;
+    ast = new Ast(List.of(), List.of());
+  }
+
+  /**
+   * Convert a single method. The IR may be null, e.g. for native methods, in
+   * which case the function has an empty body.
+   */
+  public Ast.Function function(IMethod method, IR ir) {
+    Ast.Type type = type(method.getDeclaringClass());
+    List<Ast.Variable> params = new ArrayList<>();
+    for (int i = 0; i < method.getNumberOfParameters(); i++) {
+      params.add(new Ast.Variable(method.getSignature() + "::param" + i));
+    }
+    InstructionVisitor visitor = new InstructionVisitor(params);
+
+    if (ir != null) {
+      ir.visitAllInstructions(visitor);
+    }
+
+    // Create function body based on the return of the function.
+    var body = new Ast.FunctionBody(visitor.instructions);
+    var staticness = staticness(method);
+    Ast.Variable name = staticness == Ast.Function.Staticness.STATIC ? staticMethodName(method.getSignature())
+        : methodName(method.getSelector());
+    return new Ast.Function(name, type, params, body, staticness);
+  }
+
+  /**
+   * Describe a function this converter made, as lines of text from which
+   * {@link #function(List, AnalysisScope)} rebuilds it: in another converter
+   * over the same class hierarchy, and with the same names, even if its method
+   * can't be resolved again (as for WALA's synthetic methods, like the fake
+   * root).
+   */
+  public List<String> describe(Ast.Function function) {
+    // Variables shared between functions are written as what they're named after.
+    Map<Ast.Variable, String> shared = new IdentityHashMap<>();
+    shared.put(ARRAY_FIELD, "array");
+    selectorToMethodName.values().forEach(v -> shared.put(v, "method:" + v.name()));
+    signatureToMethodName.values().forEach(v -> shared.put(v, "static:" + v.name()));
+    tokenToVariable.values().forEach(v -> shared.put(v, "token:" + v.name()));
+    fieldToName.forEach((field, v) -> shared.put(v, "field:" + field.fst() + ":" + field.snd()));
+
+    var lines = new ArrayList<String>();
+    var header = new ArrayList<>(List.of("function", function.staticness().toString()));
+    addType(header, function.type());
+    header.add(function.name().name());
+    function.params().forEach(p -> header.add(p.name()));
+    lines.add(String.join("\t", header));
+    for (var instruction : function.body().instructions()) {
+      var fields = new ArrayList<String>();
+      instruction.accept(new Ast.Instruction.StatefulVisitor() {
+        @Override
+        public void iterAssignment(Ast.Instruction.Assignment a) {
+          add("assign", a.target(), a.source());
+        }
+
+        @Override
+        public void iterAllocation(Ast.Instruction.Allocation a) {
+          add("new", a.target());
+          addType(fields, a.type());
+        }
+
+        @Override
+        public void iterFieldWrite(Ast.Instruction.FieldWrite fw) {
+          add("store", fw.target(), fw.field(), fw.source());
+        }
+
+        @Override
+        public void iterFieldRead(Ast.Instruction.FieldRead fr) {
+          add("load", fr.target(), fr.source(), fr.field());
+        }
+
+        @Override
+        public void iterStaticInvocation(Ast.Instruction.StaticInvocation i) {
+          fields.add("scall");
+          fields.add(i.target().map(this::name).orElse(""));
+          add(i.method());
+          add(i.arguments().toArray(new Ast.Variable[0]));
+        }
+
+        @Override
+        public void iterInvocation(Ast.Instruction.Invocation i) {
+          fields.add("call");
+          fields.add(i.target().map(this::name).orElse(""));
+          add(i.source(), i.method());
+          add(i.arguments().toArray(new Ast.Variable[0]));
+        }
+
+        @Override
+        public void iterReturn(Ast.Instruction.Return r) {
+          add("return", r.returned());
+        }
+
+        private void add(String opcode, Ast.Variable... vs) {
+          fields.add(opcode);
+          add(vs);
+        }
+
+        private void add(Ast.Variable... vs) {
+          for (var v : vs) {
+            fields.add(name(v));
+          }
+        }
+
+        // Anything else is local to the function, like the parameters.
+        private String name(Ast.Variable v) {
+          return shared.getOrDefault(v, "local:" + v.name());
+        }
+      }.visitor());
+      lines.add(String.join("\t", fields));
+    }
+    return lines;
+  }
+
+  // A type, as its class loader and name.
+  private static void addType(List<String> fields, Ast.Type type) {
+    var klass = type.klass();
+    fields.add(klass == null ? "" : klass.getClassLoader().getReference().getName().toString());
+    fields.add(type.toString());
+  }
+
+  /**
+   * Rebuild a function from its description (see {@link #describe}), looking up
+   * its types in the scope's class loaders. Empty if one of them is no longer
+   * in the class hierarchy, except for the declaring class of a static
+   * function: that's only a name, so it becomes a type without a class.
+   *
+   * @throws IllegalArgumentException If the description is malformed.
+   */
+  public Optional<Ast.Function> function(List<String> description, AnalysisScope scope) {
+    var header = description.isEmpty() ? new String[0] : description.get(0).split("\t", -1);
+    if (header.length < 5 || !header[0].equals("function")) {
+      throw new IllegalArgumentException("Malformed function description: " + description);
+    }
+    var staticness = Ast.Function.Staticness.fromBoolean(header[1].equals("static"));
+    var klass = lookupClass(scope, header[2], header[3]);
+    Ast.Type type;
+    if (klass != null) {
+      type = type(klass);
+    } else if (staticness == Ast.Function.Staticness.STATIC) {
+      type = typeNameToType.computeIfAbsent(TypeName.string2TypeName(header[3]), name -> Ast.Type.named(header[3]));
+    } else {
+      return Optional.empty();
+    }
+
+    Map<String, Ast.Variable> locals = new LinkedHashMap<>();
+    List<Ast.Variable> params = new ArrayList<>();
+    for (int i = 5; i < header.length; i++) {
+      params.add(locals.computeIfAbsent(header[i], Ast.Variable::new));
+    }
+    List<Ast.Instruction> instructions = new ArrayList<>();
+    for (var line : description.subList(1, description.size())) {
+      var fields = line.split("\t", -1);
+      if (fields.length < arity(fields[0])) {
+        throw new IllegalArgumentException("Malformed instruction description: " + line);
+      }
+      switch (fields[0]) {
+      case "assign":
+        instructions.add(new Ast.Instruction.Assignment(variable(fields[1], locals), variable(fields[2], locals)));
+        break;
+      case "new": {
+        var allocated = lookupClass(scope, fields[2], fields[3]);
+        if (allocated == null) {
+          return Optional.empty();
+        }
+        instructions.add(new Ast.Instruction.Allocation(variable(fields[1], locals), type(allocated)));
+        break;
+      }
+      case "store":
+        instructions.add(new Ast.Instruction.FieldWrite(variable(fields[1], locals), variable(fields[2], locals),
+            variable(fields[3], locals)));
+        break;
+      case "load":
+        instructions.add(new Ast.Instruction.FieldRead(variable(fields[1], locals), variable(fields[2], locals),
+            variable(fields[3], locals)));
+        break;
+      case "scall":
+        instructions.add(new Ast.Instruction.StaticInvocation(target(fields[1], locals), variable(fields[2], locals),
+            variables(fields, 3, locals)));
+        break;
+      case "call":
+        instructions.add(new Ast.Instruction.Invocation(target(fields[1], locals), variable(fields[2], locals),
+            variable(fields[3], locals), variables(fields, 4, locals)));
+        break;
+      case "return":
+        instructions.add(new Ast.Instruction.Return(variable(fields[1], locals)));
+        break;
+      default:
+        throw new IllegalArgumentException("Malformed instruction description: " + line);
+      }
+    }
+    Ast.Variable name = staticness == Ast.Function.Staticness.STATIC ? staticMethodName(header[4])
+        : methodName(Selector.make(header[4]));
+    return Optional.of(new Ast.Function(name, type, params, new Ast.FunctionBody(instructions), staticness));
+  }
+
+  // The least number of fields of an instruction with the opcode.
+  private static int arity(String opcode) {
+    switch (opcode) {
+    case "return":
+      return 2;
+    case "assign":
+    case "scall":
+      return 3;
+    default:
+      return 4;
+    }
+  }
+
+  private IClass lookupClass(AnalysisScope scope, String loader, String name) {
+    var reference = loader.isEmpty() ? null : scope.getLoader(Atom.findOrCreateUnicodeAtom(loader));
+    return reference == null ? null : cha.lookupClass(TypeReference.findOrCreate(reference, name));
+  }
+
+  // The inverse of the names written by describe.
+  private Ast.Variable variable(String described, Map<String, Ast.Variable> locals) {
+    int colon = described.indexOf(':');
+    var kind = colon < 0 ? described : described.substring(0, colon);
+    var name = described.substring(colon + 1);
+    switch (kind) {
+    case "array":
+      return ARRAY_FIELD;
+    case "method":
+      return methodName(Selector.make(name));
+    case "static":
+      return staticMethodName(name);
+    case "token":
+      return tokenToVariable.computeIfAbsent(name, Ast.Variable::new);
+    case "field": {
+      int split = name.indexOf(':');
+      if (split < 0) {
+        break;
+      }
+      return field(TypeName.string2TypeName(name.substring(0, split)),
+          Atom.findOrCreateUnicodeAtom(name.substring(split + 1)));
+    }
+    case "local":
+      return locals.computeIfAbsent(name, Ast.Variable::new);
+    default:
+      break;
+    }
+    throw new IllegalArgumentException("Malformed variable description: " + described);
+  }
+
+  private Optional<Ast.Variable> target(String described, Map<String, Ast.Variable> locals) {
+    return described.isEmpty() ? Optional.empty() : Optional.of(variable(described, locals));
+  }
+
+  private List<Ast.Variable> variables(String[] fields, int from, Map<String, Ast.Variable> locals) {
+    List<Ast.Variable> result = new ArrayList<>();
+    for (int i = from; i < fields.length; i++) {
+      result.add(variable(fields[i], locals));
+    }
+    return result;
+  }
+
+  /**
+   * The key (see {@link AstNames#key}) of the function the method converts to.
+   */
+  public static String key(IMethod method) {
+    return method.getDeclaringClass().getName() + "::"
+        + (staticness(method) == Ast.Function.Staticness.STATIC ? method.getSignature() : method.getSelector());
+  }
+
+  private static IR ir(IAnalysisCacheView cache, IMethod method) {
+    return method.isAbstract() ? null : cache.getIR(method, Everywhere.EVERYWHERE);
+  }
+
+  private static Ast.Function.Staticness staticness(IMethod method) {
+    return Ast.Function.Staticness.fromBoolean(method.isStatic() || method.isClinit() || method.isInit());
+  }
+
   /**
    * @return The ast calculated from the input call graph.
    */
@@ -190,7 +525,9 @@ public final class AstFromWala {
         }
         instructions.add(new Ast.Instruction.Invocation(target, source, method, arguments));
       } else { // It's static
-        Ast.Variable method = staticMethodName(instruction.getCallSite().getDeclaredTarget().getSignature());
+        var declaredTarget = instruction.getCallSite().getDeclaredTarget();
+        Ast.Variable method = staticMethodName(declaredTarget.getSignature());
+        staticTargets.putIfAbsent(method, declaredTarget);
         List<Ast.Variable> arguments = new ArrayList<>();
         for (int i = 0; i < instruction.getNumberOfPositionalParameters(); i++) { // Start at 1 to exclude receiver
           arguments.add(variable(instruction.getUse(i)));
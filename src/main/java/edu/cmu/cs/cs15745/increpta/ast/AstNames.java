@@ -0,0 +1,245 @@
+package edu.cmu.cs.cs15745.increpta.ast;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Looks up the elements of an Ast by their printed names. Variables in the Ast
+ * have identity semantics, so instructions that come from somewhere else (a
+ * trace file, or a different Ast for another version of the same program) must
+ * be resolved against this Ast before they can be handed to the graph builder.
+ *
+ * Resolution of a variable name is scoped to a function: we first look at the
+ * variables occurring in that function, and then at the variables occurring
+ * anywhere in the program (fields, method names, parameters of other methods,
+ * etc.). Names that can't be found are created fresh. A fresh name that looks
+ * like an SSA value number (see {@link AstFromWala}) is local to its function;
+ * any other fresh name is shared by the whole program.
+ */
+public final class AstNames {
+  private final Map<String, Ast.Function> functions = new LinkedHashMap<>();
+  private final Map<String, Ast.Type> types = new LinkedHashMap<>();
+  private final Map<String, Ast.Variable> globals = new LinkedHashMap<>();
+  private final Map<Ast.Function, Map<String, Ast.Variable>> locals = new LinkedHashMap<>();
+
+  public AstNames(Ast ast) {
+    ast.staticFunctions().forEach((name, f) -> {
+      globals.putIfAbsent(name.name(), name);
+      register(f);
+    });
+    ast.instanceMethods().forEach((key, f) -> {
+      globals.putIfAbsent(key.snd().name(), key.snd());
+      register(f);
+    });
+    for (var f : ast.entryPoints()) {
+      register(f);
+    }
+  }
+
+  /**
+   * The name under which a function is known to traces.
+   */
+  public static String key(Ast.Function f) {
+    return f.type() + "::" + f.name();
+  }
+
+  /**
+   * Register a function that was not part of the Ast when these names were
+   * computed.
+   */
+  public void register(Ast.Function f) {
+    if (locals.containsKey(f)) {
+      return;
+    }
+    functions.putIfAbsent(key(f), f);
+    types.putIfAbsent(f.type().toString(), f.type());
+    var scope = new LinkedHashMap<String, Ast.Variable>();
+    locals.put(f, scope);
+    for (var param : f.params()) {
+      scope.putIfAbsent(param.name(), param);
+      globals.putIfAbsent(param.name(), param);
+    }
+    for (var inst : f.body().instructions()) {
+      for (var v : variables(inst)) {
+        scope.putIfAbsent(v.name(), v);
+        if (!isLocalName(v.name())) {
+          globals.putIfAbsent(v.name(), v);
+        }
+      }
+      inst.accept(new Ast.Instruction.StatefulVisitor() {
+        @Override
+        public void iterAllocation(Ast.Instruction.Allocation a) {
+          types.putIfAbsent(a.type().toString(), a.type());
+        }
+      }.visitor());
+    }
+  }
+
+  public Optional<Ast.Function> function(String key) {
+    return Optional.ofNullable(functions.get(key));
+  }
+
+  public Optional<Ast.Type> type(String name) {
+    return Optional.ofNullable(types.get(name));
+  }
+
+  /**
+   * Resolve the type against this Ast by name, falling back to the type itself.
+   */
+  public Ast.Type type(Ast.Type type) {
+    return types.computeIfAbsent(type.toString(), unused -> type);
+  }
+
+  /**
+   * Resolve the name of a variable occurring in the function f.
+   */
+  public Ast.Variable variable(Ast.Function f, String name) {
+    var scope = locals.get(f);
+    if (scope == null) {
+      register(f);
+      scope = locals.get(f);
+    }
+    var result = scope.get(name);
+    if (result != null) {
+      return result;
+    }
+    result = isLocalName(name) ? new Ast.Variable(name) : globals.computeIfAbsent(name, Ast.Variable::new);
+    scope.put(name, result);
+    return result;
+  }
+
+  /**
+   * Rebuild an instruction (likely from a different Ast) so that it refers to
+   * the variables and types of this Ast, as seen from within the function f.
+   */
+  public Ast.Instruction translate(Ast.Function f, Ast.Instruction inst) {
+    return inst.accept(new Ast.Instruction.Visitor<Ast.Instruction>() {
+      private Ast.Variable v(Ast.Variable var) {
+        return variable(f, var.name());
+      }
+
+      private List<Ast.Variable> vs(List<Ast.Variable> vars) {
+        var result = new ArrayList<Ast.Variable>(vars.size());
+        vars.forEach(var -> result.add(v(var)));
+        return result;
+      }
+
+      @Override
+      public Ast.Instruction visitAssignment(Ast.Instruction.Assignment a) {
+        return new Ast.Instruction.Assignment(v(a.target()), v(a.source()));
+      }
+
+      @Override
+      public Ast.Instruction visitAllocation(Ast.Instruction.Allocation a) {
+        return new Ast.Instruction.Allocation(v(a.target()), type(a.type()));
+      }
+
+      @Override
+      public Ast.Instruction visitFieldWrite(Ast.Instruction.FieldWrite fw) {
+        return new Ast.Instruction.FieldWrite(v(fw.target()), v(fw.field()), v(fw.source()));
+      }
+
+      @Override
+      public Ast.Instruction visitFieldRead(Ast.Instruction.FieldRead fr) {
+        return new Ast.Instruction.FieldRead(v(fr.target()), v(fr.source()), v(fr.field()));
+      }
+
+      @Override
+      public Ast.Instruction visitStaticInvocation(Ast.Instruction.StaticInvocation i) {
+        return new Ast.Instruction.StaticInvocation(i.target().map(this::v), v(i.method()), vs(i.arguments()));
+      }
+
+      @Override
+      public Ast.Instruction visitInvocation(Ast.Instruction.Invocation i) {
+        return new Ast.Instruction.Invocation(i.target().map(this::v), v(i.source()), v(i.method()),
+            vs(i.arguments()));
+      }
+
+      @Override
+      public Ast.Instruction visitReturn(Ast.Instruction.Return r) {
+        return new Ast.Instruction.Return(v(r.returned()));
+      }
+    });
+  }
+
+  /**
+   * Rebuild a function (likely from a different Ast) so that it refers to the
+   * variables and types of this Ast, and register it. The function is not added
+   * to the Ast.
+   */
+  public Ast.Function translate(Ast.Function f) {
+    var params = new ArrayList<Ast.Variable>(f.params().size());
+    f.params().forEach(p -> params.add(globals.computeIfAbsent(p.name(), Ast.Variable::new)));
+    var result = new Ast.Function(globals.computeIfAbsent(f.name().name(), Ast.Variable::new), type(f.type()),
+        params, new Ast.FunctionBody(new ArrayList<>()), f.staticness());
+    register(result);
+    var instructions = f.body().instructions();
+    for (int i = 0; i < instructions.size(); i++) {
+      result.body().insert(i, translate(result, instructions.get(i)));
+    }
+    return result;
+  }
+
+  /**
+   * All of the variables mentioned by an instruction, including fields and
+   * method names.
+   */
+  public static List<Ast.Variable> variables(Ast.Instruction inst) {
+    var result = new ArrayList<Ast.Variable>();
+    inst.accept(new Ast.Instruction.StatefulVisitor() {
+      @Override
+      public void iterAssignment(Ast.Instruction.Assignment a) {
+        result.add(a.target());
+        result.add(a.source());
+      }
+
+      @Override
+      public void iterAllocation(Ast.Instruction.Allocation a) {
+        result.add(a.target());
+      }
+
+      @Override
+      public void iterFieldWrite(Ast.Instruction.FieldWrite fw) {
+        result.add(fw.target());
+        result.add(fw.field());
+        result.add(fw.source());
+      }
+
+      @Override
+      public void iterFieldRead(Ast.Instruction.FieldRead fr) {
+        result.add(fr.target());
+        result.add(fr.source());
+        result.add(fr.field());
+      }
+
+      @Override
+      public void iterStaticInvocation(Ast.Instruction.StaticInvocation i) {
+        i.target().ifPresent(result::add);
+        result.add(i.method());
+        result.addAll(i.arguments());
+      }
+
+      @Override
+      public void iterInvocation(Ast.Instruction.Invocation i) {
+        i.target().ifPresent(result::add);
+        result.add(i.source());
+        result.add(i.method());
+        result.addAll(i.arguments());
+      }
+
+      @Override
+      public void iterReturn(Ast.Instruction.Return r) {
+        result.add(r.returned());
+      }
+    }.visitor());
+    return result;
+  }
+
+  // AstFromWala names SSA values by their value number.
+  private static boolean isLocalName(String name) {
+    return !name.isEmpty() && name.chars().allMatch(Character::isDigit);
+  }
+}
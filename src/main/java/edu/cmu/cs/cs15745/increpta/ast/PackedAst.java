@@ -0,0 +1,491 @@
+package edu.cmu.cs.cs15745.increpta.ast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.IntFunction;
+
+import com.ibm.wala.classLoader.IClass;
+
+import edu.cmu.cs.cs15745.increpta.util.BiMap;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+
+/**
+ * A compact encoding of an Ast, for programs whose Ast would otherwise be
+ * millions of small objects that stay live for the whole analysis.
+ *
+ * Every variable (including fields and method names) and type is interned to
+ * an int ID. Variables keep their identity semantics: two occurrences get the
+ * same ID exactly when they're the same Variable. Variable names are interned
+ * too, so e.g. the SSA value "1" of every function shares one string.
+ *
+ * A function body is an int array of opcodes, each followed by its operands:
+ *
+ * <pre>
+ * ASSIGNMENT        target source
+ * ALLOCATION        target type
+ * FIELD_WRITE       target field source
+ * FIELD_READ        target source field
+ * STATIC_INVOCATION target method n argument1 ... argumentn
+ * INVOCATION        target source method n argument1 ... argumentn
+ * RETURN            returned
+ * </pre>
+ *
+ * where the target of an invocation whose result is unused is NONE.
+ *
+ * The Ast returned by {@link #ast} only rebuilds a function as objects when
+ * it's first looked up, i.e. when the graph builder first reaches it; the rest
+ * of the program stays packed. The instructions of a packed function can also
+ * be visited in place, by opcode and operand IDs, with a {@link CodeVisitor},
+ * which allocates nothing per instruction; or as objects, with an
+ * {@link Ast.Instruction.Visitor}, which rebuilds each instruction just for
+ * the visit.
+ */
+public final class PackedAst {
+  public static final int ASSIGNMENT = 0;
+  public static final int ALLOCATION = 1;
+  public static final int FIELD_WRITE = 2;
+  public static final int FIELD_READ = 3;
+  public static final int STATIC_INVOCATION = 4;
+  public static final int INVOCATION = 5;
+  public static final int RETURN = 6;
+
+  public static final int NONE = -1;
+
+  // Interned names, and the name of each variable.
+  private final List<String> names = new ArrayList<>();
+  private int[] variableNames = new int[64];
+  private int variableCount = 0;
+
+  private final List<Ast.Type> types = new ArrayList<>();
+
+  private final List<PackedFunction> functions = new ArrayList<>();
+  private final Map<Integer, Integer> staticFunctions = new LinkedHashMap<>(); // Name -> function
+  private final BiMap<IClass, Integer, Integer> instanceMethods = new BiMap<>(); // (Class, name) -> function
+
+  // Variables and functions rebuilt so far, by ID.
+  private Ast.Variable[] variables;
+  private Ast.Function[] unpacked;
+  private final Map<Ast.Variable, Integer> variableIds = new IdentityHashMap<>();
+  private int unpackedCount = 0;
+
+  private static final class PackedFunction {
+    private final int name;
+    private final int type;
+    private final int[] params;
+    private final int[] code;
+    private final int size; // Number of instructions
+    private final Ast.Function.Staticness staticness;
+    private final boolean isEntryPoint;
+
+    private PackedFunction(int name, int type, int[] params, int[] code, int size, Ast.Function.Staticness staticness,
+        boolean isEntryPoint) {
+      this.name = name;
+      this.type = type;
+      this.params = params;
+      this.code = code;
+      this.size = size;
+      this.staticness = staticness;
+      this.isEntryPoint = isEntryPoint;
+    }
+  }
+
+  /**
+   * Pack the functions of the Ast. The Ast isn't needed afterwards, and should
+   * be dropped for the memory to be reclaimed.
+   */
+  public PackedAst(Ast ast) {
+    var packer = new Packer();
+    var entryPoints = Collections.newSetFromMap(new IdentityHashMap<Ast.Function, Boolean>());
+    entryPoints.addAll(ast.entryPoints());
+    ast.staticFunctions().values().forEach(f -> packer.pack(f, entryPoints.remove(f)));
+    ast.instanceMethods().values().forEach(f -> packer.pack(f, entryPoints.remove(f)));
+    // Entry points that aren't reachable by name.
+    entryPoints.forEach(f -> packer.pack(f, true));
+
+    variableNames = Arrays.copyOf(variableNames, variableCount);
+    variables = new Ast.Variable[variableCount];
+    unpacked = new Ast.Function[functions.size()];
+  }
+
+  // Interns the elements of the Ast being packed; dropped once packing is done.
+  private final class Packer {
+    private final Map<String, Integer> nameIds = new LinkedHashMap<>();
+    private final Map<Ast.Variable, Integer> variableIds = new IdentityHashMap<>();
+    private final Map<Ast.Type, Integer> typeIds = new IdentityHashMap<>();
+    private int[] code = new int[64];
+    private int length = 0;
+
+    private int variable(Ast.Variable v) {
+      var id = variableIds.get(v);
+      if (id == null) {
+        id = variableCount++;
+        variableIds.put(v, id);
+        if (id == variableNames.length) {
+          variableNames = Arrays.copyOf(variableNames, 2 * id);
+        }
+        variableNames[id] = nameIds.computeIfAbsent(v.name(), name -> {
+          names.add(name);
+          return names.size() - 1;
+        });
+      }
+      return id;
+    }
+
+    private int type(Ast.Type t) {
+      return typeIds.computeIfAbsent(t, unused -> {
+        types.add(t);
+        return types.size() - 1;
+      });
+    }
+
+    private void emit(int... ints) {
+      for (int i : ints) {
+        if (length == code.length) {
+          code = Arrays.copyOf(code, 2 * length);
+        }
+        code[length++] = i;
+      }
+    }
+
+    private void emitArguments(List<Ast.Variable> arguments) {
+      emit(arguments.size());
+      arguments.forEach(arg -> emit(variable(arg)));
+    }
+
+    private void pack(Ast.Function f, boolean isEntryPoint) {
+      length = 0;
+      var visitor = new Ast.Instruction.StatefulVisitor() {
+        @Override
+        public void iterAssignment(Ast.Instruction.Assignment a) {
+          emit(ASSIGNMENT, variable(a.target()), variable(a.source()));
+        }
+
+        @Override
+        public void iterAllocation(Ast.Instruction.Allocation a) {
+          emit(ALLOCATION, variable(a.target()), type(a.type()));
+        }
+
+        @Override
+        public void iterFieldWrite(Ast.Instruction.FieldWrite fw) {
+          emit(FIELD_WRITE, variable(fw.target()), variable(fw.field()), variable(fw.source()));
+        }
+
+        @Override
+        public void iterFieldRead(Ast.Instruction.FieldRead fr) {
+          emit(FIELD_READ, variable(fr.target()), variable(fr.source()), variable(fr.field()));
+        }
+
+        @Override
+        public void iterStaticInvocation(Ast.Instruction.StaticInvocation i) {
+          emit(STATIC_INVOCATION, i.target().map(this::variable).orElse(NONE), variable(i.method()));
+          emitArguments(i.arguments());
+        }
+
+        @Override
+        public void iterInvocation(Ast.Instruction.Invocation i) {
+          emit(INVOCATION, i.target().map(this::variable).orElse(NONE), variable(i.source()), variable(i.method()));
+          emitArguments(i.arguments());
+        }
+
+        @Override
+        public void iterReturn(Ast.Instruction.Return r) {
+          emit(RETURN, variable(r.returned()));
+        }
+
+        private int variable(Ast.Variable v) {
+          return Packer.this.variable(v);
+        }
+      }.visitor();
+      var instructions = f.body().instructions();
+      instructions.forEach(inst -> inst.accept(visitor));
+
+      var params = new int[f.params().size()];
+      for (int i = 0; i < params.length; i++) {
+        params[i] = variable(f.params().get(i));
+      }
+      int name = variable(f.name());
+      int index = functions.size();
+      functions.add(new PackedFunction(name, type(f.type()), params, Arrays.copyOf(code, length), instructions.size(),
+          f.staticness(), isEntryPoint));
+      if (f.staticness() == Ast.Function.Staticness.STATIC) {
+        staticFunctions.putIfAbsent(name, index);
+      } else {
+        instanceMethods.putIfAbsent(Pair.of(f.type().klass(), name), index);
+      }
+    }
+  }
+
+  /**
+   * An Ast with just the entry points, which rebuilds the other functions the
+   * first time they're looked up.
+   */
+  public Ast ast() {
+    var entryPoints = new ArrayList<Ast.Function>();
+    for (int i = 0; i < functions.size(); i++) {
+      if (functions.get(i).isEntryPoint) {
+        entryPoints.add(function(i));
+      }
+    }
+    return new Ast(entryPoints, entryPoints, new Ast.Resolver() {
+      @Override
+      public Optional<Ast.Function> staticFunction(Ast.Variable name) {
+        var id = variableIds.get(name);
+        var index = id == null ? null : staticFunctions.get(id);
+        return index == null ? Optional.empty() : Optional.of(function(index));
+      }
+
+      @Override
+      public Optional<Ast.Function> instanceMethod(IClass klass, Ast.Variable name) {
+        var id = variableIds.get(name);
+        var index = id == null ? null : instanceMethods.get(klass, id);
+        return index == null ? Optional.empty() : Optional.of(function(index));
+      }
+    });
+  }
+
+  /**
+   * Rebuild every function.
+   */
+  public Ast unpack() {
+    var all = new ArrayList<Ast.Function>();
+    var entryPoints = new ArrayList<Ast.Function>();
+    for (int i = 0; i < functions.size(); i++) {
+      all.add(function(i));
+      if (functions.get(i).isEntryPoint) {
+        entryPoints.add(function(i));
+      }
+    }
+    return new Ast(all, entryPoints);
+  }
+
+  /** The number of functions. */
+  public int functions() {
+    return functions.size();
+  }
+
+  /** The number of instructions of the function. */
+  public int size(int function) {
+    return functions.get(function).size;
+  }
+
+  /** The total length of the function bodies, in ints. */
+  public long codeLength() {
+    return functions.stream().mapToLong(f -> f.code.length).sum();
+  }
+
+  /** The name of the variable with the ID. */
+  public String name(int variable) {
+    return names.get(variableNames[variable]);
+  }
+
+  /** The type with the ID. */
+  public Ast.Type type(int type) {
+    return types.get(type);
+  }
+
+  /**
+   * Visitor for packed instructions, by operand IDs (see {@link #name} and
+   * {@link #type}). The target of an invocation whose result is unused is
+   * {@link #NONE}.
+   */
+  public interface CodeVisitor {
+    void visitAssignment(int target, int source);
+
+    void visitAllocation(int target, int type);
+
+    void visitFieldWrite(int target, int field, int source);
+
+    void visitFieldRead(int target, int source, int field);
+
+    void visitStaticInvocation(int target, int method, Arguments arguments);
+
+    void visitInvocation(int target, int source, int method, Arguments arguments);
+
+    void visitReturn(int returned);
+  }
+
+  /**
+   * The argument IDs of the invocation being visited; only valid during the
+   * visit, since the view is reused for the next invocation.
+   */
+  public static final class Arguments {
+    private int[] code;
+    private int start; // Position of the count
+
+    // Disallow outside instantiation
+    private Arguments() {
+    }
+
+    public int size() {
+      return code[start];
+    }
+
+    public int get(int i) {
+      if (i < 0 || i >= size()) {
+        throw new IndexOutOfBoundsException(i);
+      }
+      return code[start + 1 + i];
+    }
+  }
+
+  /**
+   * Visit the instructions of a function in order, in place: nothing is
+   * rebuilt, and nothing is allocated per instruction.
+   */
+  public void accept(int function, CodeVisitor visitor) {
+    var code = functions.get(function).code;
+    var arguments = new Arguments();
+    arguments.code = code;
+    for (int pc = 0; pc < code.length; pc = next(code, pc)) {
+      switch (code[pc]) {
+      case ASSIGNMENT:
+        visitor.visitAssignment(code[pc + 1], code[pc + 2]);
+        break;
+      case ALLOCATION:
+        visitor.visitAllocation(code[pc + 1], code[pc + 2]);
+        break;
+      case FIELD_WRITE:
+        visitor.visitFieldWrite(code[pc + 1], code[pc + 2], code[pc + 3]);
+        break;
+      case FIELD_READ:
+        visitor.visitFieldRead(code[pc + 1], code[pc + 2], code[pc + 3]);
+        break;
+      case STATIC_INVOCATION:
+        arguments.start = pc + 3;
+        visitor.visitStaticInvocation(code[pc + 1], code[pc + 2], arguments);
+        break;
+      case INVOCATION:
+        arguments.start = pc + 4;
+        visitor.visitInvocation(code[pc + 1], code[pc + 2], code[pc + 3], arguments);
+        break;
+      case RETURN:
+        visitor.visitReturn(code[pc + 1]);
+        break;
+      default:
+        throw new IllegalStateException("Unknown opcode: " + code[pc]);
+      }
+    }
+  }
+
+  /**
+   * Visit the instructions of a function in order as objects, without
+   * rebuilding the function. The instructions are rebuilt for each visit, and
+   * so are the variables that no rebuilt function has yet; so unlike those of
+   * a rebuilt function, they mustn't be used as keys.
+   */
+  public <T> List<T> accept(int function, Ast.Instruction.Visitor<T> visitor) {
+    var f = functions.get(function);
+    var result = new ArrayList<T>(f.size);
+    for (int pc = 0; pc < f.code.length; pc = next(f.code, pc)) {
+      result.add(instruction(f.code, pc, this::visitVariable).accept(visitor));
+    }
+    return result;
+  }
+
+  // The function, rebuilt the first time it's asked for.
+  private Ast.Function function(int index) {
+    var result = unpacked[index];
+    if (result != null) {
+      return result;
+    }
+    var f = functions.get(index);
+    var params = new ArrayList<Ast.Variable>(f.params.length);
+    for (int param : f.params) {
+      params.add(variable(param));
+    }
+    var instructions = new ArrayList<Ast.Instruction>(f.size);
+    for (int pc = 0; pc < f.code.length; pc = next(f.code, pc)) {
+      instructions.add(instruction(f.code, pc, this::variable));
+    }
+    result = new Ast.Function(variable(f.name), types.get(f.type), params, new Ast.FunctionBody(instructions),
+        f.staticness);
+    unpacked[index] = result;
+    unpackedCount++;
+    return result;
+  }
+
+  private Ast.Variable variable(int id) {
+    var result = variables[id];
+    if (result == null) {
+      result = new Ast.Variable(name(id));
+      variables[id] = result;
+      variableIds.put(result, id);
+    }
+    return result;
+  }
+
+  // The variable if it's been rebuilt, or else a copy just for a visit, so that
+  // visiting doesn't keep every variable it sees.
+  private Ast.Variable visitVariable(int id) {
+    var result = variables[id];
+    return result != null ? result : new Ast.Variable(name(id));
+  }
+
+  private static Optional<Ast.Variable> target(int id, IntFunction<Ast.Variable> variable) {
+    return id == NONE ? Optional.empty() : Optional.of(variable.apply(id));
+  }
+
+  private static List<Ast.Variable> arguments(int[] code, int pc, IntFunction<Ast.Variable> variable) {
+    var result = new ArrayList<Ast.Variable>(code[pc]);
+    for (int i = 1; i <= code[pc]; i++) {
+      result.add(variable.apply(code[pc + i]));
+    }
+    return result;
+  }
+
+  // The position of the instruction after the one at pc.
+  private static int next(int[] code, int pc) {
+    switch (code[pc]) {
+    case ASSIGNMENT:
+    case ALLOCATION:
+      return pc + 3;
+    case FIELD_WRITE:
+    case FIELD_READ:
+      return pc + 4;
+    case STATIC_INVOCATION:
+      return pc + 4 + code[pc + 3];
+    case INVOCATION:
+      return pc + 5 + code[pc + 4];
+    case RETURN:
+      return pc + 2;
+    default:
+      throw new IllegalStateException("Unknown opcode: " + code[pc]);
+    }
+  }
+
+  private Ast.Instruction instruction(int[] code, int pc, IntFunction<Ast.Variable> variable) {
+    switch (code[pc]) {
+    case ASSIGNMENT:
+      return new Ast.Instruction.Assignment(variable.apply(code[pc + 1]), variable.apply(code[pc + 2]));
+    case ALLOCATION:
+      return new Ast.Instruction.Allocation(variable.apply(code[pc + 1]), types.get(code[pc + 2]));
+    case FIELD_WRITE:
+      return new Ast.Instruction.FieldWrite(variable.apply(code[pc + 1]), variable.apply(code[pc + 2]),
+          variable.apply(code[pc + 3]));
+    case FIELD_READ:
+      return new Ast.Instruction.FieldRead(variable.apply(code[pc + 1]), variable.apply(code[pc + 2]),
+          variable.apply(code[pc + 3]));
+    case STATIC_INVOCATION:
+      return new Ast.Instruction.StaticInvocation(target(code[pc + 1], variable), variable.apply(code[pc + 2]),
+          arguments(code, pc + 3, variable));
+    case INVOCATION:
+      return new Ast.Instruction.Invocation(target(code[pc + 1], variable), variable.apply(code[pc + 2]),
+          variable.apply(code[pc + 3]), arguments(code, pc + 4, variable));
+    case RETURN:
+      return new Ast.Instruction.Return(variable.apply(code[pc + 1]));
+    default:
+      throw new IllegalStateException("Unknown opcode: " + code[pc]);
+    }
+  }
+
+  /** For testing only */
+  int unpackedCount() {
+    return unpackedCount;
+  }
+}
@@ -0,0 +1,30 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import edu.cmu.cs.cs15745.increpta.BddPointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.PersistentPointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.PointsToGraph;
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext.Node;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+
+/** The representations of the points-to graph that benchmarks can run on. */
+public enum Backend {
+  /** {@link SimplePointsToGraphWithContext} */
+  SIMPLE,
+  /** {@link BddPointsToGraphWithContext} */
+  BDD,
+  /** {@link PersistentPointsToGraphWithContext} */
+  PERSISTENT;
+
+  public <C> PointsToGraph<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>> newGraph() {
+    switch (this) {
+    case BDD:
+      return new BddPointsToGraphWithContext<>();
+    case PERSISTENT:
+      return new PersistentPointsToGraphWithContext<>();
+    default:
+      return new SimplePointsToGraphWithContext<>();
+    }
+  }
+}
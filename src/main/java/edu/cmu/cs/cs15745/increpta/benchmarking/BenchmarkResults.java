@@ -0,0 +1,247 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.cs.cs15745.increpta.benchmarking.Benchmarker.TestState;
+import edu.cmu.cs.cs15745.increpta.util.Json;
+import edu.cmu.cs.cs15745.increpta.util.Util;
+
+/**
+ * The results of a benchmark run, to be written out and compared with those of
+ * other runs (see {@link ResultComparison}).
+ *
+ * A JSON file holds the environment of the run and, for each (scope, context
+ * builder) pair, the metrics of its {@link TestState} and the latency of every
+ * add and delete. A CSV file has a row of metrics per pair, but no latencies or
+ * environment, and can't be read back. The same pair can appear more than
+ * once, for repeated runs.
+ */
+public final class BenchmarkResults {
+  // The metrics of each entry, in order. Times are in ns unless they say
+  // otherwise.
+  public static final String INSTRUCTIONS = "instructions";
+  public static final String CONSTRUCTION_MS = "pagConstructionMS";
+  public static final String NODES = "totalNodes";
+  public static final String POINTS_TO = "totalPointsTo";
+  public static final String STORED_POINTS_TO = "storedPointsTo";
+  public static final String BDD_NODES = "bddNodes";
+  public static final String CLONE = "cloneTimeNS";
+  public static final String DELETE = "Delete";
+  public static final String ADD = "Add";
+  public static final String DEGRADED = "degradedMethods";
+  public static final String ORACLE_CHECKED = "oracleChecked";
+  public static final String ORACLE_SKIPPED = "oracleSkipped";
+  public static final String ORACLE_MISMATCHES = "oracleMismatches";
+
+  /** The latency statistics, each with DELETE and ADD appended. */
+  public static final List<String> LATENCY_STATS = List.of("total", "mean", "p50", "p90", "p99", "max");
+
+  private final Map<String, String> environment;
+  private final List<Entry> entries = new ArrayList<>();
+
+  /** The results of one (scope, context builder) pair. */
+  public static final class Entry {
+    private final String scope;
+    private final String context;
+    private final Map<String, Double> metrics;
+    private final long[] deleteTimesNS;
+    private final long[] addTimesNS;
+
+    private Entry(String scope, String context, Map<String, Double> metrics, long[] deleteTimesNS,
+        long[] addTimesNS) {
+      this.scope = scope;
+      this.context = context;
+      this.metrics = metrics;
+      this.deleteTimesNS = deleteTimesNS;
+      this.addTimesNS = addTimesNS;
+    }
+
+    public String scope() {
+      return scope;
+    }
+
+    public String context() {
+      return context;
+    }
+
+    public Map<String, Double> metrics() {
+      return Collections.unmodifiableMap(metrics);
+    }
+
+    /** The metric, or NaN if the entry doesn't have it. */
+    public double metric(String name) {
+      return metrics.getOrDefault(name, Double.NaN);
+    }
+
+    /** The latencies of the deletes (DELETE) or adds (ADD), in run order. */
+    public long[] latencies(String kind) {
+      return (kind.equals(DELETE) ? deleteTimesNS : addTimesNS).clone();
+    }
+  }
+
+  /** Results of a run in this environment. */
+  public BenchmarkResults() {
+    this(currentEnvironment());
+  }
+
+  private BenchmarkResults(Map<String, String> environment) {
+    this.environment = environment;
+  }
+
+  /**
+   * The JVM, machine and configuration the benchmarks run in.
+   */
+  public static Map<String, String> currentEnvironment() {
+    var result = new LinkedHashMap<String, String>();
+    result.put("timestamp", Instant.now().toString());
+    for (var property : List.of("java.version", "java.vm.name", "os.name", "os.arch")) {
+      result.put(property, System.getProperty(property));
+    }
+    result.put("processors", Integer.toString(Runtime.getRuntime().availableProcessors()));
+    result.put("maxHeapMB", Long.toString(Runtime.getRuntime().maxMemory() / (1024 * 1024)));
+    for (var variable : List.of("IPA_DEBUG", "IPA_BUDGET", "IPA_ORACLE")) {
+      var value = System.getenv(variable);
+      if (value != null) {
+        result.put(variable, value);
+      }
+    }
+    return result;
+  }
+
+  public Map<String, String> environment() {
+    return Collections.unmodifiableMap(environment);
+  }
+
+  public List<Entry> entries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  void add(String scope, String context, TestState state) {
+    var deletes = state.deleteTimesNS.stream().mapToLong(Long::longValue).toArray();
+    var adds = state.addTimesNS.stream().mapToLong(Long::longValue).toArray();
+    var metrics = new LinkedHashMap<String, Double>();
+    metrics.put(INSTRUCTIONS, (double) state.totalInstructions);
+    metrics.put(CONSTRUCTION_MS, (double) state.pagConstructionMS);
+    metrics.put(NODES, (double) state.totalNodes);
+    metrics.put(POINTS_TO, (double) state.totalPointsTo);
+    metrics.put(STORED_POINTS_TO, (double) state.storedPointsTo);
+    metrics.put(BDD_NODES, (double) state.bddNodes);
+    metrics.put(CLONE, (double) state.cloneTimeNS);
+    putLatencies(metrics, DELETE, deletes);
+    putLatencies(metrics, ADD, adds);
+    metrics.put(DEGRADED, (double) state.degraded.size());
+    metrics.put(ORACLE_CHECKED, (double) state.oracleChecked);
+    metrics.put(ORACLE_SKIPPED, (double) state.oracleSkipped);
+    metrics.put(ORACLE_MISMATCHES, (double) state.oracleMismatches);
+    entries.add(new Entry(scope, context, metrics, deletes, adds));
+  }
+
+  private static void putLatencies(Map<String, Double> metrics, String kind, long[] latencies) {
+    var sorted = latencies.clone();
+    Arrays.sort(sorted);
+    metrics.put("total" + kind, (double) Arrays.stream(sorted).sum());
+    metrics.put("mean" + kind, Util.mean(sorted));
+    metrics.put("p50" + kind, (double) Util.percentile(sorted, 50));
+    metrics.put("p90" + kind, (double) Util.percentile(sorted, 90));
+    metrics.put("p99" + kind, (double) Util.percentile(sorted, 99));
+    metrics.put("max" + kind, sorted.length == 0 ? 0D : sorted[sorted.length - 1]);
+  }
+
+  /** Write the results to the file, as CSV if its name ends in .csv, else JSON. */
+  public void write(Path file) throws IOException {
+    try (var out = Files.newBufferedWriter(file)) {
+      if (file.getFileName().toString().endsWith(".csv")) {
+        writeCsv(out);
+      } else {
+        writeJson(out);
+      }
+    }
+  }
+
+  public void writeJson(Writer out) throws IOException {
+    out.write("{\n  \"environment\": {");
+    boolean first = true;
+    for (var entry : environment.entrySet()) {
+      out.write((first ? "\n" : ",\n") + "    " + Json.quote(entry.getKey()) + ": " + Json.quote(entry.getValue()));
+      first = false;
+    }
+    out.write("\n  },\n  \"results\": [");
+    first = true;
+    for (var entry : entries) {
+      out.write(first ? "\n" : ",\n");
+      first = false;
+      out.write("    {\"scope\": " + Json.quote(entry.scope) + ", \"context\": " + Json.quote(entry.context));
+      for (var metric : entry.metrics.entrySet()) {
+        out.write(", " + Json.quote(metric.getKey()) + ": " + number(metric.getValue()));
+      }
+      out.write(",\n      \"deleteTimesNS\": " + Arrays.toString(entry.deleteTimesNS));
+      out.write(",\n      \"addTimesNS\": " + Arrays.toString(entry.addTimesNS) + "}");
+    }
+    out.write("\n  ]\n}\n");
+  }
+
+  public void writeCsv(Writer out) throws IOException {
+    var metrics = new ArrayList<String>();
+    entries.forEach(entry -> entry.metrics.keySet().stream().filter(m -> !metrics.contains(m)).forEach(metrics::add));
+    out.write("scope,context," + String.join(",", metrics) + "\n");
+    for (var entry : entries) {
+      out.write(csv(entry.scope) + "," + csv(entry.context));
+      for (var metric : metrics) {
+        out.write("," + number(entry.metric(metric)));
+      }
+      out.write("\n");
+    }
+  }
+
+  private static String number(double x) {
+    return x == Math.rint(x) && Math.abs(x) < 1e15 ? Long.toString((long) x) : Double.toString(x);
+  }
+
+  private static String csv(String field) {
+    return field.contains(",") || field.contains("\"") ? "\"" + field.replace("\"", "\"\"") + "\"" : field;
+  }
+
+  /** Read results written by {@link #writeJson}. */
+  public static BenchmarkResults readJson(Reader in) throws IOException {
+    var text = new StringWriter();
+    in.transferTo(text);
+    var json = (Map<?, ?>) Json.parse(text.toString());
+    var environment = new LinkedHashMap<String, String>();
+    ((Map<?, ?>) json.get("environment")).forEach((k, v) -> environment.put((String) k, (String) v));
+    var result = new BenchmarkResults(environment);
+    for (var o : (List<?>) json.get("results")) {
+      var fields = (Map<?, ?>) o;
+      var metrics = new LinkedHashMap<String, Double>();
+      fields.forEach((k, v) -> {
+        if (v instanceof Double) {
+          metrics.put((String) k, (Double) v);
+        }
+      });
+      result.entries.add(new Entry((String) fields.get("scope"), (String) fields.get("context"), metrics,
+          longs((List<?>) fields.get("deleteTimesNS")), longs((List<?>) fields.get("addTimesNS"))));
+    }
+    return result;
+  }
+
+  public static BenchmarkResults read(Path file) throws IOException {
+    try (var in = Files.newBufferedReader(file)) {
+      return readJson(in);
+    }
+  }
+
+  private static long[] longs(List<?> list) {
+    return list == null ? new long[0] : list.stream().mapToLong(x -> ((Double) x).longValue()).toArray();
+  }
+}
@@ -2,9 +2,16 @@ package edu.cmu.cs.cs15745.increpta.benchmarking;
 
 import com.ibm.wala.ipa.callgraph.impl.Util;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -20,15 +27,24 @@ import com.ibm.wala.ipa.cha.ClassHierarchyFactory;
 import com.ibm.wala.util.config.AnalysisScopeReader;
 import com.ibm.wala.util.io.FileProvider;
 
+import edu.cmu.cs.cs15745.increpta.BddPointsToGraph;
 import edu.cmu.cs.cs15745.increpta.ContextBuilder;
+import edu.cmu.cs.cs15745.increpta.ContextBuilders;
+import edu.cmu.cs.cs15745.increpta.DemandPointsTo;
+import edu.cmu.cs.cs15745.increpta.DifferentialOracle;
 import edu.cmu.cs.cs15745.increpta.IncrementalPointsTo;
 import edu.cmu.cs.cs15745.increpta.PointsToGraph;
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraph;
 import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext;
 import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext.Node;
 import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.FieldSensitivity;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.MemoryBudget;
 import edu.cmu.cs.cs15745.increpta.ast.Ast;
 import edu.cmu.cs.cs15745.increpta.ast.AstFromWala;
+import edu.cmu.cs.cs15745.increpta.ast.AstNames;
 import edu.cmu.cs.cs15745.increpta.util.Pair;
+import edu.cmu.cs.cs15745.increpta.util.Util.Unit;
 
 /** Run some benchmarks. */
 public final class Benchmarker {
@@ -44,14 +60,68 @@ public final class Benchmarker {
     }
     return 0;
   });
+
+  // How many more nodes each incremental invariant check sweeps over.
+  private static final int CHECK_SWEEP = 64;
+
+  // The fraction of updates to check against a from-scratch solve (see
+  // DifferentialOracle), from IPA_ORACLE.
+  private static final double ORACLE_RATE = swallow(() -> {
+    var rate = System.getenv("IPA_ORACLE");
+    return rate == null ? 0 : Double.parseDouble(rate);
+  });
+  private static final int ORACLE_MAX_REGION = 100_000;
+
+  // The steps a demand query may take before it's answered from the graph of
+  // the whole program.
+  private static final int DEMAND_BUDGET = 100_000;
   
   private final AnalysisScope scope;
   private final ClassHierarchy cha;
+  private final File exclusions;
+  private final CallGraphCache callGraphCache; // null if not caching
+  private MemoryBudget budget = MemoryBudget.UNLIMITED;
+  private FieldSensitivity fieldSensitivity = FieldSensitivity.VARIABLE;
+
+  // For Asts built some other way: there's no scope to load them from.
+  Benchmarker() {
+    scope = null;
+    cha = null;
+    exclusions = null;
+    callGraphCache = null;
+  }
 
   public Benchmarker(String scopeFile, String exclusionsFile) {
-    scope = swallow(() -> AnalysisScopeReader.readJavaScope(scopeFile, new FileProvider().getFile(exclusionsFile),
+    this(scopeFile, exclusionsFile, null);
+  }
+
+  /**
+   * Cache call graphs in the directory, if it's not null (see
+   * {@link CallGraphCache}).
+   */
+  public Benchmarker(String scopeFile, String exclusionsFile, Path callGraphCacheDirectory) {
+    exclusions = swallow(() -> new FileProvider().getFile(exclusionsFile));
+    scope = swallow(() -> AnalysisScopeReader.readJavaScope(scopeFile, exclusions,
         Benchmarker.class.getClassLoader()));
     cha = swallow(() -> ClassHierarchyFactory.make(scope));
+    callGraphCache = callGraphCacheDirectory == null ? null : new CallGraphCache(callGraphCacheDirectory);
+  }
+
+  /**
+   * Keep the graphs of later tests within the budget, degrading contexts if they
+   * grow past it.
+   */
+  public void setMemoryBudget(MemoryBudget budget) {
+    this.budget = budget;
+  }
+
+  /** Model the fields of objects this way in the graphs built from now on. */
+  public void setFieldSensitivity(FieldSensitivity fieldSensitivity) {
+    this.fieldSensitivity = fieldSensitivity;
+  }
+
+  public ClassHierarchy classHierarchy() {
+    return cha;
   }
 
   // Build initial call graph.
@@ -71,17 +141,39 @@ public final class Benchmarker {
     long pointStart = System.currentTimeMillis();
 
     var entrypoints = Util.makeMainEntrypoints(scope, cha, mainClassName);
-    var cfg = makeCallGraph(entrypoints);
+    var entryMethods = StreamSupport.stream(entrypoints.spliterator(), false).map(Entrypoint::getMethod)
+        .collect(Collectors.toSet());
+    // Reuse the call graph of a previous run, if it's cached.
+    var key = callGraphCache == null ? null : swallow(() -> CallGraphCache.key(scope, exclusions, mainClassName));
+    var cached = key == null ? Optional.<CallGraphCache.Entry>empty()
+        : swallow(() -> callGraphCache.load(key, scope, cha));
+    CallGraph cfg = null;
+    if (cached.isEmpty()) {
+      cfg = makeCallGraph(entrypoints);
+    }
 
     long pointCFG = System.currentTimeMillis();
     long timeCFG = pointCFG - pointStart;
-    System.out.println(String.format("\tCFG construction: %.3fs", timeCFG / 1_000D));
+    System.out.println(
+        String.format("\tCFG construction: %.3fs%s", timeCFG / 1_000D, cached.isPresent() ? " (cached)" : ""));
 
     // Starting building astFromWala. A node is an entrypoint if its method is an
     // entry method.
-    var entryMethods = StreamSupport.stream(entrypoints.spliterator(), false).map(Entrypoint::getMethod)
-        .collect(Collectors.toSet());
-    Ast ast = new AstFromWala(cfg, cha, node -> entryMethods.contains(node.getMethod())).ast();
+    AstFromWala converter;
+    if (cached.isPresent()) {
+      converter = new AstFromWala(cached.get().methods(), cached.get().synthetic(), scope, cha,
+          new AnalysisCacheImpl(), entryMethods::contains);
+    } else {
+      var graph = cfg;
+      converter = new AstFromWala(graph, cha, node -> entryMethods.contains(node.getMethod()));
+      if (key != null) {
+        swallow(() -> {
+          callGraphCache.store(key, graph, converter);
+          return null;
+        });
+      }
+    }
+    Ast ast = converter.ast();
 
     long pointAST = System.currentTimeMillis();
     long timeAST = pointAST - pointCFG;
@@ -89,22 +181,90 @@ public final class Benchmarker {
 
     return ast;
   }
+
+  /**
+   * An Ast that converts methods as the graph builder reaches them, so that no
+   * call graph has to be built up front.
+   */
+  public Ast getAstOnDemand(String mainClassName) {
+    var entrypoints = Util.makeMainEntrypoints(scope, cha, mainClassName);
+    var entryMethods = StreamSupport.stream(entrypoints.spliterator(), false).map(Entrypoint::getMethod)
+        .collect(Collectors.toList());
+    return new AstFromWala(cha, new AnalysisCacheImpl(), entryMethods).ast();
+  }
   
   public <C> void test(Ast ast, ContextBuilder<C> ctxBuilder, TestState state) {
+    test(ast, ctxBuilder, SimplePointsToGraphWithContext::new, state);
+  }
+
+  /**
+   * Like {@link #test(Ast, ContextBuilder, TestState)}, but on a graph of the
+   * given representation.
+   */
+  public <C> void test(Ast ast, ContextBuilder<C> ctxBuilder,
+      Supplier<? extends PointsToGraph<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>>> newGraph,
+      TestState state) {
+    var builder = build(ast, ctxBuilder, newGraph, state);
+    var pag = builder.graph();
+
+    if (DEBUG >= 1) {
+      pag.checkTouched(CHECK_SWEEP); // The first check is of the whole graph
+    }
+
+    var oracle = ORACLE_RATE > 0 ? new DifferentialOracle<>(pag, ORACLE_RATE, ORACLE_MAX_REGION,
+        Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 15745) : null;
+
+    // Test static methods. (Copied, since an Ast that loads functions on demand
+    // may still be loading them.)
+    long cloneStart = System.nanoTime();
+    var pagCopy = pag.clone();
+    state.cloneTimeNS += System.nanoTime() - cloneStart;
+    for (var f : List.copyOf(ast.staticFunctions().values())) {
+      testNode(f.body(), pag, pagCopy, builder, oracle, state);
+    }
+
+    // Test instance methods
+    for (var f : List.copyOf(ast.instanceMethods().values())) {
+      testNode(f.body(), pag, pagCopy, builder, oracle, state);
+    }
+    if (DEBUG >= 2) {
+      pag.checkInvariant();
+    }
+    if (pagCopy instanceof BddPointsToGraph<?, ?, ?>) {
+      // Let the BDD they share collect the copy's nodes.
+      ((BddPointsToGraph<?, ?, ?>) pagCopy).release();
+    }
+
+    if (oracle != null) {
+      oracle.close();
+      var mismatches = oracle.mismatches();
+      state.oracleChecked += oracle.checked();
+      state.oracleSkipped += oracle.skipped();
+      state.oracleMismatches += mismatches.size();
+      mismatches.stream().limit(10).forEach(m -> System.err.println("Oracle mismatch: " + m));
+    }
+  }
+
+  /**
+   * Build the graph for the ast, recording its construction time and size in
+   * the state.
+   */
+  public <C> IncrementalPointsToGraphBuilder<C> build(Ast ast, ContextBuilder<C> ctxBuilder,
+      Supplier<? extends PointsToGraph<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>>> newGraph,
+      TestState state) {
     long pointStart = System.currentTimeMillis();
 
     // Starting building pointsToGraph
-    var builder = new IncrementalPointsToGraphBuilder<>(ast, new SimplePointsToGraphWithContext<>(),
-        ctxBuilder);
+    var graph = newGraph.get();
+    var builder = new IncrementalPointsToGraphBuilder<>(ast, graph, ctxBuilder, fieldSensitivity, budget);
 
     var pag = builder.build();
+    builder.degraded().forEach((f, times) -> state.degraded.add(AstNames.key(f) + " (x" + times + ")"));
 
     long pointPAG = System.currentTimeMillis();
     long timePAG = pointPAG - pointStart;
     state.pagConstructionMS += timePAG;
 
-    pag.checkInvariant(); // make sure it was correctly constructed
-
     // Accumulate the number of nodes and the size of points-to sets.
     var nonEmptyNodeSummary =
       pag.nodes().stream()
@@ -113,17 +273,140 @@ public final class Benchmarker {
          .summaryStatistics();
     state.totalNodes += nonEmptyNodeSummary.getCount();
     state.totalPointsTo += nonEmptyNodeSummary.getSum();
+    if (graph instanceof SimplePointsToGraph<?, ?>) {
+      state.storedPointsTo += ((SimplePointsToGraph<?, ?>) graph).pointsToStats().stored();
+    } else if (graph instanceof BddPointsToGraph<?, ?, ?>) {
+      state.bddNodes = Math.max(state.bddNodes, ((BddPointsToGraph<?, ?, ?>) graph).bddSize());
+    }
+    return builder;
+  }
 
-    // Test static methods
-    var pagCopy = pag.clone();
-    for (var f : ast.staticFunctions().values()) {
-      testNode(f.body(), pag, pagCopy, builder, state);
+  /**
+   * Build the graph for the ast, and then ask for the points-to set of each
+   * query, given as "function-key:variable" (see {@link AstNames}), in all of
+   * the function's contexts. With no queries, ask about every parameter and
+   * every variable an instruction assigns, without printing the answers.
+   */
+  public <C> void query(Ast ast, ContextBuilder<C> ctxBuilder,
+      Supplier<? extends PointsToGraph<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>>> newGraph,
+      List<String> queries, TestState state) {
+    var builder = build(ast, ctxBuilder, newGraph, state);
+    for (var target : targets(ast, queries)) {
+      long queryPointNS = System.nanoTime();
+      var result = new LinkedHashSet<Pair<Ast.Instruction.Allocation, C>>();
+      for (var ctx : builder.contexts(target.fst())) {
+        result.addAll(builder.pointsTo(target.snd(), ctx));
+      }
+      state.queryTimesNS.add(System.nanoTime() - queryPointNS);
+      if (!queries.isEmpty()) {
+        System.out.printf("%s:%s -> %s\n", AstNames.key(target.fst()), target.snd(), result);
+      }
     }
+  }
 
-    // Test instance methods
-    for (var f : ast.instanceMethods().values()) {
-      testNode(f.body(), pag, pagCopy, builder, state);
+  /**
+   * Like {@link #query}, but answer each query on demand (see
+   * {@link DemandPointsTo}), without context. The graph of the whole program
+   * is only built, on a graph of the given representation, when a query needs
+   * more than its budget of steps, and then it counts towards that query's
+   * time. Only the functions of the Ast loaded so far are queried about.
+   */
+  public void queryOnDemand(Ast ast,
+      Supplier<? extends PointsToGraph<Pair<Node, Unit>, Pair<Ast.Instruction.Allocation, Unit>>> newGraph,
+      List<String> queries, TestState state) {
+    var exhaustive = new IncrementalPointsToGraphBuilder<>(ast, newGraph.get(), ContextBuilders.NO_CONTEXT,
+        fieldSensitivity, budget);
+    var demand = new DemandPointsTo(ast, DEMAND_BUDGET, exhaustive);
+    for (var target : targets(ast, queries)) {
+      long queryPointNS = System.nanoTime();
+      var result = demand.pointsTo(target.snd());
+      state.queryTimesNS.add(System.nanoTime() - queryPointNS);
+      if (!queries.isEmpty()) {
+        System.out.printf("%s:%s -> %s\n", AstNames.key(target.fst()), target.snd(), result);
+      }
     }
+    state.demandQueries += demand.demandQueries();
+    state.exhaustiveQueries += demand.exhaustiveQueries();
+  }
+
+  // The variables to query, given as "function-key:variable"; or, with no
+  // queries, every parameter and every variable an instruction assigns.
+  private static List<Pair<Ast.Function, Ast.Variable>> targets(Ast ast, List<String> queries) {
+    var names = new AstNames(ast);
+    var targets = new ArrayList<Pair<Ast.Function, Ast.Variable>>();
+    if (queries.isEmpty()) {
+      var functions = new ArrayList<Ast.Function>(ast.staticFunctions().values());
+      functions.addAll(ast.instanceMethods().values());
+      for (var f : functions) {
+        f.params().forEach(v -> targets.add(Pair.of(f, v)));
+        var visitor = new Ast.Instruction.StatefulVisitor() {
+          @Override
+          public void iterAssignment(Ast.Instruction.Assignment a) {
+            targets.add(Pair.of(f, a.target()));
+          }
+
+          @Override
+          public void iterAllocation(Ast.Instruction.Allocation a) {
+            targets.add(Pair.of(f, a.target()));
+          }
+
+          @Override
+          public void iterFieldRead(Ast.Instruction.FieldRead fr) {
+            targets.add(Pair.of(f, fr.target()));
+          }
+
+          @Override
+          public void iterStaticInvocation(Ast.Instruction.StaticInvocation i) {
+            i.target().ifPresent(v -> targets.add(Pair.of(f, v)));
+          }
+
+          @Override
+          public void iterInvocation(Ast.Instruction.Invocation i) {
+            i.target().ifPresent(v -> targets.add(Pair.of(f, v)));
+          }
+        }.visitor();
+        for (var inst : f.body().instructions()) {
+          if (inst != null) {
+            inst.accept(visitor);
+          }
+        }
+      }
+    } else {
+      for (var query : queries) {
+        int colon = query.lastIndexOf(':');
+        if (colon < 0) {
+          throw new IllegalArgumentException("Expected function-key:variable, got: " + query);
+        }
+        var f = names.function(query.substring(0, colon))
+            .orElseThrow(() -> new IllegalArgumentException("No function " + query.substring(0, colon)));
+        targets.add(Pair.of(f, names.variable(f, query.substring(colon + 1))));
+      }
+    }
+    return targets;
+  }
+
+  /**
+   * Build the graph for the ast, and then replay the trace (which must have been
+   * recorded against the ast) through it.
+   */
+  public <C> TraceReplayer.ReplayStats replay(Ast ast, ContextBuilder<C> ctxBuilder, EditTrace trace) {
+    return replay(ast, ctxBuilder, SimplePointsToGraphWithContext::new, trace, new TestState());
+  }
+
+  /**
+   * Like {@link #replay(Ast, ContextBuilder, EditTrace)}, but on a graph of the
+   * given representation, recording its construction in the state.
+   */
+  public <C> TraceReplayer.ReplayStats replay(Ast ast, ContextBuilder<C> ctxBuilder,
+      Supplier<? extends PointsToGraph<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>>> newGraph,
+      EditTrace trace, TestState state) {
+    var builder = build(ast, ctxBuilder, newGraph, state);
+    var pag = builder.graph();
+    var stats = new TraceReplayer<>(builder).replay(trace);
+    if (DEBUG >= 2) {
+      pag.checkInvariant();
+    }
+    return stats;
   }
 
   // Test adding and removing each instruction in the node, updating the state
@@ -132,6 +415,7 @@ public final class Benchmarker {
       IncrementalPointsTo<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>>.Graph pag, // Run incremental add / delete
       PointsToGraph<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>> pagCopy, // Check correctness
       IncrementalPointsToGraphBuilder<C> builder, // Convert ast instruction to graph nodes
+      DifferentialOracle<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>> oracle, // Or null
       TestState state) {
     for (var inst : body.instructions()) {
       if (inst == null) {
@@ -150,8 +434,11 @@ public final class Benchmarker {
         affectedNodes.addAll(pag.deleteEdge(edge.fst(), edge.snd()));
       }
       long deleteTimeNS = System.nanoTime() - deletePointNS;
+      if (oracle != null) {
+        oracle.check(affectedNodes);
+      }
       if (DEBUG >= 2 && affectedNodes.size() > 0) {
-        pag.checkInvariant();
+        pag.checkTouched(CHECK_SWEEP);
       }
 
       /******** ADDITION CITY ********/
@@ -162,8 +449,11 @@ public final class Benchmarker {
         affectedNodes.addAll(pag.addEdge(edge.fst(), edge.snd()));
       }
       long addTimeNS = System.nanoTime() - addPointNS;
+      if (oracle != null) {
+        oracle.check(affectedNodes);
+      }
       if (DEBUG >= 2 && affectedNodes.size() > 0) {
-        pag.checkInvariant();
+        pag.checkTouched(CHECK_SWEEP);
       }
 
       if (affectedNodes.size() > 0) {
@@ -199,6 +489,8 @@ public final class Benchmarker {
         state.totalInstructions++;
         state.totalDeleteTimeNS += deleteTimeNS;
         state.totalAddTimeNS += addTimeNS;
+        state.deleteTimesNS.add(deleteTimeNS);
+        state.addTimesNS.add(addTimeNS);
         state.minAddTimeNS = Math.min(state.minAddTimeNS, addTimeNS);
         state.maxAddTimeNS = Math.max(state.maxAddTimeNS, addTimeNS);
         state.minDeleteTimeNS = Math.min(state.minDeleteTimeNS, deleteTimeNS);
@@ -215,9 +507,47 @@ public final class Benchmarker {
     long totalAddTimeNS = 0;
     long maxAddTimeNS = 0;
     long minAddTimeNS = Long.MAX_VALUE;
+    List<Long> deleteTimesNS = new ArrayList<>(); // Of each instruction, in order
+    List<Long> addTimesNS = new ArrayList<>();
+    List<Long> queryTimesNS = new ArrayList<>();
+    long demandQueries = 0; // Answered on demand, within the budget
+    long exhaustiveQueries = 0; // Answered from the whole graph
     long totalNodes = 0;
     long totalPointsTo = 0;
+    long storedPointsTo = 0; // Counting shared points-to sets once
+    long bddNodes = 0; // Peak, for BDD-backed graphs
+    long cloneTimeNS = 0; // Copying the initial graph to check against
+    Set<String> degraded = new TreeSet<>(); // Methods whose contexts were coarsened
+    long oracleChecked = 0;
+    long oracleSkipped = 0;
+    long oracleMismatches = 0;
     long pagConstructionMS = 0;
+
+    /** Add the other state's counts to this one's. */
+    void addAll(TestState other) {
+      totalInstructions += other.totalInstructions;
+      totalDeleteTimeNS += other.totalDeleteTimeNS;
+      maxDeleteTimeNS = Math.max(maxDeleteTimeNS, other.maxDeleteTimeNS);
+      minDeleteTimeNS = Math.min(minDeleteTimeNS, other.minDeleteTimeNS);
+      totalAddTimeNS += other.totalAddTimeNS;
+      maxAddTimeNS = Math.max(maxAddTimeNS, other.maxAddTimeNS);
+      minAddTimeNS = Math.min(minAddTimeNS, other.minAddTimeNS);
+      deleteTimesNS.addAll(other.deleteTimesNS);
+      addTimesNS.addAll(other.addTimesNS);
+      queryTimesNS.addAll(other.queryTimesNS);
+      demandQueries += other.demandQueries;
+      exhaustiveQueries += other.exhaustiveQueries;
+      totalNodes += other.totalNodes;
+      totalPointsTo += other.totalPointsTo;
+      storedPointsTo += other.storedPointsTo;
+      bddNodes = Math.max(bddNodes, other.bddNodes);
+      cloneTimeNS += other.cloneTimeNS;
+      degraded.addAll(other.degraded);
+      oracleChecked += other.oracleChecked;
+      oracleSkipped += other.oracleSkipped;
+      oracleMismatches += other.oracleMismatches;
+      pagConstructionMS += other.pagConstructionMS;
+    }
   }
 
   private static <T> T swallow(Callable<T> f) {
@@ -0,0 +1,204 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.types.Selector;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.util.strings.Atom;
+
+import edu.cmu.cs.cs15745.increpta.ast.AstFromWala;
+
+/**
+ * A persistent cache of the nodes of the call graphs built by
+ * {@link Benchmarker}, so that warm runs can skip call graph construction.
+ *
+ * Entries are keyed by a hash of the contents of every module of the analysis
+ * scope, the exclusions and the main class, so changing any of them is a cache
+ * miss. Each entry is a text file with one line per record:
+ *
+ * <pre>
+ * method    loader class selector
+ * synthetic line-count
+ * </pre>
+ *
+ * Methods are resolved against the class hierarchy again when an entry is
+ * loaded. Synthetic methods (the fake root, and WALA's models of e.g. clone)
+ * can't be, since they only exist once a call graph is built, so their
+ * functions are stored converted instead: each synthetic record is followed by
+ * the lines of {@link AstFromWala#describe}. Either way, a warm run converts
+ * the same functions as a cold one.
+ */
+final class CallGraphCache {
+  // Part of the key, so that entries in an older format are misses.
+  private static final String FORMAT = "2";
+
+  private final Path directory;
+
+  CallGraphCache(Path directory) {
+    this.directory = Objects.requireNonNull(directory);
+  }
+
+  /** The nodes of a call graph: methods, and converted synthetic functions. */
+  static final class Entry {
+    private final List<IMethod> methods;
+    private final List<List<String>> synthetic;
+
+    private Entry(List<IMethod> methods, List<List<String>> synthetic) {
+      this.methods = methods;
+      this.synthetic = synthetic;
+    }
+
+    List<IMethod> methods() {
+      return methods;
+    }
+
+    /** The descriptions (see {@link AstFromWala#describe}) of the synthetic functions. */
+    List<List<String>> synthetic() {
+      return synthetic;
+    }
+  }
+
+  /**
+   * The key of the call graph of the program.
+   */
+  static String key(AnalysisScope scope, File exclusions, String mainClass) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    update(digest, FORMAT);
+    update(digest, mainClass);
+    digest.update(Files.readAllBytes(exclusions.toPath()));
+    for (var loader : scope.getLoaders()) {
+      update(digest, loader.getName().toString());
+      for (var module : scope.getModules(loader)) {
+        for (var entries = module.getEntries(); entries.hasNext();) {
+          var entry = entries.next();
+          update(digest, entry.getName());
+          try (InputStream in = entry.getInputStream()) {
+            digest.update(in.readAllBytes());
+          }
+        }
+      }
+    }
+    var result = new StringBuilder();
+    for (byte b : digest.digest()) {
+      result.append(String.format("%02x", b));
+    }
+    return result.toString();
+  }
+
+  private static void update(MessageDigest digest, String s) {
+    digest.update(s.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  /**
+   * Load the entry, resolving its methods and the types of its synthetic
+   * functions against the class hierarchy. Empty if there's no entry, or it no
+   * longer resolves.
+   */
+  Optional<Entry> load(String key, AnalysisScope scope, ClassHierarchy cha) throws IOException {
+    var file = file(key);
+    if (!Files.exists(file)) {
+      return Optional.empty();
+    }
+    var lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    var methods = new ArrayList<IMethod>();
+    var synthetic = new ArrayList<List<String>>();
+    // Only to check that the synthetic functions still resolve.
+    var converter = new AstFromWala(cha);
+    for (int i = 0; i < lines.size(); i++) {
+      var line = lines.get(i);
+      var fields = line.split("\t", -1);
+      switch (fields[0]) {
+      case "method": {
+        var loader = scope.getLoader(Atom.findOrCreateUnicodeAtom(fields[1]));
+        var type = TypeReference.findOrCreate(loader, fields[2]);
+        var method = cha.resolveMethod(MethodReference.findOrCreate(type, Selector.make(fields[3])));
+        if (method == null) {
+          return Optional.empty();
+        }
+        methods.add(method);
+        break;
+      }
+      case "synthetic": {
+        int count = Integer.parseInt(fields[1]);
+        if (count < 1 || i + count >= lines.size()) {
+          throw new IllegalStateException("Malformed call graph cache entry " + file + ": " + line);
+        }
+        var description = List.copyOf(lines.subList(i + 1, i + 1 + count));
+        try {
+          if (converter.function(description, scope).isEmpty()) {
+            return Optional.empty();
+          }
+        } catch (IllegalArgumentException e) {
+          throw new IllegalStateException("Malformed call graph cache entry " + file, e);
+        }
+        synthetic.add(description);
+        i += count;
+        break;
+      }
+      default:
+        throw new IllegalStateException("Malformed call graph cache entry " + file + ": " + line);
+      }
+    }
+    return Optional.of(new Entry(methods, synthetic));
+  }
+
+  /**
+   * Store the nodes of the call graph under the key. The converter is the one
+   * that made the Ast of the call graph, so that the synthetic functions are
+   * described with its names.
+   */
+  void store(String key, CallGraph graph, AstFromWala converter) throws IOException {
+    Set<IMethod> seen = new LinkedHashSet<>();
+    var lines = new ArrayList<String>();
+    for (CGNode node : graph) {
+      var method = node.getMethod();
+      if (!seen.add(method)) {
+        continue;
+      }
+      if (method.isSynthetic()) {
+        var description = converter.describe(converter.function(method, node.getIR()));
+        lines.add(String.join("\t", "synthetic", Integer.toString(description.size())));
+        lines.addAll(description);
+        continue;
+      }
+      var klass = method.getDeclaringClass();
+      lines.add(String.join("\t", "method", klass.getClassLoader().getReference().getName().toString(),
+          klass.getName().toString(), method.getSelector().toString()));
+    }
+    Files.createDirectories(directory);
+    // Write to a temporary file first, so that readers never see half an entry.
+    var temp = Files.createTempFile(directory, key, ".tmp");
+    Files.write(temp, lines, StandardCharsets.UTF_8);
+    Files.move(temp, file(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private Path file(String key) {
+    return directory.resolve(key + ".txt");
+  }
+}
@@ -0,0 +1,350 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.AstNames;
+
+/**
+ * A sequence of instruction-level edits to the function bodies of an Ast.
+ *
+ * Each edit names a function and a position in that function's body. Positions
+ * are relative to the body as it is when the edit is applied, i.e. after all of
+ * the preceding edits in the trace have been applied.
+ *
+ * Traces can be written to and read from a line-based text format. Each line is
+ * a tab-separated list of fields:
+ *
+ * <pre>
+ * ADD    function index instruction
+ * REMOVE function index instruction
+ * MODIFY function index old-instruction new-instruction
+ * </pre>
+ *
+ * where an instruction is an opcode followed by its operands:
+ *
+ * <pre>
+ * assign target source
+ * new    target type
+ * store  target field source
+ * load   target source field
+ * scall  target method argc arg1 ... argn
+ * call   target source method argc arg1 ... argn
+ * return returned
+ * </pre>
+ *
+ * An absent call target is written as the empty string. Blank lines and lines
+ * starting with '#' are ignored.
+ */
+public final class EditTrace {
+
+  public enum Kind {
+    ADD, REMOVE, MODIFY;
+  }
+
+  /**
+   * A single edit. For ADD and REMOVE, instruction() is the instruction added
+   * or removed; for MODIFY, replaced() is the old instruction and instruction()
+   * is the new one.
+   */
+  public static final class Edit {
+    private final Kind kind;
+    private final Ast.Function function;
+    private final int index;
+    private final Ast.Instruction instruction;
+    private final Ast.Instruction replaced;
+
+    private Edit(Kind kind, Ast.Function function, int index, Ast.Instruction instruction,
+        Ast.Instruction replaced) {
+      this.kind = Objects.requireNonNull(kind);
+      this.function = Objects.requireNonNull(function);
+      this.index = index;
+      this.instruction = Objects.requireNonNull(instruction);
+      this.replaced = replaced;
+    }
+
+    public static Edit add(Ast.Function function, int index, Ast.Instruction instruction) {
+      return new Edit(Kind.ADD, function, index, instruction, null);
+    }
+
+    public static Edit remove(Ast.Function function, int index, Ast.Instruction instruction) {
+      return new Edit(Kind.REMOVE, function, index, instruction, null);
+    }
+
+    public static Edit modify(Ast.Function function, int index, Ast.Instruction replaced,
+        Ast.Instruction instruction) {
+      return new Edit(Kind.MODIFY, function, index, instruction, Objects.requireNonNull(replaced));
+    }
+
+    public Kind kind() {
+      return kind;
+    }
+
+    public Ast.Function function() {
+      return function;
+    }
+
+    public int index() {
+      return index;
+    }
+
+    public Ast.Instruction instruction() {
+      return instruction;
+    }
+
+    public Optional<Ast.Instruction> replaced() {
+      return Optional.ofNullable(replaced);
+    }
+
+    @Override
+    public String toString() {
+      var f = AstNames.key(function);
+      return kind == Kind.MODIFY ? String.format("%s %s@%d: %s => %s", kind, f, index, replaced, instruction)
+          : String.format("%s %s@%d: %s", kind, f, index, instruction);
+    }
+  }
+
+  private final List<Edit> edits = new ArrayList<>();
+
+  public EditTrace() {
+  }
+
+  public EditTrace(List<Edit> edits) {
+    this.edits.addAll(edits);
+  }
+
+  public void add(Edit edit) {
+    edits.add(Objects.requireNonNull(edit));
+  }
+
+  public List<Edit> edits() {
+    return Collections.unmodifiableList(edits);
+  }
+
+  public int size() {
+    return edits.size();
+  }
+
+  @Override
+  public String toString() {
+    return edits.toString();
+  }
+
+  /**
+   * Write the trace in the text format described above.
+   */
+  public void write(Writer out) throws IOException {
+    for (var edit : edits) {
+      var fields = new ArrayList<String>();
+      fields.add(edit.kind().name());
+      fields.add(AstNames.key(edit.function()));
+      fields.add(Integer.toString(edit.index()));
+      edit.replaced().ifPresent(old -> encode(old, fields));
+      encode(edit.instruction(), fields);
+      out.write(String.join("\t", fields));
+      out.write('\n');
+    }
+    out.flush();
+  }
+
+  /**
+   * Read a trace in the text format described above, resolving names against
+   * the given Ast.
+   */
+  public static EditTrace read(Reader in, AstNames names) throws IOException {
+    var trace = new EditTrace();
+    var reader = new BufferedReader(in);
+    int lineNumber = 0;
+    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+      lineNumber++;
+      if (line.isBlank() || line.startsWith("#")) {
+        continue;
+      }
+      try {
+        trace.add(parse(line, names));
+      } catch (RuntimeException e) {
+        throw new IOException(String.format("Malformed edit on line %d: %s", lineNumber, line), e);
+      }
+    }
+    return trace;
+  }
+
+  /**
+   * Parse a single edit in the text format described above.
+   *
+   * @throws IllegalArgumentException If the edit is malformed.
+   */
+  public static Edit parse(String line, AstNames names) {
+    return parse(new Fields(line.split("\t", -1)), names);
+  }
+
+  private static Edit parse(Fields fields, AstNames names) {
+    var kind = Kind.valueOf(fields.next());
+    var key = fields.next();
+    var function = names.function(key)
+        .orElseThrow(() -> new IllegalArgumentException("Unknown function: " + key));
+    int index = Integer.parseInt(fields.next());
+    Edit edit;
+    if (kind == Kind.MODIFY) {
+      var old = decode(fields, function, names);
+      edit = Edit.modify(function, index, old, decode(fields, function, names));
+    } else {
+      var inst = decode(fields, function, names);
+      edit = kind == Kind.ADD ? Edit.add(function, index, inst) : Edit.remove(function, index, inst);
+    }
+    if (fields.hasNext()) {
+      throw new IllegalArgumentException("Trailing fields");
+    }
+    return edit;
+  }
+
+  /**
+   * The encoding of a single instruction, used for comparing instructions from
+   * different Asts by name.
+   */
+  static String encode(Ast.Instruction inst) {
+    var fields = new ArrayList<String>();
+    encode(inst, fields);
+    return String.join("\t", fields);
+  }
+
+  private static void encode(Ast.Instruction inst, List<String> fields) {
+    inst.accept(new Ast.Instruction.StatefulVisitor() {
+      @Override
+      public void iterAssignment(Ast.Instruction.Assignment a) {
+        add("assign", a.target(), a.source());
+      }
+
+      @Override
+      public void iterAllocation(Ast.Instruction.Allocation a) {
+        fields.add("new");
+        fields.add(a.target().name());
+        fields.add(a.type().toString());
+      }
+
+      @Override
+      public void iterFieldWrite(Ast.Instruction.FieldWrite fw) {
+        add("store", fw.target(), fw.field(), fw.source());
+      }
+
+      @Override
+      public void iterFieldRead(Ast.Instruction.FieldRead fr) {
+        add("load", fr.target(), fr.source(), fr.field());
+      }
+
+      @Override
+      public void iterStaticInvocation(Ast.Instruction.StaticInvocation i) {
+        fields.add("scall");
+        fields.add(i.target().map(Ast.Variable::name).orElse(""));
+        fields.add(i.method().name());
+        args(i.arguments());
+      }
+
+      @Override
+      public void iterInvocation(Ast.Instruction.Invocation i) {
+        fields.add("call");
+        fields.add(i.target().map(Ast.Variable::name).orElse(""));
+        fields.add(i.source().name());
+        fields.add(i.method().name());
+        args(i.arguments());
+      }
+
+      @Override
+      public void iterReturn(Ast.Instruction.Return r) {
+        add("return", r.returned());
+      }
+
+      private void add(String opcode, Ast.Variable... operands) {
+        fields.add(opcode);
+        for (var v : operands) {
+          fields.add(v.name());
+        }
+      }
+
+      private void args(List<Ast.Variable> args) {
+        fields.add(Integer.toString(args.size()));
+        args.forEach(v -> fields.add(v.name()));
+      }
+    }.visitor());
+  }
+
+  private static Ast.Instruction decode(Fields fields, Ast.Function f, AstNames names) {
+    var opcode = fields.next();
+    switch (opcode) {
+    case "assign":
+      return new Ast.Instruction.Assignment(var(fields, f, names), var(fields, f, names));
+    case "new": {
+      var target = var(fields, f, names);
+      var typeName = fields.next();
+      var type = names.type(typeName).orElseThrow(() -> new IllegalArgumentException("Unknown type: " + typeName));
+      return new Ast.Instruction.Allocation(target, type);
+    }
+    case "store":
+      return new Ast.Instruction.FieldWrite(var(fields, f, names), var(fields, f, names), var(fields, f, names));
+    case "load":
+      return new Ast.Instruction.FieldRead(var(fields, f, names), var(fields, f, names), var(fields, f, names));
+    case "scall": {
+      var target = optionalVar(fields, f, names);
+      var method = var(fields, f, names);
+      return new Ast.Instruction.StaticInvocation(target, method, args(fields, f, names));
+    }
+    case "call": {
+      var target = optionalVar(fields, f, names);
+      var source = var(fields, f, names);
+      var method = var(fields, f, names);
+      return new Ast.Instruction.Invocation(target, source, method, args(fields, f, names));
+    }
+    case "return":
+      return new Ast.Instruction.Return(var(fields, f, names));
+    default:
+      throw new IllegalArgumentException("Unknown opcode: " + opcode);
+    }
+  }
+
+  private static Ast.Variable var(Fields fields, Ast.Function f, AstNames names) {
+    return names.variable(f, fields.next());
+  }
+
+  private static Optional<Ast.Variable> optionalVar(Fields fields, Ast.Function f, AstNames names) {
+    var name = fields.next();
+    return name.isEmpty() ? Optional.empty() : Optional.of(names.variable(f, name));
+  }
+
+  private static List<Ast.Variable> args(Fields fields, Ast.Function f, AstNames names) {
+    int n = Integer.parseInt(fields.next());
+    var result = new ArrayList<Ast.Variable>(n);
+    for (int i = 0; i < n; i++) {
+      result.add(var(fields, f, names));
+    }
+    return result;
+  }
+
+  // Cursor over the fields of a line.
+  private static final class Fields {
+    private final String[] fields;
+    private int next = 0;
+
+    Fields(String[] fields) {
+      this.fields = fields;
+    }
+
+    boolean hasNext() {
+      return next < fields.length;
+    }
+
+    String next() {
+      if (!hasNext()) {
+        throw new IllegalArgumentException("Too few fields");
+      }
+      return fields[next++];
+    }
+  }
+}
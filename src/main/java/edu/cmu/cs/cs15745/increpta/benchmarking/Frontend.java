@@ -0,0 +1,32 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.PackedAst;
+
+/** The ways benchmarks can get the Ast of a program. */
+public enum Frontend {
+  /** Convert the methods of a 0-CFA call graph, built (or cached) up front. */
+  CALLGRAPH,
+  /** Convert methods as the graph builder reaches them, without a call graph. */
+  ONDEMAND,
+  /**
+   * Like {@link #CALLGRAPH}, but keep the Ast packed (see {@link PackedAst}),
+   * rebuilding functions as the graph builder reaches them.
+   */
+  PACKED;
+
+  /**
+   * The Ast of the main class. Except for {@link #CALLGRAPH}, functions are
+   * added to it as they're looked up, so it mustn't be shared between threads.
+   */
+  public Ast load(Benchmarker benchmarker, String mainClass) {
+    switch (this) {
+    case ONDEMAND:
+      return benchmarker.getAstOnDemand(mainClass);
+    case PACKED:
+      return new PackedAst(benchmarker.getAst(mainClass)).ast();
+    default:
+      return benchmarker.getAst(mainClass);
+    }
+  }
+}
@@ -1,14 +1,35 @@
 package edu.cmu.cs.cs15745.increpta.benchmarking;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
+import edu.cmu.cs.cs15745.increpta.BddPointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.ContextBuilder;
 import edu.cmu.cs.cs15745.increpta.ContextBuilders;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.MemoryBudget;
+import edu.cmu.cs.cs15745.increpta.PersistentPointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.ast.AstNames;
 import edu.cmu.cs.cs15745.increpta.benchmarking.Benchmarker.TestState;
+import edu.cmu.cs.cs15745.increpta.daemon.Daemon;
 
 public final class Main {
   
+  // Where call graphs are cached between runs.
+  private static final Path CALL_GRAPH_CACHE = Path.of("callgraph-cache");
+
+  // The budget for each graph, as "nodes,points-to entries" in IPA_BUDGET.
+  private static final MemoryBudget BUDGET = Options.parseBudget(System.getenv("IPA_BUDGET"));
+
+  // Where to write the results of the benchmarks, if anywhere, from
+  // IPA_RESULTS: as CSV if the name ends in .csv, else as JSON.
+  private static final String RESULTS = System.getenv("IPA_RESULTS");
+
   private final static Map<String, List<String>> ALL =
     Map.of
       (TestInfo.SCOPE_FILE, List.of(
@@ -52,36 +73,207 @@ public final class Main {
       "wala.testdata_scctest.txt", List.of("Lscctest/SCCTest"));
     
   
-  public static void main(String[] args) {
-    benchmarkAll();
+  public static void main(String[] args) throws IOException {
+    if (args.length > 0 && args[0].equals("daemon")) {
+      if (args.length < 3) {
+        System.err.println("Usage: daemon scope-file main-class [port]");
+        System.exit(1);
+      }
+      daemon(args[1], args[2], args.length > 3 ? Integer.parseInt(args[3]) : 0);
+    } else if (args.length > 0 && args[0].equals("reanalyze")) {
+      if (args.length < 4) {
+        System.err.println("Usage: reanalyze old-scope-file new-scope-file main-class");
+        System.exit(1);
+      }
+      reanalyze(args[1], args[2], args[3]);
+    } else if (args.length > 0 && args[0].equals("compare-graphs")) {
+      ALL.forEach(Main::compareGraphs);
+    } else if (args.length > 0 && args[0].equals("compare")) {
+      if (args.length < 3) {
+        System.err.println("Usage: compare before.json after.json [alpha] [threshold]");
+        System.exit(1);
+      }
+      compare(args[1], args[2], args.length > 3 ? Double.parseDouble(args[3]) : 0.01,
+          args.length > 4 ? Double.parseDouble(args[4]) : 0.05);
+    } else if (args.length > 0 && args[0].equals("parallel")) {
+      // Shorthand for benchmark --workers N.
+      var workers = args.length > 1 ? args[1] : Integer.toString(Runtime.getRuntime().availableProcessors());
+      run(Options.parse(new String[] { "--workers", workers }, ALL, BUDGET, RESULTS));
+    } else if (args.length > 0 && args[0].equals("--help")) {
+      System.out.println(Options.USAGE);
+    } else {
+      Options options = null;
+      try {
+        options = Options.parse(args, ALL, BUDGET, RESULTS);
+      } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage());
+        System.err.println(Options.USAGE);
+        System.exit(1);
+      }
+      run(options);
+    }
   }
-  
-  private static final void benchmarkAll() {
-    ALL.forEach(Main::benchmark);
+
+  // Run the mode of the options on each of its scopes and contexts.
+  private static final void run(Options options) throws IOException {
+    var results = new BenchmarkResults();
+    if (options.mode == Options.Mode.BENCHMARK && options.workers > 1) {
+      var runner = new ParallelRunner(options.workers, CALL_GRAPH_CACHE, options.budget, options.fieldSensitivity,
+          options.backend, options.frontend);
+      var parallel = runner.run(options.scopes, options.contexts);
+      ParallelRunner.print(parallel, System.out);
+      parallel.forEach(r -> results.add(r.scopeFile(), r.context(), r.state()));
+    } else {
+      for (var entry : options.scopes.entrySet()) {
+        var scopeFile = entry.getKey();
+        System.out.println("==============");
+        System.out.printf("%s %s (%s graph, %s frontend)\n", options.mode, scopeFile, options.backend,
+            options.frontend);
+        System.out.println("==============");
+        var benchmarker = new Benchmarker(scopeFile, "exclusions.txt", CALL_GRAPH_CACHE);
+        benchmarker.setMemoryBudget(options.budget);
+        benchmarker.setFieldSensitivity(options.fieldSensitivity);
+        for (var contexts : options.contexts) {
+          var ctxBuilder = contexts.get();
+          var state = new TestState();
+          for (var mainClass : entry.getValue()) {
+            run(options, benchmarker, mainClass, ctxBuilder, state);
+          }
+          results.add(scopeFile, ctxBuilder.toString(), state);
+          printStatistics(options, ctxBuilder, state);
+        }
+      }
+    }
+    if (options.results != null) {
+      results.write(Path.of(options.results));
+      System.out.println("Wrote results to " + options.results);
+    }
   }
-  
-  @SuppressWarnings("unused")
-  private static final void benchmarkWala() {
-    benchmark(TestInfo.SCOPE_FILE, ALL.get(TestInfo.SCOPE_FILE));
+
+  private static final <C> void run(Options options, Benchmarker benchmarker, String mainClass,
+      ContextBuilder<C> ctxBuilder, TestState state) throws IOException {
+    // Replays change the Ast, so each starts from a fresh one.
+    var ast = options.frontend.load(benchmarker, mainClass);
+    switch (options.mode) {
+    case BUILD:
+      benchmarker.build(ast, ctxBuilder, options.backend::newGraph, state);
+      break;
+    case QUERY:
+      if (options.engine == Options.Engine.DEMAND) {
+        benchmarker.queryOnDemand(ast, options.backend::newGraph, options.queries, state);
+      } else {
+        benchmarker.query(ast, ctxBuilder, options.backend::newGraph, options.queries, state);
+      }
+      break;
+    case REPLAY:
+      EditTrace trace;
+      if (options.trace != null) {
+        try (var in = Files.newBufferedReader(Path.of(options.trace))) {
+          trace = EditTrace.read(in, new AstNames(ast));
+        }
+      } else {
+        var recorder = new TraceRecorder(ast);
+        trace = recorder.record(new Benchmarker(options.to, "exclusions.txt").getAst(mainClass));
+        if (!recorder.addedFunctions().isEmpty() || !recorder.removedFunctions().isEmpty()) {
+          System.out.printf("  Not replayed:   \t%d functions added, %d removed\n", recorder.addedFunctions().size(),
+              recorder.removedFunctions().size());
+        }
+      }
+      System.out.printf("===== Replaying %d edits (%s, %s): =====\n", trace.size(), mainClass, ctxBuilder);
+      benchmarker.replay(ast, ctxBuilder, options.backend::newGraph, trace, state).print(System.out);
+      break;
+    default:
+      benchmarker.test(ast, ctxBuilder, options.backend::newGraph, state);
+    }
+  }
+
+  // Keep the graph of the program resident, and serve edits and queries.
+  private static final void daemon(String scopeFile, String mainClass, int port) throws IOException {
+    var ast = new Benchmarker(scopeFile, "exclusions.txt", CALL_GRAPH_CACHE).getAst(mainClass);
+    try (var daemon = new Daemon<>(ast, ContextBuilders.NO_CONTEXT)) {
+      System.out.println("Listening on port " + daemon.listen(port));
+      daemon.serve();
+    }
   }
   
-  private static final void benchmark(String scopeFile, List<String> mainClasses) {
-    System.out.println("==============");
-    System.out.println("Testing " + scopeFile);
-    System.out.println("==============");
-    var benchmarker = new Benchmarker(scopeFile, "exclusions.txt");
+  // Bring the graph of the old build up to date with the new build, from the
+  // methods whose bytecode changed.
+  private static final void reanalyze(String oldScopeFile, String newScopeFile, String mainClass) {
+    var benchmarker = new Benchmarker(oldScopeFile, "exclusions.txt");
+    var ast = benchmarker.getAst(mainClass);
+    var builder = new IncrementalPointsToGraphBuilder<>(ast, new SimplePointsToGraphWithContext<>(),
+        ContextBuilders.NO_CONTEXT);
+    builder.build();
+    var reanalyzer = new Reanalyzer<>(ast, builder, benchmarker.classHierarchy());
+    var update = reanalyzer.update(new Benchmarker(newScopeFile, "exclusions.txt").classHierarchy());
+    System.out.printf("===== Re-analyzing (%s -> %s): =====\n", oldScopeFile, newScopeFile);
+    update.print(System.out);
+  }
+
+  // Compare the results of two runs, exiting with status 2 if there are
+  // regressions.
+  private static final void compare(String beforeFile, String afterFile, double alpha, double threshold)
+      throws IOException {
+    var before = BenchmarkResults.read(Path.of(beforeFile));
+    var after = BenchmarkResults.read(Path.of(afterFile));
+    System.out.printf("===== Comparing %s (%s) to %s (%s): =====\n", beforeFile,
+        before.environment().get("timestamp"), afterFile, after.environment().get("timestamp"));
+    before.environment().forEach((key, value) -> {
+      var other = after.environment().get(key);
+      if (!value.equals(other) && !key.equals("timestamp")) {
+        System.out.printf("  Note: %s differs: %s vs. %s\n", key, value, other);
+      }
+    });
+    var findings = new ResultComparison(alpha, threshold).compare(before, after);
+    ResultComparison.print(findings, System.out);
+    if (findings.stream().anyMatch(ResultComparison.Finding::regression)) {
+      System.exit(2);
+    }
+  }
+
+  // Run the same benchmark with the explicit, BDD-backed and persistent graphs,
+  // side by side.
+  private static final void compareGraphs(String scopeFile, List<String> mainClasses) {
+    var benchmarker = new Benchmarker(scopeFile, "exclusions.txt", CALL_GRAPH_CACHE);
     var asts = mainClasses.stream().map(benchmarker::getAst).collect(Collectors.toList());
     for (var ctxBuilder : List.of(
         ContextBuilders.NO_CONTEXT,
         ContextBuilders.nCallContext(1),
         ContextBuilders.nCallContext(2),
         ContextBuilders.nCallContext(3))) {
-      var state = new TestState();
-      asts.forEach(ast -> benchmarker.test(ast, ctxBuilder, state));
-      System.out.printf("===== Total statistics (%s): =====\n", ctxBuilder);
-      System.out.printf("  Make init PAG: \t%.3fs\n", state.pagConstructionMS / 1_000D);
-      System.out.printf("  Total nodes:   \t%d\n", state.totalNodes);
-      System.out.printf("  Total pts:     \t%d\n", state.totalPointsTo);
+      var simple = new TestState();
+      asts.forEach(ast -> benchmarker.test(ast, ctxBuilder, simple));
+      var bdd = new TestState();
+      asts.forEach(ast -> benchmarker.test(ast, ctxBuilder, BddPointsToGraphWithContext::new, bdd));
+      var persistent = new TestState();
+      asts.forEach(ast -> benchmarker.test(ast, ctxBuilder, PersistentPointsToGraphWithContext::new, persistent));
+      System.out.printf("===== Explicit vs. BDD vs. persistent graphs (%s, %s): =====\n", scopeFile, ctxBuilder);
+      System.out.printf("  Make init PAG: \t%.3fs\t%.3fs\t%.3fs\n", simple.pagConstructionMS / 1_000D,
+          bdd.pagConstructionMS / 1_000D, persistent.pagConstructionMS / 1_000D);
+      System.out.printf("  Total pts:     \t%d\t%d\t%d\n", simple.totalPointsTo, bdd.totalPointsTo,
+          persistent.totalPointsTo);
+      System.out.printf("  Stored:        \t%d pts\t%d BDD nodes\n", simple.storedPointsTo, bdd.bddNodes);
+      System.out.printf("  Clone time:    \t%.3fms\t%.3fms\t%.3fms\n", simple.cloneTimeNS / 1_000_000D,
+          bdd.cloneTimeNS / 1_000_000D, persistent.cloneTimeNS / 1_000_000D);
+      System.out.printf("  Total del time:\t%.3fms\t%.3fms\t%.3fms\n", simple.totalDeleteTimeNS / 1_000_000D,
+          bdd.totalDeleteTimeNS / 1_000_000D, persistent.totalDeleteTimeNS / 1_000_000D);
+      System.out.printf("  Total add time:\t%.3fms\t%.3fms\t%.3fms\n", simple.totalAddTimeNS / 1_000_000D,
+          bdd.totalAddTimeNS / 1_000_000D, persistent.totalAddTimeNS / 1_000_000D);
+    }
+  }
+
+  private static final void printStatistics(Options options, ContextBuilder<?> ctxBuilder, TestState state) {
+    System.out.printf("===== Total statistics (%s): =====\n", ctxBuilder);
+    System.out.printf("  Make init PAG: \t%.3fs\n", state.pagConstructionMS / 1_000D);
+    System.out.printf("  Total nodes:   \t%d\n", state.totalNodes);
+    System.out.printf("  Total pts:     \t%d\n", state.totalPointsTo);
+    if (options.backend == Backend.SIMPLE) {
+      System.out.printf("  Stored pts:    \t%d (sharing ratio %.2f)\n", state.storedPointsTo,
+          state.totalPointsTo / (double) Math.max(1, state.storedPointsTo));
+    } else if (options.backend == Backend.BDD) {
+      System.out.printf("  BDD nodes:     \t%d\n", state.bddNodes);
+    }
+    if (options.mode == Options.Mode.BENCHMARK) {
       System.out.printf("  Total add/dels:\t%d\n", state.totalInstructions);
       System.out.printf("  Total del time:\t%.3fms\n", state.totalDeleteTimeNS / 1_000_000D);
       System.out.printf("  Mean del time: \t%.3fms\n", state.totalDeleteTimeNS / 1_000_000D / state.totalInstructions);
@@ -91,6 +283,23 @@ public final class Main {
       System.out.printf("  Mean add time: \t%.3fms\n", state.totalAddTimeNS / 1_000_000D / state.totalInstructions);
       System.out.printf("  Max add time:  \t%.3fms\n", state.maxAddTimeNS / 1_000_000D);
       System.out.printf("  Min add time:  \t%.3fms\n", state.minAddTimeNS / 1_000_000D);
+    } else if (options.mode == Options.Mode.QUERY) {
+      var times = state.queryTimesNS.stream().mapToLong(Long::longValue).summaryStatistics();
+      System.out.printf("  Queries:       \t%d\n", times.getCount());
+      System.out.printf("  Total query time:\t%.3fms\n", times.getSum() / 1_000_000D);
+      System.out.printf("  Max query time:\t%.3fms\n", times.getCount() == 0 ? 0 : times.getMax() / 1_000_000D);
+      if (options.engine == Options.Engine.DEMAND) {
+        System.out.printf("  Demand queries:\t%d on demand, %d from the whole graph\n", state.demandQueries,
+            state.exhaustiveQueries);
+      }
+    }
+    if (state.oracleChecked + state.oracleSkipped > 0) {
+      System.out.printf("  Oracle:        \t%d checked, %d skipped, %d mismatches\n", state.oracleChecked,
+          state.oracleSkipped, state.oracleMismatches);
+    }
+    if (!state.degraded.isEmpty()) {
+      System.out.printf("  Degraded (budget %s): %d methods\n", options.budget, state.degraded.size());
+      state.degraded.forEach(m -> System.out.println("\t" + m));
     }
   }
 }
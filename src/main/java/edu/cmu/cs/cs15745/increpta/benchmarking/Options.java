@@ -0,0 +1,240 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import edu.cmu.cs.cs15745.increpta.ContextBuilder;
+import edu.cmu.cs.cs15745.increpta.ContextBuilders;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.FieldSensitivity;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.MemoryBudget;
+
+/**
+ * The command line of the benchmark driver: a mode, followed by flags choosing
+ * what to run it on. Anything not given falls back to the full benchmark
+ * suite, or to the environment variables.
+ */
+final class Options {
+  static final String USAGE = String.join("\n",
+      "Usage: [benchmark|build|replay|query] [options]",
+      "  benchmark           Build, then delete and re-add every instruction (the default)",
+      "  build               Only build the graph, and report its size",
+      "  replay              Build, then replay edits (needs --to or --trace)",
+      "  query               Build, then ask for points-to sets (all of them, without --query)",
+      "Options:",
+      "  --scope FILE        A scope file to analyze (repeatable; default: all of the suite)",
+      "  --main CLASS        A main class of the scope files (repeatable; needed for scopes outside the suite)",
+      "  --context LIST      Context builders, from none,1,2,3 (default: all of them)",
+      "  --graph KIND        simple, bdd or persistent (default: simple)",
+      "  --frontend KIND     callgraph, ondemand or packed (default: callgraph)",
+      "  --engine KIND       For query: incremental, or demand (context-insensitive) (default: incremental)",
+      "  --fields KIND       variable or heap_object (default: variable)",
+      "  --budget N,P        Budget of nodes and points-to entries per graph (default: IPA_BUDGET)",
+      "  --workers N         Benchmark on N workers at once (default: 1)",
+      "  --results FILE      Write the results as JSON, or CSV if FILE ends in .csv (default: IPA_RESULTS)",
+      "  --to FILE           For replay: the scope file of the new version of the program",
+      "  --trace FILE        For replay: an edit trace to replay",
+      "  --query F:V         For query: a variable, as function-key:variable (repeatable)",
+      "Other commands: daemon, reanalyze, compare-graphs, compare, parallel");
+
+  enum Mode {
+    BENCHMARK, BUILD, REPLAY, QUERY
+  }
+
+  /** How queries are answered. */
+  enum Engine {
+    /** From the graph of the whole program. */
+    INCREMENTAL,
+    /** On demand (see {@link edu.cmu.cs.cs15745.increpta.DemandPointsTo}). */
+    DEMAND
+  }
+
+  Mode mode = Mode.BENCHMARK;
+  Map<String, List<String>> scopes;
+  // Factories, so that each (scope, context) gets fresh context builders, whose
+  // interned contexts go when it's done.
+  List<Supplier<ContextBuilder<?>>> contexts = List.of(
+      () -> ContextBuilders.NO_CONTEXT,
+      () -> ContextBuilders.nCallContext(1),
+      () -> ContextBuilders.nCallContext(2),
+      () -> ContextBuilders.nCallContext(3));
+  Backend backend = Backend.SIMPLE;
+  Frontend frontend = Frontend.CALLGRAPH;
+  Engine engine = Engine.INCREMENTAL;
+  FieldSensitivity fieldSensitivity = FieldSensitivity.VARIABLE;
+  MemoryBudget budget;
+  int workers = 1;
+  String results;
+  String to = null;
+  String trace = null;
+  List<String> queries = new ArrayList<>();
+
+  // Disallow outside instantiation
+  private Options() {
+  }
+
+  /**
+   * Parse the arguments, with the suite of scopes and the defaults from the
+   * environment to fall back on.
+   *
+   * @throws IllegalArgumentException If the arguments are malformed.
+   */
+  static Options parse(String[] args, Map<String, List<String>> suite, MemoryBudget budget, String results) {
+    var options = new Options();
+    options.budget = budget;
+    options.results = results;
+    var scopeFiles = new ArrayList<String>();
+    var mainClasses = new ArrayList<String>();
+    boolean contextsGiven = false;
+    int i = 0;
+    if (args.length > 0 && !args[0].startsWith("--")) {
+      options.mode = parseEnum(Mode.class, args[0], "mode");
+      i++;
+    }
+    while (i < args.length) {
+      var flag = args[i++];
+      if (i == args.length) {
+        throw new IllegalArgumentException("Missing value for " + flag);
+      }
+      var value = args[i++];
+      switch (flag) {
+      case "--scope":
+        scopeFiles.add(value);
+        break;
+      case "--main":
+        mainClasses.add(value);
+        break;
+      case "--context":
+        options.contexts = parseContexts(value);
+        contextsGiven = true;
+        break;
+      case "--graph":
+        options.backend = parseEnum(Backend.class, value, "graph");
+        break;
+      case "--frontend":
+        options.frontend = parseEnum(Frontend.class, value, "frontend");
+        break;
+      case "--engine":
+        options.engine = parseEnum(Engine.class, value, "engine");
+        break;
+      case "--fields":
+        options.fieldSensitivity = parseEnum(FieldSensitivity.class, value, "field sensitivity");
+        break;
+      case "--budget":
+        options.budget = parseBudget(value);
+        break;
+      case "--workers":
+        options.workers = Integer.parseInt(value);
+        if (options.workers < 1) {
+          throw new IllegalArgumentException("Need at least one worker, got: " + value);
+        }
+        break;
+      case "--results":
+        options.results = value;
+        break;
+      case "--to":
+        options.to = value;
+        break;
+      case "--trace":
+        options.trace = value;
+        break;
+      case "--query":
+        options.queries.add(value);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown option: " + flag);
+      }
+    }
+
+    if (scopeFiles.isEmpty()) {
+      if (!mainClasses.isEmpty()) {
+        throw new IllegalArgumentException("--main needs a --scope");
+      }
+      options.scopes = suite;
+    } else {
+      options.scopes = new LinkedHashMap<>();
+      for (var scopeFile : scopeFiles) {
+        var classes = mainClasses.isEmpty() ? suite.get(scopeFile) : List.copyOf(mainClasses);
+        if (classes == null) {
+          throw new IllegalArgumentException("Not in the suite, so needs a --main: " + scopeFile);
+        }
+        options.scopes.put(scopeFile, classes);
+      }
+    }
+    if (options.mode == Mode.REPLAY && (options.to == null) == (options.trace == null)) {
+      throw new IllegalArgumentException("replay needs exactly one of --to and --trace");
+    }
+    if (options.mode != Mode.REPLAY && (options.to != null || options.trace != null)) {
+      throw new IllegalArgumentException("--to and --trace are only for replay");
+    }
+    if (options.mode == Mode.REPLAY && options.frontend != Frontend.CALLGRAPH) {
+      // The edits are recorded against the whole program, before it's built.
+      throw new IllegalArgumentException("replay needs --frontend callgraph");
+    }
+    if (options.mode != Mode.QUERY && !options.queries.isEmpty()) {
+      throw new IllegalArgumentException("--query is only for query");
+    }
+    if (options.engine == Engine.DEMAND) {
+      if (options.mode != Mode.QUERY) {
+        throw new IllegalArgumentException("--engine demand is only for query");
+      }
+      if (!contextsGiven) {
+        options.contexts = List.of(() -> ContextBuilders.NO_CONTEXT);
+      } else if (options.contexts.stream().anyMatch(contexts -> contexts.get() != ContextBuilders.NO_CONTEXT)) {
+        throw new IllegalArgumentException("--engine demand needs --context none");
+      }
+      if (options.fieldSensitivity != FieldSensitivity.VARIABLE) {
+        throw new IllegalArgumentException("--engine demand needs --fields variable");
+      }
+    }
+    if (options.mode != Mode.BENCHMARK && options.workers > 1) {
+      throw new IllegalArgumentException("--workers is only for benchmark");
+    }
+    return options;
+  }
+
+  private static List<Supplier<ContextBuilder<?>>> parseContexts(String spec) {
+    var result = new ArrayList<Supplier<ContextBuilder<?>>>();
+    for (var part : spec.split(",")) {
+      part = part.trim();
+      if (part.equals("none") || part.equals("0")) {
+        result.add(() -> ContextBuilders.NO_CONTEXT);
+      } else {
+        int n;
+        try {
+          n = Integer.parseInt(part);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Expected none or a call-string length, got: " + part);
+        }
+        if (n < 0) {
+          throw new IllegalArgumentException("Negative call-string length: " + part);
+        }
+        int length = n;
+        result.add(() -> ContextBuilders.nCallContext(length));
+      }
+    }
+    return result;
+  }
+
+  static MemoryBudget parseBudget(String spec) {
+    if (spec == null) {
+      return MemoryBudget.UNLIMITED;
+    }
+    var parts = spec.split(",");
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Expected a budget of nodes,pts, got: " + spec);
+    }
+    return new MemoryBudget(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()));
+  }
+
+  private static <E extends Enum<E>> E parseEnum(Class<E> type, String value, String what) {
+    try {
+      return Enum.valueOf(type, value.toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(String.format("Unknown %s: %s", what, value));
+    }
+  }
+}
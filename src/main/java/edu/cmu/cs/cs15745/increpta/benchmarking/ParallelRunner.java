@@ -0,0 +1,319 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import edu.cmu.cs.cs15745.increpta.ContextBuilder;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.FieldSensitivity;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.MemoryBudget;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.PackedAst;
+import edu.cmu.cs.cs15745.increpta.benchmarking.Benchmarker.TestState;
+
+/**
+ * Runs the benchmark of each (scope, context builder) pair as a separate task,
+ * on a fixed number of workers, and collects the results into one report.
+ *
+ * Each scope is loaded once, by the first of its tasks to run, and its Asts are
+ * shared (read-only) by the others. Asts that add functions as they're looked
+ * up can't be shared: with the {@link Frontend#PACKED} frontend, each task
+ * packs the shared Asts itself, and with {@link Frontend#ONDEMAND}, each task
+ * converts its own, and the tasks of a scope take turns, since they convert
+ * through the scope's class hierarchy. Besides its {@link TestState}, each task
+ * records the CPU time and heap allocated by its thread, and how much of its
+ * run it shared the machine with other tasks, or with the garbage collector:
+ * the latencies of a task that did are less trustworthy than those of a task
+ * run alone.
+ */
+public final class ParallelRunner {
+  private final int workers;
+  private final Function<String, Benchmarker> newBenchmarker; // By scope file
+  private final BiFunction<Benchmarker, String, Ast> loadAst; // The call graph's Ast, by main class
+  private final MemoryBudget budget;
+  private final FieldSensitivity fieldSensitivity;
+  private final Backend backend;
+  private final Frontend frontend;
+
+  /** The result of one task. */
+  public static final class Result {
+    private final String scopeFile;
+    private final String context;
+    private final TestState state;
+    private final long startNS;
+    private final long wallNS;
+    private final long cpuNS; // -1 if not supported
+    private final long allocatedBytes; // -1 if not supported
+    private final long gcMS;
+    private int overlapping = 0; // The other tasks that ran at the same time
+
+    private Result(String scopeFile, String context, TestState state, long startNS, long wallNS, long cpuNS,
+        long allocatedBytes, long gcMS) {
+      this.scopeFile = scopeFile;
+      this.context = context;
+      this.state = state;
+      this.startNS = startNS;
+      this.wallNS = wallNS;
+      this.cpuNS = cpuNS;
+      this.allocatedBytes = allocatedBytes;
+      this.gcMS = gcMS;
+    }
+
+    public String scopeFile() {
+      return scopeFile;
+    }
+
+    public String context() {
+      return context;
+    }
+
+    TestState state() {
+      return state;
+    }
+
+    public long wallNS() {
+      return wallNS;
+    }
+
+    public long cpuNS() {
+      return cpuNS;
+    }
+
+    public long allocatedBytes() {
+      return allocatedBytes;
+    }
+
+    public long gcMS() {
+      return gcMS;
+    }
+
+    public int overlapping() {
+      return overlapping;
+    }
+
+    /**
+     * Whether other work may have slowed the task down: more tasks than
+     * processors ran alongside it, or the garbage collector ran during it.
+     */
+    public boolean contended() {
+      return overlapping + 1 > Runtime.getRuntime().availableProcessors() || gcMS > 0;
+    }
+
+    private boolean overlaps(Result other) {
+      return startNS < other.startNS + other.wallNS && other.startNS < startNS + wallNS;
+    }
+  }
+
+  // A scope, loaded by the first task that needs it.
+  private final class Scope {
+    final String file;
+    final List<String> mainClasses;
+    private Benchmarker benchmarker = null;
+    private List<Ast> asts = null;
+
+    Scope(String file, List<String> mainClasses) {
+      this.file = file;
+      this.mainClasses = mainClasses;
+    }
+
+    synchronized Benchmarker benchmarker() {
+      if (benchmarker == null) {
+        benchmarker = newBenchmarker.apply(file);
+        benchmarker.setMemoryBudget(budget);
+        benchmarker.setFieldSensitivity(fieldSensitivity);
+        if (frontend != Frontend.ONDEMAND) {
+          asts = mainClasses.stream().map(c -> loadAst.apply(benchmarker, c)).collect(Collectors.toList());
+        }
+      }
+      return benchmarker;
+    }
+
+    // The Asts for one task to run on.
+    List<Ast> asts() {
+      var benchmarker = benchmarker();
+      switch (frontend) {
+      case ONDEMAND:
+        return mainClasses.stream().map(benchmarker::getAstOnDemand).collect(Collectors.toList());
+      case PACKED:
+        return asts.stream().map(ast -> new PackedAst(ast).ast()).collect(Collectors.toList());
+      default:
+        return asts;
+      }
+    }
+  }
+
+  public ParallelRunner(int workers, Path callGraphCache, MemoryBudget budget) {
+    this(workers, callGraphCache, budget, FieldSensitivity.VARIABLE, Backend.SIMPLE, Frontend.CALLGRAPH);
+  }
+
+  public ParallelRunner(int workers, Path callGraphCache, MemoryBudget budget, FieldSensitivity fieldSensitivity,
+      Backend backend, Frontend frontend) {
+    this(workers, budget, fieldSensitivity, backend, frontend,
+        file -> new Benchmarker(file, "exclusions.txt", callGraphCache), Benchmarker::getAst);
+  }
+
+  // With the given ways to load a scope, and the Ast of a main class in it
+  // (which, for the on-demand frontend, is converted by the benchmarker).
+  ParallelRunner(int workers, MemoryBudget budget, FieldSensitivity fieldSensitivity, Backend backend,
+      Frontend frontend, Function<String, Benchmarker> newBenchmarker, BiFunction<Benchmarker, String, Ast> loadAst) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Need at least one worker, got: " + workers);
+    }
+    this.workers = workers;
+    this.newBenchmarker = newBenchmarker;
+    this.loadAst = loadAst;
+    this.budget = budget;
+    this.fieldSensitivity = fieldSensitivity;
+    this.backend = backend;
+    this.frontend = frontend;
+  }
+
+  /**
+   * Benchmark every scope (mapped to its main classes) under every context
+   * builder. Each task gets its own context builder from the factory, so that
+   * tasks don't share (and keep alive) each other's contexts. The results are
+   * in the order of the scopes, and then of the context builders.
+   */
+  public List<Result> run(Map<String, List<String>> scopes,
+      List<? extends Supplier<? extends ContextBuilder<?>>> ctxBuilders) {
+    var executor = Executors.newFixedThreadPool(workers);
+    try {
+      var futures = new ArrayList<Future<Result>>();
+      for (var entry : scopes.entrySet()) {
+        var scope = new Scope(entry.getKey(), entry.getValue());
+        for (var ctxBuilder : ctxBuilders) {
+          futures.add(executor.submit(() -> runTask(scope, ctxBuilder.get())));
+        }
+      }
+      var results = new ArrayList<Result>();
+      for (var future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          throw new IllegalStateException("Benchmark task failed", e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IllegalStateException(e);
+        }
+      }
+      for (var result : results) {
+        for (var other : results) {
+          if (other != result && result.overlaps(other)) {
+            result.overlapping++;
+          }
+        }
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private <C> Result runTask(Scope scope, ContextBuilder<C> ctxBuilder) {
+    if (frontend == Frontend.ONDEMAND) {
+      synchronized (scope) {
+        return runTask(scope, scope.asts(), ctxBuilder);
+      }
+    }
+    return runTask(scope, scope.asts(), ctxBuilder);
+  }
+
+  private <C> Result runTask(Scope scope, List<Ast> asts, ContextBuilder<C> ctxBuilder) {
+    var benchmarker = scope.benchmarker();
+    var threads = ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+    long gcStart = gcMS();
+    long cpuStart = cpuNS(threads);
+    long allocatedStart = allocatedBytes(threads, threadId);
+    long start = System.nanoTime();
+
+    var state = new TestState();
+    asts.forEach(ast -> benchmarker.test(ast, ctxBuilder, backend::newGraph, state));
+
+    long wall = System.nanoTime() - start;
+    long cpu = cpuStart < 0 ? -1 : cpuNS(threads) - cpuStart;
+    long allocated = allocatedStart < 0 ? -1 : allocatedBytes(threads, threadId) - allocatedStart;
+    return new Result(scope.file, ctxBuilder.toString(), state, start, wall, cpu, allocated, gcMS() - gcStart);
+  }
+
+  private static long cpuNS(ThreadMXBean threads) {
+    return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+  }
+
+  private static long allocatedBytes(ThreadMXBean threads, long threadId) {
+    if (threads instanceof com.sun.management.ThreadMXBean) {
+      var sunThreads = (com.sun.management.ThreadMXBean) threads;
+      if (sunThreads.isThreadAllocatedMemorySupported() && sunThreads.isThreadAllocatedMemoryEnabled()) {
+        return sunThreads.getThreadAllocatedBytes(threadId);
+      }
+    }
+    return -1;
+  }
+
+  // The total time spent collecting garbage so far, by all collectors.
+  private static long gcMS() {
+    long total = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      total += Math.max(0, gc.getCollectionTime());
+    }
+    return total;
+  }
+
+  /** The totals of each context builder over all scopes, in order. */
+  static Map<String, TestState> totals(List<Result> results) {
+    var byContext = new LinkedHashMap<String, TestState>();
+    for (var result : results) {
+      byContext.computeIfAbsent(result.context, c -> new TestState()).addAll(result.state);
+    }
+    return byContext;
+  }
+
+  /**
+   * Print a line per task, and the totals of each context builder over all
+   * scopes.
+   */
+  public static void print(List<Result> results, PrintStream out) {
+    out.println("===== Per task: =====");
+    out.println("  Scope\tContext\tAdd/dels\tPAG (s)\tDel (ms)\tAdd (ms)\tWall (s)\tCPU (s)\tAlloc (MB)\tGC (ms)"
+        + "\tOverlapping");
+    for (var result : results) {
+      var state = result.state;
+      out.printf("  %s\t%s\t%d\t%.3f\t%.3f\t%.3f\t%.3f\t%s\t%s\t%d\t%d%s\n", result.scopeFile, result.context,
+          state.totalInstructions, state.pagConstructionMS / 1_000D, state.totalDeleteTimeNS / 1_000_000D,
+          state.totalAddTimeNS / 1_000_000D, result.wallNS / 1_000_000_000D,
+          result.cpuNS < 0 ? "-" : String.format("%.3f", result.cpuNS / 1_000_000_000D),
+          result.allocatedBytes < 0 ? "-" : String.format("%.1f", result.allocatedBytes / (1024 * 1024D)),
+          result.gcMS, result.overlapping, result.contended() ? "\t(contended)" : "");
+    }
+
+    totals(results).forEach((context, state) -> {
+      out.printf("===== Total statistics (%s): =====\n", context);
+      out.printf("  Make init PAG: \t%.3fs\n", state.pagConstructionMS / 1_000D);
+      out.printf("  Total nodes:   \t%d\n", state.totalNodes);
+      out.printf("  Total pts:     \t%d\n", state.totalPointsTo);
+      out.printf("  Total add/dels:\t%d\n", state.totalInstructions);
+      out.printf("  Total del time:\t%.3fms\n", state.totalDeleteTimeNS / 1_000_000D);
+      out.printf("  Max del time:  \t%.3fms\n", state.maxDeleteTimeNS / 1_000_000D);
+      out.printf("  Total add time:\t%.3fms\n", state.totalAddTimeNS / 1_000_000D);
+      out.printf("  Max add time:  \t%.3fms\n", state.maxAddTimeNS / 1_000_000D);
+    });
+    long contended = results.stream().filter(Result::contended).count();
+    if (contended > 0) {
+      out.printf("%d of %d tasks ran alongside more tasks than processors, or during garbage collection;"
+          + " their latencies may be inflated.\n", contended, results.size());
+    }
+  }
+}
@@ -0,0 +1,241 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.classLoader.ShrikeBTMethod;
+import com.ibm.wala.ipa.callgraph.AnalysisCacheImpl;
+import com.ibm.wala.ipa.callgraph.impl.Everywhere;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.AstFromWala;
+import edu.cmu.cs.cs15745.increpta.ast.AstNames;
+
+/**
+ * Brings the graph of a program up to date with a new build of its application
+ * jars, without starting over from the call graph.
+ *
+ * The methods of the application class loader are compared by a hash of their
+ * bytecode. Only the methods whose hash changed are converted through
+ * {@link AstFromWala}; the differences in their bodies are recorded as
+ * instruction-level edits (see {@link TraceRecorder}), and applied to the graph
+ * in one batch together with the functions that were added or removed. Apart
+ * from hashing, the work done is proportional to the size of the change.
+ *
+ * Only the functions of the Ast are kept up to date: a method that wasn't
+ * reachable in the original call graph stays out of the graph, even if a
+ * changed method now calls it. Classes that are new in a build are resolved
+ * against the new class hierarchy, so virtual calls on their instances only
+ * see the methods declared by the new classes themselves.
+ */
+public final class Reanalyzer<C> {
+  private final Ast ast;
+  private final IncrementalPointsToGraphBuilder<C> builder;
+  private final TraceRecorder recorder;
+  private final AstNames names;
+  private final TraceReplayer<C> replayer;
+
+  // Bytecode hashes of the current build, by function key.
+  private Map<String, Long> hashes;
+
+  /**
+   * The builder's graph must already have been built from the Ast, which in
+   * turn was converted from the class hierarchy.
+   */
+  public Reanalyzer(Ast ast, IncrementalPointsToGraphBuilder<C> builder, ClassHierarchy cha) {
+    this(ast, builder);
+    this.hashes = hashes(cha, new LinkedHashMap<>());
+  }
+
+  // For Asts built some other way: there are no hashes, so only apply() works.
+  Reanalyzer(Ast ast, IncrementalPointsToGraphBuilder<C> builder) {
+    this.ast = Objects.requireNonNull(ast);
+    this.builder = Objects.requireNonNull(builder);
+    this.recorder = new TraceRecorder(ast);
+    this.names = recorder.names();
+    this.replayer = new TraceReplayer<>(builder);
+    this.hashes = Map.of();
+  }
+
+  /**
+   * Update the graph to the new build, which becomes the current build.
+   */
+  public Update update(ClassHierarchy cha) {
+    long start = System.nanoTime();
+    var methods = new LinkedHashMap<String, IMethod>();
+    var newHashes = hashes(cha, methods);
+
+    var converter = new AstFromWala(cha);
+    var cache = new AnalysisCacheImpl();
+    var functions = new LinkedHashMap<String, Ast.Function>();
+    for (var entry : newHashes.entrySet()) {
+      var oldHash = hashes.get(entry.getKey());
+      if (entry.getValue().equals(oldHash)) {
+        continue;
+      }
+      var method = methods.get(entry.getKey());
+      // Abstract methods have no body, and weren't in the call graph.
+      if (method.isAbstract() || oldHash != null && function(entry.getKey()).isEmpty()) {
+        continue;
+      }
+      functions.put(entry.getKey(), converter.function(method, cache.getIR(method, Everywhere.EVERYWHERE)));
+    }
+    var removed = new ArrayList<String>();
+    for (var key : hashes.keySet()) {
+      if (!newHashes.containsKey(key)) {
+        removed.add(key);
+      }
+    }
+
+    var update = apply(functions, removed);
+    update.hashed = newHashes.size();
+    hashes = newHashes;
+    update.totalNS = System.nanoTime() - start;
+    return update;
+  }
+
+  /**
+   * Update the graph in one batch: the functions (from another Ast, by key)
+   * replace the functions of the program with the same keys, or are added if
+   * there are none, and the functions with the removed keys are removed. Keys
+   * of functions that aren't part of the program are ignored.
+   */
+  Update apply(Map<String, Ast.Function> functions, Collection<String> removedKeys) {
+    var update = new Update();
+    long start = System.nanoTime();
+    var added = new ArrayList<Ast.Function>();
+    var removed = new ArrayList<Ast.Function>();
+    functions.forEach((key, newF) -> {
+      var oldF = function(key);
+      if (oldF.isPresent()) {
+        recorder.record(oldF.get(), newF, update.trace);
+        update.changed++;
+      } else {
+        added.add(names.translate(newF));
+      }
+    });
+    removedKeys.forEach(key -> function(key).ifPresent(removed::add));
+    update.added = added.size();
+    update.removed = removed.size();
+
+    update.affected = builder.batch(() -> {
+      removed.forEach(builder::removeFunction);
+      added.forEach(builder::addFunction);
+      update.trace.edits().forEach(replayer::apply);
+    }).size();
+    update.totalNS = System.nanoTime() - start;
+    return update;
+  }
+
+  // The function with the key, if it's (still) part of the program.
+  private Optional<Ast.Function> function(String key) {
+    return names.function(key).filter(f -> f.staticness() == Ast.Function.Staticness.STATIC
+        ? ast.staticFunctions().get(f.name()) == f
+        : ast.instanceMethods().get(f.type().klass(), f.name()) == f);
+  }
+
+  // Hash every method of the application class loader, and collect the methods
+  // by key.
+  private static Map<String, Long> hashes(ClassHierarchy cha, Map<String, IMethod> methods) {
+    var result = new LinkedHashMap<String, Long>();
+    for (IClass klass : cha) {
+      if (!klass.getClassLoader().getReference().equals(ClassLoaderReference.Application)) {
+        continue;
+      }
+      for (IMethod method : klass.getDeclaredMethods()) {
+        var key = AstFromWala.key(method);
+        result.put(key, hash(method));
+        methods.put(key, method);
+      }
+    }
+    return result;
+  }
+
+  // Hash the printed bytecode instructions, which refer to classes, fields and
+  // methods by name rather than by constant pool index.
+  private static long hash(IMethod method) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    digest.update(method.getSignature().getBytes(StandardCharsets.UTF_8));
+    if (method instanceof ShrikeBTMethod) {
+      try {
+        var instructions = ((ShrikeBTMethod) method).getInstructions();
+        if (instructions != null) {
+          for (var inst : instructions) {
+            digest.update(("\n" + inst).getBytes(StandardCharsets.UTF_8));
+          }
+        }
+      } catch (InvalidClassFileException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return ByteBuffer.wrap(digest.digest()).getLong();
+  }
+
+  /** What an update changed, and how long it took. */
+  public static final class Update {
+    private final EditTrace trace = new EditTrace();
+    private int hashed = 0;
+    private int changed = 0;
+    private int added = 0;
+    private int removed = 0;
+    private int affected = 0;
+    private long totalNS = 0;
+
+    private Update() {
+    }
+
+    /** The instruction-level edits to the changed functions. */
+    public EditTrace trace() {
+      return trace;
+    }
+
+    public int changed() {
+      return changed;
+    }
+
+    public int added() {
+      return added;
+    }
+
+    public int removed() {
+      return removed;
+    }
+
+    /** The number of nodes whose points-to sets changed. */
+    public int affected() {
+      return affected;
+    }
+
+    public long totalNS() {
+      return totalNS;
+    }
+
+    public void print(PrintStream out) {
+      out.printf("  Methods hashed: \t%d\n", hashed);
+      out.printf("  Changed/added/removed:\t%d/%d/%d\n", changed, added, removed);
+      out.printf("  Edits applied:  \t%d\n", trace.size());
+      out.printf("  Nodes affected: \t%d\n", affected);
+      out.printf("  Total time:     \t%.3fms\n", totalNS / 1_000_000D);
+    }
+  }
+}
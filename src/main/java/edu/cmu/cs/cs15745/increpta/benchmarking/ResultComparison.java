@@ -0,0 +1,179 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.cs.cs15745.increpta.benchmarking.BenchmarkResults.Entry;
+import edu.cmu.cs.cs15745.increpta.util.Util;
+
+/**
+ * Compares two sets of benchmark results, pair by pair, flagging regressions.
+ *
+ * <ul>
+ * <li>The mean add and delete latencies are compared with Welch's t-test over
+ * the latencies of every edit, and are regressions if they grow by more than
+ * the threshold and the test is significant.</li>
+ * <li>Their percentiles are compared with the quantile test at that percentile
+ * (see {@link Util#quantileTest}), since a change in the tail needn't move the
+ * mean, nor a change in the mean the median, and are regressions under the same
+ * conditions.</li>
+ * <li>Construction time is tested the same way when both sides have repeated
+ * runs of the pair; with one run each, only the threshold applies.</li>
+ * <li>Node counts and points-to sizes don't vary between runs, so any growth is
+ * a regression.</li>
+ * </ul>
+ */
+public final class ResultComparison {
+  private final double alpha;
+  private final double threshold;
+
+  /** A metric of a (scope, context builder) pair, before and after. */
+  public static final class Finding {
+    private final String scope;
+    private final String context;
+    private final String metric;
+    private final double before;
+    private final double after;
+    private final double pValue; // NaN if untested
+    private final boolean regression;
+
+    private Finding(String scope, String context, String metric, double before, double after, double pValue,
+        boolean regression) {
+      this.scope = scope;
+      this.context = context;
+      this.metric = metric;
+      this.before = before;
+      this.after = after;
+      this.pValue = pValue;
+      this.regression = regression;
+    }
+
+    public String scope() {
+      return scope;
+    }
+
+    public String context() {
+      return context;
+    }
+
+    public String metric() {
+      return metric;
+    }
+
+    public double before() {
+      return before;
+    }
+
+    public double after() {
+      return after;
+    }
+
+    public double pValue() {
+      return pValue;
+    }
+
+    public boolean regression() {
+      return regression;
+    }
+
+    /** The relative change, e.g. 0.1 for 10% more. */
+    public double change() {
+      return before == 0 ? (after == 0 ? 0 : Double.POSITIVE_INFINITY) : (after - before) / before;
+    }
+  }
+
+  /**
+   * @param alpha     The significance level of the tests, e.g. 0.01.
+   * @param threshold The relative growth below which timings aren't regressions,
+   *                  e.g. 0.05 for 5%.
+   */
+  public ResultComparison(double alpha, double threshold) {
+    this.alpha = alpha;
+    this.threshold = threshold;
+  }
+
+  /**
+   * The findings for each pair in both results, in the order of the later
+   * results. Pairs in only one of them are skipped.
+   */
+  public List<Finding> compare(BenchmarkResults before, BenchmarkResults after) {
+    var beforeByPair = byPair(before);
+    var result = new ArrayList<Finding>();
+    byPair(after).forEach((pair, afterRuns) -> {
+      var beforeRuns = beforeByPair.get(pair);
+      if (beforeRuns == null) {
+        return;
+      }
+      var scope = afterRuns.get(0).scope();
+      var context = afterRuns.get(0).context();
+
+      var beforeTimes = metrics(beforeRuns, BenchmarkResults.CONSTRUCTION_MS);
+      var afterTimes = metrics(afterRuns, BenchmarkResults.CONSTRUCTION_MS);
+      double p = Util.welchTTest(beforeTimes, afterTimes);
+      result.add(timing(scope, context, BenchmarkResults.CONSTRUCTION_MS, Util.mean(beforeTimes),
+          Util.mean(afterTimes), p, Double.isNaN(p) || p < alpha));
+
+      for (var metric : List.of(BenchmarkResults.NODES, BenchmarkResults.POINTS_TO)) {
+        double b = Util.mean(metrics(beforeRuns, metric));
+        double a = Util.mean(metrics(afterRuns, metric));
+        result.add(new Finding(scope, context, metric, b, a, Double.NaN, a > b));
+      }
+
+      for (var kind : List.of(BenchmarkResults.DELETE, BenchmarkResults.ADD)) {
+        var b = latencies(beforeRuns, kind);
+        var a = latencies(afterRuns, kind);
+        double meanP = Util.welchTTest(b, a);
+        result.add(timing(scope, context, "mean" + kind, Util.mean(b), Util.mean(a), meanP, meanP < alpha));
+        for (int percentile : new int[] { 50, 90, 99 }) {
+          double percentileP = Util.quantileTest(b, a, percentile);
+          result.add(timing(scope, context, "p" + percentile + kind, Util.percentile(b, percentile),
+              Util.percentile(a, percentile), percentileP, percentileP < alpha));
+        }
+      }
+    });
+    return result;
+  }
+
+  private Finding timing(String scope, String context, String metric, double before, double after, double p,
+      boolean significant) {
+    boolean regression = significant && after > before * (1 + threshold);
+    return new Finding(scope, context, metric, before, after, p, regression);
+  }
+
+  private static Map<String, List<Entry>> byPair(BenchmarkResults results) {
+    var result = new LinkedHashMap<String, List<Entry>>();
+    for (var entry : results.entries()) {
+      result.computeIfAbsent(entry.scope() + "\t" + entry.context(), k -> new ArrayList<>()).add(entry);
+    }
+    return result;
+  }
+
+  private static long[] metrics(List<Entry> runs, String metric) {
+    return runs.stream().mapToDouble(e -> e.metric(metric)).filter(x -> !Double.isNaN(x)).mapToLong(Math::round)
+        .toArray();
+  }
+
+  // The latencies of all runs, sorted.
+  private static long[] latencies(List<Entry> runs, String kind) {
+    var result = runs.stream().flatMapToLong(e -> Arrays.stream(e.latencies(kind))).toArray();
+    Arrays.sort(result);
+    return result;
+  }
+
+  /** Print every finding, marking the regressions, and then a summary. */
+  public static void print(List<Finding> findings, PrintStream out) {
+    out.println("  Scope\tContext\tMetric\tBefore\tAfter\tChange\tp");
+    for (var finding : findings) {
+      out.printf("  %s\t%s\t%s\t%.1f\t%.1f\t%+.1f%%\t%s%s\n", finding.scope, finding.context, finding.metric,
+          finding.before, finding.after, finding.change() * 100,
+          Double.isNaN(finding.pValue) ? "-" : String.format("%.3g", finding.pValue),
+          finding.regression ? "\tREGRESSION" : "");
+    }
+    long regressions = findings.stream().filter(Finding::regression).count();
+    out.printf("%d regressions in %d comparisons.\n", regressions, findings.size());
+  }
+}
@@ -0,0 +1,168 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.AstNames;
+
+/**
+ * Derives an edit trace from the differences between two versions of a
+ * program, e.g. the Asts of two builds of the same jar. The resulting trace is
+ * expressed in terms of the "before" Ast: replaying it against a graph built
+ * from "before" turns it into (the instruction-level equivalent of) "after".
+ *
+ * Functions are matched up by name (see {@link AstNames#key}); function bodies
+ * are diffed instruction-by-instruction with a longest-common-subsequence diff.
+ * A removal immediately followed by an addition at the same position is
+ * recorded as a single modification.
+ *
+ * Traces only edit the bodies of existing functions, so functions that were
+ * added or removed between the versions aren't recorded; they're listed in
+ * {@link #addedFunctions} and {@link #removedFunctions} instead.
+ */
+public final class TraceRecorder {
+  private final Ast before;
+  private final AstNames names;
+  private final List<String> addedFunctions = new ArrayList<>();
+  private final List<String> removedFunctions = new ArrayList<>();
+
+  public TraceRecorder(Ast before) {
+    this.before = before;
+    this.names = new AstNames(before);
+  }
+
+  /**
+   * The names used to translate instructions from other Asts into the "before"
+   * Ast.
+   */
+  public AstNames names() {
+    return names;
+  }
+
+  /**
+   * Diff the "before" Ast against "after".
+   */
+  public EditTrace record(Ast after) {
+    var trace = new EditTrace();
+    var beforeFunctions = functionsByKey(before);
+    var afterFunctions = functionsByKey(after);
+    for (var entry : beforeFunctions.entrySet()) {
+      var newF = afterFunctions.get(entry.getKey());
+      if (newF != null) {
+        record(entry.getValue(), newF, trace);
+      } else {
+        removedFunctions.add(entry.getKey());
+      }
+    }
+    for (var key : afterFunctions.keySet()) {
+      if (!beforeFunctions.containsKey(key)) {
+        addedFunctions.add(key);
+      }
+    }
+    return trace;
+  }
+
+  /**
+   * The keys of the functions only in the "after" Ast of the traces recorded so
+   * far, which the traces leave out.
+   */
+  public List<String> addedFunctions() {
+    return Collections.unmodifiableList(addedFunctions);
+  }
+
+  /**
+   * The keys of the functions only in the "before" Ast of the traces recorded so
+   * far, which the traces leave in place.
+   */
+  public List<String> removedFunctions() {
+    return Collections.unmodifiableList(removedFunctions);
+  }
+
+  /**
+   * Append the edits turning the body of oldF into the body of newF to the
+   * trace.
+   */
+  public void record(Ast.Function oldF, Ast.Function newF, EditTrace trace) {
+    var oldBody = oldF.body().instructions();
+    var newBody = newF.body().instructions();
+    var a = encodeAll(oldBody);
+    var b = encodeAll(newBody);
+
+    // Trim the common prefix and suffix; most edits are small and local.
+    int prefix = 0;
+    while (prefix < a.size() && prefix < b.size() && a.get(prefix).equals(b.get(prefix))) {
+      prefix++;
+    }
+    int suffix = 0;
+    while (suffix < a.size() - prefix && suffix < b.size() - prefix
+        && a.get(a.size() - 1 - suffix).equals(b.get(b.size() - 1 - suffix))) {
+      suffix++;
+    }
+    int n = a.size() - prefix - suffix;
+    int m = b.size() - prefix - suffix;
+
+    // lcs[i][j] is the length of the LCS of a[prefix + i..] and b[prefix + j..].
+    int[][] lcs = new int[n + 1][m + 1];
+    for (int i = n - 1; i >= 0; i--) {
+      for (int j = m - 1; j >= 0; j--) {
+        lcs[i][j] = a.get(prefix + i).equals(b.get(prefix + j)) ? lcs[i + 1][j + 1] + 1
+            : Math.max(lcs[i + 1][j], lcs[i][j + 1]);
+      }
+    }
+
+    // Walk the table, tracking the position in the body as edits are applied.
+    int position = prefix;
+    int i = 0;
+    int j = 0;
+    while (i < n || j < m) {
+      if (i < n && j < m && a.get(prefix + i).equals(b.get(prefix + j))) {
+        position++;
+        i++;
+        j++;
+      } else if (i < n && (j == m || lcs[i + 1][j] >= lcs[i][j + 1])) {
+        var removed = oldBody.get(prefix + i);
+        i++;
+        // Pair up a removal with an addition at the same position, i.e. when the
+        // next step of the walk would be an addition.
+        boolean nextIsAdd = j < m && (i == n
+            || !a.get(prefix + i).equals(b.get(prefix + j)) && lcs[i + 1][j] < lcs[i][j + 1]);
+        if (nextIsAdd) {
+          var added = names.translate(oldF, newBody.get(prefix + j));
+          trace.add(EditTrace.Edit.modify(oldF, position, removed, added));
+          position++;
+          j++;
+        } else {
+          trace.add(EditTrace.Edit.remove(oldF, position, removed));
+        }
+      } else {
+        var added = names.translate(oldF, newBody.get(prefix + j));
+        trace.add(EditTrace.Edit.add(oldF, position, added));
+        position++;
+        j++;
+      }
+    }
+  }
+
+  private static List<String> encodeAll(List<Ast.Instruction> instructions) {
+    var result = new ArrayList<String>(instructions.size());
+    for (var inst : instructions) {
+      result.add(EditTrace.encode(inst));
+    }
+    return result;
+  }
+
+  private static Map<String, Ast.Function> functionsByKey(Ast ast) {
+    var result = new LinkedHashMap<String, Ast.Function>();
+    for (var f : ast.staticFunctions().values()) {
+      result.putIfAbsent(AstNames.key(f), f);
+    }
+    for (var f : ast.instanceMethods().values()) {
+      result.putIfAbsent(AstNames.key(f), f);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,144 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.util.Util;
+
+/**
+ * Replays an edit trace through an incrementally-updating points-to graph,
+ * keeping the function bodies of the Ast in sync with the graph, and records
+ * the latency of each edit.
+ *
+ * Edits are applied through the builder's instruction-level API, so each
+ * latency includes resolving any calls the edit adds or removes.
+ */
+public final class TraceReplayer<C> {
+  private final IncrementalPointsToGraphBuilder<C> builder;
+
+  /** The builder's graph must already have been built. */
+  public TraceReplayer(IncrementalPointsToGraphBuilder<C> builder) {
+    this.builder = builder;
+  }
+
+  /**
+   * Replay every edit of the trace in order.
+   */
+  public ReplayStats replay(EditTrace trace) {
+    var stats = new ReplayStats();
+    long start = System.nanoTime();
+    for (var edit : trace.edits()) {
+      apply(edit, stats);
+    }
+    stats.totalNS += System.nanoTime() - start;
+    return stats;
+  }
+
+  private void apply(EditTrace.Edit edit, ReplayStats stats) {
+    long point = System.nanoTime();
+    apply(edit);
+    stats.latencies.get(edit.kind()).add(System.nanoTime() - point);
+  }
+
+  /**
+   * Apply a single edit through the builder.
+   *
+   * @throws IllegalArgumentException If the position is out of range, or the
+   *         instruction there isn't the one the edit removes or replaces (e.g.
+   *         the trace was recorded against a different version of the program).
+   *         The graph is left unchanged.
+   */
+  public void apply(EditTrace.Edit edit) {
+    var f = edit.function();
+    switch (edit.kind()) {
+    case REMOVE:
+      builder.removeInstruction(f, expect(edit, edit.instruction()));
+      break;
+    case ADD:
+      if (edit.index() < 0 || edit.index() > f.body().instructions().size()) {
+        throw new IllegalArgumentException("Index out of range: " + edit);
+      }
+      builder.addInstruction(f, edit.index(), edit.instruction());
+      break;
+    case MODIFY:
+      builder.removeInstruction(f, expect(edit, edit.replaced().get()));
+      builder.addInstruction(f, edit.index(), edit.instruction());
+      break;
+    default:
+      throw new IllegalStateException("Unknown edit: " + edit);
+    }
+  }
+
+  // The instruction at the position of the edit, which must match the expected
+  // one by name.
+  private static Ast.Instruction expect(EditTrace.Edit edit, Ast.Instruction expected) {
+    var instructions = edit.function().body().instructions();
+    if (edit.index() < 0 || edit.index() >= instructions.size()) {
+      throw new IllegalArgumentException("Index out of range: " + edit);
+    }
+    var actual = instructions.get(edit.index());
+    if (actual == null || actual != expected && !EditTrace.encode(actual).equals(EditTrace.encode(expected))) {
+      throw new IllegalArgumentException(String.format("Expected %s at %d, found %s: %s", expected, edit.index(),
+          actual, edit));
+    }
+    return actual;
+  }
+
+  /** Throughput and latency of a replay. */
+  public static final class ReplayStats {
+    private final Map<EditTrace.Kind, List<Long>> latencies = new EnumMap<>(EditTrace.Kind.class);
+    private long totalNS = 0;
+
+    private ReplayStats() {
+      for (var kind : EditTrace.Kind.values()) {
+        latencies.put(kind, new ArrayList<>());
+      }
+    }
+
+    public int applied() {
+      return latencies.values().stream().mapToInt(List::size).sum();
+    }
+
+    public long totalNS() {
+      return totalNS;
+    }
+
+    /** Edits per second. */
+    public double throughput() {
+      return totalNS == 0 ? 0 : applied() / (totalNS / 1_000_000_000D);
+    }
+
+    /** Sorted latencies (in ns) of the applied edits of the given kinds. */
+    public long[] latencies(EditTrace.Kind... kinds) {
+      var kindList = kinds.length == 0 ? List.of(EditTrace.Kind.values()) : List.of(kinds);
+      var result = kindList.stream().flatMap(k -> latencies.get(k).stream()).mapToLong(Long::longValue).toArray();
+      Arrays.sort(result);
+      return result;
+    }
+
+    public void print(PrintStream out) {
+      out.printf("  Edits applied:  \t%d\n", applied());
+      out.printf("  Total time:     \t%.3fms\n", totalNS / 1_000_000D);
+      out.printf("  Throughput:     \t%.1f edits/s\n", throughput());
+      printLatencies(out, "All", latencies());
+      for (var kind : EditTrace.Kind.values()) {
+        printLatencies(out, kind.toString(), latencies(kind));
+      }
+    }
+
+    private static void printLatencies(PrintStream out, String label, long[] sorted) {
+      if (sorted.length == 0) {
+        return;
+      }
+      out.printf("  %-7s p50/p90/p99/max:\t%.3f/%.3f/%.3f/%.3fms\n", label,
+          Util.percentile(sorted, 50) / 1_000_000D, Util.percentile(sorted, 90) / 1_000_000D,
+          Util.percentile(sorted, 99) / 1_000_000D, sorted[sorted.length - 1] / 1_000_000D);
+    }
+  }
+}
@@ -0,0 +1,333 @@
+package edu.cmu.cs.cs15745.increpta.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+
+import edu.cmu.cs.cs15745.increpta.AliasQueries;
+import edu.cmu.cs.cs15745.increpta.ContextBuilder;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsTo;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder;
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext.Node;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.AstNames;
+import edu.cmu.cs.cs15745.increpta.benchmarking.EditTrace;
+import edu.cmu.cs.cs15745.increpta.benchmarking.TraceReplayer;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+
+/**
+ * Keeps the points-to graph of a program resident, and serves edits and queries
+ * over a loopback socket (see {@link Protocol}).
+ *
+ * Each connection is served by its own thread; requests from all connections
+ * are applied to the one graph in the order they're handled.
+ */
+public final class Daemon<C> implements Closeable {
+  private static final int MAX_BATCH = 1024; // Edits coalesced into one batch
+
+  private final Ast ast;
+  private final AstNames names;
+  private final IncrementalPointsToGraphBuilder<C> builder;
+  private final IncrementalPointsTo<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>>.Graph graph;
+  private final AliasQueries<Pair<Node, C>, Pair<Ast.Instruction.Allocation, C>> aliases;
+  private final TraceReplayer<C> replayer;
+  private ServerSocket server = null;
+  private volatile boolean running = true;
+
+  private long edits = 0;
+  private long batches = 0;
+  private long largestBatch = 0;
+  private long queries = 0;
+
+  /**
+   * Build the graph of the program; this can take a while.
+   */
+  public Daemon(Ast ast, ContextBuilder<C> contextBuilder) {
+    this.ast = Objects.requireNonNull(ast);
+    this.names = new AstNames(ast);
+    this.builder = new IncrementalPointsToGraphBuilder<>(ast, new SimplePointsToGraphWithContext<>(), contextBuilder);
+    this.graph = builder.build();
+    this.aliases = new AliasQueries<>(graph);
+    this.replayer = new TraceReplayer<>(builder);
+  }
+
+  /**
+   * Listen on the loopback interface (port 0 picks a free port).
+   *
+   * @return The port listened on.
+   */
+  public int listen(int port) throws IOException {
+    server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    return server.getLocalPort();
+  }
+
+  /**
+   * Accept connections until shut down by a client or closed.
+   */
+  public void serve() throws IOException {
+    if (server == null) {
+      throw new IllegalStateException("Must call listen before serving.");
+    }
+    while (running) {
+      Socket socket;
+      try {
+        socket = server.accept();
+      } catch (IOException e) {
+        if (!running) {
+          return;
+        }
+        throw e;
+      }
+      var thread = new Thread(() -> connection(socket), "daemon-" + socket.getPort());
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    running = false;
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private void connection(Socket socket) {
+    try (socket;
+        var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+      while (running) {
+        byte op;
+        try {
+          op = in.readByte();
+        } catch (EOFException e) {
+          return;
+        }
+        handle(op, in, out);
+        // Only flush once the client has no more requests in flight, so that
+        // pipelined requests get their responses in as few packets as possible.
+        if (in.available() == 0) {
+          out.flush();
+        }
+      }
+    } catch (IOException e) {
+      if (running) {
+        System.err.println("Connection closed: " + e);
+      }
+    }
+  }
+
+  private void handle(byte op, DataInputStream in, DataOutputStream out) throws IOException {
+    switch (op) {
+    case Protocol.EDIT:
+      edits(in, out);
+      break;
+    case Protocol.POINTS_TO: {
+      var f = in.readUTF();
+      var v = in.readUTF();
+      respond(out, o -> pointsTo(f, v, o));
+      break;
+    }
+    case Protocol.ALIAS: {
+      var f1 = in.readUTF();
+      var v1 = in.readUTF();
+      var f2 = in.readUTF();
+      var v2 = in.readUTF();
+      respond(out, o -> o.writeBoolean(alias(f1, v1, f2, v2)));
+      break;
+    }
+    case Protocol.CALL_TARGETS: {
+      var f = in.readUTF();
+      int index = in.readInt();
+      respond(out, o -> callTargets(f, index, o));
+      break;
+    }
+    case Protocol.STATS:
+      respond(out, this::stats);
+      break;
+    case Protocol.SHUTDOWN:
+      out.writeByte(Protocol.OK);
+      out.flush();
+      close();
+      break;
+    default:
+      // We can't tell where the next request starts, so give up on the client.
+      out.writeByte(Protocol.ERROR);
+      out.writeUTF("Unknown opcode: " + op);
+      out.flush();
+      throw new IOException("Unknown opcode: " + op);
+    }
+  }
+
+  // Read this edit and all of the edits right behind it, and apply them as one
+  // batch.
+  private void edits(DataInputStream in, DataOutputStream out) throws IOException {
+    var lines = new ArrayList<String>();
+    lines.add(in.readUTF());
+    while (lines.size() < MAX_BATCH && in.available() > 0) {
+      in.mark(1);
+      if (in.readByte() != Protocol.EDIT) {
+        in.reset();
+        break;
+      }
+      lines.add(in.readUTF());
+    }
+
+    var errors = new ArrayList<String>();
+    synchronized (this) {
+      var parsed = new ArrayList<EditTrace.Edit>();
+      for (var line : lines) {
+        try {
+          parsed.add(EditTrace.parse(line, names));
+          errors.add(null);
+        } catch (RuntimeException e) {
+          parsed.add(null);
+          errors.add("Malformed edit: " + e.getMessage());
+        }
+      }
+      try {
+        var affected = builder.batch(() -> {
+          for (int i = 0; i < parsed.size(); i++) {
+            if (parsed.get(i) == null) {
+              continue;
+            }
+            // Edits that don't fit the current program (an index out of range,
+            // or a different instruction there than the one the edit names)
+            // are rejected before they change anything.
+            try {
+              replayer.apply(parsed.get(i));
+            } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+              errors.set(i, "Invalid edit: " + e.getMessage());
+            }
+          }
+        });
+        aliases.invalidate(affected);
+      } catch (RuntimeException e) {
+        // The batch may have been applied partially, so we don't know which
+        // edits made it.
+        aliases.clear();
+        for (int i = 0; i < errors.size(); i++) {
+          errors.set(i, "Batch failed: " + e);
+        }
+      }
+      edits += lines.size();
+      batches++;
+      largestBatch = Math.max(largestBatch, lines.size());
+    }
+
+    for (var error : errors) {
+      if (error == null) {
+        out.writeByte(Protocol.OK);
+        out.writeInt(lines.size());
+      } else {
+        out.writeByte(Protocol.ERROR);
+        out.writeUTF(error);
+      }
+    }
+  }
+
+  private interface Response {
+    void write(DataOutputStream out) throws IOException;
+  }
+
+  // Write OK and the response, or ERROR if the request couldn't be answered.
+  // The response is buffered so that a failure can't leave half of it behind.
+  private void respond(DataOutputStream out, Response response) throws IOException {
+    var buffer = new ByteArrayOutputStream();
+    var bufferOut = new DataOutputStream(buffer);
+    try {
+      synchronized (this) {
+        queries++;
+        response.write(bufferOut);
+      }
+    } catch (RuntimeException e) {
+      out.writeByte(Protocol.ERROR);
+      out.writeUTF(String.valueOf(e.getMessage()));
+      return;
+    }
+    bufferOut.flush();
+    out.writeByte(Protocol.OK);
+    buffer.writeTo(out);
+  }
+
+  private Ast.Function function(String key) {
+    return names.function(key).orElseThrow(() -> new IllegalArgumentException("Unknown function: " + key));
+  }
+
+  private void pointsTo(String key, String var, DataOutputStream out) throws IOException {
+    var f = function(key);
+    var v = names.variable(f, var);
+    var result = new LinkedHashSet<Pair<Ast.Instruction.Allocation, C>>();
+    for (var ctx : builder.contexts(f)) {
+      result.addAll(builder.pointsTo(v, ctx));
+    }
+    out.writeInt(result.size());
+    for (var item : result) {
+      out.writeUTF(item.fst().toString());
+      out.writeUTF(item.snd().toString());
+    }
+  }
+
+  // Whether the variables may alias in any of their contexts.
+  private boolean alias(String key1, String var1, String key2, String var2) {
+    var v1 = names.variable(function(key1), var1);
+    var v2 = names.variable(function(key2), var2);
+    for (var n1 : builder.nodes(v1)) {
+      for (var n2 : builder.nodes(v2)) {
+        if (aliases.mayAlias(n1, n2)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void callTargets(String key, int index, DataOutputStream out) throws IOException {
+    var f = function(key);
+    var instructions = f.body().instructions();
+    if (index < 0 || index >= instructions.size()) {
+      throw new IllegalArgumentException(String.format("No instruction %d in %s", index, key));
+    }
+    var call = instructions.get(index);
+    var result = new LinkedHashSet<Pair<Ast.Function, C>>();
+    for (var ctx : builder.contexts(f)) {
+      result.addAll(builder.callees(call, ctx));
+    }
+    out.writeInt(result.size());
+    for (var target : result) {
+      out.writeUTF(AstNames.key(target.fst()));
+      out.writeUTF(target.snd().toString());
+    }
+  }
+
+  private void stats(DataOutputStream out) throws IOException {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("functions", (long) (ast.staticFunctions().size() + ast.instanceMethods().size()));
+    stats.put("nodes", (long) graph.nodes().size());
+    stats.put("edits", edits);
+    stats.put("batches", batches);
+    stats.put("largestBatch", largestBatch);
+    stats.put("queries", queries);
+    stats.put("aliasCacheHits", (long) aliases.hits());
+    stats.put("aliasCacheMisses", (long) aliases.misses());
+    out.writeInt(stats.size());
+    for (var entry : stats.entrySet()) {
+      out.writeUTF(entry.getKey());
+      out.writeLong(entry.getValue());
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package edu.cmu.cs.cs15745.increpta.daemon;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+
+/**
+ * Client for a {@link Daemon} on this machine. Failed requests throw
+ * IOException with the daemon's message.
+ */
+public final class DaemonClient implements Closeable {
+  private final Socket socket;
+  private final DataInputStream in;
+  private final DataOutputStream out;
+
+  public DaemonClient(int port) throws IOException {
+    socket = new Socket(InetAddress.getLoopbackAddress(), port);
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  /**
+   * Send all of the edits before reading any response, so that the daemon can
+   * apply them in as few batches as possible.
+   *
+   * @return For each edit, the size of the batch it was applied in, or the
+   *         daemon's error message.
+   */
+  public List<Pair<Integer, String>> edits(List<String> lines) throws IOException {
+    for (var line : lines) {
+      out.writeByte(Protocol.EDIT);
+      out.writeUTF(line);
+    }
+    out.flush();
+    var result = new ArrayList<Pair<Integer, String>>();
+    for (int i = 0; i < lines.size(); i++) {
+      if (in.readByte() == Protocol.OK) {
+        result.add(Pair.of(in.readInt(), ""));
+      } else {
+        result.add(Pair.of(0, in.readUTF()));
+      }
+    }
+    return result;
+  }
+
+  /** The allocations (and their contexts) the variable may point to. */
+  public List<Pair<String, String>> pointsTo(String function, String variable) throws IOException {
+    out.writeByte(Protocol.POINTS_TO);
+    out.writeUTF(function);
+    out.writeUTF(variable);
+    return pairs();
+  }
+
+  public boolean alias(String function1, String variable1, String function2, String variable2) throws IOException {
+    out.writeByte(Protocol.ALIAS);
+    out.writeUTF(function1);
+    out.writeUTF(variable1);
+    out.writeUTF(function2);
+    out.writeUTF(variable2);
+    response();
+    return in.readBoolean();
+  }
+
+  /** The functions (and their contexts) that a call instruction calls. */
+  public List<Pair<String, String>> callTargets(String function, int index) throws IOException {
+    out.writeByte(Protocol.CALL_TARGETS);
+    out.writeUTF(function);
+    out.writeInt(index);
+    return pairs();
+  }
+
+  public Map<String, Long> stats() throws IOException {
+    out.writeByte(Protocol.STATS);
+    response();
+    var result = new LinkedHashMap<String, Long>();
+    int n = in.readInt();
+    for (int i = 0; i < n; i++) {
+      result.put(in.readUTF(), in.readLong());
+    }
+    return result;
+  }
+
+  /** Stop the daemon. */
+  public void shutdown() throws IOException {
+    out.writeByte(Protocol.SHUTDOWN);
+    response();
+  }
+
+  @Override
+  public void close() throws IOException {
+    socket.close();
+  }
+
+  private List<Pair<String, String>> pairs() throws IOException {
+    response();
+    var result = new ArrayList<Pair<String, String>>();
+    int n = in.readInt();
+    for (int i = 0; i < n; i++) {
+      result.add(Pair.of(in.readUTF(), in.readUTF()));
+    }
+    return result;
+  }
+
+  // Send the request, and read the status of its response.
+  private void response() throws IOException {
+    out.flush();
+    if (in.readByte() != Protocol.OK) {
+      throw new IOException(in.readUTF());
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package edu.cmu.cs.cs15745.increpta.daemon;
+
+/**
+ * The binary protocol spoken by the {@link Daemon}.
+ *
+ * A request is an opcode byte followed by its operands, written with
+ * DataOutputStream (strings with writeUTF). Function keys are those of
+ * AstNames.key, and edits use the text format of EditTrace.
+ *
+ * <pre>
+ * EDIT         edit-line
+ * POINTS_TO    function variable
+ * ALIAS        function1 variable1 function2 variable2
+ * CALL_TARGETS function instruction-index
+ * STATS
+ * SHUTDOWN
+ * </pre>
+ *
+ * Every request gets exactly one response, in the order the requests were
+ * sent, so clients can pipeline requests. A response is OK followed by its
+ * results, or ERROR followed by a message:
+ *
+ * <pre>
+ * EDIT         int (number of edits in the batch that included this one)
+ * POINTS_TO    int n, then n times: allocation context
+ * ALIAS        boolean
+ * CALL_TARGETS int n, then n times: function context
+ * STATS        int n, then n times: name long
+ * SHUTDOWN     (nothing)
+ * </pre>
+ *
+ * Consecutive EDIT requests that have already arrived when the daemon gets to
+ * them are applied to the graph as one batch.
+ */
+public final class Protocol {
+  private Protocol() {
+  }
+
+  public static final byte EDIT = 1;
+  public static final byte POINTS_TO = 2;
+  public static final byte ALIAS = 3;
+  public static final byte CALL_TARGETS = 4;
+  public static final byte STATS = 5;
+  public static final byte SHUTDOWN = 6;
+
+  public static final byte OK = 0;
+  public static final byte ERROR = 1;
+}
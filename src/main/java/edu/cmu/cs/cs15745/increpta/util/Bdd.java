@@ -0,0 +1,422 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A small reduced ordered binary decision diagram package.
+ *
+ * BDDs are handed out as ints (indices into the node table), with
+ * {@link #FALSE} and {@link #TRUE} as the terminals. Variables are identified
+ * by their level: level 0 is tested first. Every BDD that must survive a
+ * garbage collection has to be {@link #ref}'d; collection only happens when
+ * {@link #maybeGc} is called, so unreferenced intermediate results are safe
+ * until then.
+ */
+public final class Bdd {
+  public static final int FALSE = 0;
+  public static final int TRUE = 1;
+
+  private static final int AND = 0;
+  private static final int OR = 1;
+  private static final int DIFF = 2;
+  private static final int EXISTS = 3;
+  private static final int CACHE_SIZE = 1 << 16;
+
+  private final int vars;
+
+  // The node table. Terminals have level == vars. Free nodes are chained
+  // through next, and so are the nodes in each bucket of the unique table.
+  private int[] level;
+  private int[] low;
+  private int[] high;
+  private int[] refs;
+  private int[] next;
+  private int[] buckets;
+  private int free = -1;
+  private int live = 2;
+  private int gcThreshold = 1 << 16;
+
+  // Direct-mapped operation cache.
+  private final int[] cacheOp = new int[CACHE_SIZE];
+  private final int[] cacheA = new int[CACHE_SIZE];
+  private final int[] cacheB = new int[CACHE_SIZE];
+  private final int[] cacheResult = new int[CACHE_SIZE];
+
+  private int nextLevelsId = 0;
+
+  /** A set of levels to quantify over, count over or enumerate. */
+  public final class Levels {
+    private final int id;
+    private final int[] sorted;
+    private final boolean[] contains;
+
+    private Levels(int[] levels) {
+      this.id = nextLevelsId++;
+      this.sorted = levels.clone();
+      Arrays.sort(sorted);
+      this.contains = new boolean[vars + 1];
+      for (int l : sorted) {
+        contains[l] = true;
+      }
+    }
+  }
+
+  public Bdd(int vars) {
+    this.vars = vars;
+    int capacity = 1 << 10;
+    level = new int[capacity];
+    low = new int[capacity];
+    high = new int[capacity];
+    refs = new int[capacity];
+    next = new int[capacity];
+    buckets = new int[capacity];
+    Arrays.fill(buckets, -1);
+    Arrays.fill(cacheOp, -1);
+    level[FALSE] = vars;
+    level[TRUE] = vars;
+    for (int i = capacity - 1; i >= 2; i--) {
+      level[i] = -1;
+      next[i] = free;
+      free = i;
+    }
+  }
+
+  public int vars() {
+    return vars;
+  }
+
+  public Levels levels(int... levels) {
+    return new Levels(levels);
+  }
+
+  /** The number of nodes in use, including garbage not yet collected. */
+  public int size() {
+    return live;
+  }
+
+  public int ref(int a) {
+    if (a > TRUE) {
+      refs[a]++;
+    }
+    return a;
+  }
+
+  public void deref(int a) {
+    if (a > TRUE) {
+      if (refs[a] == 0) {
+        throw new IllegalStateException("Dereferenced an unreferenced BDD: " + a);
+      }
+      refs[a]--;
+    }
+  }
+
+  /**
+   * The conjunction of the literals: values[l] is 0 or 1 for each level l to
+   * test, and -1 for the others.
+   */
+  public int cube(int[] values) {
+    int result = TRUE;
+    for (int l = vars - 1; l >= 0; l--) {
+      if (values[l] == 1) {
+        result = mk(l, FALSE, result);
+      } else if (values[l] == 0) {
+        result = mk(l, result, FALSE);
+      }
+    }
+    return result;
+  }
+
+  /** Evaluate a BDD under an assignment of (at least) the levels it tests. */
+  public boolean eval(int a, int[] values) {
+    while (a > TRUE) {
+      a = values[level[a]] == 1 ? high[a] : low[a];
+    }
+    return a == TRUE;
+  }
+
+  public int and(int a, int b) {
+    return apply(AND, a, b);
+  }
+
+  public int or(int a, int b) {
+    return apply(OR, a, b);
+  }
+
+  /** a and not b */
+  public int diff(int a, int b) {
+    return apply(DIFF, a, b);
+  }
+
+  private int apply(int op, int a, int b) {
+    switch (op) {
+    case AND:
+      if (a == FALSE || b == FALSE) {
+        return FALSE;
+      } else if (a == TRUE || a == b) {
+        return b;
+      } else if (b == TRUE) {
+        return a;
+      }
+      break;
+    case OR:
+      if (a == TRUE || b == TRUE) {
+        return TRUE;
+      } else if (a == FALSE || a == b) {
+        return b;
+      } else if (b == FALSE) {
+        return a;
+      }
+      break;
+    default:
+      if (a == FALSE || b == TRUE || a == b) {
+        return FALSE;
+      } else if (b == FALSE) {
+        return a;
+      }
+    }
+    if (op != DIFF && a > b) {
+      int t = a;
+      a = b;
+      b = t;
+    }
+    int slot = cacheSlot(op, a, b);
+    if (cacheOp[slot] == op && cacheA[slot] == a && cacheB[slot] == b) {
+      return cacheResult[slot];
+    }
+    int l = Math.min(level[a], level[b]);
+    int r0 = apply(op, level[a] == l ? low[a] : a, level[b] == l ? low[b] : b);
+    int r1 = apply(op, level[a] == l ? high[a] : a, level[b] == l ? high[b] : b);
+    int result = mk(l, r0, r1);
+    cache(slot, op, a, b, result);
+    return result;
+  }
+
+  /** Existentially quantify the levels away. */
+  public int exists(int a, Levels levels) {
+    if (a <= TRUE || level[a] > levels.sorted[levels.sorted.length - 1]) {
+      return a;
+    }
+    int slot = cacheSlot(EXISTS, a, levels.id);
+    if (cacheOp[slot] == EXISTS && cacheA[slot] == a && cacheB[slot] == levels.id) {
+      return cacheResult[slot];
+    }
+    int l = level[a];
+    int r0 = exists(low[a], levels);
+    int r1 = exists(high[a], levels);
+    int result = levels.contains[l] ? or(r0, r1) : mk(l, r0, r1);
+    cache(slot, EXISTS, a, levels.id, result);
+    return result;
+  }
+
+  /**
+   * Fix the levels with values 0 or 1 (see {@link #cube}) to those values. The
+   * result doesn't test them.
+   */
+  public int restrict(int a, int[] values) {
+    return restrict(a, values, new HashMap<>());
+  }
+
+  private int restrict(int a, int[] values, Map<Integer, Integer> memo) {
+    if (a <= TRUE) {
+      return a;
+    }
+    var cached = memo.get(a);
+    if (cached != null) {
+      return cached;
+    }
+    int l = level[a];
+    int result;
+    if (values[l] == 0) {
+      result = restrict(low[a], values, memo);
+    } else if (values[l] == 1) {
+      result = restrict(high[a], values, memo);
+    } else {
+      result = mk(l, restrict(low[a], values, memo), restrict(high[a], values, memo));
+    }
+    memo.put(a, result);
+    return result;
+  }
+
+  /**
+   * The number of satisfying assignments to the levels, which must include
+   * every level the BDD tests.
+   */
+  public long satCount(int a, Levels levels) {
+    var rank = new int[vars + 1];
+    for (int l = 0, r = 0; l <= vars; l++) {
+      rank[l] = r;
+      if (l < vars && levels.contains[l]) {
+        r++;
+      }
+    }
+    return satCount(a, rank, new HashMap<>()) << rank[level[a]];
+  }
+
+  // The satisfying assignments to the levels from a's level on.
+  private long satCount(int a, int[] rank, Map<Integer, Long> memo) {
+    if (a <= TRUE) {
+      return a;
+    }
+    var cached = memo.get(a);
+    if (cached != null) {
+      return cached;
+    }
+    int l = level[a];
+    long result = (satCount(low[a], rank, memo) << (rank[level[low[a]]] - rank[l] - 1))
+        + (satCount(high[a], rank, memo) << (rank[level[high[a]]] - rank[l] - 1));
+    memo.put(a, result);
+    return result;
+  }
+
+  /**
+   * Visit every satisfying assignment to the levels, which must include every
+   * level the BDD tests. The visitor sees the values of all levels (-1 for
+   * those not in the set); the array is reused between calls.
+   */
+  public void forEachSat(int a, Levels levels, Consumer<int[]> visitor) {
+    var values = new int[vars];
+    Arrays.fill(values, -1);
+    forEachSat(a, levels, 0, values, visitor);
+  }
+
+  private void forEachSat(int a, Levels levels, int i, int[] values, Consumer<int[]> visitor) {
+    if (a == FALSE) {
+      return;
+    }
+    if (i == levels.sorted.length) {
+      visitor.accept(values);
+      return;
+    }
+    int l = levels.sorted[i];
+    boolean tested = level[a] == l;
+    values[l] = 0;
+    forEachSat(tested ? low[a] : a, levels, i + 1, values, visitor);
+    values[l] = 1;
+    forEachSat(tested ? high[a] : a, levels, i + 1, values, visitor);
+    values[l] = -1;
+  }
+
+  /**
+   * Collect garbage if the table has grown enough since the last collection.
+   * Only BDDs that are (transitively) referenced survive.
+   */
+  public void maybeGc() {
+    if (live >= gcThreshold) {
+      gc();
+      gcThreshold = Math.max(gcThreshold, live * 2);
+    }
+  }
+
+  /**
+   * Collect garbage now. Only BDDs that are (transitively) referenced survive.
+   */
+  public void gc() {
+    var marked = new boolean[level.length];
+    marked[FALSE] = true;
+    marked[TRUE] = true;
+    var stack = new ArrayDeque<Integer>();
+    for (int i = 2; i < level.length; i++) {
+      if (refs[i] > 0 && level[i] >= 0) {
+        stack.push(i);
+      }
+    }
+    while (!stack.isEmpty()) {
+      int n = stack.pop();
+      if (!marked[n]) {
+        marked[n] = true;
+        stack.push(low[n]);
+        stack.push(high[n]);
+      }
+    }
+    Arrays.fill(buckets, -1);
+    free = -1;
+    live = 2;
+    for (int i = level.length - 1; i >= 2; i--) {
+      if (marked[i]) {
+        int b = bucket(level[i], low[i], high[i]);
+        next[i] = buckets[b];
+        buckets[b] = i;
+        live++;
+      } else {
+        level[i] = -1;
+        refs[i] = 0;
+        next[i] = free;
+        free = i;
+      }
+    }
+    Arrays.fill(cacheOp, -1);
+  }
+
+  // The unique node testing level l, with the given children.
+  private int mk(int l, int lo, int hi) {
+    if (lo == hi) {
+      return lo;
+    }
+    int b = bucket(l, lo, hi);
+    for (int n = buckets[b]; n >= 0; n = next[n]) {
+      if (level[n] == l && low[n] == lo && high[n] == hi) {
+        return n;
+      }
+    }
+    if (free < 0) {
+      grow();
+      b = bucket(l, lo, hi);
+    }
+    int n = free;
+    free = next[n];
+    level[n] = l;
+    low[n] = lo;
+    high[n] = hi;
+    refs[n] = 0;
+    next[n] = buckets[b];
+    buckets[b] = n;
+    live++;
+    return n;
+  }
+
+  private void grow() {
+    int old = level.length;
+    int capacity = old * 2;
+    level = Arrays.copyOf(level, capacity);
+    low = Arrays.copyOf(low, capacity);
+    high = Arrays.copyOf(high, capacity);
+    refs = Arrays.copyOf(refs, capacity);
+    next = Arrays.copyOf(next, capacity);
+    for (int i = capacity - 1; i >= old; i--) {
+      level[i] = -1;
+      next[i] = free;
+      free = i;
+    }
+    buckets = new int[capacity];
+    Arrays.fill(buckets, -1);
+    for (int i = 2; i < old; i++) {
+      if (level[i] >= 0) {
+        int b = bucket(level[i], low[i], high[i]);
+        next[i] = buckets[b];
+        buckets[b] = i;
+      }
+    }
+  }
+
+  private int bucket(int l, int lo, int hi) {
+    int h = (l * 31 + lo) * 0x9E3779B9 + hi;
+    h ^= h >>> 16;
+    return h & (buckets.length - 1);
+  }
+
+  private static int cacheSlot(int op, int a, int b) {
+    int h = ((a * 31 + b) * 0x9E3779B9) ^ op;
+    return (h ^ (h >>> 16)) & (CACHE_SIZE - 1);
+  }
+
+  private void cache(int slot, int op, int a, int b, int result) {
+    cacheOp[slot] = op;
+    cacheA[slot] = a;
+    cacheB[slot] = b;
+    cacheResult[slot] = result;
+  }
+}
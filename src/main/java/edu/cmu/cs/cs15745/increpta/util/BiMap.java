@@ -25,4 +25,9 @@ public class BiMap<K1, K2, V> extends AbstractMap<Pair<K1, K2>, V> {
   public V get(K1 k1, K2 k2) {
     return get(Pair.of(k1, k2));
   }
+
+  @Override
+  public V remove(Object key) {
+    return map.remove(key);
+  }
 }
@@ -0,0 +1,110 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hands out dense int IDs (0, 1, 2, ...) to objects, in the order they are
+ * first seen, so that they can be stored in {@link IntSet}s and friends. IDs
+ * are never reused.
+ */
+public final class Indexer<T> {
+  private final Map<T, Integer> ids;
+  private final List<T> objects;
+
+  public Indexer() {
+    this.ids = new HashMap<>();
+    this.objects = new ArrayList<>();
+  }
+
+  /** Make a copy */
+  public Indexer(Indexer<T> other) {
+    this.ids = new HashMap<>(other.ids);
+    this.objects = new ArrayList<>(other.objects);
+  }
+
+  /** The ID of the object, giving it one if it has none yet. */
+  public int id(T t) {
+    var id = ids.get(t);
+    if (id == null) {
+      id = objects.size();
+      ids.put(t, id);
+      objects.add(t);
+    }
+    return id;
+  }
+
+  /** The ID of the object, or -1 if it has none. */
+  public int find(Object o) {
+    var id = ids.get(o);
+    return id == null ? -1 : id;
+  }
+
+  /** The object with the ID. */
+  public T get(int id) {
+    return objects.get(id);
+  }
+
+  public int size() {
+    return objects.size();
+  }
+
+  /**
+   * A view of the set of IDs as a set of objects. Adding an object to the view
+   * gives it an ID if needed.
+   */
+  public Set<T> asSet(IntSet set) {
+    return new AbstractSet<>() {
+      @Override
+      public int size() {
+        return set.size();
+      }
+
+      @Override
+      public boolean contains(Object o) {
+        return set.contains(find(o));
+      }
+
+      @Override
+      public boolean add(T t) {
+        return set.add(id(t));
+      }
+
+      @Override
+      public boolean remove(Object o) {
+        return set.remove(find(o));
+      }
+
+      @Override
+      public void clear() {
+        set.clear();
+      }
+
+      @Override
+      public Iterator<T> iterator() {
+        var it = set.iterator();
+        return new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          @Override
+          public T next() {
+            return get(it.nextInt());
+          }
+
+          @Override
+          public void remove() {
+            it.remove();
+          }
+        };
+      }
+    };
+  }
+}
@@ -0,0 +1,222 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A map from non-negative ints to {@link IntSet}s, like {@link MultiMap}, in an
+ * open-addressing hash table with linear probing.
+ */
+public final class IntMultiMap {
+  private static final int EMPTY = -1;
+  private static final int REMOVED = -2;
+
+  private int[] keys;
+  private IntSet[] values;
+  private int size = 0;
+  private int used = 0; // Occupied slots, including removed ones.
+
+  // While journaling, the sets of the keys handed out or removed since the
+  // journal started, as they were then. Null values stand for keys with no set.
+  private Map<Integer, IntSet> journal = null;
+
+  public IntMultiMap() {
+    keys = new int[16];
+    values = new IntSet[16];
+    Arrays.fill(keys, EMPTY);
+  }
+
+  /** Make a copy */
+  public IntMultiMap(IntMultiMap other) {
+    keys = other.keys.clone();
+    values = new IntSet[other.values.length];
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] >= 0) {
+        values[i] = new IntSet(other.values[i]);
+      }
+    }
+    size = other.size;
+    used = other.used;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean containsKey(int key) {
+    return key >= 0 && keys[slot(keys, key)] == key;
+  }
+
+  /** The set for the key, or null if there is none. */
+  public IntSet get(int key) {
+    if (key < 0) {
+      return null;
+    }
+    int i = slot(keys, key);
+    if (keys[i] != key) {
+      return null;
+    }
+    record(key, values[i]);
+    return values[i];
+  }
+
+  /**
+   * Return set that, adding to which, adds to the map.
+   */
+  public IntSet getSet(int key) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Negative key: " + key);
+    }
+    int i = slot(keys, key);
+    if (keys[i] == key) {
+      record(key, values[i]);
+      return values[i];
+    }
+    record(key, null);
+    if ((used + 1) * 3 > keys.length * 2) {
+      rehash(size * 3 >= keys.length ? keys.length * 2 : keys.length);
+      i = slot(keys, key);
+    }
+    if (keys[i] == EMPTY) {
+      used++;
+    }
+    var result = new IntSet();
+    keys[i] = key;
+    values[i] = result;
+    size++;
+    return result;
+  }
+
+  /** Remove the set for the key, returning it, or null if there was none. */
+  public IntSet remove(int key) {
+    if (key < 0) {
+      return null;
+    }
+    int i = slot(keys, key);
+    if (keys[i] != key) {
+      return null;
+    }
+    var result = values[i];
+    record(key, result);
+    keys[i] = REMOVED;
+    values[i] = null;
+    size--;
+    return result;
+  }
+
+  /** Like {@link #remove}, but returns an empty set if there was none. */
+  public IntSet removeSet(int key) {
+    var result = remove(key);
+    return result == null ? new IntSet() : result;
+  }
+
+  /** The keys, in table order. */
+  public int[] keys() {
+    var result = new int[size];
+    int n = 0;
+    for (int key : keys) {
+      if (key >= 0) {
+        result[n++] = key;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Start recording how the map is, so that {@link #rollback} can restore it.
+   * The sets handed out by {@link #get} and {@link #getSet} can be changed in
+   * place, so the first time a key's set is handed out, it's copied.
+   */
+  public void startJournal() {
+    journal = new HashMap<>();
+  }
+
+  /** Stop recording, keeping the changes. */
+  public void dropJournal() {
+    journal = null;
+  }
+
+  /**
+   * Stop recording, restoring the map as it was when the journal started.
+   *
+   * @return The keys whose sets may have changed.
+   */
+  public int[] rollback() {
+    if (journal == null) {
+      throw new IllegalStateException("Not journaling");
+    }
+    var saved = journal;
+    journal = null;
+    var result = new int[saved.size()];
+    int n = 0;
+    for (var entry : saved.entrySet()) {
+      int key = entry.getKey();
+      result[n++] = key;
+      if (entry.getValue() == null) {
+        remove(key);
+      } else {
+        var set = getSet(key);
+        set.clear();
+        set.addAll(entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  private void record(int key, IntSet set) {
+    if (journal != null && !journal.containsKey(key)) {
+      journal.put(key, set == null ? null : new IntSet(set));
+    }
+  }
+
+  private void rehash(int capacity) {
+    var newKeys = new int[capacity];
+    var newValues = new IntSet[capacity];
+    Arrays.fill(newKeys, EMPTY);
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] >= 0) {
+        int j = slot(newKeys, keys[i]);
+        newKeys[j] = keys[i];
+        newValues[j] = values[i];
+      }
+    }
+    keys = newKeys;
+    values = newValues;
+    used = size;
+  }
+
+  // See IntSet.slot.
+  private static int slot(int[] table, int key) {
+    int mask = table.length - 1;
+    int removed = -1;
+    for (int i = IntSet.hash(key) & mask;; i = (i + 1) & mask) {
+      int k = table[i];
+      if (k == key) {
+        return i;
+      } else if (k == EMPTY) {
+        return removed >= 0 ? removed : i;
+      } else if (k == REMOVED && removed < 0) {
+        removed = i;
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    var result = new StringBuilder("{");
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] >= 0) {
+        if (result.length() > 1) {
+          result.append(", ");
+        }
+        result.append(keys[i]).append('=').append(values[i]);
+      }
+    }
+    return result.append('}').toString();
+  }
+}
@@ -0,0 +1,126 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from pairs of non-negative ints to ints, in an open-addressing hash
+ * table with linear probing. Meant for counters: pairs that aren't in the map
+ * are mapped to 0, and pairs that are mapped to 0 are removed.
+ */
+public final class IntPairMap {
+  private static final long EMPTY = -1;
+  private static final long REMOVED = -2;
+
+  private long[] keys;
+  private int[] values;
+  private int size = 0;
+  private int used = 0; // Occupied slots, including removed ones.
+
+  /** Accepts the entries of the map. */
+  @FunctionalInterface
+  public interface EntryConsumer {
+    void accept(int fst, int snd, int value);
+  }
+
+  public IntPairMap() {
+    keys = new long[16];
+    values = new int[16];
+    Arrays.fill(keys, EMPTY);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int get(int fst, int snd) {
+    var key = key(fst, snd);
+    int i = slot(keys, key);
+    return keys[i] == key ? values[i] : 0;
+  }
+
+  /**
+   * Add delta to the value of the pair.
+   *
+   * @return The new value.
+   */
+  public int add(int fst, int snd, int delta) {
+    var key = key(fst, snd);
+    int i = slot(keys, key);
+    if (keys[i] == key) {
+      int value = values[i] + delta;
+      if (value == 0) {
+        keys[i] = REMOVED;
+        size--;
+      } else {
+        values[i] = value;
+      }
+      return value;
+    }
+    if (delta == 0) {
+      return 0;
+    }
+    if ((used + 1) * 3 > keys.length * 2) {
+      rehash(size * 3 >= keys.length ? keys.length * 2 : keys.length);
+      i = slot(keys, key);
+    }
+    if (keys[i] == EMPTY) {
+      used++;
+    }
+    keys[i] = key;
+    values[i] = delta;
+    size++;
+    return delta;
+  }
+
+  /** Visit the entries, in table order. The map must not change meanwhile. */
+  public void forEach(EntryConsumer action) {
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] >= 0) {
+        action.accept((int) (keys[i] >>> 32), (int) keys[i], values[i]);
+      }
+    }
+  }
+
+  private static long key(int fst, int snd) {
+    if (fst < 0 || snd < 0) {
+      throw new IllegalArgumentException("Negative key: " + fst + ", " + snd);
+    }
+    return (long) fst << 32 | snd;
+  }
+
+  private void rehash(int capacity) {
+    var newKeys = new long[capacity];
+    var newValues = new int[capacity];
+    Arrays.fill(newKeys, EMPTY);
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] >= 0) {
+        int j = slot(newKeys, keys[i]);
+        newKeys[j] = keys[i];
+        newValues[j] = values[i];
+      }
+    }
+    keys = newKeys;
+    values = newValues;
+    used = size;
+  }
+
+  // See IntSet.slot.
+  private static int slot(long[] table, long key) {
+    int mask = table.length - 1;
+    int removed = -1;
+    for (int i = IntSet.hash((int) (key ^ key >>> 32)) & mask;; i = (i + 1) & mask) {
+      long k = table[i];
+      if (k == key) {
+        return i;
+      } else if (k == EMPTY) {
+        return removed >= 0 ? removed : i;
+      } else if (k == REMOVED && removed < 0) {
+        removed = i;
+      }
+    }
+  }
+}
@@ -0,0 +1,293 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * A set of non-negative ints, e.g. the dense IDs handed out by an
+ * {@link Indexer}.
+ *
+ * Most sets in a points-to graph are tiny, so small sets are stored inline in
+ * an array (in insertion order) and searched linearly. Once a set grows past
+ * {@link #SMALL} elements it switches to an open-addressing hash table with
+ * linear probing.
+ */
+public final class IntSet {
+  /** The largest set that is stored as a plain array. */
+  static final int SMALL = 8;
+
+  private static final int[] NONE = new int[0];
+  private static final int EMPTY = -1;
+  private static final int REMOVED = -2;
+
+  // The elements (while small), or the hash table.
+  private int[] elems = NONE;
+  private boolean hashed = false;
+  private int size = 0;
+  private int used = 0; // Occupied slots of the hash table, including removed ones.
+  private int modCount = 0;
+
+  public IntSet() {
+  }
+
+  /** Make a copy */
+  public IntSet(IntSet other) {
+    this.elems = other.elems.length == 0 ? NONE : other.elems.clone();
+    this.hashed = other.hashed;
+    this.size = other.size;
+    this.used = other.used;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public boolean contains(int x) {
+    if (x < 0) {
+      return false;
+    }
+    return hashed ? elems[slot(elems, x)] == x : indexOf(x) >= 0;
+  }
+
+  public boolean add(int x) {
+    if (x < 0) {
+      throw new IllegalArgumentException("Negative element: " + x);
+    }
+    if (!hashed) {
+      if (indexOf(x) >= 0) {
+        return false;
+      }
+      if (size < elems.length) {
+        elems[size++] = x;
+        modCount++;
+        return true;
+      }
+      if (size < SMALL) {
+        var grown = new int[Math.max(2, elems.length * 2)];
+        System.arraycopy(elems, 0, grown, 0, size);
+        grown[size++] = x;
+        elems = grown;
+        modCount++;
+        return true;
+      }
+      rehash(SMALL * 4);
+    }
+    int i = slot(elems, x);
+    if (elems[i] == x) {
+      return false;
+    }
+    if ((used + 1) * 3 > elems.length * 2) {
+      // Grow, unless most of the occupied slots are removed ones.
+      rehash(size * 3 >= elems.length ? elems.length * 2 : elems.length);
+      i = slot(elems, x);
+    }
+    if (elems[i] == EMPTY) {
+      used++;
+    }
+    elems[i] = x;
+    size++;
+    modCount++;
+    return true;
+  }
+
+  public boolean remove(int x) {
+    if (x < 0) {
+      return false;
+    }
+    if (!hashed) {
+      int i = indexOf(x);
+      if (i < 0) {
+        return false;
+      }
+      removeAt(i);
+      return true;
+    }
+    int i = slot(elems, x);
+    if (elems[i] != x) {
+      return false;
+    }
+    elems[i] = REMOVED;
+    size--;
+    modCount++;
+    return true;
+  }
+
+  public void clear() {
+    elems = NONE;
+    hashed = false;
+    size = 0;
+    used = 0;
+    modCount++;
+  }
+
+  public void addAll(IntSet other) {
+    for (var it = other.iterator(); it.hasNext();) {
+      add(it.nextInt());
+    }
+  }
+
+  public int[] toArray() {
+    var result = new int[size];
+    int n = 0;
+    for (var it = iterator(); it.hasNext();) {
+      result[n++] = it.nextInt();
+    }
+    return result;
+  }
+
+  public void forEach(IntConsumer action) {
+    for (var it = iterator(); it.hasNext();) {
+      action.accept(it.nextInt());
+    }
+  }
+
+  /**
+   * Small sets iterate in insertion order; hashed ones in table order. The
+   * iterator supports removal.
+   */
+  public PrimitiveIterator.OfInt iterator() {
+    return new PrimitiveIterator.OfInt() {
+      private int next = 0; // Index of the next element (or slot to look at).
+      private int last = -1;
+      private int expectedModCount = modCount;
+
+      @Override
+      public boolean hasNext() {
+        checkModCount();
+        if (hashed) {
+          while (next < elems.length && elems[next] < 0) {
+            next++;
+          }
+          return next < elems.length;
+        }
+        return next < size;
+      }
+
+      @Override
+      public int nextInt() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = next++;
+        return elems[last];
+      }
+
+      @Override
+      public void remove() {
+        checkModCount();
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        if (hashed) {
+          elems[last] = REMOVED;
+          size--;
+          modCount++;
+        } else {
+          removeAt(last);
+          next = last;
+        }
+        last = -1;
+        expectedModCount = modCount;
+      }
+
+      private void checkModCount() {
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+      }
+    };
+  }
+
+  private int indexOf(int x) {
+    for (int i = 0; i < size; i++) {
+      if (elems[i] == x) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void removeAt(int i) {
+    System.arraycopy(elems, i + 1, elems, i, size - i - 1);
+    size--;
+    modCount++;
+  }
+
+  private void rehash(int capacity) {
+    var table = new int[capacity];
+    Arrays.fill(table, EMPTY);
+    for (var it = iterator(); it.hasNext();) {
+      int x = it.nextInt();
+      table[slot(table, x)] = x;
+    }
+    elems = table;
+    hashed = true;
+    used = size;
+  }
+
+  // The slot holding x, or else the slot to put it in: the first removed slot
+  // on its probe sequence, or the empty slot that ends it.
+  private static int slot(int[] table, int x) {
+    int mask = table.length - 1;
+    int removed = -1;
+    for (int i = hash(x) & mask;; i = (i + 1) & mask) {
+      int y = table[i];
+      if (y == x) {
+        return i;
+      } else if (y == EMPTY) {
+        return removed >= 0 ? removed : i;
+      } else if (y == REMOVED && removed < 0) {
+        removed = i;
+      }
+    }
+  }
+
+  static int hash(int x) {
+    int h = x * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof IntSet) || ((IntSet) o).size != size) {
+      return false;
+    }
+    for (var it = ((IntSet) o).iterator(); it.hasNext();) {
+      if (!contains(it.nextInt())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = 0;
+    for (var it = iterator(); it.hasNext();) {
+      result += it.nextInt();
+    }
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    var result = new StringBuilder("[");
+    for (var it = iterator(); it.hasNext();) {
+      result.append(it.nextInt());
+      if (it.hasNext()) {
+        result.append(", ");
+      }
+    }
+    return result.append(']').toString();
+  }
+}
@@ -0,0 +1,194 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON to write and read back result files. Objects parse to
+ * (ordered) Maps, arrays to Lists, numbers to Doubles, and the rest to Strings,
+ * Booleans and null.
+ */
+public final class Json {
+  private final String text;
+  private int pos = 0;
+
+  private Json(String text) {
+    this.text = text;
+  }
+
+  public static Object parse(String text) {
+    var json = new Json(text);
+    var result = json.value();
+    json.skipSpace();
+    if (json.pos != text.length()) {
+      throw json.error("Trailing characters");
+    }
+    return result;
+  }
+
+  /** The string as a JSON string literal. */
+  public static String quote(String s) {
+    var result = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        result.append('\\').append(c);
+      } else if (c == '\n') {
+        result.append("\\n");
+      } else if (c == '\t') {
+        result.append("\\t");
+      } else if (c < 0x20) {
+        result.append(String.format("\\u%04x", (int) c));
+      } else {
+        result.append(c);
+      }
+    }
+    return result.append('"').toString();
+  }
+
+  private Object value() {
+    skipSpace();
+    if (pos >= text.length()) {
+      throw error("Unexpected end");
+    }
+    char c = text.charAt(pos);
+    if (c == '{') {
+      return object();
+    } else if (c == '[') {
+      return array();
+    } else if (c == '"') {
+      return string();
+    } else if (text.startsWith("true", pos)) {
+      pos += 4;
+      return true;
+    } else if (text.startsWith("false", pos)) {
+      pos += 5;
+      return false;
+    } else if (text.startsWith("null", pos)) {
+      pos += 4;
+      return null;
+    }
+    return number();
+  }
+
+  private Map<String, Object> object() {
+    var result = new LinkedHashMap<String, Object>();
+    expect('{');
+    if (peek() == '}') {
+      pos++;
+      return result;
+    }
+    do {
+      skipSpace();
+      var key = string();
+      expect(':');
+      result.put(key, value());
+    } while (comma());
+    expect('}');
+    return result;
+  }
+
+  private List<Object> array() {
+    var result = new ArrayList<Object>();
+    expect('[');
+    if (peek() == ']') {
+      pos++;
+      return result;
+    }
+    do {
+      result.add(value());
+    } while (comma());
+    expect(']');
+    return result;
+  }
+
+  private String string() {
+    expect('"');
+    var result = new StringBuilder();
+    while (pos < text.length() && text.charAt(pos) != '"') {
+      char c = text.charAt(pos++);
+      if (c == '\\') {
+        if (pos >= text.length()) {
+          throw error("Unexpected end");
+        }
+        char e = text.charAt(pos++);
+        switch (e) {
+        case 'n':
+          result.append('\n');
+          break;
+        case 't':
+          result.append('\t');
+          break;
+        case 'r':
+          result.append('\r');
+          break;
+        case 'b':
+          result.append('\b');
+          break;
+        case 'f':
+          result.append('\f');
+          break;
+        case 'u':
+          if (pos + 4 > text.length()) {
+            throw error("Bad escape");
+          }
+          result.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+          pos += 4;
+          break;
+        default:
+          result.append(e);
+        }
+      } else {
+        result.append(c);
+      }
+    }
+    expect('"');
+    return result.toString();
+  }
+
+  private Double number() {
+    int start = pos;
+    while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+      pos++;
+    }
+    try {
+      return Double.valueOf(text.substring(start, pos));
+    } catch (NumberFormatException e) {
+      pos = start;
+      throw error("Expected a value");
+    }
+  }
+
+  private boolean comma() {
+    if (peek() == ',') {
+      pos++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char c) {
+    if (peek() != c) {
+      throw error("Expected '" + c + "'");
+    }
+    pos++;
+  }
+
+  // The next non-space character, or 0 at the end.
+  private char peek() {
+    skipSpace();
+    return pos < text.length() ? text.charAt(pos) : 0;
+  }
+
+  private void skipSpace() {
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private IllegalArgumentException error(String message) {
+    return new IllegalArgumentException(message + " at offset " + pos);
+  }
+}
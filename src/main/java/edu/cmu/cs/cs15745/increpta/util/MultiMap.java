@@ -2,7 +2,6 @@ package edu.cmu.cs.cs15745.increpta.util;
 
 import java.util.AbstractMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -15,7 +14,7 @@ public class MultiMap<K, V> extends AbstractMap<K, Set<V>> {
   /** Make a copy */
   public MultiMap(Map<K, Set<V>> other) {
     for (var entry : other.entrySet()) {
-      map.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+      map.put(entry.getKey(), new SmallSet<>(entry.getValue()));
     }
   }
 
@@ -29,17 +28,38 @@ public class MultiMap<K, V> extends AbstractMap<K, Set<V>> {
     return map.put(key, value);
   }
 
+  // AbstractMap would look these up by iterating over the entries.
+  @Override
+  public Set<V> get(Object key) {
+    return map.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return map.containsKey(key);
+  }
+
+  @Override
+  public Set<V> remove(Object key) {
+    return map.remove(key);
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
   /**
    * Return set that, adding to which, adds to the map.
    */
   public Set<V> getSet(K key) {
-    return map.computeIfAbsent(key, unused -> new LinkedHashSet<>());
+    return map.computeIfAbsent(key, unused -> new SmallSet<>());
   }
 
   public Set<V> removeSet(K key) {
     var result = map.remove(key);
     if (result == null) {
-      return new LinkedHashSet<>();
+      return new SmallSet<>();
     }
     return result;
   }
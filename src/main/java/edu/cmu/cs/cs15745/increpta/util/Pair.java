@@ -5,6 +5,7 @@ import java.util.Objects;
 public final class Pair<T1, T2> {
   private final T1 fst;
   private final T2 snd;
+  private int hash; // Cached, as pairs are hashed far more often than created; 0 until then
 
   private Pair(T1 fst, T2 snd) {
     this.fst = Objects.requireNonNull(fst);
@@ -30,14 +31,22 @@ public final class Pair<T1, T2> {
 
   @Override
   public int hashCode() {
-    return 31 * fst.hashCode() + snd.hashCode();
+    int h = hash;
+    if (h == 0) {
+      h = 31 * fst.hashCode() + snd.hashCode();
+      hash = h;
+    }
+    return h;
   }
 
   @Override
   public boolean equals(Object o) {
+    if (this == o)
+      return true;
     if (!(o instanceof Pair<?, ?>))
       return false;
     Pair<?, ?> pair = (Pair<?, ?>) o;
-    return fst.equals(pair.fst) && snd.equals(pair.snd);
+    // Only compare the hashes if both are already cached.
+    return (hash == 0 || pair.hash == 0 || hash == pair.hash) && fst.equals(pair.fst) && snd.equals(pair.snd);
   }
 }
@@ -0,0 +1,96 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+/**
+ * An unbounded array (indexed by non-negative ints, initially all null) whose
+ * copies share structure.
+ *
+ * The elements are kept in a trie of 32-way nodes. {@link #copy} is O(1): the
+ * copy and the original share the trie, and each copies the nodes on the path
+ * to an element the first time it sets an element under them. The elements
+ * themselves are shared, so they should be immutable.
+ *
+ * @param <T> The element type.
+ */
+public final class PersistentArray<T> {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+
+  // A node of the trie. Nodes belonging to the current owner token of an array
+  // can be changed in place; the others are shared.
+  private static final class Trie {
+    final Object owner;
+    final Object[] slots;
+
+    Trie(Object owner, Object[] slots) {
+      this.owner = owner;
+      this.slots = slots;
+    }
+  }
+
+  private Object owner = new Object();
+  private Trie root = new Trie(owner, new Object[WIDTH]);
+  private int shift = 0; // BITS times the depth of the trie below the root
+
+  public PersistentArray() {
+  }
+
+  private PersistentArray(Trie root, int shift) {
+    this.root = root;
+    this.shift = shift;
+  }
+
+  /**
+   * A copy, sharing the trie. Neither array owns the shared nodes any more.
+   */
+  public PersistentArray<T> copy() {
+    owner = new Object();
+    return new PersistentArray<>(root, shift);
+  }
+
+  /** The element at the index, or null if it's never been set. */
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    if (index < 0) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    if (index >>> shift >= WIDTH) {
+      return null;
+    }
+    var node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      node = (Trie) node.slots[(index >>> level) & MASK];
+      if (node == null) {
+        return null;
+      }
+    }
+    return (T) node.slots[index & MASK];
+  }
+
+  public void set(int index, T value) {
+    if (index < 0) {
+      throw new IndexOutOfBoundsException(index);
+    }
+    while (index >>> shift >= WIDTH) {
+      var slots = new Object[WIDTH];
+      slots[0] = root;
+      root = new Trie(owner, slots);
+      shift += BITS;
+    }
+    root = editable(root);
+    var node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      int i = (index >>> level) & MASK;
+      var child = (Trie) node.slots[i];
+      child = child == null ? new Trie(owner, new Object[WIDTH]) : editable(child);
+      node.slots[i] = child;
+      node = child;
+    }
+    node.slots[index & MASK] = value;
+  }
+
+  // The node, or a copy of it that this array owns.
+  private Trie editable(Trie node) {
+    return node.owner == owner ? node : new Trie(owner, node.slots.clone());
+  }
+}
@@ -0,0 +1,229 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * A table of int sets, one per non-negative key, in which equal sets are stored
+ * only once.
+ *
+ * Each set is an immutable sorted array, hash-consed so that keys with equal
+ * sets share one array. Changing the set of a key builds a new array (or finds
+ * the existing equal one), and drops the old one once no key refers to it. A
+ * copy of the table shares all of the arrays, so copying costs time in the
+ * number of keys rather than the number of elements.
+ */
+public final class SharedIntSets {
+  private static final int[] NONE = SortedInts.NONE;
+
+  // The set of each key. Unused keys have the empty set, which isn't interned.
+  private int[][] sets = new int[16][];
+
+  // The interned sets, with the number of keys referring to each.
+  private final Map<Shared, Ref> interned;
+
+  // An interned set, compared by contents.
+  private static final class Shared {
+    final int[] elems;
+    final int hash;
+
+    Shared(int[] elems) {
+      this.elems = elems;
+      this.hash = Arrays.hashCode(elems);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Shared && ((Shared) o).hash == hash && Arrays.equals(((Shared) o).elems, elems);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static final class Ref {
+    final int[] elems;
+    int refs;
+
+    Ref(int[] elems, int refs) {
+      this.elems = elems;
+      this.refs = refs;
+    }
+  }
+
+  public SharedIntSets() {
+    Arrays.fill(sets, NONE);
+    interned = new HashMap<>();
+  }
+
+  /** Make a copy, sharing the sets. */
+  public SharedIntSets(SharedIntSets other) {
+    sets = other.sets.clone();
+    interned = new HashMap<>();
+    other.interned.forEach((shared, ref) -> interned.put(shared, new Ref(ref.elems, ref.refs)));
+  }
+
+  /**
+   * The set of the key, as a sorted array. Don't modify it.
+   */
+  public int[] get(int key) {
+    return key >= 0 && key < sets.length ? sets[key] : NONE;
+  }
+
+  public int size(int key) {
+    return get(key).length;
+  }
+
+  public boolean contains(int key, int x) {
+    return SortedInts.contains(get(key), x);
+  }
+
+  public boolean add(int key, int x) {
+    return replace(key, SortedInts.add(get(key), x));
+  }
+
+  public boolean remove(int key, int x) {
+    return replace(key, SortedInts.remove(get(key), x));
+  }
+
+  /**
+   * Add the elements (in any order, possibly repeated) to the set of the key.
+   *
+   * @return Whether the set changed.
+   */
+  public boolean addAll(int key, int[] elems) {
+    return replace(key, SortedInts.addAll(get(key), elems));
+  }
+
+  /**
+   * Make the set of the key equal to that of another key, sharing it.
+   */
+  public void copy(int from, int to) {
+    set(to, get(from));
+  }
+
+  /**
+   * Remove the elements matching the filter from the set of the key.
+   *
+   * @return Whether the set changed.
+   */
+  public boolean removeIf(int key, IntPredicate filter) {
+    return replace(key, SortedInts.removeIf(get(key), filter));
+  }
+
+  public void clear(int key) {
+    set(key, NONE);
+  }
+
+  /**
+   * Replace the set of the key with the given sorted array, if it isn't the
+   * current one. Don't modify the array afterwards.
+   *
+   * @return Whether the set changed.
+   */
+  public boolean replace(int key, int[] elems) {
+    if (elems == get(key)) {
+      return false;
+    }
+    set(key, elems);
+    return true;
+  }
+
+  // Replace the set of the key with an equal interned one, releasing the old.
+  private void set(int key, int[] elems) {
+    if (key < 0) {
+      throw new IllegalArgumentException("Negative key: " + key);
+    }
+    if (key >= sets.length) {
+      int length = sets.length;
+      sets = Arrays.copyOf(sets, Math.max(key + 1, length * 2));
+      Arrays.fill(sets, length, sets.length, NONE);
+    }
+    var old = sets[key];
+    if (old == elems) {
+      return;
+    }
+    if (elems.length > 0) {
+      var ref = interned.computeIfAbsent(new Shared(elems), shared -> new Ref(shared.elems, 0));
+      ref.refs++;
+      elems = ref.elems;
+    }
+    sets[key] = elems;
+    if (old.length > 0) {
+      var shared = new Shared(old);
+      if (--interned.get(shared).refs == 0) {
+        interned.remove(shared);
+      }
+    }
+  }
+
+  /**
+   * How much sharing saves: the elements of the sets of all keys, against the
+   * elements actually stored.
+   */
+  public Stats stats() {
+    long logical = 0;
+    long keys = 0;
+    for (var set : sets) {
+      if (set.length > 0) {
+        keys++;
+        logical += set.length;
+      }
+    }
+    long stored = 0;
+    for (var ref : interned.values()) {
+      stored += ref.elems.length;
+    }
+    return new Stats(keys, interned.size(), logical, stored);
+  }
+
+  /** Sharing statistics. */
+  public static final class Stats {
+    private final long keys;
+    private final long distinct;
+    private final long logical;
+    private final long stored;
+
+    private Stats(long keys, long distinct, long logical, long stored) {
+      this.keys = keys;
+      this.distinct = distinct;
+      this.logical = logical;
+      this.stored = stored;
+    }
+
+    /** The number of keys with non-empty sets. */
+    public long keys() {
+      return keys;
+    }
+
+    /** The number of distinct non-empty sets. */
+    public long distinct() {
+      return distinct;
+    }
+
+    /** The total size of the sets of all keys. */
+    public long logical() {
+      return logical;
+    }
+
+    /** The total size of the distinct sets. */
+    public long stored() {
+      return stored;
+    }
+
+    /** How many elements each stored element stands for (1 means no sharing). */
+    public double sharingRatio() {
+      return stored == 0 ? 1 : (double) logical / stored;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d sets (%d distinct), %d elements (%d stored, sharing ratio %.2f)", keys, distinct,
+          logical, stored, sharingRatio());
+    }
+  }
+}
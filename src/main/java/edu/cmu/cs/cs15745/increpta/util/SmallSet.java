@@ -0,0 +1,164 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An insertion-ordered set for the many sets in the analysis that only ever
+ * hold a handful of elements (successors, deltas, SCC members). Up to
+ * {@link #SMALL} elements are kept in an exactly-sized array and found by a
+ * linear scan; past that the set inflates to a {@link LinkedHashSet}, and stays
+ * inflated.
+ */
+public final class SmallSet<T> extends AbstractSet<T> {
+  /** The largest set that is stored as a plain array. */
+  static final int SMALL = 4;
+
+  private static final Object[] NONE = new Object[0];
+
+  private Object[] elems = NONE; // While small
+  private int size = 0;
+  private Set<T> large = null; // Once inflated
+  private int modCount = 0;
+
+  public SmallSet() {
+  }
+
+  public SmallSet(T elem) {
+    elems = new Object[] { elem };
+    size = 1;
+  }
+
+  /** Make a copy */
+  public SmallSet(Collection<? extends T> other) {
+    if (other.size() > SMALL) {
+      large = new LinkedHashSet<>(other);
+    } else {
+      addAll(other);
+    }
+  }
+
+  @Override
+  public int size() {
+    return large != null ? large.size() : size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return large != null ? large.contains(o) : indexOf(o) >= 0;
+  }
+
+  @Override
+  public boolean add(T t) {
+    if (large != null) {
+      return large.add(t);
+    }
+    if (indexOf(t) >= 0) {
+      return false;
+    }
+    if (size == SMALL) {
+      large = new LinkedHashSet<>(this);
+      elems = NONE;
+      size = 0;
+      return large.add(t);
+    }
+    if (size == elems.length) {
+      elems = Arrays.copyOf(elems, size == 0 ? 1 : size * 2);
+    }
+    elems[size++] = t;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (large != null) {
+      return large.remove(o);
+    }
+    int i = indexOf(o);
+    if (i < 0) {
+      return false;
+    }
+    removeAt(i);
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    if (large != null) {
+      large.clear();
+    } else {
+      elems = NONE;
+      size = 0;
+      modCount++;
+    }
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    if (large != null) {
+      return large.iterator();
+    }
+    return new Iterator<>() {
+      private int next = 0;
+      private int last = -1;
+      private int expectedModCount = modCount;
+
+      @Override
+      public boolean hasNext() {
+        checkModCount();
+        return next < size;
+      }
+
+      @SuppressWarnings("unchecked")
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        last = next++;
+        return (T) elems[last];
+      }
+
+      @Override
+      public void remove() {
+        checkModCount();
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        removeAt(last);
+        next = last;
+        last = -1;
+        expectedModCount = modCount;
+      }
+
+      private void checkModCount() {
+        if (modCount != expectedModCount || large != null) {
+          throw new ConcurrentModificationException();
+        }
+      }
+    };
+  }
+
+  private int indexOf(Object o) {
+    for (int i = 0; i < size; i++) {
+      if (Objects.equals(elems[i], o)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private void removeAt(int i) {
+    System.arraycopy(elems, i + 1, elems, i, size - i - 1);
+    elems[--size] = null;
+    modCount++;
+  }
+}
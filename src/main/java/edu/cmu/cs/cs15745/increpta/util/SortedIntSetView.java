@@ -0,0 +1,128 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of objects, as a view of the immutable sorted array of their IDs (see
+ * {@link SortedInts}) kept somewhere else. Changing the set replaces the array,
+ * so bulk operations are much cheaper than changing one element at a time, and
+ * an iterator iterates over the array it started with.
+ *
+ * @param <T> The type of element.
+ */
+public abstract class SortedIntSetView<T> extends AbstractSet<T> {
+  private final Indexer<T> indexer;
+
+  protected SortedIntSetView(Indexer<T> indexer) {
+    this.indexer = indexer;
+  }
+
+  /** The IDs of the elements, as a sorted array. Don't modify it. */
+  protected abstract int[] ids();
+
+  /**
+   * Replace the array of IDs, if it isn't the current one.
+   *
+   * @return Whether the set changed.
+   */
+  protected abstract boolean replace(int[] ids);
+
+  /** The indexer the IDs are from. */
+  protected final Indexer<T> indexer() {
+    return indexer;
+  }
+
+  @Override
+  public int size() {
+    return ids().length;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    int id = indexer.find(o);
+    return id >= 0 && SortedInts.contains(ids(), id);
+  }
+
+  @Override
+  public boolean add(T t) {
+    return replace(SortedInts.add(ids(), indexer.id(t)));
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    int id = indexer.find(o);
+    return id >= 0 && replace(SortedInts.remove(ids(), id));
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends T> ts) {
+    var ids = new int[ts.size()];
+    int n = 0;
+    for (var t : ts) {
+      ids[n++] = indexer.id(t);
+    }
+    return replace(SortedInts.addAll(ids(), ids));
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> ts) {
+    return replace(SortedInts.removeIf(ids(), id -> ts.contains(indexer.get(id))));
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> ts) {
+    return replace(SortedInts.removeIf(ids(), id -> !ts.contains(indexer.get(id))));
+  }
+
+  @Override
+  public void clear() {
+    replace(SortedInts.NONE);
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    var ids = ids();
+    return new Iterator<>() {
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < ids.length;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return indexer.get(ids[next++]);
+      }
+
+      @Override
+      public void remove() {
+        if (next == 0) {
+          throw new IllegalStateException();
+        }
+        replace(SortedInts.remove(ids(), ids[next - 1]));
+      }
+    };
+  }
+
+  /** An unmodifiable set of the given IDs. */
+  public static <T> SortedIntSetView<T> of(int[] ids, Indexer<T> indexer) {
+    return new SortedIntSetView<>(indexer) {
+      @Override
+      protected int[] ids() {
+        return ids;
+      }
+
+      @Override
+      protected boolean replace(int[] result) {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -0,0 +1,78 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Operations on int sets stored as immutable sorted arrays. Each returns the
+ * array it was given when the set doesn't change, and a new array otherwise.
+ */
+public final class SortedInts {
+  public static final int[] NONE = new int[0];
+
+  // Static utility class
+  private SortedInts() {
+  }
+
+  public static boolean contains(int[] set, int x) {
+    return Arrays.binarySearch(set, x) >= 0;
+  }
+
+  public static int[] add(int[] set, int x) {
+    int i = Arrays.binarySearch(set, x);
+    if (i >= 0) {
+      return set;
+    }
+    i = -i - 1;
+    var result = new int[set.length + 1];
+    System.arraycopy(set, 0, result, 0, i);
+    result[i] = x;
+    System.arraycopy(set, i, result, i + 1, set.length - i);
+    return result;
+  }
+
+  public static int[] remove(int[] set, int x) {
+    int i = Arrays.binarySearch(set, x);
+    if (i < 0) {
+      return set;
+    }
+    var result = new int[set.length - 1];
+    System.arraycopy(set, 0, result, 0, i);
+    System.arraycopy(set, i + 1, result, i, set.length - i - 1);
+    return result;
+  }
+
+  /** Add the elements, in any order and possibly repeated. */
+  public static int[] addAll(int[] set, int[] elems) {
+    var sorted = elems.clone();
+    Arrays.sort(sorted);
+    var result = new int[set.length + sorted.length];
+    int i = 0;
+    int j = 0;
+    int n = 0;
+    while (i < set.length || j < sorted.length) {
+      int x;
+      if (j == sorted.length || i < set.length && set[i] <= sorted[j]) {
+        x = set[i++];
+      } else {
+        x = sorted[j++];
+      }
+      if (n == 0 || result[n - 1] != x) {
+        result[n++] = x;
+      }
+    }
+    return n == set.length ? set : Arrays.copyOf(result, n);
+  }
+
+  /** Remove the elements matching the filter. */
+  public static int[] removeIf(int[] set, IntPredicate filter) {
+    var result = new int[set.length];
+    int n = 0;
+    for (int x : set) {
+      if (!filter.test(x)) {
+        result[n++] = x;
+      }
+    }
+    return n == set.length ? set : n == 0 ? NONE : Arrays.copyOf(result, n);
+  }
+}
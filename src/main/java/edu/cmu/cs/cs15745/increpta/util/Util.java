@@ -1,5 +1,6 @@
 package edu.cmu.cs.cs15745.increpta.util;
 
+import java.util.Arrays;
 import java.util.Iterator;
 
 public final class Util {
@@ -20,4 +21,161 @@ public final class Util {
     }
     return result.toString();
   }
+
+  /**
+   * Nearest-rank percentile (0 < p <= 100) of an array sorted in ascending
+   * order. Returns 0 for an empty array.
+   */
+  public static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(p / 100 * sorted.length);
+    return sorted[Math.max(0, Math.min(sorted.length, rank) - 1)];
+  }
+
+  /**
+   * Welch's t-test of whether two samples have the same mean, not assuming
+   * equal variances. Returns the two-sided p-value, or NaN if either sample has
+   * fewer than two elements.
+   */
+  public static double welchTTest(long[] a, long[] b) {
+    if (a.length < 2 || b.length < 2) {
+      return Double.NaN;
+    }
+    double meanA = mean(a);
+    double meanB = mean(b);
+    double varA = variance(a, meanA) / a.length;
+    double varB = variance(b, meanB) / b.length;
+    if (varA + varB == 0) {
+      return meanA == meanB ? 1 : 0;
+    }
+    double t = (meanA - meanB) / Math.sqrt(varA + varB);
+    double df = (varA + varB) * (varA + varB)
+        / (varA * varA / (a.length - 1) + varB * varB / (b.length - 1));
+    // P(|T| > |t|) for Student's t with df degrees of freedom.
+    return regularizedBeta(df / (df + t * t), df / 2, 0.5);
+  }
+
+  /**
+   * The two-sample quantile test (Mood's median test, at any percentile) of
+   * whether two samples, sorted in ascending order, have the same p-th
+   * percentile: the fractions of each above the percentile of both together are
+   * compared with a two-proportion z-test. Returns the two-sided p-value, or NaN
+   * if either sample is empty.
+   */
+  public static double quantileTest(long[] a, long[] b, double p) {
+    if (a.length == 0 || b.length == 0) {
+      return Double.NaN;
+    }
+    var both = new long[a.length + b.length];
+    System.arraycopy(a, 0, both, 0, a.length);
+    System.arraycopy(b, 0, both, a.length, b.length);
+    Arrays.sort(both);
+    long q = percentile(both, p);
+    double aboveA = (double) countAbove(a, q) / a.length;
+    double aboveB = (double) countAbove(b, q) / b.length;
+    double pooled = (double) countAbove(both, q) / both.length;
+    double variance = pooled * (1 - pooled) * (1.0 / a.length + 1.0 / b.length);
+    if (variance == 0) {
+      return aboveA == aboveB ? 1 : 0;
+    }
+    double z = (aboveA - aboveB) / Math.sqrt(variance);
+    return Math.min(1, erfc(Math.abs(z) / Math.sqrt(2)));
+  }
+
+  // The number of elements of the sorted array greater than x.
+  private static int countAbove(long[] sorted, long x) {
+    int lo = 0;
+    int hi = sorted.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (sorted[mid] <= x) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return sorted.length - lo;
+  }
+
+  public static double mean(long[] sample) {
+    double sum = 0;
+    for (long x : sample) {
+      sum += x;
+    }
+    return sample.length == 0 ? 0 : sum / sample.length;
+  }
+
+  // The unbiased sample variance.
+  private static double variance(long[] sample, double mean) {
+    double sum = 0;
+    for (long x : sample) {
+      sum += (x - mean) * (x - mean);
+    }
+    return sum / (sample.length - 1);
+  }
+
+  // The regularized incomplete beta function I_x(a, b), by its continued
+  // fraction (Numerical Recipes, 6.4).
+  private static double regularizedBeta(double x, double a, double b) {
+    if (x <= 0) {
+      return 0;
+    } else if (x >= 1) {
+      return 1;
+    }
+    double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b) + a * Math.log(x) + b * Math.log(1 - x));
+    if (x < (a + 1) / (a + b + 2)) {
+      return front * betaFraction(x, a, b) / a;
+    }
+    return 1 - front * betaFraction(1 - x, b, a) / b;
+  }
+
+  private static double betaFraction(double x, double a, double b) {
+    final double tiny = 1e-300;
+    double c = 1;
+    double d = 1 - (a + b) * x / (a + 1);
+    d = 1 / (Math.abs(d) < tiny ? tiny : d);
+    double result = d;
+    for (int m = 1; m <= 300; m++) {
+      for (int step = 0; step < 2; step++) {
+        double num = step == 0 ? m * (b - m) * x / ((a + 2 * m - 1) * (a + 2 * m))
+            : -(a + m) * (a + b + m) * x / ((a + 2 * m) * (a + 2 * m + 1));
+        d = 1 + num * d;
+        d = 1 / (Math.abs(d) < tiny ? tiny : d);
+        c = 1 + num / c;
+        c = Math.abs(c) < tiny ? tiny : c;
+        result *= d * c;
+        if (step == 1 && Math.abs(d * c - 1) < 1e-12) {
+          return result;
+        }
+      }
+    }
+    return result;
+  }
+
+  // The complementary error function, by its Chebyshev approximation (Numerical
+  // Recipes, 6.2), to within 1.2e-7.
+  private static double erfc(double x) {
+    double z = Math.abs(x);
+    double t = 1 / (1 + z / 2);
+    double result = t * Math.exp(-z * z - 1.26551223 + t * (1.00002368 + t * (0.37409196 + t * (0.09678418
+        + t * (-0.18628806 + t * (0.27886807 + t * (-1.13520398 + t * (1.48851587 + t * (-0.82215223
+        + t * 0.17087277)))))))));
+    return x >= 0 ? result : 2 - result;
+  }
+
+  // Lanczos approximation of log(Gamma(x)), for x > 0.
+  private static double logGamma(double x) {
+    final double[] coefficients = { 76.18009172947146, -86.50532032941677, 24.01409824083091,
+        -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+    double y = x;
+    double tmp = x + 5.5;
+    tmp -= (x + 0.5) * Math.log(tmp);
+    double series = 1.000000000190015;
+    for (double coefficient : coefficients) {
+      series += coefficient / ++y;
+    }
+    return -tmp + Math.log(2.5066282746310005 * series / x);
+  }
 }
@@ -0,0 +1,121 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+
+/**
+ * Test that the BDD-backed graph gives the same points-to sets as the explicit
+ * one, under the same edits.
+ */
+public class TestBddPointsToGraph {
+
+  @Test
+  public void testSameAsSimple() {
+    var random = new Random(15745);
+    var simple = new IncrementalPointsTo<Pair<Integer, Integer>, Pair<Integer, Integer>>(
+        new SimplePointsToGraph<>()).build();
+    var bdd = new IncrementalPointsTo<Pair<Integer, Integer>, Pair<Integer, Integer>>(
+        new BddPointsToGraph<>()).build();
+    for (int i = 0; i < 8; i++) {
+      var node = Pair.of(i, i % 3);
+      var item = Pair.of(i, i % 2);
+      simple.addPointsTo(node, item);
+      bdd.addPointsTo(node, item);
+    }
+    // Edges only go up, so that deletions never have to split SCCs.
+    for (int i = 0; i < 300; i++) {
+      int n = random.nextInt(11);
+      var from = Pair.of(n, random.nextInt(3));
+      var to = Pair.of(n + 1 + random.nextInt(11 - n), random.nextInt(3));
+      if (random.nextInt(3) == 0) {
+        Assert.assertEquals(simple.deleteEdge(from, to).isEmpty(), bdd.deleteEdge(from, to).isEmpty());
+      } else {
+        Assert.assertEquals(simple.addEdge(from, to).isEmpty(), bdd.addEdge(from, to).isEmpty());
+      }
+    }
+    Assert.assertEquals(new HashSet<>(simple.nodes()), new HashSet<>(bdd.nodes()));
+    for (var node : simple.nodes()) {
+      Assert.assertEquals(new HashSet<>(simple.edges(node)), new HashSet<>(bdd.edges(node)));
+      Assert.assertEquals(new HashSet<>(simple.pointsTo(node)), new HashSet<>(bdd.pointsTo(node)));
+    }
+  }
+
+  // Every edge and points-to set of the graph.
+  private static Map<Pair<Integer, Integer>, List<Set<?>>> contents(PointsToGraph<Pair<Integer, Integer>, ?> graph) {
+    var result = new HashMap<Pair<Integer, Integer>, List<Set<?>>>();
+    for (var node : graph.nodes()) {
+      result.put(node, List.of(new HashSet<>(graph.edges(node)), new HashSet<>(graph.pointsTo(node))));
+    }
+    return result;
+  }
+
+  // A cycle through six nodes, each pointing to its own item; then the cycle is
+  // broken up, and its nodes point elsewhere.
+  private static void before(BddPointsToGraph<Integer, Integer, Integer> graph) {
+    for (int i = 0; i < 6; i++) {
+      graph.addEdge(Pair.of(i, 0), Pair.of((i + 1) % 6, 0));
+      graph.pointsTo(Pair.of(i, 0)).add(Pair.of(i, 1));
+    }
+  }
+
+  private static void after(BddPointsToGraph<Integer, Integer, Integer> graph) {
+    for (int i = 0; i < 6; i += 2) {
+      graph.deleteEdge(Pair.of(i, 0), Pair.of(i + 1, 0));
+      graph.addEdge(Pair.of(i, 0), Pair.of(i, 2));
+      graph.pointsTo(Pair.of(i, 0)).clear();
+      graph.pointsTo(Pair.of(i + 1, 0)).add(Pair.of(i, 2));
+    }
+  }
+
+  @Test
+  public void testCloneSurvivesGc() {
+    // The same edits on two graphs, only one of which is cloned.
+    var graph = new BddPointsToGraph<Integer, Integer, Integer>();
+    var uncloned = new BddPointsToGraph<Integer, Integer, Integer>();
+    before(graph);
+    before(uncloned);
+    var clone = graph.clone();
+    var expected = contents(graph);
+    after(graph);
+    after(uncloned);
+    Assert.assertEquals(contents(uncloned), contents(graph));
+
+    // Whatever isn't referenced is collected, which mustn't touch the clone...
+    graph.gc();
+    uncloned.gc();
+    Assert.assertEquals(expected, contents(clone));
+    // ...but does keep its nodes alive, until it's released.
+    Assert.assertTrue(graph.bddSize() > uncloned.bddSize());
+    clone.release();
+    graph.gc();
+    Assert.assertEquals(uncloned.bddSize(), graph.bddSize());
+    Assert.assertEquals(contents(uncloned), contents(graph));
+    Assert.assertEquals(Set.of(), clone.nodes());
+
+    // Updates collect garbage as they need to; a clone survives that too.
+    clone = graph.clone();
+    expected = contents(graph);
+    var random = new Random(15745);
+    int collections = 0;
+    for (int i = 0; i < 5000; i++) {
+      int size = graph.bddSize();
+      var from = Pair.of(random.nextInt(1000), random.nextInt(10));
+      graph.addEdge(from, Pair.of(random.nextInt(1000), random.nextInt(10)));
+      graph.pointsTo(from).add(Pair.of(random.nextInt(1000), random.nextInt(10)));
+      if (graph.bddSize() < size) {
+        collections++;
+      }
+    }
+    Assert.assertTrue(collections > 0);
+    Assert.assertEquals(expected, contents(clone));
+  }
+}
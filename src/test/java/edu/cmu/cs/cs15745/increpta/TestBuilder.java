@@ -0,0 +1,376 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import com.ibm.wala.classLoader.IClass;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Function;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Variable;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+import edu.cmu.cs.cs15745.increpta.util.Util.Unit;
+
+/**
+ * Test the instruction-level editing API of the graph builder.
+ */
+public class TestBuilder {
+  private static final Ast.Type TYPE = new Ast.Type(null);
+
+  // main:
+  //   a = new
+  //   b = a
+  //   c = id(b)
+  // id(p):
+  //   return p
+  private final Variable a = new Variable("a");
+  private final Variable b = new Variable("b");
+  private final Variable c = new Variable("c");
+  private final Variable p = new Variable("p");
+  private final Variable idName = new Variable("id");
+  private final Instruction.Allocation alloc = new Instruction.Allocation(a, TYPE);
+  private final Instruction.Assignment copy = new Instruction.Assignment(b, a);
+  private final Instruction call = new Instruction.StaticInvocation(Optional.of(c), idName, List.of(b));
+  private Function main;
+  private Function id;
+  private IncrementalPointsToGraphBuilder<Unit> builder;
+
+  private static Function function(Variable name, List<Variable> params, Instruction... body) {
+    return new Function(name, TYPE, params, new Ast.FunctionBody(new ArrayList<>(List.of(body))),
+        Function.Staticness.STATIC);
+  }
+
+  @Before
+  public void setUp() {
+    main = function(new Variable("main"), List.of(), alloc, copy, call);
+    id = function(idName, List.of(p), new Instruction.Return(p));
+    var ast = new Ast(List.of(main, id), List.of(main));
+    builder = new IncrementalPointsToGraphBuilder<>(ast, new SimplePointsToGraphWithContext<>(), ContextBuilders.NO_CONTEXT);
+    builder.build();
+  }
+
+  private void check(Variable v, Set<Instruction.Allocation> expected) {
+    var pts = new HashSet<Instruction.Allocation>();
+    for (var item : builder.pointsTo(v, Unit.UNIT)) {
+      pts.add(item.fst());
+    }
+    Assert.assertEquals(expected, pts);
+  }
+
+  @Test
+  public void testBuild() {
+    check(a, Set.of(alloc));
+    check(b, Set.of(alloc));
+    check(p, Set.of(alloc));
+    check(c, Set.of(alloc));
+    Assert.assertEquals(Set.of(Pair.of(a, Unit.UNIT), Pair.of(b, Unit.UNIT), Pair.of(p, Unit.UNIT),
+        Pair.of(c, Unit.UNIT)), builder.pointedToBy(alloc, Unit.UNIT));
+  }
+
+  @Test
+  public void testRemoveAndAddInstruction() {
+    builder.removeInstruction(main, copy);
+    check(a, Set.of(alloc));
+    check(b, Set.of());
+    check(c, Set.of());
+
+    // Back to where we started
+    builder.addInstruction(main, 1, copy);
+    check(b, Set.of(alloc));
+    check(c, Set.of(alloc));
+    Assert.assertSame(copy, main.body().instructions().get(1));
+  }
+
+  @Test
+  public void testDuplicateInstruction() {
+    // The edge b <- a is now used by two instructions, so removing one of them
+    // mustn't remove the edge.
+    var copy2 = new Instruction.Assignment(b, a);
+    builder.addInstruction(main, copy2);
+    builder.removeInstruction(main, copy);
+    check(c, Set.of(alloc));
+    builder.removeInstruction(main, copy2);
+    check(c, Set.of());
+  }
+
+  @Test
+  public void testParallelEdgesIntoCycle() {
+    // main:
+    //   a = new
+    //   b = a
+    //   a = b
+    //   c = a
+    //   c = b
+    //
+    // a and b are one SCC, with two edges out of it into c. Removing one of them
+    // mustn't disconnect c.
+    var a2b = new Instruction.Assignment(a, b);
+    var c2a = new Instruction.Assignment(c, a);
+    var c2b = new Instruction.Assignment(c, b);
+    var f = function(new Variable("main"), List.of(), alloc, copy, a2b, c2a, c2b);
+    var builder = new IncrementalPointsToGraphBuilder<>(new Ast(List.of(f), List.of(f)),
+        new SimplePointsToGraphWithContext<>(), ContextBuilders.NO_CONTEXT);
+    builder.build();
+    Assert.assertEquals(Set.of(Pair.of(alloc, Unit.UNIT)), builder.pointsTo(c, Unit.UNIT));
+
+    builder.removeInstruction(f, c2a);
+    Assert.assertEquals(Set.of(Pair.of(alloc, Unit.UNIT)), builder.pointsTo(c, Unit.UNIT));
+    builder.removeInstruction(f, c2b);
+    Assert.assertEquals(Set.of(), builder.pointsTo(c, Unit.UNIT));
+    builder.addInstruction(f, c2a);
+    Assert.assertEquals(Set.of(Pair.of(alloc, Unit.UNIT)), builder.pointsTo(c, Unit.UNIT));
+  }
+
+  @Test
+  public void testSession() {
+    var d = new Variable("d");
+    var e = new Variable("e");
+    var alloc2 = new Instruction.Allocation(d, TYPE);
+    var call2 = new Instruction.StaticInvocation(Optional.of(e), idName, List.of(d));
+    var body = List.copyOf(main.body().instructions());
+    var callees = builder.callees(call, Unit.UNIT);
+
+    // Preview removing b = a and adding a second call to id, with a new
+    // allocation, new variables, and a new call site.
+    try (var session = builder.begin()) {
+      builder.removeInstruction(main, copy);
+      builder.addInstruction(main, alloc2);
+      builder.addInstruction(main, call2);
+      check(c, Set.of(alloc2));
+      check(e, Set.of(alloc2));
+      Assert.assertEquals(1, builder.nodes(d).size());
+      try {
+        builder.addFunction(function(new Variable("extra"), List.of()));
+        Assert.fail("Added a function in a session");
+      } catch (IllegalStateException ex) {
+        // Expected
+      }
+      Assert.assertTrue(session.isOpen());
+    }
+    Assert.assertEquals(body, main.body().instructions());
+    check(b, Set.of(alloc));
+    check(c, Set.of(alloc));
+    check(p, Set.of(alloc));
+    Assert.assertEquals(Set.of(), builder.nodes(d));
+    Assert.assertEquals(callees, builder.callees(call, Unit.UNIT));
+    Assert.assertEquals(Set.of(), builder.callees(call2, Unit.UNIT));
+
+    // The builder's tables are back in sync with the graph, so the same edits
+    // made for real (and then undone) have the same effect.
+    builder.addInstruction(main, alloc2);
+    builder.addInstruction(main, call2);
+    check(p, Set.of(alloc, alloc2));
+    check(e, Set.of(alloc, alloc2));
+    builder.removeInstruction(main, call2);
+    builder.removeInstruction(main, alloc2);
+    builder.removeInstruction(main, copy);
+    check(c, Set.of());
+    builder.addInstruction(main, 1, copy);
+    check(c, Set.of(alloc));
+
+    // Committed changes stay.
+    var session = builder.begin();
+    builder.removeInstruction(main, copy);
+    session.commit();
+    check(c, Set.of());
+    try {
+      session.rollback();
+      Assert.fail("Rolled back a committed session");
+    } catch (IllegalStateException ex) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testRemoveAndAddFunction() {
+    builder.removeFunction(id);
+    check(b, Set.of(alloc));
+    check(c, Set.of());
+    Assert.assertEquals(Set.of(), builder.contexts(id));
+
+    builder.addFunction(id);
+    check(c, Set.of(alloc));
+    Assert.assertEquals(Set.of(Unit.UNIT), builder.contexts(id));
+  }
+
+  @Test
+  public void testVirtualCallFollowsReceiver() {
+    // main:
+    //   o = new K
+    //   x = id(o)
+    //   r = x.get()
+    // K::get(this):
+    //   return this
+    //
+    // The receiver x only points to anything once id has been processed, which
+    // is after main.
+    var klass = (IClass) Proxy.newProxyInstance(IClass.class.getClassLoader(), new Class<?>[] { IClass.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "equals":
+            return proxy == args[0];
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          default:
+            return null;
+          }
+        });
+    var o = new Variable("o");
+    var x = new Variable("x");
+    var r = new Variable("r");
+    var self = new Variable("this");
+    var getName = new Variable("get");
+    var newK = new Instruction.Allocation(o, new Ast.Type(klass));
+    var get = new Function(getName, new Ast.Type(klass), List.of(self),
+        new Ast.FunctionBody(new ArrayList<>(List.of(new Instruction.Return(self)))), Function.Staticness.VIRTUAL);
+    main = function(new Variable("main"), List.of(), newK,
+        new Instruction.StaticInvocation(Optional.of(x), idName, List.of(o)),
+        new Instruction.Invocation(Optional.of(r), x, getName, List.of()));
+    var ast = new Ast(List.of(main, id, get), List.of(main));
+    builder = new IncrementalPointsToGraphBuilder<>(ast, new SimplePointsToGraphWithContext<>(), ContextBuilders.NO_CONTEXT);
+    builder.build();
+    check(r, Set.of(newK));
+    Assert.assertEquals(Set.of(Unit.UNIT), builder.contexts(get));
+
+    // Once the receiver no longer points to a K, the call goes away too.
+    builder.removeInstruction(main, newK);
+    check(x, Set.of());
+    check(self, Set.of());
+    check(r, Set.of());
+
+    builder.addInstruction(main, 0, newK);
+    check(r, Set.of(newK));
+  }
+
+  @Test
+  public void testHeapObjectFields() {
+    // main:
+    //   a = new
+    //   b = a
+    //   v = new
+    //   a.f = v
+    //   w = b.f
+    var v = new Variable("v");
+    var w = new Variable("w");
+    var field = new Variable("f");
+    var allocV = new Instruction.Allocation(v, TYPE);
+    var read = new Instruction.FieldRead(w, b, field);
+    main = function(new Variable("main"), List.of(), alloc, copy, allocV, new Instruction.FieldWrite(a, field, v), read);
+
+    // Per-variable fields don't see the store through the alias.
+    builder = new IncrementalPointsToGraphBuilder<>(new Ast(List.of(main), List.of(main)),
+        new SimplePointsToGraphWithContext<>(), ContextBuilders.NO_CONTEXT);
+    builder.build();
+    check(w, Set.of());
+
+    main = function(new Variable("main"), List.of(), alloc, copy, allocV, new Instruction.FieldWrite(a, field, v), read);
+    builder = new IncrementalPointsToGraphBuilder<>(new Ast(List.of(main), List.of(main)),
+        new SimplePointsToGraphWithContext<>(), ContextBuilders.NO_CONTEXT,
+        IncrementalPointsToGraphBuilder.FieldSensitivity.HEAP_OBJECT);
+    builder.build();
+    check(w, Set.of(allocV));
+
+    // b no longer points to the object, so the load no longer reads its field.
+    builder.removeInstruction(main, copy);
+    check(w, Set.of());
+    builder.addInstruction(main, 1, copy);
+    check(w, Set.of(allocV));
+    builder.removeInstruction(main, read);
+    check(w, Set.of());
+  }
+
+  @Test
+  public void testMemoryBudget() {
+    // main:
+    //   x = new
+    //   y = new
+    //   d = f(x)
+    //   e = g(y)
+    // f(q): r = id(q); return r
+    // g(q): r = id(q); return r
+    //
+    // With 2-call contexts, id is analyzed once for f and once for g.
+    var mainName = new Variable("main");
+    var fName = new Variable("f");
+    var gName = new Variable("g");
+    var x = new Variable("x");
+    var y = new Variable("y");
+    var d = new Variable("d");
+    var e = new Variable("e");
+    var allocX = new Instruction.Allocation(x, TYPE);
+    var allocY = new Instruction.Allocation(y, TYPE);
+    var mainFunction = function(mainName, List.of(), allocX, allocY,
+        new Instruction.StaticInvocation(Optional.of(d), fName, List.of(x)),
+        new Instruction.StaticInvocation(Optional.of(e), gName, List.of(y)));
+    var functions = new ArrayList<Function>(List.of(mainFunction, id));
+    for (var name : List.of(fName, gName)) {
+      var q = new Variable("q");
+      var r = new Variable("r");
+      functions.add(function(name, List.of(q), new Instruction.StaticInvocation(Optional.of(r), idName, List.of(q)),
+          new Instruction.Return(r)));
+    }
+    var mainContext = List.of(mainName);
+
+    var precise = new IncrementalPointsToGraphBuilder<>(new Ast(functions, List.of(mainFunction)),
+        new SimplePointsToGraphWithContext<>(), ContextBuilders.nCallContext(2));
+    precise.build();
+    Assert.assertEquals(2, precise.contexts(id).size());
+    Assert.assertEquals(Set.of(allocX), allocations(precise.pointsTo(d, mainContext)));
+    Assert.assertEquals(Map.of(), precise.degraded());
+
+    // Over budget, id's contexts are merged, and the results with them.
+    var degraded = new IncrementalPointsToGraphBuilder<>(new Ast(functions, List.of(mainFunction)),
+        new SimplePointsToGraphWithContext<>(), ContextBuilders.nCallContext(2),
+        IncrementalPointsToGraphBuilder.FieldSensitivity.VARIABLE, new IncrementalPointsToGraphBuilder.MemoryBudget(1, 1));
+    degraded.build();
+    Assert.assertEquals(Map.of(id, 1), degraded.degraded());
+    Assert.assertEquals(Set.of(List.of(idName)), degraded.contexts(id));
+    Assert.assertEquals(Set.of(allocX, allocY), allocations(degraded.pointsTo(d, mainContext)));
+    Assert.assertEquals(Set.of(allocX, allocY), allocations(degraded.pointsTo(e, mainContext)));
+  }
+
+  private static <C> Set<Instruction.Allocation> allocations(Set<Pair<Instruction.Allocation, C>> pts) {
+    var result = new HashSet<Instruction.Allocation>();
+    pts.forEach(item -> result.add(item.fst()));
+    return result;
+  }
+
+  @Test
+  public void testResolver() {
+    // Only main is loaded up front; id is loaded when the call to it is first
+    // reached, and only once.
+    var resolved = new ArrayList<Variable>();
+    var ast = new Ast(List.of(main), List.of(main), new Ast.Resolver() {
+      @Override
+      public Optional<Function> staticFunction(Variable name) {
+        resolved.add(name);
+        return name == idName ? Optional.of(id) : Optional.empty();
+      }
+
+      @Override
+      public Optional<Function> instanceMethod(IClass klass, Variable name) {
+        return Optional.empty();
+      }
+    });
+    Assert.assertEquals(Optional.empty(), ast.staticFunction(new Variable("missing")));
+    builder = new IncrementalPointsToGraphBuilder<>(ast, new SimplePointsToGraphWithContext<>(), ContextBuilders.NO_CONTEXT);
+    builder.build();
+    check(c, Set.of(alloc));
+    Assert.assertSame(id, ast.staticFunctions().get(idName));
+
+    builder.removeInstruction(main, call);
+    builder.addInstruction(main, call);
+    check(c, Set.of(alloc));
+    Assert.assertEquals(1, resolved.stream().filter(name -> name == idName).count());
+  }
+}
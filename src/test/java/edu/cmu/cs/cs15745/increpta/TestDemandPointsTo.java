@@ -0,0 +1,123 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import com.ibm.wala.classLoader.IClass;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Function;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Variable;
+
+/**
+ * Test demand-driven queries against the exhaustive graph.
+ */
+public class TestDemandPointsTo {
+  private static final Ast.Type TYPE = new Ast.Type(null);
+
+  // main:
+  //   a = new
+  //   b = new
+  //   a.f = b
+  //   c = a.f
+  //   d = id(c)
+  //   e = id(a)
+  // id(p):
+  //   return p
+  private final Variable a = new Variable("a");
+  private final Variable b = new Variable("b");
+  private final Variable c = new Variable("c");
+  private final Variable d = new Variable("d");
+  private final Variable e = new Variable("e");
+  private final Variable p = new Variable("p");
+  private final Variable f = new Variable("f");
+  private final Variable idName = new Variable("id");
+  private final Instruction.Allocation allocA = new Instruction.Allocation(a, TYPE);
+  private final Instruction.Allocation allocB = new Instruction.Allocation(b, TYPE);
+  private Ast ast;
+
+  @Before
+  public void setUp() {
+    var main = new Function(new Variable("main"), TYPE, List.of(), new Ast.FunctionBody(new ArrayList<>(List.of(
+        allocA, allocB, new Instruction.FieldWrite(a, f, b), new Instruction.FieldRead(c, a, f),
+        new Instruction.StaticInvocation(Optional.of(d), idName, List.of(c)),
+        new Instruction.StaticInvocation(Optional.of(e), idName, List.of(a))))), Function.Staticness.STATIC);
+    var id = new Function(idName, TYPE, List.of(p), new Ast.FunctionBody(new ArrayList<>(List.of(new Instruction.Return(p)))),
+        Function.Staticness.STATIC);
+    ast = new Ast(List.of(main, id), List.of(main));
+  }
+
+  private DemandPointsTo demand(int budget) {
+    return new DemandPointsTo(ast, budget, new IncrementalPointsToGraphBuilder<>(ast,
+        new SimplePointsToGraphWithContext<>(), ContextBuilders.NO_CONTEXT));
+  }
+
+  @Test
+  public void testOnDemand() {
+    var demand = demand(1000);
+    Assert.assertEquals(Set.of(allocB), demand.pointsTo(c));
+    // Context-insensitive: both calls to id flow into both targets.
+    Assert.assertEquals(Set.of(allocA, allocB), demand.pointsTo(d));
+    Assert.assertEquals(Set.of(allocA, allocB), demand.pointsTo(e));
+    Assert.assertEquals(3, demand.demandQueries());
+    Assert.assertEquals(0, demand.exhaustiveQueries());
+  }
+
+  @Test
+  public void testBudget() {
+    var demand = demand(1);
+    Assert.assertEquals(Set.of(allocA, allocB), demand.pointsTo(d));
+    Assert.assertEquals(0, demand.demandQueries());
+    Assert.assertEquals(1, demand.exhaustiveQueries());
+
+    // The next query picks up where the last one stopped.
+    for (int i = 0; i < 100 && demand.demandQueries() == 0; i++) {
+      demand.pointsTo(d);
+    }
+    Assert.assertEquals(Set.of(allocA, allocB), demand.pointsTo(d));
+    Assert.assertTrue(demand.demandQueries() > 0);
+  }
+
+  @Test
+  public void testLoadedOnDemand() {
+    // The same program, but id is only loaded when the first call to it is
+    // resolved, after the first query indexed the Ast.
+    var main = ast.entryPoints().get(0);
+    var id = ast.staticFunction(idName).get();
+    ast = new Ast(List.of(main), List.of(main), new Ast.Resolver() {
+      @Override
+      public Optional<Function> staticFunction(Variable name) {
+        return name == idName ? Optional.of(id) : Optional.empty();
+      }
+
+      @Override
+      public Optional<Function> instanceMethod(IClass klass, Variable name) {
+        return Optional.empty();
+      }
+    });
+    var demand = demand(1000);
+    Assert.assertEquals(Set.of(allocA, allocB), demand.pointsTo(d));
+    Assert.assertEquals(Set.of(allocA, allocB), demand.pointsTo(p));
+    Assert.assertEquals(2, demand.demandQueries());
+  }
+
+  @Test
+  public void testOnlyVariableFields() {
+    // Demand queries don't follow aliases into fields of heap objects.
+    try {
+      new DemandPointsTo(ast, 1000, new IncrementalPointsToGraphBuilder<>(ast,
+          new SimplePointsToGraphWithContext<>(), ContextBuilders.NO_CONTEXT,
+          IncrementalPointsToGraphBuilder.FieldSensitivity.HEAP_OBJECT));
+      Assert.fail("Accepted a builder with heap object fields");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.util.HashMap;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.TestSCCs.HeapItem;
+import edu.cmu.cs.cs15745.increpta.TestSCCs.Node;
+
+/**
+ * Test that the oracle agrees with correct updates, and catches wrong ones.
+ */
+public class TestDifferentialOracle {
+
+  @Test
+  public void testOracle() {
+    // A -> B -> C <-> D, E -> D
+    var graph = new SimplePointsToGraph<Node, HeapItem>();
+    var pag = new IncrementalPointsTo<>(graph).build();
+    pag.addPointsTo(Node.A, HeapItem.A);
+    pag.addPointsTo(Node.E, HeapItem.E);
+    var oracle = new DifferentialOracle<>(pag, 1, 100, 2, 0);
+    oracle.check(pag.addEdge(Node.A, Node.B));
+    oracle.check(pag.addEdge(Node.B, Node.C));
+    oracle.check(pag.addEdge(Node.C, Node.D));
+    oracle.check(pag.addEdge(Node.D, Node.C));
+    oracle.check(pag.addEdge(Node.E, Node.D));
+    oracle.check(pag.deleteEdge(Node.A, Node.B));
+
+    // B has no predecessors now, and no facts, so its (corrupted) set is wrong,
+    // and C's still right.
+    graph.pointsTo(Node.B).add(HeapItem.Z);
+    oracle.check(Set.of(Node.B, Node.C));
+    graph.pointsTo(Node.B).remove(HeapItem.Z);
+
+    // An edit rolled back is rolled back in the oracle's copy of the edges too.
+    try (var session = pag.begin()) {
+      oracle.check(pag.deleteEdge(Node.E, Node.D));
+      session.rollback();
+    }
+    oracle.check(pag.deletePointsTo(Node.A, HeapItem.A));
+    Assert.assertEquals(Set.of(), pag.facts(Node.A));
+    Assert.assertEquals(Set.of(HeapItem.E), pag.facts(Node.E));
+
+    // The graph loses the edge E -> D (as when it forgets an edge between two
+    // connected SCCs, and then the other edges between them go), so the set of
+    // C's SCC loses E, and the oracle still has the edge.
+    graph.deleteEdge(Node.E, Node.D);
+    graph.pointsTo(pag.representative(Node.C)).remove(HeapItem.E);
+    oracle.check(Set.of(Node.C));
+    oracle.close();
+
+    Assert.assertEquals(10, oracle.checked());
+    Assert.assertEquals(0, oracle.skipped());
+    var mismatches = new HashMap<Node, DifferentialOracle.Mismatch<Node, HeapItem>>();
+    oracle.mismatches().forEach(mismatch -> Assert.assertNull(mismatches.put(mismatch.node(), mismatch)));
+    Assert.assertEquals(Set.of(Node.B, Node.C), mismatches.keySet());
+    Assert.assertEquals(Set.of(), mismatches.get(Node.B).expected());
+    Assert.assertEquals(Set.of(HeapItem.Z), mismatches.get(Node.B).actual());
+    Assert.assertEquals(Set.of(HeapItem.E), mismatches.get(Node.C).expected());
+    Assert.assertEquals(Set.of(), mismatches.get(Node.C).actual());
+  }
+}
@@ -1,6 +1,7 @@
 package edu.cmu.cs.cs15745.increpta;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -261,4 +262,181 @@ public class TestPTA {
           Map.entry(Node.L, Set.of(HeapItem.B))));
     }
   }
+
+  @Test
+  public void testAliasQueries() {
+    var p = TestSCCs.of(
+      Map.of(
+        Node.A, Set.of(Node.B),
+        Node.C, Set.of(Node.D),
+        Node.D, Set.of(Node.E)),
+      Map.of(
+        Node.A, HeapItem.A,
+        Node.C, HeapItem.C));
+    var pag = p.snd();
+    var aliases = new AliasQueries<>(pag);
+    Assert.assertFalse(aliases.mayAlias(Node.B, Node.E));
+    Assert.assertFalse(aliases.mayAlias(Node.E, Node.B));
+    Assert.assertTrue(aliases.mayAlias(Node.C, Node.E));
+    Assert.assertEquals(1, aliases.hits());
+
+    aliases.invalidate(pag.addEdge(Node.B, Node.D));
+    Assert.assertTrue(aliases.mayAlias(Node.B, Node.E));
+
+    // Merging D and E into one SCC doesn't change their points-to sets, but
+    // results for E must now be found under the new representative.
+    aliases.invalidate(pag.addEdge(Node.E, Node.D));
+    Assert.assertTrue(aliases.mayAlias(Node.A, Node.E));
+    aliases.invalidate(pag.deleteEdge(Node.B, Node.D));
+    Assert.assertFalse(aliases.mayAlias(Node.A, Node.E));
+    Assert.assertFalse(aliases.mayAlias(Node.B, Node.D));
+  }
+
+  @Test
+  public void testReverseIndex() {
+    var p = TestSCCs.of(
+      Map.of(
+        Node.A, Set.of(Node.B),
+        Node.B, Set.of(Node.C),
+        Node.D, Set.of(Node.C)),
+      Map.of(
+        Node.A, HeapItem.A,
+        Node.D, HeapItem.D));
+    var pag = p.snd();
+    Assert.assertEquals(Set.of(Node.A, Node.B, Node.C), pag.pointedToBy(HeapItem.A));
+    Assert.assertEquals(Set.of(Node.D, Node.C), pag.pointedToBy(HeapItem.D));
+
+    // Merge B and C, then split them again.
+    pag.addEdge(Node.C, Node.B);
+    pag.checkInvariant();
+    Assert.assertEquals(Set.of(Node.A, Node.B, Node.C), pag.pointedToBy(HeapItem.A));
+    Assert.assertEquals(Set.of(Node.D, Node.B, Node.C), pag.pointedToBy(HeapItem.D));
+    pag.deleteEdge(Node.C, Node.B);
+    pag.checkInvariant();
+    Assert.assertEquals(Set.of(Node.D, Node.C), pag.pointedToBy(HeapItem.D));
+
+    pag.deleteEdge(Node.A, Node.B);
+    pag.checkInvariant();
+    Assert.assertEquals(Set.of(Node.A), pag.pointedToBy(HeapItem.A));
+    pag.deletePointsTo(Node.D, HeapItem.D);
+    pag.checkInvariant();
+    Assert.assertEquals(Set.of(), pag.pointedToBy(HeapItem.D));
+  }
+
+  @Test
+  public void testCheckTouched() {
+    // A -> B -> C, D -> E
+    var graph = new SimplePointsToGraph<Node, HeapItem>();
+    var pag = new IncrementalPointsTo<>(graph).build();
+    pag.addPointsTo(Node.A, HeapItem.A);
+    pag.addPointsTo(Node.D, HeapItem.D);
+    pag.addEdge(Node.A, Node.B);
+    pag.addEdge(Node.B, Node.C);
+    pag.addEdge(Node.D, Node.E);
+    pag.checkTouched(0); // Checks everything
+
+    // Corrupting a node that the next update doesn't touch goes unnoticed...
+    graph.pointsTo(Node.E).add(HeapItem.A);
+    pag.deleteEdge(Node.B, Node.C);
+    pag.checkTouched(0);
+
+    // ...until the sweep gets to it.
+    try {
+      pag.checkTouched(5);
+      Assert.fail("E was corrupted");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+    graph.pointsTo(Node.E).remove(HeapItem.A);
+
+    // A node touched by an update is checked right away.
+    pag.checkTouched(0);
+    graph.pointsTo(Node.C).add(HeapItem.D);
+    pag.addEdge(Node.B, Node.C);
+    try {
+      pag.checkTouched(0);
+      Assert.fail("C was corrupted");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
+
+  // Everything a client can ask the graph about its nodes.
+  private static Map<Node, List<Object>> snapshot(IncrementalPointsTo<Node, HeapItem>.Graph pag) {
+    var result = new HashMap<Node, List<Object>>();
+    for (var node : Node.values()) {
+      result.put(node, List.of(Set.copyOf(pag.edges(node)), Set.copyOf(pag.pointsTo(node)),
+          pag.representative(node), Set.copyOf(pag.members(node)), Set.copyOf(pag.predecessors(node)),
+          Set.copyOf(pag.pointedToBy(HeapItem.valueOf(node.name())))));
+    }
+    return result;
+  }
+
+  @Test
+  public void testSession() {
+    // A -> B -> C -> D, E -> D
+    var p = TestSCCs.of(
+      Map.of(
+        Node.A, Set.of(Node.B),
+        Node.B, Set.of(Node.C),
+        Node.C, Set.of(Node.D),
+        Node.E, Set.of(Node.D)),
+      Map.of(
+        Node.A, HeapItem.A,
+        Node.E, HeapItem.E));
+    var pag = p.snd();
+    pag.checkTouched(0);
+
+    // A listener that mirrors the points-to sets.
+    var mirror = new HashMap<Node, Set<HeapItem>>();
+    for (var node : Node.values()) {
+      mirror.put(node, new HashSet<>(pag.pointsTo(node)));
+    }
+    pag.addListener(new IncrementalPointsTo.Listener<>() {
+      @Override
+      public void added(Set<Node> nodes, Set<HeapItem> delta) {
+        nodes.forEach(node -> mirror.get(node).addAll(delta));
+      }
+
+      @Override
+      public void removed(Set<Node> nodes, Set<HeapItem> delta) {
+        nodes.forEach(node -> mirror.get(node).removeAll(delta));
+      }
+    });
+
+    var before = snapshot(pag);
+    try (var session = pag.begin()) {
+      // Merge B, C and D, split them again, and add some new nodes.
+      pag.addEdge(Node.D, Node.B);
+      pag.addEdge(Node.F, Node.G);
+      pag.addPointsTo(Node.F, HeapItem.F);
+      pag.addEdge(Node.G, Node.B);
+      Assert.assertEquals(Set.of(Node.B, Node.C, Node.D), pag.members(Node.C));
+      pag.deleteEdge(Node.C, Node.D);
+      pag.deleteEdge(Node.E, Node.D);
+      pag.addPointsTo(Node.B, HeapItem.B);
+      Assert.assertEquals(Set.of(HeapItem.A, HeapItem.B, HeapItem.F), pag.pointsTo(Node.C));
+      Assert.assertTrue(session.isOpen());
+    }
+    Assert.assertEquals(before, snapshot(pag));
+    pag.checkInvariant();
+    for (var node : Node.values()) {
+      Assert.assertEquals(Set.copyOf(pag.pointsTo(node)), mirror.get(node));
+    }
+
+    // Committed changes stay.
+    var session = pag.begin();
+    pag.addEdge(Node.D, Node.B);
+    session.commit();
+    Assert.assertFalse(session.isOpen());
+    Assert.assertEquals(Set.of(Node.B, Node.C, Node.D), pag.members(Node.C));
+    Assert.assertEquals(Set.of(HeapItem.A, HeapItem.E), pag.pointsTo(Node.B));
+    pag.checkTouched(0);
+    try {
+      session.rollback();
+      Assert.fail("Rolled back a committed session");
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+  }
 }
@@ -0,0 +1,95 @@
+package edu.cmu.cs.cs15745.increpta;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that the persistent graph gives the same points-to sets as the explicit
+ * one as cycles are made and split, and that its clones don't see later edits.
+ */
+public class TestPersistentPointsToGraph {
+  private final IncrementalPointsTo<Integer, Integer>.Graph simple =
+      new IncrementalPointsTo<Integer, Integer>(new SimplePointsToGraph<>()).build();
+  private final IncrementalPointsTo<Integer, Integer>.Graph persistent =
+      new IncrementalPointsTo<Integer, Integer>(new PersistentPointsToGraph<>()).build();
+
+  private static void assertSameGraph(PointsToGraph<Integer, Integer> expected,
+      PointsToGraph<Integer, Integer> actual) {
+    Assert.assertEquals(new HashSet<>(expected.nodes()), new HashSet<>(actual.nodes()));
+    for (var node : expected.nodes()) {
+      Assert.assertEquals(new HashSet<>(expected.edges(node)), new HashSet<>(actual.edges(node)));
+      Assert.assertEquals(new HashSet<>(expected.pointsTo(node)), new HashSet<>(actual.pointsTo(node)));
+    }
+  }
+
+  // Make the same edit to both graphs, which must change the same nodes.
+  private void addEdge(int from, int to) {
+    Assert.assertEquals(simple.addEdge(from, to), persistent.addEdge(from, to));
+  }
+
+  private void deleteEdge(int from, int to) {
+    Assert.assertEquals(simple.deleteEdge(from, to), persistent.deleteEdge(from, to));
+  }
+
+  private Set<Integer> pointsTo(int node) {
+    return new HashSet<>(persistent.pointsTo(node));
+  }
+
+  @Test
+  public void testCyclesSplitAcrossClones() {
+    // Rings 0 -> 1 -> 2 -> 3 -> 4 -> 0 and 10 -> ... -> 14 -> 10, with a chord
+    // 4 -> 2 in the first, and 4 -> 10 between them. The ring's number flows
+    // into the first node of each ring, from an allocation site (with no
+    // predecessors, as deletePointsTo expects) 100 more than it.
+    for (int ring = 0; ring < 2; ring++) {
+      int first = 10 * ring;
+      for (int i = 0; i < 5; i++) {
+        addEdge(first + i, first + (i + 1) % 5);
+      }
+      Assert.assertEquals(simple.addPointsTo(100 + first, ring), persistent.addPointsTo(100 + first, ring));
+      addEdge(100 + first, first);
+    }
+    addEdge(4, 2);
+    addEdge(4, 10);
+    assertSameGraph(simple, persistent);
+    Assert.assertEquals(Set.of(10, 11, 12, 13, 14), persistent.members(12));
+    Assert.assertEquals(Set.of(0, 1), pointsTo(12));
+
+    var simpleCycles = simple.clone();
+    var persistentCycles = persistent.clone();
+    assertSameGraph(simpleCycles, persistentCycles);
+
+    // Split the first ring, leaving the cycle 2 -> 3 -> 4 -> 2, and the second
+    // ring altogether.
+    deleteEdge(1, 2);
+    deleteEdge(12, 13);
+    assertSameGraph(simple, persistent);
+    Assert.assertEquals(Set.of(2, 3, 4), persistent.members(3));
+    Assert.assertEquals(Set.of(12), persistent.members(12));
+    Assert.assertEquals(Set.of(), pointsTo(2));
+    Assert.assertEquals(Set.of(), pointsTo(13));
+    Assert.assertEquals(Set.of(1), pointsTo(12));
+
+    // The clones from before the split still have the cycles' sets, and the
+    // clones from after it have the split ones.
+    assertSameGraph(simpleCycles, persistentCycles);
+    Assert.assertEquals(Set.of(0, 1), new HashSet<>(persistentCycles.pointsTo(13)));
+    var simpleSplit = simple.clone();
+    var persistentSplit = persistent.clone();
+    assertSameGraph(simpleSplit, persistentSplit);
+
+    // Close the rings again, and give the nodes of a cycle a new item.
+    addEdge(1, 2);
+    addEdge(12, 13);
+    Assert.assertEquals(simple.addPointsTo(103, 3), persistent.addPointsTo(103, 3));
+    addEdge(103, 3);
+    assertSameGraph(simple, persistent);
+    Assert.assertEquals(Set.of(0, 1, 3), pointsTo(13));
+    assertSameGraph(simpleCycles, persistentCycles);
+    assertSameGraph(simpleSplit, persistentSplit);
+    Assert.assertEquals(Set.of(), new HashSet<>(persistentSplit.pointsTo(13)));
+  }
+}
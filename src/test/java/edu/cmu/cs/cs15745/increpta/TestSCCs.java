@@ -29,7 +29,7 @@ public class TestSCCs {
     var builder = new IncrementalPointsTo<N, H>(new SimplePointsToGraph<>());
     var pta = builder.build();
     for (var entry : pointsTo.entrySet()) {
-      pta.pointsTo(entry.getKey()).add(entry.getValue());
+      pta.addPointsTo(entry.getKey(), entry.getValue());
     }
     for (var entry : graph.entrySet()) {
       var v1 = entry.getKey();
@@ -0,0 +1,235 @@
+package edu.cmu.cs.cs15745.increpta.ast;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.ContextBuilders;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder;
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Function;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Variable;
+import edu.cmu.cs.cs15745.increpta.util.Util.Unit;
+
+/**
+ * Test that packing an Ast loses nothing.
+ */
+public class TestPackedAst {
+  private static final Ast.Type TYPE = new Ast.Type(null);
+
+  // Print instructions, except for the types of allocations.
+  private static final Instruction.Visitor<String> PRINT = new Instruction.Visitor<>() {
+    @Override
+    public String visitAssignment(Instruction.Assignment i) {
+      return i.toString();
+    }
+
+    @Override
+    public String visitAllocation(Instruction.Allocation i) {
+      return i.target() + " = new";
+    }
+
+    @Override
+    public String visitFieldWrite(Instruction.FieldWrite i) {
+      return i.toString();
+    }
+
+    @Override
+    public String visitFieldRead(Instruction.FieldRead i) {
+      return i.toString();
+    }
+
+    @Override
+    public String visitStaticInvocation(Instruction.StaticInvocation i) {
+      return i.toString();
+    }
+
+    @Override
+    public String visitInvocation(Instruction.Invocation i) {
+      return i.toString();
+    }
+
+    @Override
+    public String visitReturn(Instruction.Return i) {
+      return i.toString();
+    }
+  };
+
+  // The target of allocations.
+  private static final Instruction.Visitor<Variable> TARGET = new Instruction.Visitor<>() {
+    @Override
+    public Variable visitAssignment(Instruction.Assignment i) {
+      return null;
+    }
+
+    @Override
+    public Variable visitAllocation(Instruction.Allocation i) {
+      return i.target();
+    }
+
+    @Override
+    public Variable visitFieldWrite(Instruction.FieldWrite i) {
+      return null;
+    }
+
+    @Override
+    public Variable visitFieldRead(Instruction.FieldRead i) {
+      return null;
+    }
+
+    @Override
+    public Variable visitStaticInvocation(Instruction.StaticInvocation i) {
+      return null;
+    }
+
+    @Override
+    public Variable visitInvocation(Instruction.Invocation i) {
+      return null;
+    }
+
+    @Override
+    public Variable visitReturn(Instruction.Return i) {
+      return null;
+    }
+  };
+
+  private static Function function(Variable name, List<Variable> params, Instruction... body) {
+    return new Function(name, TYPE, params, new Ast.FunctionBody(new ArrayList<>(List.of(body))),
+        Function.Staticness.STATIC);
+  }
+
+  // main:
+  //   a = new
+  //   b = new
+  //   a.f = b
+  //   1 = a.f
+  //   c = id(1)
+  //   id()
+  // id(p):
+  //   return p
+  // unused():
+  //   1 = new
+  @Test
+  public void testPackAndUnpack() {
+    var a = new Variable("a");
+    var b = new Variable("b");
+    var c = new Variable("c");
+    var d = new Variable("1");
+    var p = new Variable("p");
+    var f = new Variable("f");
+    var idName = new Variable("id");
+    var unusedName = new Variable("unused");
+    var main = function(new Variable("main"), List.of(), new Instruction.Allocation(a, TYPE),
+        new Instruction.Allocation(b, TYPE), new Instruction.FieldWrite(a, f, b), new Instruction.FieldRead(d, a, f),
+        new Instruction.StaticInvocation(Optional.of(c), idName, List.of(d)),
+        new Instruction.StaticInvocation(Optional.empty(), idName, List.of()));
+    var id = function(idName, List.of(p), new Instruction.Return(p));
+    var unused = function(unusedName, List.of(), new Instruction.Allocation(new Variable("1"), TYPE));
+    var packed = new PackedAst(new Ast(List.of(main, id, unused), List.of(main)));
+    Assert.assertEquals(3, packed.functions());
+    Assert.assertEquals(6, packed.size(0));
+    var expected = new ArrayList<String>();
+    main.body().instructions().forEach(inst -> expected.add(inst.accept(PRINT)));
+    Assert.assertEquals(expected, packed.accept(0, PRINT));
+
+    // Only the functions the builder reaches are rebuilt.
+    var ast = packed.ast();
+    var builder = new IncrementalPointsToGraphBuilder<>(ast, new SimplePointsToGraphWithContext<>(),
+        ContextBuilders.NO_CONTEXT);
+    builder.build();
+    Assert.assertEquals(2, packed.unpackedCount());
+    var newMain = ast.entryPoints().get(0);
+    var newC = ((Instruction.StaticInvocation) newMain.body().instructions().get(4)).target().get();
+    var allocB = newMain.body().instructions().get(1);
+    var pts = new HashSet<Instruction>();
+    builder.pointsTo(newC, Unit.UNIT).forEach(item -> pts.add(item.fst()));
+    Assert.assertEquals(Set.of(allocB), pts);
+
+    // Variables keep their identity.
+    var newId = ast.staticFunction(((Instruction.StaticInvocation) newMain.body().instructions().get(5)).method());
+    Assert.assertTrue(newId.isPresent());
+    Assert.assertSame(newId.get().params().get(0), ((Instruction.Return) newId.get().body().instructions().get(0))
+        .returned());
+    var newD = ((Instruction.FieldRead) newMain.body().instructions().get(3)).target();
+    var unusedTarget = ((Instruction.Allocation) packed.unpack().staticFunctions().values().stream()
+        .filter(g -> g.name().name().equals("unused")).findFirst().get().body().instructions().get(0)).target();
+    Assert.assertEquals("1", unusedTarget.name());
+    Assert.assertNotSame(newD, unusedTarget);
+  }
+
+  // main:
+  //   a = new
+  //   b = a
+  //   a.f = b
+  //   c = id(b, a)
+  //   return c
+  @Test
+  public void testVisitInPlace() {
+    var a = new Variable("a");
+    var b = new Variable("b");
+    var c = new Variable("c");
+    var f = new Variable("f");
+    var main = function(new Variable("main"), List.of(), new Instruction.Allocation(a, TYPE),
+        new Instruction.Assignment(b, a), new Instruction.FieldWrite(a, f, b),
+        new Instruction.StaticInvocation(Optional.of(c), new Variable("id"), List.of(b, a)), new Instruction.Return(c));
+    var packed = new PackedAst(new Ast(List.of(main), List.of(main)));
+
+    var visited = new ArrayList<String>();
+    packed.accept(0, new PackedAst.CodeVisitor() {
+      @Override
+      public void visitAssignment(int target, int source) {
+        visited.add(packed.name(target) + " = " + packed.name(source));
+      }
+
+      @Override
+      public void visitAllocation(int target, int type) {
+        Assert.assertSame(TYPE, packed.type(type));
+        visited.add(packed.name(target) + " = new");
+      }
+
+      @Override
+      public void visitFieldWrite(int target, int field, int source) {
+        visited.add(packed.name(target) + "." + packed.name(field) + " = " + packed.name(source));
+      }
+
+      @Override
+      public void visitFieldRead(int target, int source, int field) {
+        visited.add(packed.name(target) + " = " + packed.name(source) + "." + packed.name(field));
+      }
+
+      @Override
+      public void visitStaticInvocation(int target, int method, PackedAst.Arguments arguments) {
+        var args = new ArrayList<String>();
+        for (int i = 0; i < arguments.size(); i++) {
+          args.add(packed.name(arguments.get(i)));
+        }
+        visited.add((target == PackedAst.NONE ? "" : packed.name(target) + " = ") + packed.name(method) + args);
+      }
+
+      @Override
+      public void visitInvocation(int target, int source, int method, PackedAst.Arguments arguments) {
+        Assert.fail("No virtual calls");
+      }
+
+      @Override
+      public void visitReturn(int returned) {
+        visited.add("return " + packed.name(returned));
+      }
+    });
+    Assert.assertEquals(List.of("a = new", "b = a", "a.f = b", "c = id[b, a]", "return c"), visited);
+    Assert.assertEquals(0, packed.unpackedCount());
+
+    // Visiting as objects doesn't keep the variables it rebuilds, but does share
+    // those of rebuilt functions.
+    var first = packed.accept(0, TARGET).get(0);
+    Assert.assertNotSame(first, packed.accept(0, TARGET).get(0));
+    var rebuilt = ((Instruction.Allocation) packed.ast().entryPoints().get(0).body().instructions().get(0)).target();
+    Assert.assertSame(rebuilt, packed.accept(0, TARGET).get(0));
+  }
+}
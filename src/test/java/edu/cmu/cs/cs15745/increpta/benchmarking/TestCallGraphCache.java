@@ -0,0 +1,66 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.AstNames;
+
+/**
+ * Test that a warm run, from the call graph cache, converts the same program
+ * as a cold one, including the functions of synthetic methods.
+ */
+public class TestCallGraphCache {
+  // The body of each function, by key, and the keys of the entry points.
+  private static Map<String, List<String>> program(Ast ast) {
+    var functions = new ArrayList<Ast.Function>(ast.staticFunctions().values());
+    functions.addAll(ast.instanceMethods().values());
+    var result = new TreeMap<String, List<String>>();
+    for (var f : functions) {
+      result.put(AstNames.key(f),
+          f.body().instructions().stream().map(EditTrace::encode).collect(Collectors.toList()));
+    }
+    result.put("entry points", ast.entryPoints().stream().map(AstNames::key).sorted().collect(Collectors.toList()));
+    return result;
+  }
+
+  private static Ast ast(Path directory) {
+    return new Benchmarker(TestInfo.SCOPE_FILE, "exclusions.txt", directory).getAst(TestInfo.TEST_CLONE);
+  }
+
+  @Test
+  public void testWarmSameAsCold() throws IOException {
+    var directory = Files.createTempDirectory("callgraph-cache");
+    try {
+      var cold = program(ast(directory));
+      List<Path> entries;
+      try (var files = Files.list(directory)) {
+        entries = files.collect(Collectors.toList());
+      }
+      Assert.assertEquals(1, entries.size());
+      // The fake root, at least, is synthetic.
+      Assert.assertTrue(Files.readAllLines(entries.get(0), StandardCharsets.UTF_8).stream()
+          .anyMatch(line -> line.startsWith("synthetic\t")));
+
+      var warm = program(ast(directory));
+      Assert.assertEquals(cold, warm);
+    } finally {
+      try (var files = Files.list(directory)) {
+        for (var file : files.collect(Collectors.toList())) {
+          Files.delete(file);
+        }
+      }
+      Files.delete(directory);
+    }
+  }
+}
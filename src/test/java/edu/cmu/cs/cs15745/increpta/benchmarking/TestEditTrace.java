@@ -0,0 +1,183 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.types.TypeName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.ContextBuilders;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder;
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Function;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Variable;
+import edu.cmu.cs.cs15745.increpta.ast.AstNames;
+
+/**
+ * Test the text format of edit traces, recording traces from two versions of a
+ * program, and replaying them.
+ */
+public class TestEditTrace {
+  private static final Ast.Type TYPE = type("LMain");
+
+  // A type whose class has a name, so that it can be written to traces.
+  static Ast.Type type(String name) {
+    var klass = (IClass) Proxy.newProxyInstance(IClass.class.getClassLoader(), new Class<?>[] { IClass.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "getName":
+            return TypeName.string2TypeName(name);
+          case "equals":
+            return proxy == args[0];
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          default:
+            return null;
+          }
+        });
+    return new Ast.Type(klass);
+  }
+
+  // Each version of the program has its own variables, shared by name.
+  private static final class Program {
+    final Variable a = new Variable("a");
+    final Variable b = new Variable("b");
+    final Variable c = new Variable("c");
+    final Variable f = new Variable("f");
+    final Variable p = new Variable("p");
+    final Variable idName = new Variable("id");
+    final Function main;
+    final Function id;
+    final Ast ast;
+
+    Program(List<Function> extra, Instruction... body) {
+      main = function(new Variable("main"), List.of(), body);
+      id = function(idName, List.of(p), new Instruction.Return(p));
+      var functions = new ArrayList<>(List.of(main, id));
+      functions.addAll(extra);
+      ast = new Ast(functions, List.of(main));
+    }
+
+    Program(Instruction... body) {
+      this(List.of(), body);
+    }
+  }
+
+  private static Function function(Variable name, List<Variable> params, Instruction... body) {
+    return new Function(name, TYPE, params, new Ast.FunctionBody(new ArrayList<>(List.of(body))),
+        Function.Staticness.STATIC);
+  }
+
+  private static List<String> encode(Function f) {
+    return f.body().instructions().stream().map(EditTrace::encode).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    var v = new Program();
+    var names = new AstNames(v.ast);
+    var trace = new EditTrace();
+    trace.add(EditTrace.Edit.add(v.main, 0, new Instruction.Allocation(v.a, TYPE)));
+    trace.add(EditTrace.Edit.add(v.main, 1, new Instruction.FieldWrite(v.a, v.f, v.a)));
+    trace.add(EditTrace.Edit.add(v.main, 2, new Instruction.StaticInvocation(Optional.empty(), v.idName,
+        List.of(v.a))));
+    trace.add(EditTrace.Edit.modify(v.main, 2, new Instruction.StaticInvocation(Optional.empty(), v.idName,
+        List.of(v.a)), new Instruction.Invocation(Optional.of(v.c), v.a, v.idName, List.of(v.a, v.b))));
+    trace.add(EditTrace.Edit.remove(v.main, 1, new Instruction.FieldRead(v.b, v.a, v.f)));
+    var out = new StringWriter();
+    trace.write(out);
+
+    var read = EditTrace.read(new StringReader("# A comment\n\n" + out), names);
+    Assert.assertEquals(trace.size(), read.size());
+    for (int i = 0; i < trace.size(); i++) {
+      var expected = trace.edits().get(i);
+      var actual = read.edits().get(i);
+      Assert.assertEquals(expected.kind(), actual.kind());
+      Assert.assertSame(expected.function(), actual.function());
+      Assert.assertEquals(expected.index(), actual.index());
+      Assert.assertEquals(EditTrace.encode(expected.instruction()), EditTrace.encode(actual.instruction()));
+      Assert.assertEquals(expected.replaced().map(EditTrace::encode), actual.replaced().map(EditTrace::encode));
+    }
+    // Names resolve to the variables of the Ast, or to one fresh variable.
+    Assert.assertSame(v.idName, ((Instruction.Invocation) read.edits().get(3).instruction()).method());
+    Assert.assertSame(((Instruction.Allocation) read.edits().get(0).instruction()).target(),
+        ((Instruction.FieldWrite) read.edits().get(1).instruction()).target());
+
+    try {
+      EditTrace.read(new StringReader("ADD\tLMain::main\t0\tjump\tl"), names);
+      Assert.fail("Read an unknown opcode");
+    } catch (IOException e) {
+      Assert.assertTrue(e.getMessage().contains("line 1"));
+    }
+  }
+
+  @Test
+  public void testRecordAndReplay() {
+    var before = new Program();
+    before.main.body().insert(0, new Instruction.Allocation(before.a, TYPE));
+    before.main.body().insert(1, new Instruction.Assignment(before.b, before.a));
+    before.main.body().insert(2, new Instruction.Assignment(before.c, before.b));
+    before.main.body().insert(3, new Instruction.FieldWrite(before.a, before.f, before.c));
+    var after = new Program(List.of(function(new Variable("extra"), List.of())),
+        new Instruction.Allocation(new Variable("a"), TYPE),
+        new Instruction.Assignment(new Variable("c"), new Variable("a")),
+        new Instruction.FieldWrite(new Variable("a"), new Variable("f"), new Variable("c")),
+        new Instruction.StaticInvocation(Optional.of(new Variable("b")), new Variable("id"),
+            List.of(new Variable("c"))));
+
+    var recorder = new TraceRecorder(before.ast);
+    var trace = recorder.record(after.ast);
+    // b = a is dropped, c = b becomes c = a, and the call is added at the end.
+    Assert.assertEquals(List.of(EditTrace.Kind.REMOVE, EditTrace.Kind.MODIFY, EditTrace.Kind.ADD),
+        trace.edits().stream().map(EditTrace.Edit::kind).collect(Collectors.toList()));
+    Assert.assertEquals(List.of("LMain::extra"), recorder.addedFunctions());
+    Assert.assertEquals(List.of(), recorder.removedFunctions());
+    Assert.assertEquals(List.of(), recorder.record(before.ast).edits());
+
+    var builder = new IncrementalPointsToGraphBuilder<>(before.ast, new SimplePointsToGraphWithContext<>(),
+        ContextBuilders.NO_CONTEXT);
+    builder.build();
+    var stats = new TraceReplayer<>(builder).replay(trace);
+    Assert.assertEquals(3, stats.applied());
+    Assert.assertEquals(encode(after.main), encode(before.main));
+  }
+
+  @Test
+  public void testStaleEdit() {
+    var v = new Program(new Instruction.Allocation(new Variable("a"), TYPE),
+        new Instruction.Assignment(new Variable("b"), new Variable("a")));
+    var builder = new IncrementalPointsToGraphBuilder<>(v.ast, new SimplePointsToGraphWithContext<>(),
+        ContextBuilders.NO_CONTEXT);
+    builder.build();
+    var replayer = new TraceReplayer<>(builder);
+    var body = List.copyOf(v.main.body().instructions());
+    for (var edit : List.of(
+        EditTrace.Edit.remove(v.main, 1, new Instruction.Assignment(v.c, v.a)),
+        EditTrace.Edit.modify(v.main, 0, new Instruction.Assignment(v.b, v.a), new Instruction.Return(v.a)),
+        EditTrace.Edit.remove(v.main, 2, new Instruction.Assignment(v.b, v.a)),
+        EditTrace.Edit.add(v.main, 3, new Instruction.Return(v.a)))) {
+      try {
+        replayer.apply(edit);
+        Assert.fail("Applied a stale edit: " + edit);
+      } catch (IllegalArgumentException e) {
+        Assert.assertEquals(body, v.main.body().instructions());
+      }
+    }
+
+    // An edit naming the right instruction by name, but not by identity, is fine.
+    replayer.apply(EditTrace.Edit.remove(v.main, 1, new Instruction.Assignment(new Variable("b"),
+        new Variable("a"))));
+    Assert.assertEquals(body.subList(0, 1), v.main.body().instructions());
+  }
+}
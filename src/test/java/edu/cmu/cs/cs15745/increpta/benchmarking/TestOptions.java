@@ -0,0 +1,129 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.FieldSensitivity;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.MemoryBudget;
+
+/**
+ * Test the command line of the benchmark driver: the defaults, the flags, and
+ * the combinations it rejects.
+ */
+public class TestOptions {
+  private static final Map<String, List<String>> SUITE = Map.of("suite.txt", List.of("LSuite"));
+  private static final MemoryBudget BUDGET = new MemoryBudget(10, 20);
+
+  private static Options parse(String... args) {
+    return Options.parse(args, SUITE, BUDGET, "env.json");
+  }
+
+  // Parsing fails, with a message containing the given text.
+  private static void rejects(String message, String... args) {
+    try {
+      parse(args);
+      Assert.fail("Accepted " + List.of(args));
+    } catch (IllegalArgumentException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains(message));
+    }
+  }
+
+  private static List<String> contexts(Options options) {
+    return options.contexts.stream().map(contexts -> contexts.get().toString()).collect(Collectors.toList());
+  }
+
+  @Test
+  public void testDefaults() {
+    var options = parse();
+    Assert.assertEquals(Options.Mode.BENCHMARK, options.mode);
+    Assert.assertEquals(SUITE, options.scopes);
+    Assert.assertEquals(List.of("No context", "1-context", "2-context", "3-context"), contexts(options));
+    Assert.assertEquals(Backend.SIMPLE, options.backend);
+    Assert.assertEquals(Frontend.CALLGRAPH, options.frontend);
+    Assert.assertEquals(Options.Engine.INCREMENTAL, options.engine);
+    Assert.assertEquals(FieldSensitivity.VARIABLE, options.fieldSensitivity);
+    Assert.assertSame(BUDGET, options.budget);
+    Assert.assertEquals(1, options.workers);
+    Assert.assertEquals("env.json", options.results);
+    Assert.assertNull(options.to);
+    Assert.assertNull(options.trace);
+    Assert.assertEquals(List.of(), options.queries);
+  }
+
+  @Test
+  public void testFlags() {
+    var options = parse("build", "--scope", "suite.txt", "--scope", "other.txt", "--main", "LMain", "--context",
+        "none, 2", "--graph", "Persistent", "--frontend", "ondemand", "--fields", "heap_object", "--budget", "5, 6",
+        "--results", "out.csv");
+    Assert.assertEquals(Options.Mode.BUILD, options.mode);
+    // The main classes are for every scope, even those in the suite.
+    Assert.assertEquals(Map.of("suite.txt", List.of("LMain"), "other.txt", List.of("LMain")), options.scopes);
+    Assert.assertEquals(List.of("No context", "2-context"), contexts(options));
+    Assert.assertEquals(Backend.PERSISTENT, options.backend);
+    Assert.assertEquals(Frontend.ONDEMAND, options.frontend);
+    Assert.assertEquals(FieldSensitivity.HEAP_OBJECT, options.fieldSensitivity);
+    Assert.assertEquals(new MemoryBudget(5, 6).toString(), options.budget.toString());
+    Assert.assertEquals("out.csv", options.results);
+
+    // Scopes in the suite default to its main classes.
+    Assert.assertEquals(Map.of("suite.txt", List.of("LSuite")), parse("--scope", "suite.txt").scopes);
+    Assert.assertEquals(4, parse("benchmark", "--workers", "4").workers);
+    Assert.assertEquals("new.txt", parse("replay", "--to", "new.txt").to);
+    Assert.assertEquals("edits.txt", parse("replay", "--trace", "edits.txt").trace);
+    Assert.assertEquals(List.of("LMain::main:v1", "LMain::main:v2"),
+        parse("query", "--query", "LMain::main:v1", "--query", "LMain::main:v2").queries);
+    Assert.assertEquals(Frontend.PACKED, parse("benchmark", "--frontend", "packed", "--workers", "2").frontend);
+
+    // Demand queries are context-insensitive, so that's their default.
+    var demand = parse("query", "--engine", "demand", "--frontend", "ondemand");
+    Assert.assertEquals(Options.Engine.DEMAND, demand.engine);
+    Assert.assertEquals(List.of("No context"), contexts(demand));
+    Assert.assertEquals(List.of("No context"), contexts(parse("query", "--engine", "demand", "--context", "none")));
+  }
+
+  @Test
+  public void testRejects() {
+    rejects("Unknown mode: run", "run");
+    rejects("Missing value for --scope", "--scope");
+    rejects("Unknown option: --scopes", "--scopes", "suite.txt");
+    rejects("Unknown graph: tree", "--graph", "tree");
+    rejects("Unknown field sensitivity: object", "--fields", "object");
+    rejects("Unknown frontend: wala", "--frontend", "wala");
+    rejects("Unknown engine: lazy", "--engine", "lazy");
+
+    rejects("--main needs a --scope", "--main", "LMain");
+    rejects("Not in the suite, so needs a --main: other.txt", "--scope", "other.txt");
+
+    rejects("replay needs exactly one of --to and --trace", "replay");
+    rejects("replay needs exactly one of --to and --trace", "replay", "--to", "new.txt", "--trace", "edits.txt");
+    rejects("--to and --trace are only for replay", "--to", "new.txt");
+    rejects("--to and --trace are only for replay", "query", "--trace", "edits.txt");
+    rejects("replay needs --frontend callgraph", "replay", "--to", "new.txt", "--frontend", "packed");
+    rejects("--query is only for query", "build", "--query", "LMain::main:v1");
+    rejects("--workers is only for benchmark", "build", "--workers", "2");
+    rejects("--engine demand is only for query", "build", "--engine", "demand");
+    rejects("--engine demand needs --context none", "query", "--engine", "demand", "--context", "none,1");
+    rejects("--engine demand needs --fields variable", "query", "--engine", "demand", "--fields", "heap_object");
+    rejects("Need at least one worker, got: 0", "--workers", "0");
+    rejects("", "--workers", "two");
+
+    rejects("Expected none or a call-string length, got: one", "--context", "none,one");
+    rejects("Negative call-string length: -1", "--context", "-1");
+
+    rejects("Expected a budget of nodes,pts, got: 5", "--budget", "5");
+    rejects("Expected a budget of nodes,pts, got: 5,6,7", "--budget", "5,6,7");
+    rejects("Negative budget", "--budget", "-5,6");
+    rejects("", "--budget", "five,6");
+  }
+
+  @Test
+  public void testParseBudget() {
+    Assert.assertSame(MemoryBudget.UNLIMITED, Options.parseBudget(null));
+    Assert.assertEquals(new MemoryBudget(2000000, 50000000).toString(),
+        Options.parseBudget("2000000,50000000").toString());
+  }
+}
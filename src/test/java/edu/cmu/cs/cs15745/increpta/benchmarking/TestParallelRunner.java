@@ -0,0 +1,143 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.ContextBuilder;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.FieldSensitivity;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.MemoryBudget;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Function;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Variable;
+import edu.cmu.cs.cs15745.increpta.benchmarking.Benchmarker.TestState;
+import edu.cmu.cs.cs15745.increpta.util.Util.Unit;
+
+/**
+ * Test that the parallel runner loads each scope once, and that its per-task
+ * results add up.
+ */
+public class TestParallelRunner {
+  private static final Ast.Type TYPE = new Ast.Type(null);
+
+  // main:
+  //   a = new
+  //   b = a
+  //   c = id(b)
+  // id(p):
+  //   return p
+  private static Ast program() {
+    var a = new Variable("a");
+    var b = new Variable("b");
+    var c = new Variable("c");
+    var p = new Variable("p");
+    var idName = new Variable("id");
+    var main = new Function(new Variable("main"), TYPE, List.of(), new Ast.FunctionBody(new ArrayList<>(List.of(
+        new Instruction.Allocation(a, TYPE), new Instruction.Assignment(b, a),
+        new Instruction.StaticInvocation(Optional.of(c), idName, List.of(b))))), Function.Staticness.STATIC);
+    var id = new Function(idName, TYPE, List.of(p),
+        new Ast.FunctionBody(new ArrayList<>(List.of(new Instruction.Return(p)))), Function.Staticness.STATIC);
+    return new Ast(List.of(main, id), List.of(main));
+  }
+
+  // No context, but each graph is only built once another task's is too, so
+  // that the tasks run two at a time.
+  private static Supplier<ContextBuilder<?>> paired(String name, CyclicBarrier barrier) {
+    return () -> new ContextBuilder<Unit>() {
+      @Override
+      public Unit initial(Function entryPoint) {
+        try {
+          barrier.await(10, TimeUnit.SECONDS);
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+        return Unit.UNIT;
+      }
+
+      @Override
+      public Unit merge(Unit originalContext, Function call) {
+        return Unit.UNIT;
+      }
+
+      @Override
+      public String toString() {
+        return name;
+      }
+    };
+  }
+
+  @Test
+  public void testRun() {
+    var benchmarkers = new ConcurrentHashMap<String, Integer>();
+    var loads = new ConcurrentHashMap<String, Integer>();
+    var runner = new ParallelRunner(2, MemoryBudget.UNLIMITED, FieldSensitivity.VARIABLE, Backend.SIMPLE,
+        Frontend.CALLGRAPH, file -> {
+          benchmarkers.merge(file, 1, Integer::sum);
+          return new Benchmarker();
+        }, (benchmarker, mainClass) -> {
+          loads.merge(mainClass, 1, Integer::sum);
+          return program();
+        });
+    var scopes = new LinkedHashMap<String, List<String>>();
+    scopes.put("a.txt", List.of("LA"));
+    scopes.put("b.txt", List.of("LB"));
+    var barrier = new CyclicBarrier(2);
+    var results = runner.run(scopes, List.of(paired("x", barrier), paired("y", barrier)));
+
+    // Each scope is loaded once, for both of its tasks.
+    Assert.assertEquals(Map.of("a.txt", 1, "b.txt", 1), benchmarkers);
+    Assert.assertEquals(Map.of("LA", 1, "LB", 1), loads);
+
+    var tasks = new ArrayList<String>();
+    results.forEach(result -> tasks.add(result.scopeFile() + " " + result.context()));
+    Assert.assertEquals(List.of("a.txt x", "a.txt y", "b.txt x", "b.txt y"), tasks);
+
+    // The tasks ran on the same program, so did the same work.
+    int instructions = results.get(0).state().totalInstructions;
+    Assert.assertTrue(instructions > 0);
+    for (var result : results) {
+      var state = result.state();
+      Assert.assertEquals(instructions, state.totalInstructions);
+      Assert.assertEquals(instructions, state.addTimesNS.size());
+      Assert.assertEquals(results.get(0).state().totalNodes, state.totalNodes);
+    }
+
+    // The totals of each context are the sums over its tasks.
+    var totals = ParallelRunner.totals(results);
+    Assert.assertEquals(List.of("x", "y"), new ArrayList<>(totals.keySet()));
+    for (int i = 0; i < 2; i++) {
+      var first = results.get(i).state();
+      var second = results.get(i + 2).state();
+      var total = totals.get(results.get(i).context());
+      Assert.assertEquals(first.totalInstructions + second.totalInstructions, total.totalInstructions);
+      Assert.assertEquals(first.totalNodes + second.totalNodes, total.totalNodes);
+      Assert.assertEquals(first.totalPointsTo + second.totalPointsTo, total.totalPointsTo);
+      Assert.assertEquals(first.totalAddTimeNS + second.totalAddTimeNS, total.totalAddTimeNS);
+      Assert.assertEquals(first.totalDeleteTimeNS + second.totalDeleteTimeNS, total.totalDeleteTimeNS);
+      Assert.assertEquals(Math.max(first.maxAddTimeNS, second.maxAddTimeNS), total.maxAddTimeNS);
+      Assert.assertEquals(Math.min(first.minDeleteTimeNS, second.minDeleteTimeNS), total.minDeleteTimeNS);
+      Assert.assertEquals(2 * instructions, total.deleteTimesNS.size());
+      Assert.assertEquals(first.pagConstructionMS + second.pagConstructionMS, total.pagConstructionMS);
+    }
+
+    // Every task ran alongside at least one other, and overlapping is mutual.
+    int overlaps = 0;
+    int processors = Runtime.getRuntime().availableProcessors();
+    for (var result : results) {
+      Assert.assertTrue(result.toString(), result.overlapping() >= 1 && result.overlapping() <= 3);
+      Assert.assertEquals(result.overlapping() + 1 > processors || result.gcMS() > 0, result.contended());
+      overlaps += result.overlapping();
+    }
+    Assert.assertEquals(0, overlaps % 2);
+  }
+}
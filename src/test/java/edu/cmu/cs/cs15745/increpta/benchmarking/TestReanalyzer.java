@@ -0,0 +1,164 @@
+package edu.cmu.cs.cs15745.increpta.benchmarking;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.ContextBuilders;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder;
+import edu.cmu.cs.cs15745.increpta.IncrementalPointsToGraphBuilder.FieldSensitivity;
+import edu.cmu.cs.cs15745.increpta.SimplePointsToGraphWithContext;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Function;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Variable;
+import edu.cmu.cs.cs15745.increpta.ast.AstNames;
+import edu.cmu.cs.cs15745.increpta.util.Util.Unit;
+
+/**
+ * Test that bringing a graph up to date with a new version of the program gives
+ * the same points-to sets as building the graph from the new version.
+ */
+public class TestReanalyzer {
+  private static final Ast.Type TYPE = TestEditTrace.type("LMain");
+
+  // Variables are shared by name within a version, as in converted Asts.
+  private static final class Version {
+    final Map<String, Variable> variables = new LinkedHashMap<>();
+
+    Variable v(String name) {
+      return variables.computeIfAbsent(name, Variable::new);
+    }
+
+    Function function(String name, List<String> params, Instruction... body) {
+      var ps = new ArrayList<Variable>();
+      params.forEach(p -> ps.add(v(p)));
+      return new Function(v(name), TYPE, ps, new Ast.FunctionBody(new ArrayList<>(List.of(body))),
+          Function.Staticness.STATIC);
+    }
+
+    Instruction call(String target, String method, String argument) {
+      return new Instruction.StaticInvocation(Optional.ofNullable(target).map(this::v), v(method),
+          List.of(v(argument)));
+    }
+  }
+
+  // main:
+  //   a = new
+  //   b = a
+  //   c = id(b)
+  //   old(c)
+  //   a.f = c
+  //   g = a.f
+  // id(p):
+  //   return p
+  // old(r):
+  //   x = new
+  //   r.f = x
+  private static List<Function> before(Version v) {
+    return List.of(
+        v.function("main", List.of(), new Instruction.Allocation(v.v("a"), TYPE),
+            new Instruction.Assignment(v.v("b"), v.v("a")), v.call("c", "id", "b"), v.call(null, "old", "c"),
+            new Instruction.FieldWrite(v.v("a"), v.v("f"), v.v("c")),
+            new Instruction.FieldRead(v.v("g"), v.v("a"), v.v("f"))),
+        v.function("id", List.of("p"), new Instruction.Return(v.v("p"))),
+        v.function("old", List.of("r"), new Instruction.Allocation(v.v("x"), TYPE),
+            new Instruction.FieldWrite(v.v("r"), v.v("f"), v.v("x"))));
+  }
+
+  // main:
+  //   a = new
+  //   c = a
+  //   d = id(c)
+  //   e = fresh(d)
+  //   a.f = e
+  //   g = a.f
+  // id(p):
+  //   t = new
+  //   return p
+  // fresh(q):
+  //   y = new
+  //   q.f = y
+  //   return q
+  private static List<Function> after(Version v) {
+    return List.of(
+        v.function("main", List.of(), new Instruction.Allocation(v.v("a"), TYPE),
+            new Instruction.Assignment(v.v("c"), v.v("a")), v.call("d", "id", "c"), v.call("e", "fresh", "d"),
+            new Instruction.FieldWrite(v.v("a"), v.v("f"), v.v("e")),
+            new Instruction.FieldRead(v.v("g"), v.v("a"), v.v("f"))),
+        v.function("id", List.of("p"), new Instruction.Allocation(v.v("t"), TYPE),
+            new Instruction.Return(v.v("p"))),
+        v.function("fresh", List.of("q"), new Instruction.Allocation(v.v("y"), TYPE),
+            new Instruction.FieldWrite(v.v("q"), v.v("f"), v.v("y")), new Instruction.Return(v.v("q"))));
+  }
+
+  private static Ast program(List<Function> functions) {
+    return new Ast(functions, List.of(functions.get(0)));
+  }
+
+  // Fields per heap item, so that stores in callees reach loads in main.
+  private static IncrementalPointsToGraphBuilder<Unit> build(Ast ast) {
+    var builder = new IncrementalPointsToGraphBuilder<>(ast, new SimplePointsToGraphWithContext<>(),
+        ContextBuilders.NO_CONTEXT, FieldSensitivity.HEAP_OBJECT);
+    builder.build();
+    return builder;
+  }
+
+  // The points-to sets of the named variables of every function, by name, with
+  // allocations named by their instructions.
+  private static Map<String, Set<String>> pointsTo(Ast ast, IncrementalPointsToGraphBuilder<Unit> builder) {
+    var names = new AstNames(ast);
+    var result = new TreeMap<String, Set<String>>();
+    ast.staticFunctions().values().forEach(f -> {
+      var vars = new ArrayList<>(f.params());
+      f.body().instructions().forEach(inst -> vars.addAll(AstNames.variables(inst)));
+      for (var var : vars) {
+        var pts = new TreeSet<String>();
+        builder.pointsTo(names.variable(f, var.name()), Unit.UNIT).forEach(item -> pts.add(item.fst().toString()));
+        result.put(f.name() + "." + var.name(), pts);
+      }
+    });
+    return result;
+  }
+
+  @Test
+  public void testApply() {
+    var program = program(before(new Version()));
+    var before = build(program);
+    Assert.assertEquals(Set.of("a = new LMain", "x = new LMain"),
+        pointsTo(program, before).get("main.g"));
+
+    // Only main and id changed; fresh is new, and old is gone.
+    var v = new Version();
+    var functions = new LinkedHashMap<String, Function>();
+    after(v).forEach(f -> functions.put(AstNames.key(f), f));
+    var reanalyzer = new Reanalyzer<>(program, before);
+    var update = reanalyzer.apply(functions, List.of("LMain::old", "LMain::missing"));
+    Assert.assertEquals(2, update.changed());
+    Assert.assertEquals(1, update.added());
+    Assert.assertEquals(1, update.removed());
+    Assert.assertTrue(update.trace().size() > 0);
+    Assert.assertTrue(update.affected() > 0);
+
+    var freshProgram = program(after(new Version()));
+    var fresh = build(freshProgram);
+    var expected = pointsTo(freshProgram, fresh);
+    Assert.assertEquals(Set.of("a = new LMain", "y = new LMain"), expected.get("main.g"));
+    Assert.assertEquals(expected, pointsTo(program, before));
+
+    // Applying the same functions again changes nothing.
+    update = reanalyzer.apply(functions, List.of());
+    Assert.assertEquals(0, update.trace().size());
+    Assert.assertEquals(0, update.added());
+    Assert.assertEquals(0, update.affected());
+    Assert.assertEquals(expected, pointsTo(program, before));
+  }
+}
@@ -0,0 +1,112 @@
+package edu.cmu.cs.cs15745.increpta.daemon;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.types.TypeName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import edu.cmu.cs.cs15745.increpta.ContextBuilders;
+import edu.cmu.cs.cs15745.increpta.ast.Ast;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Function;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Instruction;
+import edu.cmu.cs.cs15745.increpta.ast.Ast.Variable;
+import edu.cmu.cs.cs15745.increpta.util.Pair;
+
+/**
+ * Test the daemon's protocol over a loopback connection.
+ */
+public class TestDaemon {
+  private static final String MAIN = "LMain::main";
+  private static final String ID = "LMain::id";
+
+  // main:
+  //   a = new
+  //   b = a
+  //   c = id(b)
+  // id(p):
+  //   return p
+  private static Ast program() {
+    var klass = (IClass) Proxy.newProxyInstance(IClass.class.getClassLoader(), new Class<?>[] { IClass.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "getName":
+            return TypeName.string2TypeName("LMain");
+          case "equals":
+            return proxy == args[0];
+          case "hashCode":
+            return System.identityHashCode(proxy);
+          default:
+            return null;
+          }
+        });
+    var type = new Ast.Type(klass);
+    var a = new Variable("a");
+    var b = new Variable("b");
+    var c = new Variable("c");
+    var p = new Variable("p");
+    var idName = new Variable("id");
+    var main = new Function(new Variable("main"), type, List.of(), new Ast.FunctionBody(new ArrayList<>(List.of(
+        new Instruction.Allocation(a, type), new Instruction.Assignment(b, a),
+        new Instruction.StaticInvocation(Optional.of(c), idName, List.of(b))))), Function.Staticness.STATIC);
+    var id = new Function(idName, type, List.of(p),
+        new Ast.FunctionBody(new ArrayList<>(List.of(new Instruction.Return(p)))), Function.Staticness.STATIC);
+    return new Ast(List.of(main, id), List.of(main));
+  }
+
+  @Test
+  public void testProtocol() throws Exception {
+    try (var daemon = new Daemon<>(program(), ContextBuilders.NO_CONTEXT)) {
+      int port = daemon.listen(0);
+      var server = new Thread(() -> {
+        try {
+          daemon.serve();
+        } catch (IOException e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      server.start();
+
+      try (var client = new DaemonClient(port)) {
+        Assert.assertEquals(List.of(Pair.of("a = new LMain", "UNIT")), client.pointsTo(MAIN, "c"));
+        Assert.assertTrue(client.alias(MAIN, "a", ID, "p"));
+        Assert.assertEquals(List.of(Pair.of(ID, "UNIT")), client.callTargets(MAIN, 2));
+        try {
+          client.callTargets(MAIN, 7);
+          Assert.fail("Asked for a missing instruction");
+        } catch (IOException e) {
+          // Expected, and the connection is still usable.
+        }
+
+        // A stale edit (there's no c = a at 1) and a malformed one are rejected,
+        // without stopping the valid edit between them.
+        var results = client.edits(List.of(
+            "REMOVE\t" + MAIN + "\t1\tassign\tc\ta",
+            "REMOVE\t" + MAIN + "\t1\tassign\tb\ta",
+            "REMOVE\t" + MAIN + "\tone"));
+        Assert.assertTrue(results.get(0).snd().startsWith("Invalid edit"));
+        Assert.assertEquals("", results.get(1).snd());
+        Assert.assertTrue(results.get(2).snd().startsWith("Malformed edit"));
+        Assert.assertEquals(List.of(), client.pointsTo(MAIN, "c"));
+        Assert.assertFalse(client.alias(MAIN, "a", ID, "p"));
+
+        // The call is now at 1; put the assignment back in front of it.
+        Assert.assertEquals(List.of(Pair.of(1, "")), client.edits(List.of("ADD\t" + MAIN + "\t1\tassign\tb\ta")));
+        Assert.assertEquals(1, client.pointsTo(MAIN, "c").size());
+
+        var stats = client.stats();
+        Assert.assertEquals(2L, (long) stats.get("functions"));
+        Assert.assertEquals(4L, (long) stats.get("edits"));
+        client.shutdown();
+      }
+      server.join(10_000);
+      Assert.assertFalse(server.isAlive());
+    }
+  }
+}
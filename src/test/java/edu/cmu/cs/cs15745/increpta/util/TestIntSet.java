@@ -0,0 +1,113 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the int collections against their java.util counterparts.
+ */
+public class TestIntSet {
+
+  private static Set<Integer> toSet(IntSet set) {
+    var result = new HashSet<Integer>();
+    set.forEach(result::add);
+    Assert.assertEquals(set.size(), result.size());
+    return result;
+  }
+
+  @Test
+  public void testRandomEdits() {
+    var random = new Random(15745);
+    for (int bound : new int[] { 4, IntSet.SMALL * 2, 1000 }) {
+      var set = new IntSet();
+      var expected = new HashSet<Integer>();
+      for (int i = 0; i < 10_000; i++) {
+        int x = random.nextInt(bound);
+        if (random.nextInt(3) == 0) {
+          Assert.assertEquals(expected.remove(x), set.remove(x));
+        } else {
+          Assert.assertEquals(expected.add(x), set.add(x));
+        }
+        Assert.assertEquals(expected.contains(x), set.contains(x));
+        Assert.assertEquals(expected.size(), set.size());
+      }
+      Assert.assertEquals(expected, toSet(set));
+      Assert.assertEquals(set, new IntSet(set));
+    }
+  }
+
+  @Test
+  public void testIteratorRemove() {
+    for (int n : new int[] { IntSet.SMALL, IntSet.SMALL * 4 }) {
+      var set = new IntSet();
+      for (int i = 0; i < n; i++) {
+        set.add(i);
+      }
+      for (var it = set.iterator(); it.hasNext();) {
+        if (it.nextInt() % 2 == 0) {
+          it.remove();
+        }
+      }
+      for (int i = 0; i < n; i++) {
+        Assert.assertEquals(i % 2 == 1, set.contains(i));
+      }
+      Assert.assertEquals(n / 2, set.size());
+    }
+  }
+
+  @Test
+  public void testIntMultiMap() {
+    var random = new Random(15745);
+    var map = new IntMultiMap();
+    var expected = new HashMap<Integer, Set<Integer>>();
+    for (int i = 0; i < 10_000; i++) {
+      int key = random.nextInt(100);
+      if (random.nextInt(10) == 0) {
+        var removed = map.remove(key);
+        var expectedRemoved = expected.remove(key);
+        Assert.assertEquals(expectedRemoved, removed == null ? null : toSet(removed));
+      } else {
+        int value = random.nextInt(20);
+        Assert.assertEquals(expected.computeIfAbsent(key, unused -> new HashSet<>()).add(value),
+            map.getSet(key).add(value));
+      }
+    }
+    Assert.assertEquals(expected.size(), map.size());
+    var copy = new IntMultiMap(map);
+    for (int key : map.keys()) {
+      Assert.assertEquals(expected.get(key), toSet(map.get(key)));
+      Assert.assertEquals(map.get(key), copy.get(key));
+    }
+  }
+
+  @Test
+  public void testIntPairMap() {
+    var random = new Random(15745);
+    var map = new IntPairMap();
+    var expected = new HashMap<Long, Integer>();
+    for (int i = 0; i < 10_000; i++) {
+      int fst = random.nextInt(30);
+      int snd = random.nextInt(30);
+      int delta = random.nextInt(3) - 1;
+      long key = (long) fst << 32 | snd;
+      int value = expected.getOrDefault(key, 0) + delta;
+      if (value == 0) {
+        expected.remove(key);
+      } else {
+        expected.put(key, value);
+      }
+      Assert.assertEquals(value, map.add(fst, snd, delta));
+      Assert.assertEquals(value, map.get(fst, snd));
+    }
+    Assert.assertEquals(expected.size(), map.size());
+    Map<Long, Integer> entries = new HashMap<>();
+    map.forEach((fst, snd, value) -> entries.put((long) fst << 32 | snd, value));
+    Assert.assertEquals(expected, entries);
+  }
+}
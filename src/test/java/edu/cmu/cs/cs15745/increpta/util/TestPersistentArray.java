@@ -0,0 +1,46 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that copies of a PersistentArray don't see each other's changes.
+ */
+public class TestPersistentArray {
+
+  @Test
+  public void testRandomEdits() {
+    var random = new Random(15745);
+    var arrays = new ArrayList<PersistentArray<Integer>>();
+    var expected = new ArrayList<List<Integer>>();
+    arrays.add(new PersistentArray<>());
+    expected.add(new ArrayList<>());
+    for (int i = 0; i < 5_000; i++) {
+      int which = random.nextInt(arrays.size());
+      var array = arrays.get(which);
+      if (random.nextInt(50) == 0) {
+        arrays.add(array.copy());
+        expected.add(new ArrayList<>(expected.get(which)));
+        continue;
+      }
+      // Mostly small indices, sometimes ones that make the trie deeper.
+      int index = random.nextInt(10) == 0 ? random.nextInt(50_000) : random.nextInt(100);
+      var list = expected.get(which);
+      while (list.size() <= index) {
+        list.add(null);
+      }
+      list.set(index, i);
+      array.set(index, i);
+    }
+    for (int a = 0; a < arrays.size(); a++) {
+      var list = expected.get(a);
+      for (int index = 0; index < 60_000; index++) {
+        Assert.assertEquals(index < list.size() ? list.get(index) : null, arrays.get(a).get(index));
+      }
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that equal sets are shared, and that sharing doesn't leak changes.
+ */
+public class TestSharedIntSets {
+
+  @Test
+  public void testSharing() {
+    var sets = new SharedIntSets();
+    sets.add(0, 3);
+    sets.add(0, 1);
+    sets.addAll(1, new int[] { 1, 3, 1 });
+    Assert.assertSame(sets.get(0), sets.get(1));
+    Assert.assertArrayEquals(new int[] { 1, 3 }, sets.get(1));
+    Assert.assertEquals(1, sets.stats().distinct());
+    Assert.assertEquals(2.0, sets.stats().sharingRatio(), 0);
+
+    // Copy on write: changing one key leaves the other alone.
+    sets.add(1, 2);
+    Assert.assertArrayEquals(new int[] { 1, 3 }, sets.get(0));
+    Assert.assertArrayEquals(new int[] { 1, 2, 3 }, sets.get(1));
+    Assert.assertEquals(2, sets.stats().distinct());
+
+    // Copies share the sets, but not the changes.
+    var copy = new SharedIntSets(sets);
+    Assert.assertSame(sets.get(1), copy.get(1));
+    copy.remove(1, 2);
+    Assert.assertArrayEquals(new int[] { 1, 2, 3 }, sets.get(1));
+    Assert.assertSame(copy.get(0), copy.get(1));
+    Assert.assertEquals(1, copy.stats().distinct());
+    Assert.assertEquals(2, sets.stats().distinct());
+
+    sets.clear(0);
+    sets.clear(1);
+    Assert.assertEquals(0, sets.stats().distinct());
+    Assert.assertEquals(0, sets.size(7));
+  }
+
+  @Test
+  public void testRandomEdits() {
+    var random = new Random(15745);
+    var sets = new SharedIntSets();
+    var expected = new ArrayList<TreeSet<Integer>>();
+    for (int key = 0; key < 10; key++) {
+      expected.add(new TreeSet<>());
+    }
+    for (int i = 0; i < 5_000; i++) {
+      int key = random.nextInt(10);
+      int x = random.nextInt(6);
+      switch (random.nextInt(4)) {
+      case 0:
+        Assert.assertEquals(expected.get(key).remove(x), sets.remove(key, x));
+        break;
+      case 1:
+        int other = random.nextInt(10);
+        sets.copy(other, key);
+        expected.set(key, new TreeSet<>(expected.get(other)));
+        break;
+      default:
+        Assert.assertEquals(expected.get(key).add(x), sets.add(key, x));
+      }
+    }
+    for (int key = 0; key < 10; key++) {
+      var actual = new ArrayList<Integer>();
+      for (int x : sets.get(key)) {
+        actual.add(x);
+      }
+      Assert.assertEquals(List.copyOf(expected.get(key)), actual);
+    }
+    Assert.assertTrue(sets.stats().distinct() <= 10);
+  }
+}
@@ -0,0 +1,45 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that SmallSet behaves like a LinkedHashSet, before and after inflating.
+ */
+public class TestSmallSet {
+
+  @Test
+  public void testRandomEdits() {
+    var random = new Random(15745);
+    for (int bound : new int[] { SmallSet.SMALL, SmallSet.SMALL * 3 }) {
+      var set = new SmallSet<Integer>();
+      var expected = new LinkedHashSet<Integer>();
+      for (int i = 0; i < 2_000; i++) {
+        int x = random.nextInt(bound);
+        if (random.nextInt(3) == 0) {
+          Assert.assertEquals(expected.remove(x), set.remove(x));
+        } else {
+          Assert.assertEquals(expected.add(x), set.add(x));
+        }
+        Assert.assertEquals(List.copyOf(expected), new ArrayList<>(set));
+      }
+      Assert.assertEquals(expected, set);
+      Assert.assertEquals(expected.hashCode(), set.hashCode());
+    }
+  }
+
+  @Test
+  public void testRetainAll() {
+    var set = new SmallSet<>(List.of(1, 2, 3));
+    set.retainAll(List.of(3, 1));
+    Assert.assertEquals(List.of(1, 3), new ArrayList<>(set));
+    set.clear();
+    Assert.assertTrue(set.isEmpty());
+    Assert.assertTrue(set.add(2));
+  }
+}
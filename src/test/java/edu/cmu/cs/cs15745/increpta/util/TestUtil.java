@@ -0,0 +1,72 @@
+package edu.cmu.cs.cs15745.increpta.util;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the statistics and JSON that result files and their comparison use.
+ */
+public class TestUtil {
+
+  @Test
+  public void testWelchTTest() {
+    // Worked example: t = 2.32, 6.97 degrees of freedom.
+    Assert.assertEquals(0.0568, Util.welchTTest(new long[] { 19, 22, 16, 29, 24 }, new long[] { 20, 11, 17, 12 }),
+        1e-3);
+    Assert.assertEquals(1.0, Util.welchTTest(new long[] { 1, 2, 3 }, new long[] { 3, 2, 1 }), 1e-9);
+    Assert.assertTrue(Util.welchTTest(new long[] { 27, 31, 29, 30, 28 }, new long[] { 20, 22, 21, 19, 23 }) < 1e-3);
+    Assert.assertTrue(Double.isNaN(Util.welchTTest(new long[] { 1 }, new long[] { 1, 2 })));
+  }
+
+  // n copies of x, then m copies of y.
+  private static long[] sample(int n, long x, int m, long y) {
+    var result = new long[n + m];
+    Arrays.fill(result, 0, n, x);
+    Arrays.fill(result, n, n + m, y);
+    return result;
+  }
+
+  @Test
+  public void testQuantileTest() {
+    // The same mean, with a heavier tail: only the p99 test sees it.
+    var before = sample(980, 10, 20, 60);
+    var after = sample(980, 9, 20, 109);
+    Assert.assertEquals(1.0, Util.welchTTest(before, after), 1e-9);
+    Assert.assertTrue(Util.quantileTest(before, after, 99) < 1e-3);
+
+    // A higher mean from a few outliers, with the same median: only the mean
+    // test sees it.
+    before = sample(990, 10, 10, 20);
+    after = sample(990, 10, 10, 1000);
+    Assert.assertTrue(Util.welchTTest(before, after) < 0.01);
+    Assert.assertEquals(1.0, Util.quantileTest(before, after, 50), 1e-9);
+
+    // Worked example: 30 of 100 against 50 of 100 above the pooled median, so z
+    // = 2.89.
+    Assert.assertEquals(0.00386, Util.quantileTest(sample(70, 1, 30, 3), sample(50, 1, 50, 3), 50), 1e-4);
+    Assert.assertTrue(Double.isNaN(Util.quantileTest(new long[0], new long[] { 1 }, 50)));
+  }
+
+  @Test
+  public void testJson() {
+    var text = "{\"a\": [1, 2.5, -3e2], \"b\": {\"c\": " + Json.quote("q\"\\\n\t") + ", \"d\": true, \"e\": null},"
+        + " \"f\": []}";
+    var json = (Map<?, ?>) Json.parse(text);
+    Assert.assertEquals(List.of(1.0, 2.5, -300.0), json.get("a"));
+    var b = (Map<?, ?>) json.get("b");
+    Assert.assertEquals("q\"\\\n\t", b.get("c"));
+    Assert.assertEquals(true, b.get("d"));
+    Assert.assertTrue(b.containsKey("e") && b.get("e") == null);
+    Assert.assertEquals(List.of(), json.get("f"));
+    try {
+      Json.parse("{\"a\": 1,}");
+      Assert.fail("Parsed a trailing comma");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+}